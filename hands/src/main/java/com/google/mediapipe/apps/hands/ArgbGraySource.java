@@ -0,0 +1,55 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * Reads the luminance of ARGB pixels on demand, so only the pixels actually sampled are
+ * converted. The input images of the GPU pipeline are read back bottom-up, which {@code
+ * flipVertical} undoes in coordinates instead of copying the frame.
+ */
+public final class ArgbGraySource implements GraySource {
+  private final int[] argb;
+  private final int width;
+  private final int height;
+  private final boolean flipVertical;
+
+  /**
+   * @param argb the pixels, row by row, as returned by {@code Bitmap.getPixels}.
+   * @param flipVertical true if row 0 of {@code argb} is the bottom of the upright image.
+   */
+  public ArgbGraySource(int[] argb, int width, int height, boolean flipVertical) {
+    this.argb = argb;
+    this.width = width;
+    this.height = height;
+    this.flipVertical = flipVertical;
+  }
+
+  @Override
+  public int getUprightWidth() {
+    return width;
+  }
+
+  @Override
+  public int getUprightHeight() {
+    return height;
+  }
+
+  @Override
+  public int getUpright(int u, int v) {
+    int pixel = argb[(flipVertical ? height - 1 - v : v) * width + u];
+    // BT.601 luma in fixed point.
+    return (77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff)) >> 8;
+  }
+}
@@ -0,0 +1,452 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import android.content.Context;
+import android.graphics.Bitmap;
+import android.media.MediaMetadataRetriever;
+import android.net.Uri;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.common.util.concurrent.Uninterruptibles;
+import com.google.mediapipe.solutions.hands.Hands;
+import com.google.mediapipe.solutions.hands.HandsOptions;
+import com.google.mediapipe.solutions.hands.HandsResult;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.RandomAccessFile;
+import java.io.Writer;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Re-processes archived videos without any on-screen rendering.
+ *
+ * <p>Decoded frames are pushed into a static-image-mode {@link Hands} instance as fast as
+ * inference allows: at most {@link #MAX_IN_FLIGHT} frames are queued on the graph at any time.
+ * For every video the landmarks are written to {@code landmarks.csv}, and the fingertip ROIs of
+ * in-range frames are saved as PNGs. Progress is checkpointed in a {@link BatchVideoQueue}, so the
+ * batch survives {@link #stop}, process death and restarts.
+ */
+public class BatchVideoProcessor {
+  private static final String TAG = "BatchVideoProcessor";
+
+  private static final int MAX_IN_FLIGHT = 2;
+  private static final int CHECKPOINT_INTERVAL_FRAMES = 30;
+  // Assumed frame rate when the platform cannot index frames directly (API < 28).
+  private static final int FALLBACK_FRAME_RATE = 30;
+  private static final int DECODE_CHUNK = 4;
+  private static final int ROI_OUTPUT_WIDTH = 350;
+  private static final int ROI_OUTPUT_HEIGHT = 500;
+
+  /** Receives progress callbacks on the processing thread. */
+  public interface Listener {
+    void onProgress(Progress progress);
+
+    void onQueueFinished();
+  }
+
+  /** A snapshot of the batch progress. */
+  public static final class Progress {
+    public final int videoIndex;
+    public final int videoCount;
+    public final int frame;
+    public final int frameCount;
+    public final double framesPerSecond;
+
+    Progress(int videoIndex, int videoCount, int frame, int frameCount, double framesPerSecond) {
+      this.videoIndex = videoIndex;
+      this.videoCount = videoCount;
+      this.frame = frame;
+      this.frameCount = frameCount;
+      this.framesPerSecond = framesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "Video %d/%d, frame %d/%d, %.1f frames/s",
+          videoIndex + 1,
+          videoCount,
+          frame,
+          frameCount,
+          framesPerSecond);
+    }
+  }
+
+  private final Context context;
+  private final File outputDir;
+  private final boolean runOnGpu;
+  private final BatchVideoQueue queue;
+  private final CaptureDecisionEngine decisionEngine = new DefaultCaptureDecisionEngine();
+  private final int roiIntervalFrames;
+
+  // The thread of the current run, or null once stopped; written under this.
+  private volatile Thread worker;
+  // The thread of the latest run, which may still be finishing its frames after stop.
+  private Thread lastWorker;
+
+  /**
+   * @param outputDir the directory receiving one sub-directory per video and the queue state.
+   * @param roiIntervalFrames the minimum number of frames between two saved ROI sets of a video.
+   */
+  public BatchVideoProcessor(
+      Context context, File outputDir, boolean runOnGpu, int roiIntervalFrames)
+      throws IOException {
+    this.context = context.getApplicationContext();
+    this.outputDir = outputDir;
+    this.runOnGpu = runOnGpu;
+    this.roiIntervalFrames = roiIntervalFrames;
+    if (!outputDir.exists() && !outputDir.mkdirs()) {
+      throw new IOException("Unable to create " + outputDir);
+    }
+    queue = new BatchVideoQueue(new File(outputDir, "queue.tsv"));
+  }
+
+  /** Appends videos to the persistent queue. */
+  public void enqueue(List<Uri> uris) throws IOException {
+    for (Uri uri : uris) {
+      queue.add(uri.toString());
+    }
+    queue.save();
+  }
+
+  /**
+   * Starts or resumes processing the pending videos on a background thread. A run stopped before
+   * is finished first, so only one thread ever works on the queue.
+   */
+  public synchronized void start(Listener listener) {
+    if (worker != null) {
+      return;
+    }
+    Thread previous = lastWorker;
+    worker =
+        new Thread(
+            () -> {
+              if (previous != null) {
+                Uninterruptibles.joinUninterruptibly(previous);
+              }
+              processQueue(listener);
+            },
+            TAG);
+    lastWorker = worker;
+    worker.start();
+  }
+
+  /** Stops after the frames already in flight; the batch resumes from the last checkpoint. */
+  public synchronized void stop() {
+    worker = null;
+  }
+
+  public boolean isRunning() {
+    return worker != null;
+  }
+
+  // Whether the calling worker has not been stopped.
+  private boolean running() {
+    return worker == Thread.currentThread();
+  }
+
+  /** Returns true if the queue holds videos that have not been processed yet. */
+  public boolean hasPendingVideos() {
+    return queue.nextPending() != null;
+  }
+
+  private void processQueue(Listener listener) {
+    Hands hands =
+        new Hands(
+            context,
+            HandsOptions.builder()
+                .setStaticImageMode(true)
+                .setMaxNumHands(2)
+                .setRunOnGpu(runOnGpu)
+                .build());
+    try {
+      BatchVideoQueue.Entry entry;
+      while (running() && (entry = queue.nextPending()) != null) {
+        try {
+          processVideo(hands, entry, listener);
+        } catch (IOException | RuntimeException e) {
+          Log.e(TAG, "Failed to process " + entry.uri, e);
+          entry.status = BatchVideoQueue.Status.FAILED;
+        }
+        try {
+          queue.save();
+        } catch (IOException e) {
+          Log.e(TAG, "Unable to save batch queue: " + e);
+        }
+      }
+    } finally {
+      hands.close();
+      synchronized (this) {
+        if (worker == Thread.currentThread()) {
+          worker = null;
+        }
+      }
+    }
+    if (queue.nextPending() == null) {
+      listener.onQueueFinished();
+    }
+  }
+
+  private void processVideo(Hands hands, BatchVideoQueue.Entry entry, Listener listener)
+      throws IOException {
+    File videoDir = new File(outputDir, String.format(Locale.US, "video-%03d", entry.id));
+    if (!videoDir.exists() && !videoDir.mkdirs()) {
+      throw new IOException("Unable to create " + videoDir);
+    }
+    File csv = new File(videoDir, "landmarks.csv");
+    // Drops rows written after the last checkpoint; those frames are decoded again.
+    if (csv.exists()) {
+      try (RandomAccessFile file = new RandomAccessFile(csv, "rw")) {
+        file.setLength(entry.csvLength);
+      }
+    }
+
+    MediaMetadataRetriever retriever = new MediaMetadataRetriever();
+    try (Writer csvWriter =
+        new BufferedWriter(new OutputStreamWriter(new FileOutputStream(csv, true), "UTF-8"))) {
+      retriever.setDataSource(context, Uri.parse(entry.uri));
+      int frameCount = frameCount(retriever);
+      if (entry.csvLength == 0) {
+        writeCsvHeader(csvWriter);
+      }
+      VideoSink sink = new VideoSink(entry, videoDir, csv, csvWriter, frameCount, listener);
+      hands.setResultListener(sink::onResult);
+      hands.setErrorListener(
+          (message, e) -> {
+            Log.e(TAG, "Kwik Capture error:" + message);
+            sink.onError();
+          });
+
+      int frame = entry.nextFrame;
+      while (running() && frame < frameCount) {
+        List<Bitmap> chunk = null;
+        int chunkSize = Math.min(DECODE_CHUNK, frameCount - frame);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+          MediaMetadataRetriever.BitmapParams params = new MediaMetadataRetriever.BitmapParams();
+          params.setPreferredConfig(Bitmap.Config.ARGB_8888);
+          chunk = retriever.getFramesAtIndex(frame, chunkSize, params);
+        }
+        for (int i = 0; i < chunkSize && running(); ++i) {
+          Bitmap bitmap =
+              chunk != null
+                  ? chunk.get(i)
+                  : retriever.getFrameAtTime(
+                      (frame + i) * 1_000_000L / FALLBACK_FRAME_RATE,
+                      MediaMetadataRetriever.OPTION_CLOSEST);
+          if (bitmap != null && bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            bitmap = bitmap.copy(Bitmap.Config.ARGB_8888, false);
+          }
+          sink.send(hands, frame + i, bitmap);
+        }
+        frame += chunkSize;
+      }
+      sink.drain();
+      if (frame >= frameCount && running()) {
+        entry.status = BatchVideoQueue.Status.DONE;
+      }
+      sink.checkpoint();
+    } finally {
+      retriever.release();
+    }
+  }
+
+  private static int frameCount(MediaMetadataRetriever retriever) {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.P) {
+      String count =
+          retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_VIDEO_FRAME_COUNT);
+      if (count != null) {
+        return Integer.parseInt(count);
+      }
+    }
+    String duration = retriever.extractMetadata(MediaMetadataRetriever.METADATA_KEY_DURATION);
+    return duration == null ? 0 : (int) (Long.parseLong(duration) * FALLBACK_FRAME_RATE / 1000);
+  }
+
+  private static void writeCsvHeader(Writer writer) throws IOException {
+    writer.append("frame,hand,handedness");
+    for (int i = 0; i < LandmarkFrame.NUM_LANDMARKS; ++i) {
+      writer.append(String.format(Locale.US, ",x%d,y%d,z%d", i, i, i));
+    }
+    writer.append('\n');
+  }
+
+  /**
+   * Collects the results of one video. Results arrive in submission order on the graph thread,
+   * so the frame numbers of the frames in flight are kept in a FIFO.
+   */
+  private final class VideoSink {
+    private final BatchVideoQueue.Entry entry;
+    private final File videoDir;
+    private final File csv;
+    private final Writer csvWriter;
+    private final int frameCount;
+    private final Listener listener;
+    private final Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+    private final ConcurrentLinkedQueue<Integer> pendingFrames = new ConcurrentLinkedQueue<>();
+    private final LandmarkFrame landmarks = new LandmarkFrame();
+    private final CaptureDecision decision = new CaptureDecision();
+    private final long startTime = SystemClock.elapsedRealtime();
+    private final int startFrame;
+    private int completedFrames;
+    private int lastRoiFrame = Integer.MIN_VALUE / 2;
+
+    VideoSink(
+        BatchVideoQueue.Entry entry,
+        File videoDir,
+        File csv,
+        Writer csvWriter,
+        int frameCount,
+        Listener listener) {
+      this.entry = entry;
+      this.videoDir = videoDir;
+      this.csv = csv;
+      this.csvWriter = csvWriter;
+      this.frameCount = frameCount;
+      this.listener = listener;
+      this.startFrame = entry.nextFrame;
+    }
+
+    void send(Hands hands, int frame, Bitmap bitmap) {
+      if (bitmap == null) {
+        // Undecodable frame: completes it in order once the frames before it are done.
+        drain();
+        inFlight.acquireUninterruptibly();
+        pendingFrames.add(frame);
+        complete();
+        return;
+      }
+      inFlight.acquireUninterruptibly();
+      pendingFrames.add(frame);
+      hands.send(bitmap);
+    }
+
+    void onResult(HandsResult result) {
+      Integer frame = pendingFrames.peek();
+      try {
+        if (frame != null) {
+          writeResult(frame, result);
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to write results of frame " + frame + ": " + e);
+      }
+      complete();
+    }
+
+    void onError() {
+      complete();
+    }
+
+    // Waits for all frames in flight.
+    void drain() {
+      inFlight.acquireUninterruptibly(MAX_IN_FLIGHT);
+      inFlight.release(MAX_IN_FLIGHT);
+    }
+
+    synchronized void checkpoint() throws IOException {
+      csvWriter.flush();
+      entry.csvLength = csv.length();
+      queue.save();
+    }
+
+    private void complete() {
+      Integer frame = pendingFrames.poll();
+      if (frame != null) {
+        synchronized (this) {
+          entry.nextFrame = frame + 1;
+          completedFrames++;
+          if (completedFrames % CHECKPOINT_INTERVAL_FRAMES == 0) {
+            try {
+              checkpoint();
+            } catch (IOException e) {
+              Log.e(TAG, "Unable to checkpoint batch: " + e);
+            }
+            double seconds = (SystemClock.elapsedRealtime() - startTime) / 1000.0;
+            listener.onProgress(
+                new Progress(
+                    entry.id,
+                    queue.size(),
+                    entry.nextFrame,
+                    frameCount,
+                    seconds > 0 ? (entry.nextFrame - startFrame) / seconds : 0));
+          }
+        }
+      }
+      inFlight.release();
+    }
+
+    private void writeResult(int frame, HandsResult result) throws IOException {
+      Bitmap input = result.inputBitmap();
+      HandsResultFrames.fill(result, input.getWidth(), input.getHeight(), landmarks);
+      synchronized (this) {
+        for (int hand = 0; hand < landmarks.getNumHands(); ++hand) {
+          csvWriter
+              .append(Integer.toString(frame))
+              .append(',')
+              .append(Integer.toString(hand))
+              .append(',')
+              .append(landmarks.isLeftHand(hand) ? "Left" : "Right");
+          for (int i = 0; i < LandmarkFrame.NUM_LANDMARKS; ++i) {
+            csvWriter.append(
+                String.format(
+                    Locale.US,
+                    ",%.5f,%.5f,%.5f",
+                    landmarks.getX(hand, i),
+                    landmarks.getY(hand, i),
+                    landmarks.getZ(hand, i)));
+          }
+          csvWriter.append('\n');
+        }
+      }
+
+      decisionEngine.decide(landmarks, decision);
+      if (!decision.isInRange() || frame - lastRoiFrame < roiIntervalFrames) {
+        return;
+      }
+      lastRoiFrame = frame;
+      for (int roi = 0; roi < decision.getRoiCount(); ++roi) {
+        Bitmap crop =
+            Bitmap.createBitmap(
+                input,
+                decision.getRoiLeft(roi),
+                decision.getRoiTop(roi),
+                decision.getRoiWidth(roi),
+                decision.getRoiHeight(roi));
+        Bitmap scaled =
+            Bitmap.createScaledBitmap(crop, ROI_OUTPUT_WIDTH, ROI_OUTPUT_HEIGHT, true);
+        File file =
+            new File(
+                videoDir,
+                String.format(
+                    Locale.US,
+                    "frame-%06d_hand-%d_landmark-%d.png",
+                    frame,
+                    decision.getRoiHand(roi),
+                    decision.getRoiLandmark(roi)));
+        try (FileOutputStream out = new FileOutputStream(file)) {
+          scaled.compress(Bitmap.CompressFormat.PNG, 100, out);
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,127 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The persistent work list of {@link BatchVideoProcessor}.
+ *
+ * <p>Each entry records how far a video has been processed, so a batch interrupted by a crash or
+ * by {@link BatchVideoProcessor#stop} resumes from its last checkpoint. The list is stored as one
+ * tab-separated line per video and replaced atomically on every save.
+ */
+final class BatchVideoQueue {
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  enum Status {
+    PENDING,
+    DONE,
+    FAILED,
+  }
+
+  static final class Entry {
+    final int id;
+    final String uri;
+    Status status = Status.PENDING;
+    // First frame that has not been fully written yet.
+    int nextFrame;
+    // Length of the landmark CSV at the checkpoint; anything after it is discarded on resume.
+    long csvLength;
+
+    Entry(int id, String uri) {
+      this.id = id;
+      this.uri = uri;
+    }
+  }
+
+  private final File file;
+  private final List<Entry> entries = new ArrayList<>();
+
+  BatchVideoQueue(File file) throws IOException {
+    this.file = file;
+    if (file.exists()) {
+      load();
+    }
+  }
+
+  synchronized Entry add(String uri) {
+    Entry entry = new Entry(entries.size(), uri);
+    entries.add(entry);
+    return entry;
+  }
+
+  /** Returns the first entry that still needs processing, or null. */
+  synchronized Entry nextPending() {
+    for (Entry entry : entries) {
+      if (entry.status == Status.PENDING) {
+        return entry;
+      }
+    }
+    return null;
+  }
+
+  synchronized int size() {
+    return entries.size();
+  }
+
+  synchronized void save() throws IOException {
+    File tmp = new File(file.getPath() + ".tmp");
+    try (Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), UTF_8)) {
+      for (Entry entry : entries) {
+        writer
+            .append(entry.status.name())
+            .append('\t')
+            .append(Integer.toString(entry.nextFrame))
+            .append('\t')
+            .append(Long.toString(entry.csvLength))
+            .append('\t')
+            .append(entry.uri)
+            .append('\n');
+      }
+    }
+    if (!tmp.renameTo(file)) {
+      throw new IOException("Unable to replace " + file);
+    }
+  }
+
+  private void load() throws IOException {
+    try (BufferedReader reader =
+        new BufferedReader(new InputStreamReader(new FileInputStream(file), UTF_8))) {
+      String line;
+      while ((line = reader.readLine()) != null) {
+        String[] fields = line.split("\t", 4);
+        if (fields.length != 4) {
+          continue;
+        }
+        Entry entry = new Entry(entries.size(), fields[3]);
+        entry.status = Status.valueOf(fields[0]);
+        entry.nextFrame = Integer.parseInt(fields[1]);
+        entry.csvLength = Long.parseLong(fields[2]);
+        entries.add(entry);
+      }
+    }
+  }
+}
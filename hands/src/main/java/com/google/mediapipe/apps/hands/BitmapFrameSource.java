@@ -0,0 +1,62 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.graphics.Bitmap;
+import android.os.SystemClock;
+import com.google.mediapipe.solutions.hands.Hands;
+import javax.annotation.Nullable;
+
+/**
+ * Feeds a {@link CaptureSession} with still images, e.g. from an {@link ImageImportPipeline}. The
+ * images go through the streaming graph, stamped with increasing timestamps, so no separate
+ * static-image graph is needed; as the graph tracks hands across frames, unrelated images should
+ * be sent in separate sessions when accuracy matters more than startup time.
+ */
+public final class BitmapFrameSource implements CaptureSession.FrameSource {
+  @Nullable private volatile Hands hands;
+  private long lastTimestampUs;
+
+  @Override
+  public boolean needsGraph() {
+    return true;
+  }
+
+  @Override
+  public void start(@Nullable Hands hands, CaptureSession.LandmarkSink landmarks) {
+    this.hands = hands;
+  }
+
+  @Override
+  public void stop() {
+    hands = null;
+  }
+
+  /**
+   * Sends {@code bitmap} to the graph.
+   *
+   * @return false if the source is not started.
+   */
+  public synchronized boolean send(Bitmap bitmap) {
+    Hands current = hands;
+    if (current == null) {
+      return false;
+    }
+    lastTimestampUs = Math.max(lastTimestampUs + 1, SystemClock.elapsedRealtimeNanos() / 1000);
+    current.send(bitmap, lastTimestampUs);
+    return true;
+  }
+}
@@ -0,0 +1,151 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Encodes finger images with the platform codecs of {@link Bitmap#compress}: RGBA PNG, WebP and
+ * JPEG. None of these carries the metadata.
+ *
+ * <p>The encoders are registered with {@link FingerImageEncoders} through {@link Provider} in
+ * {@code META-INF/services}, so that the lookup itself needs no Android classes.
+ */
+public final class BitmapImageEncoder implements FingerImageEncoder {
+  private static final int DEFAULT_JPEG_QUALITY = 90;
+
+  /** Creates the {@code png-argb}, {@code webp-lossless} and {@code jpeg} encoders. */
+  public static final class Provider implements FingerImageEncoder.Provider {
+    @Override
+    public FingerImageEncoder create(String name, String argument) {
+      switch (name) {
+        case "png-argb":
+          return png();
+        case "webp-lossless":
+          return webpLossless();
+        case "jpeg":
+          return jpeg(
+              argument == null ? DEFAULT_JPEG_QUALITY : FingerImageEncoders.parse(name, argument));
+        default:
+          return null;
+      }
+    }
+  }
+
+  private final String name;
+  private final String extension;
+  private final Bitmap.CompressFormat format;
+  private final int quality;
+  private final boolean lossless;
+
+  private BitmapImageEncoder(
+      String name, String extension, Bitmap.CompressFormat format, int quality, boolean lossless) {
+    this.name = name;
+    this.extension = extension;
+    this.format = format;
+    this.quality = quality;
+    this.lossless = lossless;
+  }
+
+  /** PNG as the platform writes it, with four samples per pixel. */
+  public static BitmapImageEncoder png() {
+    return new BitmapImageEncoder("png-argb", "png", Bitmap.CompressFormat.PNG, 100, true);
+  }
+
+  /** Lossless WebP, which the platform writes from Android 10. */
+  @SuppressWarnings("deprecation")
+  public static BitmapImageEncoder webpLossless() {
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+      return new BitmapImageEncoder(
+          "webp-lossless", "webp", Bitmap.CompressFormat.WEBP_LOSSLESS, 100, true);
+    } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      // Before Android 11, quality 100 selects lossless compression.
+      return new BitmapImageEncoder("webp-lossless", "webp", Bitmap.CompressFormat.WEBP, 100, true);
+    }
+    throw new IllegalArgumentException("Lossless WebP needs Android 10");
+  }
+
+  /** JPEG at {@code quality}, 0-100. */
+  public static BitmapImageEncoder jpeg(int quality) {
+    if (quality < 0 || quality > 100) {
+      throw new IllegalArgumentException("Invalid JPEG quality " + quality);
+    }
+    return new BitmapImageEncoder(
+        "jpeg:" + quality, "jpg", Bitmap.CompressFormat.JPEG, quality, false);
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getExtension() {
+    return extension;
+  }
+
+  @Override
+  public boolean isLossless() {
+    return lossless;
+  }
+
+  @Override
+  public byte[] encode(GrayImage image, Map<String, String> metadata) throws IOException {
+    Bitmap bitmap =
+        Bitmap.createBitmap(
+            image.toArgb(), image.getWidth(), image.getHeight(), Bitmap.Config.ARGB_8888);
+    try {
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      if (!bitmap.compress(format, quality, out)) {
+        throw new IOException("Unable to encode " + name);
+      }
+      return out.toByteArray();
+    } finally {
+      bitmap.recycle();
+    }
+  }
+
+  @Override
+  public GrayImage decode(byte[] data) throws IOException {
+    Bitmap bitmap = BitmapFactory.decodeByteArray(data, 0, data.length);
+    if (bitmap == null) {
+      throw new IOException("Unable to decode " + name);
+    }
+    try {
+      int width = bitmap.getWidth();
+      int height = bitmap.getHeight();
+      int[] argb = new int[width * height];
+      bitmap.getPixels(argb, 0, width, 0, 0, width, height);
+      GrayImage image = new GrayImage(width, height);
+      byte[] pixels = image.getPixels();
+      for (int i = 0; i < argb.length; i++) {
+        int pixel = argb[i];
+        // Rec. 601 luma; lossy codecs need not keep the three channels equal.
+        pixels[i] =
+            (byte)
+                ((77 * ((pixel >> 16) & 0xff) + 150 * ((pixel >> 8) & 0xff) + 29 * (pixel & 0xff))
+                    >> 8);
+      }
+      return image;
+    } finally {
+      bitmap.recycle();
+    }
+  }
+}
@@ -0,0 +1,354 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import android.content.Context;
+import android.content.pm.PackageInfo;
+import android.content.pm.PackageManager;
+import android.graphics.SurfaceTexture;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.params.StreamConfigurationMap;
+import android.os.Build;
+import android.os.SystemClock;
+import android.util.Log;
+import android.util.Size;
+import android.util.SizeF;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * What the cameras of this device can do, resolved once and persisted across launches.
+ *
+ * <p>Discovery walks every camera ID through {@link CameraManager}, which costs tens of
+ * milliseconds per camera. The result is kept in memory and written to the app's files directory,
+ * keyed on the OS build fingerprint and the app version and install time, so that it is only
+ * rediscovered after an OS or app update.
+ */
+public final class CameraCapabilityProfile {
+  private static final String TAG = "CameraCapabilityProfile";
+  private static final String FILE_NAME = "camera_profile.json";
+  private static final int FORMAT_VERSION = 1;
+  private static final double ASPECT_TOLERANCE = 0.25;
+  private static final double ASPECT_PENALTY = 10000;
+
+  private static CameraCapabilityProfile instance;
+
+  /** Capabilities of the first camera with a given lens facing. */
+  public static final class Lens {
+    private final String cameraId;
+    private final int lensFacing;
+    // SurfaceTexture output sizes, largest area first.
+    private final List<Size> outputSizes;
+    private final float focalLengthMm;
+    private final float sensorWidthMm;
+    private final int timestampSource;
+    private final boolean torchSupported;
+    private final float maxDigitalZoom;
+    private final Map<Size, Size> optimalSizes = new HashMap<>();
+
+    Lens(
+        String cameraId,
+        int lensFacing,
+        List<Size> outputSizes,
+        float focalLengthMm,
+        float sensorWidthMm,
+        int timestampSource,
+        boolean torchSupported,
+        float maxDigitalZoom) {
+      this.cameraId = cameraId;
+      this.lensFacing = lensFacing;
+      List<Size> ranked = new ArrayList<>(outputSizes);
+      Collections.sort(
+          ranked,
+          (a, b) ->
+              Long.compare(
+                  (long) b.getWidth() * b.getHeight(), (long) a.getWidth() * a.getHeight()));
+      this.outputSizes = Collections.unmodifiableList(ranked);
+      this.focalLengthMm = focalLengthMm;
+      this.sensorWidthMm = sensorWidthMm;
+      this.timestampSource = timestampSource;
+      this.torchSupported = torchSupported;
+      this.maxDigitalZoom = maxDigitalZoom;
+    }
+
+    public String getCameraId() {
+      return cameraId;
+    }
+
+    public int getLensFacing() {
+      return lensFacing;
+    }
+
+    /** Returns the preview output sizes, largest area first. */
+    public List<Size> getOutputSizes() {
+      return outputSizes;
+    }
+
+    /** One of the {@code CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_*} values. */
+    public int getTimestampSource() {
+      return timestampSource;
+    }
+
+    public boolean isTorchSupported() {
+      return torchSupported;
+    }
+
+    public float getMaxDigitalZoom() {
+      return maxDigitalZoom;
+    }
+
+    /**
+     * Returns the focal length in pixels for frames {@code frameWidth} pixels wide, or {@code
+     * Float.MIN_VALUE} if the lens does not report its focal length or sensor size.
+     */
+    public float getFocalLengthPixels(int frameWidth) {
+      if (focalLengthMm <= 0 || sensorWidthMm <= 0) {
+        return Float.MIN_VALUE;
+      }
+      return frameWidth * focalLengthMm / sensorWidthMm;
+    }
+
+    /**
+     * Returns the output size closest to {@code targetSize}. Sizes whose aspect ratio is too
+     * different from the target get a large penalty, so an acceptable aspect ratio wins if one
+     * exists; otherwise the size closest in width is used.
+     */
+    @Nullable
+    public synchronized Size getOptimalSize(Size targetSize) {
+      if (optimalSizes.containsKey(targetSize)) {
+        return optimalSizes.get(targetSize);
+      }
+      Size optimalSize = null;
+      double targetRatio = (double) targetSize.getWidth() / targetSize.getHeight();
+      double minCost = Double.MAX_VALUE;
+      for (Size size : outputSizes) {
+        double aspectRatio = (double) size.getWidth() / size.getHeight();
+        double ratioDiff = Math.abs(aspectRatio - targetRatio);
+        double cost =
+            (ratioDiff > ASPECT_TOLERANCE ? ASPECT_PENALTY + ratioDiff * targetSize.getHeight() : 0)
+                + Math.abs(size.getWidth() - targetSize.getWidth());
+        if (cost < minCost) {
+          optimalSize = size;
+          minCost = cost;
+        }
+      }
+      optimalSizes.put(targetSize, optimalSize);
+      return optimalSize;
+    }
+
+    JSONObject toJson() throws JSONException {
+      JSONArray sizes = new JSONArray();
+      for (Size size : outputSizes) {
+        sizes.put(size.getWidth()).put(size.getHeight());
+      }
+      return new JSONObject()
+          .put("cameraId", cameraId)
+          .put("lensFacing", lensFacing)
+          .put("outputSizes", sizes)
+          .put("focalLengthMm", focalLengthMm)
+          .put("sensorWidthMm", sensorWidthMm)
+          .put("timestampSource", timestampSource)
+          .put("torchSupported", torchSupported)
+          .put("maxDigitalZoom", maxDigitalZoom);
+    }
+
+    static Lens fromJson(JSONObject json) throws JSONException {
+      JSONArray sizes = json.getJSONArray("outputSizes");
+      List<Size> outputSizes = new ArrayList<>();
+      for (int i = 0; i + 1 < sizes.length(); i += 2) {
+        outputSizes.add(new Size(sizes.getInt(i), sizes.getInt(i + 1)));
+      }
+      return new Lens(
+          json.getString("cameraId"),
+          json.getInt("lensFacing"),
+          outputSizes,
+          (float) json.getDouble("focalLengthMm"),
+          (float) json.getDouble("sensorWidthMm"),
+          json.getInt("timestampSource"),
+          json.getBoolean("torchSupported"),
+          (float) json.getDouble("maxDigitalZoom"));
+    }
+  }
+
+  private final String deviceKey;
+  private final Map<Integer, Lens> lensesByFacing;
+
+  private CameraCapabilityProfile(String deviceKey, Map<Integer, Lens> lensesByFacing) {
+    this.deviceKey = deviceKey;
+    this.lensesByFacing = lensesByFacing;
+  }
+
+  /**
+   * Returns the profile of this device, loading it from disk or discovering it on first use. May
+   * block on camera service calls and file I/O, so call it off the main thread where possible.
+   */
+  public static synchronized CameraCapabilityProfile get(Context context) {
+    if (instance != null) {
+      return instance;
+    }
+    long start = SystemClock.elapsedRealtime();
+    String deviceKey = deviceKey(context);
+    File file = new File(context.getFilesDir(), FILE_NAME);
+    CameraCapabilityProfile profile = load(file, deviceKey);
+    if (profile != null) {
+      Log.i(TAG, "Loaded camera profile in " + (SystemClock.elapsedRealtime() - start) + " ms");
+    } else {
+      profile = discover(context, deviceKey);
+      Log.i(TAG, "Discovered camera profile in " + (SystemClock.elapsedRealtime() - start) + " ms");
+      if (!profile.lensesByFacing.isEmpty()) {
+        profile.save(file);
+      }
+    }
+    instance = profile;
+    return instance;
+  }
+
+  /** Returns the first camera with {@code lensFacing}, or null if the device has none. */
+  @Nullable
+  public Lens getLens(int lensFacing) {
+    return lensesByFacing.get(lensFacing);
+  }
+
+  // Changes whenever the OS is updated or the app is updated or reinstalled.
+  private static String deviceKey(Context context) {
+    String appVersion = "unknown";
+    try {
+      PackageInfo info =
+          context.getPackageManager().getPackageInfo(context.getPackageName(), 0);
+      appVersion = info.versionName + "/" + info.lastUpdateTime;
+    } catch (PackageManager.NameNotFoundException e) {
+      Log.e(TAG, "Unable to read the package info: " + e);
+    }
+    return FORMAT_VERSION + "|" + Build.FINGERPRINT + "|" + appVersion;
+  }
+
+  private static CameraCapabilityProfile discover(Context context, String deviceKey) {
+    Map<Integer, Lens> lenses = new HashMap<>();
+    CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+    try {
+      for (String cameraId : cameraManager.getCameraIdList()) {
+        CameraCharacteristics characteristics = cameraManager.getCameraCharacteristics(cameraId);
+        Integer lensFacing = characteristics.get(CameraCharacteristics.LENS_FACING);
+        if (lensFacing == null || lenses.containsKey(lensFacing)) {
+          continue;
+        }
+        lenses.put(lensFacing, describe(cameraId, lensFacing, characteristics));
+      }
+    } catch (CameraAccessException e) {
+      Log.e(TAG, "Accessing camera ID info got error: " + e);
+    }
+    return new CameraCapabilityProfile(deviceKey, lenses);
+  }
+
+  private static Lens describe(
+      String cameraId, int lensFacing, CameraCharacteristics characteristics) {
+    StreamConfigurationMap map =
+        characteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
+    Size[] sizes = map != null ? map.getOutputSizes(SurfaceTexture.class) : null;
+    float[] focalLengths =
+        characteristics.get(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS);
+    SizeF sensorSize = characteristics.get(CameraCharacteristics.SENSOR_INFO_PHYSICAL_SIZE);
+    Integer timestampSource =
+        characteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+    Boolean flash = characteristics.get(CameraCharacteristics.FLASH_INFO_AVAILABLE);
+    Float maxZoom = characteristics.get(CameraCharacteristics.SCALER_AVAILABLE_MAX_DIGITAL_ZOOM);
+    return new Lens(
+        cameraId,
+        lensFacing,
+        sizes != null ? Arrays.asList(sizes) : Collections.<Size>emptyList(),
+        focalLengths != null && focalLengths.length > 0 ? focalLengths[0] : 0,
+        sensorSize != null ? sensorSize.getWidth() : 0,
+        timestampSource != null
+            ? timestampSource
+            : CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE_UNKNOWN,
+        flash != null && flash,
+        maxZoom != null ? maxZoom : 1f);
+  }
+
+  @Nullable
+  private static CameraCapabilityProfile load(File file, String deviceKey) {
+    if (!file.exists()) {
+      return null;
+    }
+    try (InputStream in = new FileInputStream(file)) {
+      byte[] data = new byte[(int) file.length()];
+      int read = 0;
+      while (read < data.length) {
+        int n = in.read(data, read, data.length - read);
+        if (n < 0) {
+          throw new IOException("Truncated camera profile");
+        }
+        read += n;
+      }
+      JSONObject json = new JSONObject(new String(data, StandardCharsets.UTF_8));
+      if (!deviceKey.equals(json.getString("deviceKey"))) {
+        Log.i(TAG, "Camera profile is stale, rediscovering");
+        return null;
+      }
+      Map<Integer, Lens> lenses = new HashMap<>();
+      JSONArray lensArray = json.getJSONArray("lenses");
+      for (int i = 0; i < lensArray.length(); i++) {
+        Lens lens = Lens.fromJson(lensArray.getJSONObject(i));
+        lenses.put(lens.getLensFacing(), lens);
+      }
+      return new CameraCapabilityProfile(deviceKey, lenses);
+    } catch (IOException | JSONException e) {
+      Log.e(TAG, "Unable to read the camera profile: " + e);
+      return null;
+    }
+  }
+
+  private void save(File file) {
+    File tmp = new File(file.getPath() + ".tmp");
+    try {
+      JSONArray lensArray = new JSONArray();
+      for (Lens lens : lensesByFacing.values()) {
+        lensArray.put(lens.toJson());
+      }
+      byte[] data =
+          new JSONObject()
+              .put("deviceKey", deviceKey)
+              .put("lenses", lensArray)
+              .toString()
+              .getBytes(StandardCharsets.UTF_8);
+      try (OutputStream out = new FileOutputStream(tmp)) {
+        out.write(data);
+      }
+      if (!tmp.renameTo(file)) {
+        throw new IOException("Unable to rename " + tmp);
+      }
+    } catch (IOException | JSONException e) {
+      Log.e(TAG, "Unable to save the camera profile: " + e);
+      tmp.delete();
+    }
+  }
+}
@@ -0,0 +1,203 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.app.Activity;
+import android.util.Log;
+import android.util.Range;
+import android.util.Size;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mediapipe.solutions.hands.Hands;
+import javax.annotation.Nullable;
+
+/**
+ * Feeds a {@link CaptureSession} from the back camera, through a {@link KCCameraInput}, and lets a
+ * {@link FingertipFocusController} move its focus and a {@link LightingController} set its torch
+ * and exposure while it runs.
+ */
+public final class CameraFrameSource
+    implements CaptureSession.FrameSource,
+        FingertipFocusController.Lens,
+        LightingController.Lights {
+  private static final String TAG = "CameraFrameSource";
+
+  private final Activity activity;
+  @Nullable private final PreviewResolutionController controller;
+  @Nullable private final FingertipFocusController focusController;
+  @Nullable private final LightingController lightingController;
+  @Nullable private final Size highResSize;
+  @Nullable private final HighResFrameRing highResFrames;
+  @Nullable private KCCameraInput cameraInput;
+  // Read on the analysis thread; set once the camera has started.
+  private volatile int minExposureIndex;
+  private volatile int maxExposureIndex;
+  // One camera frame in frameSkip is sent to the graph; the others are dropped unprocessed.
+  private volatile int frameSkip = 1;
+  private int framesSeen;
+
+  /**
+   * @param controller if not null, picks the preview resolution and is told about every frame.
+   * @param focusController if not null, moves the focus while the camera runs.
+   * @param lightingController if not null, sets the torch and exposure from the high-resolution
+   *     stream while the camera runs.
+   * @param highResSize the size of the high-resolution stream, or null for none.
+   * @param highResFrames receives the high-resolution frames, if {@code highResSize} is set.
+   */
+  public CameraFrameSource(
+      Activity activity,
+      @Nullable PreviewResolutionController controller,
+      @Nullable FingertipFocusController focusController,
+      @Nullable LightingController lightingController,
+      @Nullable Size highResSize,
+      @Nullable HighResFrameRing highResFrames) {
+    this.activity = activity;
+    this.controller = controller;
+    this.focusController = focusController;
+    this.lightingController = lightingController;
+    this.highResSize = highResSize;
+    this.highResFrames = highResFrames;
+  }
+
+  @Override
+  public boolean needsGraph() {
+    return true;
+  }
+
+  @Override
+  public void start(@Nullable Hands hands, CaptureSession.LandmarkSink landmarks) {
+    KCCameraInput input = new KCCameraInput(activity);
+    if (controller != null) {
+      input.setPreviewTier(controller.getTier());
+    }
+    if (highResSize != null) {
+      input.enableHighResStream(highResSize, highResFrames);
+    }
+    if (lightingController != null) {
+      input.enableLightingControl(lightingController);
+      input.setOnCameraStartedListener(
+          surfaceTexture -> {
+            Range<Integer> range = input.getExposureCompensationRange();
+            minExposureIndex = range != null ? range.getLower() : 0;
+            maxExposureIndex = range != null ? range.getUpper() : 0;
+            if (cameraInput == input) {
+              lightingController.setLights(this);
+            }
+          });
+    }
+    input.setNewFrameListener(
+        textureFrame -> {
+          if (++framesSeen % frameSkip != 0) {
+            textureFrame.release();
+            return;
+          }
+          if (controller != null) {
+            controller.onFrameSent(textureFrame.getTimestamp());
+          }
+          hands.send(textureFrame);
+        });
+    cameraInput = input;
+    // Without a controller, frames keep the size of the camera preview.
+    input.start(activity, hands.getGlContext(), KCCameraInput.CameraFacing.BACK, 0, 0);
+    if (focusController != null) {
+      focusController.setLens(this);
+    }
+  }
+
+  @Override
+  public void stop() {
+    if (focusController != null) {
+      focusController.setLens(null);
+    }
+    if (lightingController != null) {
+      // Switches the torch off while the camera is still open.
+      lightingController.setLights(null);
+      Log.i(TAG, "Lighting: " + lightingController);
+    }
+    if (cameraInput != null) {
+      cameraInput.setNewFrameListener(null);
+      cameraInput.close();
+      cameraInput = null;
+    }
+  }
+
+  /** Sends only one camera frame in {@code skip} to the graph, e.g. to cool the device down. */
+  public void setFrameSkip(int skip) {
+    frameSkip = Math.max(1, skip);
+  }
+
+  /** Switches the preview resolution of the running camera. Main thread only. */
+  public void setPreviewTier(PreviewResolutionController.Tier tier) {
+    if (cameraInput != null) {
+      cameraInput.setPreviewTier(tier);
+    }
+  }
+
+  @Override
+  public ListenableFuture<Boolean> focusOn(float x, float y, float size) {
+    SettableFuture<Boolean> focused = SettableFuture.create();
+    // Results arrive on the graph thread; the camera is only used on the main thread.
+    activity.runOnUiThread(
+        () -> {
+          if (cameraInput == null) {
+            focused.set(false);
+          } else {
+            focused.setFuture(cameraInput.focusOn(x, y, size));
+          }
+        });
+    return focused;
+  }
+
+  @Override
+  public void cancelFocus() {
+    activity.runOnUiThread(
+        () -> {
+          if (cameraInput != null) {
+            cameraInput.cancelFocus();
+          }
+        });
+  }
+
+  @Override
+  public void enableTorch(boolean on) {
+    activity.runOnUiThread(
+        () -> {
+          if (cameraInput != null) {
+            cameraInput.enableTorch(on);
+          }
+        });
+  }
+
+  @Override
+  public void setExposureIndex(int index) {
+    activity.runOnUiThread(
+        () -> {
+          if (cameraInput != null) {
+            cameraInput.setExposureCompensationIndex(index);
+          }
+        });
+  }
+
+  @Override
+  public int getMinExposureIndex() {
+    return minExposureIndex;
+  }
+
+  @Override
+  public int getMaxExposureIndex() {
+    return maxExposureIndex;
+  }
+}
@@ -0,0 +1,320 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An indexed catalogue of the captures on this device, so captures can be listed, re-exported
+ * and de-duplicated without scanning directories and parsing file names.
+ *
+ * <p>One row per capture holds the subject, set, time and template; one row per finger holds its
+ * position, hand, quality, the landmarks of its hand, its file and its export status. Captures are
+ * indexed by subject and time and by time alone, and fingers by capture and by export status, so
+ * every query below is an index range scan however many records there are. A capture and its
+ * fingers are inserted in one transaction, and the database runs in write-ahead logging mode so
+ * that queries do not block captures.
+ */
+public final class CaptureCatalog extends SQLiteOpenHelper {
+  private static final String DATABASE_NAME = "capture_catalog.db";
+  private static final int DATABASE_VERSION = 1;
+
+  public static final int EXPORT_PENDING = 0;
+  public static final int EXPORT_DONE = 1;
+  public static final int EXPORT_FAILED = 2;
+
+  private static final String SELECT_RECORDS =
+      "SELECT f.id, f.capture_id, c.subject_id, c.set_no, c.captured_at, f.finger_no,"
+          + " f.left_hand, f.quality, f.landmarks, f.path, f.export_status"
+          + " FROM fingers f JOIN captures c ON c.id = f.capture_id";
+
+  /** A finger to add to the catalogue. */
+  public static final class Finger {
+    final int fingerNo;
+    final boolean leftHand;
+    final int quality;
+    final float[] landmarks;
+    final String path;
+
+    /**
+     * @param landmarks the normalized x, y and z of the landmarks of the hand, or null.
+     */
+    public Finger(int fingerNo, boolean leftHand, int quality, float[] landmarks, String path) {
+      this.fingerNo = fingerNo;
+      this.leftHand = leftHand;
+      this.quality = quality;
+      this.landmarks = landmarks;
+      this.path = path;
+    }
+  }
+
+  /** A catalogued finger, with the capture it belongs to. */
+  public static final class Record {
+    public final long id;
+    public final long captureId;
+    public final String subjectId;
+    public final String setNo;
+    public final long capturedAtMs;
+    public final int fingerNo;
+    public final boolean leftHand;
+    public final int quality;
+    public final float[] landmarks;
+    public final String path;
+    public final int exportStatus;
+
+    Record(Cursor cursor) {
+      id = cursor.getLong(0);
+      captureId = cursor.getLong(1);
+      subjectId = cursor.getString(2);
+      setNo = cursor.getString(3);
+      capturedAtMs = cursor.getLong(4);
+      fingerNo = cursor.getInt(5);
+      leftHand = cursor.getInt(6) != 0;
+      quality = cursor.getInt(7);
+      landmarks = cursor.isNull(8) ? null : unpack(cursor.getBlob(8));
+      path = cursor.getString(9);
+      exportStatus = cursor.getInt(10);
+    }
+
+    @Override
+    public String toString() {
+      return "Record{" + subjectId + "/" + setNo + " finger " + fingerNo + " q" + quality + " "
+          + path + " export " + exportStatus + "}";
+    }
+  }
+
+  public CaptureCatalog(Context context) {
+    super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+    setWriteAheadLoggingEnabled(true);
+  }
+
+  @Override
+  public void onConfigure(SQLiteDatabase db) {
+    db.setForeignKeyConstraintsEnabled(true);
+  }
+
+  @Override
+  public void onCreate(SQLiteDatabase db) {
+    db.execSQL(
+        "CREATE TABLE captures ("
+            + "id INTEGER PRIMARY KEY,"
+            + " subject_id TEXT NOT NULL,"
+            + " set_no TEXT NOT NULL,"
+            + " captured_at INTEGER NOT NULL,"
+            + " template_path TEXT)");
+    db.execSQL("CREATE INDEX captures_subject_time ON captures (subject_id, captured_at)");
+    db.execSQL("CREATE INDEX captures_time ON captures (captured_at)");
+    db.execSQL(
+        "CREATE TABLE fingers ("
+            + "id INTEGER PRIMARY KEY,"
+            + " capture_id INTEGER NOT NULL REFERENCES captures (id) ON DELETE CASCADE,"
+            + " finger_no INTEGER NOT NULL,"
+            + " left_hand INTEGER NOT NULL,"
+            + " quality INTEGER NOT NULL,"
+            + " landmarks BLOB,"
+            + " path TEXT NOT NULL,"
+            + " export_status INTEGER NOT NULL DEFAULT " + EXPORT_PENDING + ")");
+    db.execSQL("CREATE INDEX fingers_capture ON fingers (capture_id)");
+    db.execSQL("CREATE INDEX fingers_export ON fingers (export_status, id)");
+    // Files are looked up by path when they move from the journal to shared storage.
+    db.execSQL("CREATE INDEX fingers_path ON fingers (path)");
+    db.execSQL("CREATE INDEX captures_template ON captures (template_path)");
+  }
+
+  @Override
+  public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+    // There is only one version so far.
+  }
+
+  /**
+   * Adds a capture and its fingers in one transaction.
+   *
+   * @return the ID of the capture.
+   */
+  public long addCapture(
+      String subjectId,
+      String setNo,
+      long capturedAtMs,
+      String templatePath,
+      List<Finger> fingers) {
+    SQLiteDatabase db = getWritableDatabase();
+    db.beginTransaction();
+    try {
+      SQLiteStatement insertCapture =
+          db.compileStatement(
+              "INSERT INTO captures (subject_id, set_no, captured_at, template_path)"
+                  + " VALUES (?, ?, ?, ?)");
+      insertCapture.bindString(1, subjectId);
+      insertCapture.bindString(2, setNo);
+      insertCapture.bindLong(3, capturedAtMs);
+      if (templatePath != null) {
+        insertCapture.bindString(4, templatePath);
+      } else {
+        insertCapture.bindNull(4);
+      }
+      long captureId = insertCapture.executeInsert();
+      insertCapture.close();
+
+      SQLiteStatement insertFinger =
+          db.compileStatement(
+              "INSERT INTO fingers (capture_id, finger_no, left_hand, quality, landmarks, path)"
+                  + " VALUES (?, ?, ?, ?, ?, ?)");
+      for (Finger finger : fingers) {
+        insertFinger.clearBindings();
+        insertFinger.bindLong(1, captureId);
+        insertFinger.bindLong(2, finger.fingerNo);
+        insertFinger.bindLong(3, finger.leftHand ? 1 : 0);
+        insertFinger.bindLong(4, finger.quality);
+        if (finger.landmarks != null) {
+          insertFinger.bindBlob(5, pack(finger.landmarks));
+        } else {
+          insertFinger.bindNull(5);
+        }
+        insertFinger.bindString(6, finger.path);
+        insertFinger.executeInsert();
+      }
+      insertFinger.close();
+      db.setTransactionSuccessful();
+      return captureId;
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /** Returns the fingers of {@code subjectId} captured in [fromMs, toMs), oldest first. */
+  public List<Record> findBySubject(String subjectId, long fromMs, long toMs) {
+    return query(
+        SELECT_RECORDS
+            + " WHERE c.subject_id = ? AND c.captured_at >= ? AND c.captured_at < ?"
+            + " ORDER BY c.captured_at, f.id",
+        subjectId,
+        Long.toString(fromMs),
+        Long.toString(toMs));
+  }
+
+  /** Returns up to {@code limit} fingers captured in [fromMs, toMs), oldest first. */
+  public List<Record> findByTime(long fromMs, long toMs, int limit) {
+    return query(
+        SELECT_RECORDS
+            + " WHERE c.captured_at >= ? AND c.captured_at < ?"
+            + " ORDER BY c.captured_at, f.id LIMIT " + limit,
+        Long.toString(fromMs),
+        Long.toString(toMs));
+  }
+
+  /** Returns up to {@code limit} fingers with the given export status, in catalogue order. */
+  public List<Record> findByExportStatus(int exportStatus, int limit) {
+    return query(
+        SELECT_RECORDS + " WHERE f.export_status = ? ORDER BY f.id LIMIT " + limit,
+        Integer.toString(exportStatus));
+  }
+
+  /** Sets the export status and, if not null, the new location of a finger. */
+  public void setExportStatus(long fingerId, int exportStatus, String path) {
+    SQLiteStatement update =
+        getWritableDatabase()
+            .compileStatement(
+                path == null
+                    ? "UPDATE fingers SET export_status = ? WHERE id = ?"
+                    : "UPDATE fingers SET export_status = ?, path = ? WHERE id = ?");
+    try {
+      update.bindLong(1, exportStatus);
+      if (path == null) {
+        update.bindLong(2, fingerId);
+      } else {
+        update.bindString(2, path);
+        update.bindLong(3, fingerId);
+      }
+      update.executeUpdateDelete();
+    } finally {
+      update.close();
+    }
+  }
+
+  /**
+   * Records that the file at {@code path}, a finger image or a template, has been exported to
+   * {@code location}.
+   */
+  public void setExported(String path, String location) {
+    SQLiteDatabase db = getWritableDatabase();
+    db.beginTransaction();
+    try {
+      ContentValues finger = new ContentValues();
+      finger.put("export_status", EXPORT_DONE);
+      finger.put("path", location);
+      if (db.update("fingers", finger, "path = ?", new String[] {path}) == 0) {
+        ContentValues capture = new ContentValues();
+        capture.put("template_path", location);
+        db.update("captures", capture, "template_path = ?", new String[] {path});
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  /**
+   * Records that the file at {@code path} could not be exported and was moved aside to {@code
+   * movedTo}.
+   */
+  public void setExportFailed(String path, String movedTo) {
+    SQLiteDatabase db = getWritableDatabase();
+    db.beginTransaction();
+    try {
+      ContentValues finger = new ContentValues();
+      finger.put("export_status", EXPORT_FAILED);
+      finger.put("path", movedTo);
+      if (db.update("fingers", finger, "path = ?", new String[] {path}) == 0) {
+        ContentValues capture = new ContentValues();
+        capture.put("template_path", movedTo);
+        db.update("captures", capture, "template_path = ?", new String[] {path});
+      }
+      db.setTransactionSuccessful();
+    } finally {
+      db.endTransaction();
+    }
+  }
+
+  private List<Record> query(String sql, String... args) {
+    List<Record> records = new ArrayList<>();
+    try (Cursor cursor = getReadableDatabase().rawQuery(sql, args)) {
+      while (cursor.moveToNext()) {
+        records.add(new Record(cursor));
+      }
+    }
+    return records;
+  }
+
+  private static byte[] pack(float[] values) {
+    ByteBuffer buffer = ByteBuffer.allocate(values.length * 4).order(ByteOrder.LITTLE_ENDIAN);
+    buffer.asFloatBuffer().put(values);
+    return buffer.array();
+  }
+
+  private static float[] unpack(byte[] blob) {
+    float[] values = new float[blob.length / 4];
+    ByteBuffer.wrap(blob).order(ByteOrder.LITTLE_ENDIAN).asFloatBuffer().get(values);
+    return values;
+  }
+}
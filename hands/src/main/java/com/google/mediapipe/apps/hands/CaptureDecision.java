@@ -0,0 +1,109 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * The output of a {@link CaptureDecisionEngine} for one frame: whether the hand is at capture
+ * distance and where the fingertip regions of interest lie, in image pixels.
+ *
+ * <p>The object is reused from frame to frame so that deciding does not allocate.
+ */
+public final class CaptureDecision {
+  /** Where the hand is relative to the capture distance band. */
+  public enum Distance {
+    NO_HAND,
+    TOO_FAR,
+    IN_RANGE,
+    TOO_CLOSE,
+  }
+
+  public static final int MAX_ROIS = LandmarkFrame.MAX_HANDS * LandmarkFrame.FINGERTIPS.length;
+
+  private Distance distance = Distance.NO_HAND;
+  private double palmWidth;
+  private int roiCount;
+  private final int[] roiHand = new int[MAX_ROIS];
+  private final int[] roiLandmark = new int[MAX_ROIS];
+  private final int[] roiLeft = new int[MAX_ROIS];
+  private final int[] roiTop = new int[MAX_ROIS];
+  private final int[] roiWidth = new int[MAX_ROIS];
+  private final int[] roiHeight = new int[MAX_ROIS];
+
+  /** Clears the decision before a new frame is evaluated. */
+  public void clear() {
+    distance = Distance.NO_HAND;
+    palmWidth = 0;
+    roiCount = 0;
+  }
+
+  void setDistance(Distance distance, double palmWidth) {
+    this.distance = distance;
+    this.palmWidth = palmWidth;
+  }
+
+  void addRoi(int hand, int landmark, int left, int top, int width, int height) {
+    roiHand[roiCount] = hand;
+    roiLandmark[roiCount] = landmark;
+    roiLeft[roiCount] = left;
+    roiTop[roiCount] = top;
+    roiWidth[roiCount] = width;
+    roiHeight[roiCount] = height;
+    roiCount++;
+  }
+
+  public Distance getDistance() {
+    return distance;
+  }
+
+  /** Returns true if the hand is inside the capture distance band. */
+  public boolean isInRange() {
+    return distance == Distance.IN_RANGE;
+  }
+
+  /** Returns the INDEX_FINGER_MCP to PINKY_MCP distance the band is measured on. */
+  public double getPalmWidth() {
+    return palmWidth;
+  }
+
+  public int getRoiCount() {
+    return roiCount;
+  }
+
+  /** Returns the index of the hand in the {@link LandmarkFrame} the ROI belongs to. */
+  public int getRoiHand(int roi) {
+    return roiHand[roi];
+  }
+
+  /** Returns the fingertip landmark index the ROI is anchored on. */
+  public int getRoiLandmark(int roi) {
+    return roiLandmark[roi];
+  }
+
+  public int getRoiLeft(int roi) {
+    return roiLeft[roi];
+  }
+
+  public int getRoiTop(int roi) {
+    return roiTop[roi];
+  }
+
+  public int getRoiWidth(int roi) {
+    return roiWidth[roi];
+  }
+
+  public int getRoiHeight(int roi) {
+    return roiHeight[roi];
+  }
+}
@@ -0,0 +1,345 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Benchmark and regression harness for {@link CaptureDecisionEngine}s.
+ *
+ * <p>Frames are pulled from a {@link LandmarkStream} in batches; only the {@code decide} calls of a
+ * batch are timed and probed for allocations, so stream I/O does not pollute the numbers. Besides
+ * throughput it reports decision stability: a flip-flop is an in-range transition that is reverted
+ * within {@link #FLIP_FLOP_WINDOW} frames.
+ *
+ * <p>Runs on a desktop JVM:
+ *
+ * <pre>
+ *   CaptureDecisionBenchmark [--frames N] [--hands N] [--seed S]
+ *       [--write-golden FILE | --golden FILE] [recording ...]
+ * </pre>
+ *
+ * Without recordings a {@link SyntheticLandmarkStream} is used as the corpus.
+ */
+public final class CaptureDecisionBenchmark {
+  static final int FLIP_FLOP_WINDOW = 5;
+  private static final int BATCH_SIZE = 1024;
+
+  private CaptureDecisionBenchmark() {}
+
+  /** The results of one benchmark run. */
+  public static final class Report {
+    public long frames;
+    public long decideNanos;
+    // Negative when the runtime cannot report per-thread allocations (e.g. on Android).
+    public double allocatedBytesPerFrame = -1;
+    public long transitions;
+    public long flipFlops;
+    public final long[] distanceCounts = new long[CaptureDecision.Distance.values().length];
+    public long regressionMismatches = -1;
+    public long firstMismatchFrame = -1;
+
+    public double decisionsPerSecond() {
+      return decideNanos == 0 ? 0 : frames * 1e9 / decideNanos;
+    }
+
+    /** Returns the number of flip-flops per 1000 frames. */
+    public double flipFlopRate() {
+      return frames == 0 ? 0 : flipFlops * 1000.0 / frames;
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      sb.append(
+          String.format(
+              Locale.US,
+              "frames=%d decisions/s=%.0f alloc/frame=%s transitions=%d flipFlops=%d"
+                  + " (%.2f per 1000 frames)",
+              frames,
+              decisionsPerSecond(),
+              allocatedBytesPerFrame < 0
+                  ? "n/a"
+                  : String.format(Locale.US, "%.2fB", allocatedBytesPerFrame),
+              transitions,
+              flipFlops,
+              flipFlopRate()));
+      for (CaptureDecision.Distance d : CaptureDecision.Distance.values()) {
+        sb.append(' ').append(d).append('=').append(distanceCounts[d.ordinal()]);
+      }
+      if (regressionMismatches >= 0) {
+        sb.append(" mismatches=").append(regressionMismatches);
+        if (firstMismatchFrame >= 0) {
+          sb.append(" (first at frame ").append(firstMismatchFrame).append(')');
+        }
+      }
+      return sb.toString();
+    }
+  }
+
+  /**
+   * Runs {@code engine} over {@code stream}.
+   *
+   * @param golden if not null, a golden decision trace the decisions are compared against.
+   * @param trace if not null, receives the decision trace of this run.
+   */
+  public static Report run(
+      CaptureDecisionEngine engine,
+      LandmarkStream stream,
+      DataInputStream golden,
+      DataOutputStream trace)
+      throws IOException {
+    Report report = new Report();
+    AllocationProbe probe = new AllocationProbe();
+    LandmarkFrame[] batch = new LandmarkFrame[BATCH_SIZE];
+    CaptureDecision[] decisions = new CaptureDecision[BATCH_SIZE];
+    for (int i = 0; i < BATCH_SIZE; ++i) {
+      batch[i] = new LandmarkFrame();
+      decisions[i] = new CaptureDecision();
+    }
+    long allocatedBytes = 0;
+    boolean inRange = false;
+    long lastTransitionFrame = Long.MIN_VALUE / 2;
+    if (golden != null) {
+      report.regressionMismatches = 0;
+    }
+
+    while (true) {
+      int size = 0;
+      while (size < BATCH_SIZE && stream.next(batch[size])) {
+        size++;
+      }
+      if (size == 0) {
+        break;
+      }
+      long allocBefore = probe.allocatedBytes();
+      long start = System.nanoTime();
+      for (int i = 0; i < size; ++i) {
+        engine.decide(batch[i], decisions[i]);
+      }
+      report.decideNanos += System.nanoTime() - start;
+      long allocAfter = probe.allocatedBytes();
+      if (probe.isAvailable()) {
+        allocatedBytes += Math.max(0, allocAfter - allocBefore - probe.overhead());
+      }
+
+      for (int i = 0; i < size; ++i) {
+        CaptureDecision decision = decisions[i];
+        long frameIndex = report.frames + i;
+        report.distanceCounts[decision.getDistance().ordinal()]++;
+        if (decision.isInRange() != inRange) {
+          inRange = decision.isInRange();
+          report.transitions++;
+          if (frameIndex - lastTransitionFrame <= FLIP_FLOP_WINDOW) {
+            report.flipFlops++;
+          }
+          lastTransitionFrame = frameIndex;
+        }
+        int digest = digest(decision);
+        if (trace != null) {
+          trace.writeInt(digest);
+        }
+        if (golden != null) {
+          int expected;
+          try {
+            expected = golden.readInt();
+          } catch (EOFException e) {
+            expected = ~digest;
+          }
+          if (expected != digest) {
+            report.regressionMismatches++;
+            if (report.firstMismatchFrame < 0) {
+              report.firstMismatchFrame = frameIndex;
+            }
+          }
+        }
+      }
+      report.frames += size;
+    }
+    if (probe.isAvailable() && report.frames > 0) {
+      report.allocatedBytesPerFrame = (double) allocatedBytes / report.frames;
+    }
+    return report;
+  }
+
+  // Folds the distance band and all ROIs of a decision into one value for the golden trace.
+  private static int digest(CaptureDecision decision) {
+    int h = decision.getDistance().ordinal();
+    for (int i = 0; i < decision.getRoiCount(); ++i) {
+      h = 31 * h + decision.getRoiLandmark(i);
+      h = 31 * h + decision.getRoiLeft(i);
+      h = 31 * h + decision.getRoiTop(i);
+      h = 31 * h + decision.getRoiWidth(i);
+      h = 31 * h + decision.getRoiHeight(i);
+    }
+    return h;
+  }
+
+  /**
+   * Reads {@code com.sun.management.ThreadMXBean#getThreadAllocatedBytes} reflectively, since that
+   * API is absent on Android.
+   */
+  private static final class AllocationProbe {
+    private Object bean;
+    private Method method;
+    private long threadId;
+    private long overhead;
+
+    AllocationProbe() {
+      try {
+        Class<?> factory = Class.forName("java.lang.management.ManagementFactory");
+        bean = factory.getMethod("getThreadMXBean").invoke(null);
+        method =
+            Class.forName("com.sun.management.ThreadMXBean")
+                .getMethod("getThreadAllocatedBytes", long.class);
+        threadId = Thread.currentThread().getId();
+        // Calibrates the cost of the probe itself (boxing of the reflective result).
+        long min = Long.MAX_VALUE;
+        for (int i = 0; i < 16; ++i) {
+          long a = allocatedBytes();
+          long b = allocatedBytes();
+          min = Math.min(min, b - a);
+        }
+        overhead = min;
+      } catch (ReflectiveOperationException | RuntimeException e) {
+        bean = null;
+        method = null;
+      }
+    }
+
+    boolean isAvailable() {
+      return method != null;
+    }
+
+    long overhead() {
+      return overhead;
+    }
+
+    long allocatedBytes() {
+      if (method == null) {
+        return 0;
+      }
+      try {
+        return (Long) method.invoke(bean, threadId);
+      } catch (ReflectiveOperationException e) {
+        method = null;
+        return 0;
+      }
+    }
+  }
+
+  /** Concatenates several recordings into one stream. */
+  private static final class ConcatenatedStream implements LandmarkStream {
+    private final List<File> files;
+    private int index;
+    private LandmarkStream current;
+
+    ConcatenatedStream(List<File> files) {
+      this.files = files;
+    }
+
+    @Override
+    public boolean next(LandmarkFrame frame) throws IOException {
+      while (true) {
+        if (current == null) {
+          if (index == files.size()) {
+            return false;
+          }
+          current = new LandmarkRecording.Reader(files.get(index++));
+        }
+        if (current.next(frame)) {
+          return true;
+        }
+        current.close();
+        current = null;
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (current != null) {
+        current.close();
+      }
+    }
+  }
+
+  public static void main(String[] args) throws IOException {
+    int frames = 1_000_000;
+    int hands = 1;
+    long seed = 42;
+    File golden = null;
+    File writeGolden = null;
+    List<File> recordings = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      switch (args[i]) {
+        case "--frames":
+          frames = Integer.parseInt(args[++i]);
+          break;
+        case "--hands":
+          hands = Integer.parseInt(args[++i]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[++i]);
+          break;
+        case "--golden":
+          golden = new File(args[++i]);
+          break;
+        case "--write-golden":
+          writeGolden = new File(args[++i]);
+          break;
+        default:
+          recordings.add(new File(args[i]));
+      }
+    }
+    CaptureDecisionEngine engine = new DefaultCaptureDecisionEngine();
+
+    // Warms up the JIT before the measured run.
+    try (LandmarkStream warmup = new SyntheticLandmarkStream(seed + 1, 200_000, hands, 90, 0.004f)) {
+      run(engine, warmup, null, null);
+    }
+
+    try (LandmarkStream stream =
+            recordings.isEmpty()
+                ? new SyntheticLandmarkStream(seed, frames, hands, 90, 0.004f)
+                : new ConcatenatedStream(recordings);
+        DataInputStream goldenIn =
+            golden == null
+                ? null
+                : new DataInputStream(new BufferedInputStream(new FileInputStream(golden)));
+        DataOutputStream traceOut =
+            writeGolden == null
+                ? null
+                : new DataOutputStream(
+                    new BufferedOutputStream(new FileOutputStream(writeGolden)))) {
+      Report report = run(engine, stream, goldenIn, traceOut);
+      System.out.println(report);
+      if (report.regressionMismatches > 0) {
+        System.exit(1);
+      }
+    }
+  }
+}
@@ -0,0 +1,32 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * Decides, from hand landmarks alone, whether a frame is fit for capture and where the fingertip
+ * regions of interest are.
+ *
+ * <p>Implementations must not depend on a camera, a GL context or a {@code Hands} instance, so
+ * they can be driven by recorded or synthetic {@link LandmarkStream}s.
+ */
+public interface CaptureDecisionEngine {
+  /**
+   * Evaluates one frame.
+   *
+   * @param frame the landmarks of the frame.
+   * @param decision the object the decision is written to; it is cleared first.
+   */
+  void decide(LandmarkFrame frame, CaptureDecision decision);
+}
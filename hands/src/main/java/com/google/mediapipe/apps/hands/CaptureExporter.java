@@ -0,0 +1,30 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.File;
+import java.io.IOException;
+
+/** Moves a journaled capture file to where it is kept, for {@link CaptureWriteQueue}. */
+public interface CaptureExporter {
+  /**
+   * Copies {@code file} to its final location; the caller deletes it afterwards. Must be
+   * idempotent, as a file is exported again if the app dies before it is deleted.
+   *
+   * @param directory the directory of the capture, e.g. the subject ID.
+   * @return the final location, a path or a content URI.
+   */
+  String export(File file, String directory, String name) throws IOException;
+}
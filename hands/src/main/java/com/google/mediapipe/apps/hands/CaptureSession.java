@@ -0,0 +1,534 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.graphics.Bitmap;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+import androidx.lifecycle.Lifecycle;
+import androidx.lifecycle.LifecycleEventObserver;
+import androidx.lifecycle.LifecycleOwner;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mediapipe.solutions.hands.Hands;
+import com.google.mediapipe.solutions.hands.HandsOptions;
+import com.google.mediapipe.solutions.hands.HandsResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import javax.annotation.Nullable;
+
+/**
+ * A capture pipeline that runs without any UI: a {@link FrameSource} feeds the shared {@link
+ * HandsGraph}, or delivers landmarks directly, and every result is fanned out to the registered
+ * {@link ResultSink}s, so the app, the Flutter bridge and tools can all consume one stream.
+ *
+ * <p>A session is {@link State#IDLE} until {@link #start} is called, {@link State#STARTING} while
+ * the graph warms up, then {@link State#RUNNING}. Bound to a lifecycle, it is {@link
+ * State#PAUSED} while its owner is paused, with the source stopped, and resumes on its own; the
+ * graph is recreated if it was released meanwhile. {@link #close} ends it for good. Starting
+ * another source replaces the current one.
+ *
+ * <p>All methods are thread-safe and return at once; sources are started and stopped on the main
+ * thread, and the returned futures complete once that is done. State listeners are called on the
+ * main thread, sinks on the thread that produced the result.
+ */
+public final class CaptureSession {
+  private static final String TAG = "CaptureSession";
+
+  /** The states of a session. */
+  public enum State {
+    IDLE,
+    STARTING,
+    RUNNING,
+    PAUSED,
+    CLOSED,
+  }
+
+  /** Produces the frames of a session. Started and stopped on the main thread. */
+  public interface FrameSource {
+    /** Returns true if frames are sent to the graph, false if landmarks are delivered instead. */
+    boolean needsGraph();
+
+    /**
+     * Starts producing frames.
+     *
+     * @param hands the graph to send frames to, or null if the source does not need it.
+     * @param landmarks receives the landmarks of sources that do not need the graph.
+     */
+    void start(@Nullable Hands hands, LandmarkSink landmarks) throws Exception;
+
+    /** Stops producing frames; the source may be started again. */
+    void stop();
+  }
+
+  /** Receives landmarks from a source that does not need the graph, on a single thread. */
+  public interface LandmarkSink {
+    void onFrame(LandmarkFrame frame);
+  }
+
+  /** Receives every result of the session. */
+  public interface ResultSink {
+    /**
+     * @param frame the normalized landmarks, with no image size; only valid during the call.
+     * @param result the graph result, or null for sources that do not need the graph.
+     */
+    void onResult(LandmarkFrame frame, @Nullable HandsResult result);
+  }
+
+  /** Told about state changes, on the main thread. */
+  public interface StateListener {
+    void onStateChanged(State state);
+  }
+
+  /**
+   * The first result delivered after a capture was triggered, with its landmarks and pixels read
+   * while they were current. Immutable, so it can be processed at any time after the trigger while
+   * the session keeps running. The result itself is not kept, as its packets are only valid during
+   * delivery.
+   */
+  public static final class Capture {
+    private final LandmarkFrame frame = new LandmarkFrame();
+    @Nullable private final Bitmap image;
+    @Nullable private final LumaFrame highRes;
+    private final long triggeredAtNs;
+    private final long capturedAtNs;
+
+    Capture(
+        LandmarkFrame frame,
+        @Nullable HandsResult result,
+        @Nullable Bitmap image,
+        @Nullable LumaFrame highRes,
+        long triggeredAtNs) {
+      if (result != null && image != null) {
+        // Sized to the input image, which the fingers are cropped from when there is no
+        // high-resolution frame.
+        HandsResultFrames.fill(result, image.getWidth(), image.getHeight(), this.frame);
+      } else {
+        this.frame.copyFrom(frame);
+      }
+      this.image = image;
+      this.highRes = highRes;
+      this.triggeredAtNs = triggeredAtNs;
+      this.capturedAtNs = System.nanoTime();
+    }
+
+    /** Copies the landmarks of the capture into {@code target}. */
+    public void copyFrameTo(LandmarkFrame target) {
+      target.copyFrom(frame);
+    }
+
+    /**
+     * Returns the input image of the result, bottom-up as read back, or null for sources that do
+     * not need the graph. Must not be modified.
+     */
+    @Nullable
+    public Bitmap getImage() {
+      return image;
+    }
+
+    /** Returns the high-resolution frame matching the result, or null. Must not be modified. */
+    @Nullable
+    public LumaFrame getHighResFrame() {
+      return highRes;
+    }
+
+    /** Returns the {@link System#nanoTime} at which the capture was requested. */
+    public long getTriggeredAtNs() {
+      return triggeredAtNs;
+    }
+
+    /** Returns the {@link System#nanoTime} at which the result was captured. */
+    public long getCapturedAtNs() {
+      return capturedAtNs;
+    }
+  }
+
+  private final HandsGraph graph;
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final List<ResultSink> sinks = new CopyOnWriteArrayList<>();
+  private final List<StateListener> stateListeners = new CopyOnWriteArrayList<>();
+  // Used by the thread delivering results, which may change when the source does.
+  private final LandmarkFrame frame = new LandmarkFrame();
+  @Nullable private volatile HighResFrameRing highResFrames;
+
+  // Guarded by this.
+  private State state = State.IDLE;
+  @Nullable private FrameSource source;
+  @Nullable private Hands hands;
+  @Nullable private SettableFuture<Hands> startFuture;
+  private final List<SettableFuture<Capture>> pendingCaptures = new ArrayList<>();
+  private final List<Long> pendingTriggers = new ArrayList<>();
+  private boolean paused;
+  // Incremented on every start, pause and stop, so that a stale graph callback is ignored.
+  private int generation;
+
+  public CaptureSession(HandsGraph graph) {
+    this.graph = graph;
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /** Returns the graph the current source feeds, or null. */
+  @Nullable
+  public synchronized Hands getHands() {
+    return hands;
+  }
+
+  /**
+   * Sets the high-resolution frames captures take the frame matching their result from, or null.
+   */
+  public void setHighResFrames(@Nullable HighResFrameRing frames) {
+    highResFrames = frames;
+  }
+
+  public void addSink(ResultSink sink) {
+    sinks.add(sink);
+  }
+
+  public void removeSink(ResultSink sink) {
+    sinks.remove(sink);
+  }
+
+  public void addStateListener(StateListener listener) {
+    stateListeners.add(listener);
+  }
+
+  public void removeStateListener(StateListener listener) {
+    stateListeners.remove(listener);
+  }
+
+  /** Pauses and resumes the session with {@code owner}, and closes it when it is destroyed. */
+  public void bindToLifecycle(LifecycleOwner owner) {
+    owner
+        .getLifecycle()
+        .addObserver(
+            (LifecycleEventObserver)
+                (source, event) -> {
+                  if (event == Lifecycle.Event.ON_PAUSE) {
+                    pause();
+                  } else if (event == Lifecycle.Event.ON_RESUME) {
+                    resume();
+                  } else if (event == Lifecycle.Event.ON_DESTROY) {
+                    close();
+                  }
+                });
+  }
+
+  /**
+   * Starts {@code source}, replacing the current one.
+   *
+   * @return the graph the source feeds, or null, once the source has started.
+   */
+  public synchronized ListenableFuture<Hands> start(FrameSource source) {
+    if (state == State.CLOSED) {
+      SettableFuture<Hands> closed = SettableFuture.create();
+      closed.setException(new IllegalStateException("Capture session closed"));
+      return closed;
+    }
+    FrameSource previous = this.source;
+    if (previous != null) {
+      mainHandler.post(() -> stopSource(previous));
+    }
+    cancelStart();
+    SettableFuture<Hands> future = SettableFuture.create();
+    this.source = source;
+    this.startFuture = future;
+    if (paused) {
+      setState(State.PAUSED);
+    } else {
+      startSource();
+    }
+    return future;
+  }
+
+  /** Stops the current source; the graph stays warm. */
+  public ListenableFuture<Void> stop() {
+    FrameSource stopped;
+    synchronized (this) {
+      stopped = source;
+      source = null;
+      generation++;
+      cancelStart();
+      failCaptures(new CancellationException("Capture session stopped"));
+      if (state != State.CLOSED) {
+        setState(State.IDLE);
+      }
+    }
+    SettableFuture<Void> future = SettableFuture.create();
+    mainHandler.post(
+        () -> {
+          if (stopped != null) {
+            stopSource(stopped);
+          }
+          future.set(null);
+        });
+    return future;
+  }
+
+  /**
+   * Recreates the graph with {@code options}, which cannot change on a live graph. A source
+   * feeding the graph is stopped first and then restarted on the new graph, and its pending
+   * captures fail; a paused one picks the new graph up when it resumes.
+   *
+   * @return completes once the source has been stopped and the graph released.
+   */
+  public ListenableFuture<Void> reconfigureGraph(HandsOptions options) {
+    FrameSource stopped = null;
+    int reconfigureGeneration;
+    synchronized (this) {
+      if ((state == State.STARTING || state == State.RUNNING) && source.needsGraph()) {
+        stopped = source;
+        generation++;
+        failCaptures(new CancellationException("Capture session reconfigured"));
+        setState(State.STARTING);
+      }
+      reconfigureGeneration = generation;
+    }
+    FrameSource restarted = stopped;
+    SettableFuture<Void> future = SettableFuture.create();
+    // The old graph is only released once no source sends it frames.
+    mainHandler.post(
+        () -> {
+          if (restarted != null) {
+            stopSource(restarted);
+          }
+          synchronized (this) {
+            graph.reconfigure(options);
+            if (restarted != null && generation == reconfigureGeneration && source == restarted) {
+              startSource();
+            }
+          }
+          future.set(null);
+        });
+    return future;
+  }
+
+  /**
+   * Captures the first result delivered after this call, at most a frame later, without stopping
+   * the source. Its image and high-resolution frame are read during delivery, before the graph
+   * releases the one and the camera overwrites the other. Fails if the session is not running or
+   * stops first.
+   */
+  public synchronized ListenableFuture<Capture> capture() {
+    SettableFuture<Capture> future = SettableFuture.create();
+    if (state != State.RUNNING) {
+      future.setException(new IllegalStateException("Capture session is " + state));
+      return future;
+    }
+    pendingCaptures.add(future);
+    pendingTriggers.add(System.nanoTime());
+    return future;
+  }
+
+  /** Stops the session for good and removes its sinks and listeners. */
+  public void close() {
+    stop();
+    synchronized (this) {
+      setState(State.CLOSED);
+    }
+    sinks.clear();
+    mainHandler.post(stateListeners::clear);
+  }
+
+  private synchronized void pause() {
+    paused = true;
+    if (state == State.STARTING || state == State.RUNNING) {
+      generation++;
+      FrameSource current = source;
+      mainHandler.post(() -> stopSource(current));
+      failCaptures(new CancellationException("Capture session paused"));
+      setState(State.PAUSED);
+    }
+  }
+
+  private synchronized void resume() {
+    paused = false;
+    if (state == State.PAUSED) {
+      startSource();
+    }
+  }
+
+  // Starts the current source, after the graph if it needs one. Guarded by this.
+  private void startSource() {
+    int startGeneration = ++generation;
+    FrameSource current = source;
+    setState(State.STARTING);
+    if (!current.needsGraph()) {
+      mainHandler.post(() -> onGraphReady(startGeneration, current, null));
+      return;
+    }
+    graph.markStreamStart();
+    ListenableFuture<Hands> handsFuture = graph.warmUp();
+    handsFuture.addListener(
+        () -> {
+          try {
+            onGraphReady(startGeneration, current, handsFuture.get());
+          } catch (ExecutionException | InterruptedException e) {
+            onStartFailed(startGeneration, e);
+          }
+        },
+        mainHandler::post);
+  }
+
+  // On the main thread.
+  private void onGraphReady(int startGeneration, FrameSource current, @Nullable Hands ready) {
+    synchronized (this) {
+      if (startGeneration != generation) {
+        return;
+      }
+      hands = ready;
+    }
+    if (ready != null) {
+      graph.attach(this::onResult, (message, e) -> Log.e(TAG, "Hands graph error: " + message));
+    }
+    try {
+      current.start(ready, this::onFrame);
+    } catch (Exception e) {
+      stopSource(current);
+      onStartFailed(startGeneration, e);
+      return;
+    }
+    SettableFuture<Hands> future;
+    synchronized (this) {
+      if (startGeneration != generation) {
+        // Paused or stopped while the source started.
+        return;
+      }
+      future = startFuture;
+      startFuture = null;
+      setState(State.RUNNING);
+    }
+    if (future != null) {
+      future.set(ready);
+    }
+  }
+
+  private void onStartFailed(int startGeneration, Exception e) {
+    Log.e(TAG, "Unable to start capture session: " + e);
+    SettableFuture<Hands> future;
+    synchronized (this) {
+      if (startGeneration != generation) {
+        return;
+      }
+      source = null;
+      future = startFuture;
+      startFuture = null;
+      setState(State.IDLE);
+    }
+    if (future != null) {
+      future.setException(e);
+    }
+  }
+
+  // On the main thread.
+  private void stopSource(FrameSource stopped) {
+    try {
+      stopped.stop();
+    } catch (RuntimeException e) {
+      Log.e(TAG, "Unable to stop frame source: " + e);
+    }
+    synchronized (this) {
+      if (source == null || state == State.PAUSED) {
+        graph.detach();
+      }
+    }
+  }
+
+  // Guarded by this.
+  private void cancelStart() {
+    if (startFuture != null) {
+      startFuture.cancel(false);
+      startFuture = null;
+    }
+  }
+
+  // Guarded by this.
+  private void failCaptures(Exception e) {
+    for (SettableFuture<Capture> capture : pendingCaptures) {
+      capture.setException(e);
+    }
+    pendingCaptures.clear();
+    pendingTriggers.clear();
+  }
+
+  // Guarded by this.
+  private void setState(State newState) {
+    if (state == newState) {
+      return;
+    }
+    state = newState;
+    Log.i(TAG, "State " + newState);
+    mainHandler.post(
+        () -> {
+          for (StateListener listener : stateListeners) {
+            listener.onStateChanged(newState);
+          }
+        });
+  }
+
+  private void onResult(HandsResult result) {
+    synchronized (frame) {
+      // Landmarks are normalized; the input image is not read back to size them.
+      HandsResultFrames.fill(result, 0, 0, frame);
+      deliver(frame, result);
+    }
+  }
+
+  private void onFrame(LandmarkFrame landmarks) {
+    synchronized (frame) {
+      deliver(landmarks, null);
+    }
+  }
+
+  private void deliver(LandmarkFrame landmarks, @Nullable HandsResult result) {
+    for (ResultSink sink : sinks) {
+      sink.onResult(landmarks, result);
+    }
+    List<SettableFuture<Capture>> captures;
+    List<Long> triggers;
+    synchronized (this) {
+      if (pendingCaptures.isEmpty()) {
+        return;
+      }
+      captures = new ArrayList<>(pendingCaptures);
+      triggers = new ArrayList<>(pendingTriggers);
+      pendingCaptures.clear();
+      pendingTriggers.clear();
+    }
+    Bitmap image = result != null ? result.inputBitmap() : null;
+    LumaFrame highRes = null;
+    HighResFrameRing ring = highResFrames;
+    if (result != null && ring != null) {
+      highRes = new LumaFrame();
+      if (!ring.copyClosest(result.timestamp() * 1000, highRes)) {
+        highRes = null;
+      }
+      Log.i(TAG, "High-res frame matched: " + (highRes != null) + ", " + ring.getMatcher());
+    }
+    for (int i = 0; i < captures.size(); i++) {
+      Capture capture = new Capture(landmarks, result, image, highRes, triggers.get(i));
+      long latencyUs = (capture.capturedAtNs - capture.triggeredAtNs) / 1000;
+      Log.i(TAG, "Captured " + latencyUs + " us after the trigger");
+      captures.get(i).set(capture);
+    }
+  }
+}
@@ -0,0 +1,436 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import android.util.Log;
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A write-behind queue for capture files.
+ *
+ * <p>Captures are first written to a journal in app-private storage, which is always writable and
+ * fast, inside a {@link Transaction}: the files of a capture are written as parts and only become
+ * visible when the transaction commits, so a capture is never exported half-written. A background
+ * worker then moves committed files in batches to their final location through an {@link
+ * CaptureExporter}, and deletes them from the journal once exported. Failed exports are retried
+ * with backoff; a file that fails {@link #MAX_EXPORT_ATTEMPTS} times in a row is moved aside to
+ * the {@link #FAILED_DIR} directory of the journal, outside its limit, so it does not hold up the
+ * files after it.
+ *
+ * <p>The journal survives crashes: {@link #open} drops parts of uncommitted transactions and
+ * queues every committed file again. The journal is bounded; transactions that would grow it
+ * beyond its limit fail with a {@link FullException} instead of filling the device. Instances are
+ * thread-safe.
+ */
+public final class CaptureWriteQueue {
+  private static final String TAG = "CaptureWriteQueue";
+  private static final String PART_SUFFIX = ".part";
+  // Files exported per worker run, after which the worker reports metrics and yields.
+  private static final int BATCH_SIZE = 32;
+  private static final long MIN_RETRY_DELAY_MS = 1000;
+  private static final long MAX_RETRY_DELAY_MS = 60_000;
+  static final int MAX_EXPORT_ATTEMPTS = 5;
+  // Not a valid subject directory, so recovery never mistakes it for one.
+  static final String FAILED_DIR = ".failed";
+
+  /** Called on the worker thread when a file has been exported, or given up on. */
+  public interface Listener {
+    void onExported(File journalFile, String location);
+
+    /** Called when the file failed to export too often and was moved to {@code movedTo}. */
+    void onExportFailed(File journalFile, File movedTo);
+  }
+
+  /** Thrown when a transaction would grow the journal beyond its limit. */
+  public static final class FullException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    FullException(long usedBytes, long maxBytes) {
+      super("Capture journal full: " + usedBytes + " of " + maxBytes + " bytes used");
+    }
+  }
+
+  /** The files of one capture, written to the journal together. Not thread-safe. */
+  public final class Transaction {
+    private final String directory;
+    private final File dir;
+    private final List<File> parts = new ArrayList<>();
+    private long reservedBytes;
+    private boolean done;
+
+    private Transaction(String directory) {
+      this.directory = directory;
+      this.dir = new File(journalDir, directory);
+    }
+
+    /**
+     * Writes a file to the journal.
+     *
+     * @return the journal file, which exists once the transaction is committed.
+     */
+    public File write(String name, byte[] data) throws IOException {
+      return write(name, new ByteArrayInputStream(data), data.length);
+    }
+
+    /** Writes a file of {@code length} bytes read from {@code data}, in constant memory. */
+    public File write(String name, InputStream data, long length) throws IOException {
+      if (done) {
+        throw new IllegalStateException("Transaction already ended");
+      }
+      reserve(length);
+      reservedBytes += length;
+      if (!dir.isDirectory() && !dir.mkdirs()) {
+        throw new IOException("Unable to create " + dir);
+      }
+      File part = new File(dir, name + PART_SUFFIX);
+      parts.add(part);
+      try (FileOutputStream out = new FileOutputStream(part)) {
+        byte[] buffer = new byte[(int) Math.min(length, 64 * 1024)];
+        long written = 0;
+        for (int n; written < length && (n = data.read(buffer)) > 0; written += n) {
+          out.write(buffer, 0, n);
+        }
+        if (written != length) {
+          throw new IOException("Expected " + length + " bytes for " + name + ", got " + written);
+        }
+        out.getFD().sync();
+      }
+      return journalFile(part);
+    }
+
+    /** Makes the files visible to the worker. */
+    public void commit() throws IOException {
+      commit(null);
+    }
+
+    /**
+     * Makes the files visible to the worker, running {@code onCommitted}, if not null, once they
+     * are committed but before the worker can export them, e.g. to record where they are.
+     */
+    public void commit(Runnable onCommitted) throws IOException {
+      if (done) {
+        throw new IllegalStateException("Transaction already ended");
+      }
+      done = true;
+      List<Entry> entries = new ArrayList<>();
+      for (File part : parts) {
+        File file = journalFile(part);
+        if (!part.renameTo(file)) {
+          abort(parts);
+          throw new IOException("Unable to commit " + file);
+        }
+        entries.add(new Entry(directory, file));
+      }
+      if (onCommitted != null) {
+        onCommitted.run();
+      }
+      synchronized (CaptureWriteQueue.this) {
+        pending.addAll(entries);
+        journaledFiles += entries.size();
+        journaledBytes += reservedBytes;
+      }
+      scheduleDrain(0);
+    }
+
+    /** Deletes the files written so far; does nothing once committed. */
+    public void abort() {
+      if (!done) {
+        done = true;
+        abort(parts);
+      }
+    }
+
+    private void abort(List<File> files) {
+      for (File file : files) {
+        file.delete();
+        journalFile(file).delete();
+      }
+      release(reservedBytes);
+    }
+
+    private File journalFile(File part) {
+      String name = part.getName();
+      return new File(dir, name.substring(0, name.length() - PART_SUFFIX.length()));
+    }
+  }
+
+  /** Counters since the queue was opened. */
+  public static final class Metrics {
+    public int pendingFiles;
+    public long journalBytes;
+    public long journaledFiles;
+    public long journaledBytes;
+    public long exportedFiles;
+    public long exportedBytes;
+    public long exportNanos;
+    public long failures;
+    public long abandoned;
+    public long rejected;
+
+    @Override
+    public String toString() {
+      return String.format(
+          Locale.US,
+          "pending=%d journal=%.1fMB journaled=%d (%.1fMB) exported=%d (%.1fMB at %.1fMB/s)"
+              + " failures=%d abandoned=%d rejected=%d",
+          pendingFiles,
+          journalBytes / 1e6,
+          journaledFiles,
+          journaledBytes / 1e6,
+          exportedFiles,
+          exportedBytes / 1e6,
+          exportNanos == 0 ? 0 : exportedBytes * 1e3 / exportNanos,
+          failures,
+          abandoned,
+          rejected);
+    }
+  }
+
+  private static final class Entry {
+    final String directory;
+    final File file;
+    // Failed exports in a row; only touched by the worker.
+    int attempts;
+
+    Entry(String directory, File file) {
+      this.directory = directory;
+      this.file = file;
+    }
+  }
+
+  private final File journalDir;
+  private final CaptureExporter exporter;
+  private final long maxBytes;
+  private final Listener listener;
+  private final ScheduledExecutorService worker =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          });
+  private final ArrayDeque<Entry> pending = new ArrayDeque<>();
+  private long usedBytes;
+  private boolean drainScheduled;
+  private long retryDelayMs = MIN_RETRY_DELAY_MS;
+  private long journaledFiles;
+  private long journaledBytes;
+  private long exportedFiles;
+  private long exportedBytes;
+  private long exportNanos;
+  private long failures;
+  private long abandoned;
+  private long rejected;
+
+  private CaptureWriteQueue(
+      File journalDir, CaptureExporter exporter, long maxBytes, Listener listener) {
+    this.journalDir = journalDir;
+    this.exporter = exporter;
+    this.maxBytes = maxBytes;
+    this.listener = listener;
+  }
+
+  /**
+   * Opens the journal in {@code journalDir}, recovering the files of an earlier run, and starts
+   * exporting them.
+   *
+   * @param maxBytes the most the journal may hold.
+   * @param listener if not null, is told about each export.
+   */
+  public static CaptureWriteQueue open(
+      File journalDir, CaptureExporter exporter, long maxBytes, Listener listener)
+      throws IOException {
+    if (!journalDir.isDirectory() && !journalDir.mkdirs()) {
+      throw new IOException("Unable to create " + journalDir);
+    }
+    CaptureWriteQueue queue = new CaptureWriteQueue(journalDir, exporter, maxBytes, listener);
+    queue.recover();
+    queue.scheduleDrain(0);
+    return queue;
+  }
+
+  /** Starts a transaction for files exported to {@code directory}, e.g. the subject ID. */
+  public Transaction begin(String directory) {
+    return new Transaction(directory);
+  }
+
+  public synchronized Metrics getMetrics() {
+    Metrics metrics = new Metrics();
+    metrics.pendingFiles = pending.size();
+    metrics.journalBytes = usedBytes;
+    metrics.journaledFiles = journaledFiles;
+    metrics.journaledBytes = journaledBytes;
+    metrics.exportedFiles = exportedFiles;
+    metrics.exportedBytes = exportedBytes;
+    metrics.exportNanos = exportNanos;
+    metrics.failures = failures;
+    metrics.abandoned = abandoned;
+    metrics.rejected = rejected;
+    return metrics;
+  }
+
+  private void recover() {
+    File[] dirs =
+        journalDir.listFiles(dir -> dir.isDirectory() && !dir.getName().equals(FAILED_DIR));
+    if (dirs == null) {
+      return;
+    }
+    List<Entry> entries = new ArrayList<>();
+    int dropped = 0;
+    for (File dir : dirs) {
+      File[] files = dir.listFiles(File::isFile);
+      if (files == null) {
+        continue;
+      }
+      if (files.length == 0) {
+        // Directories are only removed here, when no transaction can be writing to them.
+        dir.delete();
+      }
+      for (File file : files) {
+        if (file.getName().endsWith(PART_SUFFIX)) {
+          file.delete();
+          dropped++;
+        } else {
+          entries.add(new Entry(dir.getName(), file));
+        }
+      }
+    }
+    // Oldest captures are exported first, as they would have been without the crash.
+    Entry[] sorted = entries.toArray(new Entry[0]);
+    Arrays.sort(sorted, (a, b) -> Long.compare(a.file.lastModified(), b.file.lastModified()));
+    synchronized (this) {
+      for (Entry entry : sorted) {
+        pending.add(entry);
+        usedBytes += entry.file.length();
+      }
+    }
+    Log.i(TAG, "Recovered " + sorted.length + " files, dropped " + dropped + " parts");
+  }
+
+  private synchronized void reserve(long bytes) throws FullException {
+    if (usedBytes + bytes > maxBytes) {
+      rejected++;
+      throw new FullException(usedBytes, maxBytes);
+    }
+    usedBytes += bytes;
+  }
+
+  private synchronized void release(long bytes) {
+    usedBytes -= bytes;
+  }
+
+  private synchronized void scheduleDrain(long delayMs) {
+    if (!drainScheduled) {
+      drainScheduled = true;
+      worker.schedule(this::drain, delayMs, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  private void drain() {
+    synchronized (this) {
+      drainScheduled = false;
+    }
+    for (int i = 0; i < BATCH_SIZE; i++) {
+      Entry entry;
+      synchronized (this) {
+        entry = pending.peek();
+      }
+      if (entry == null) {
+        break;
+      }
+      long bytes = entry.file.length();
+      long start = System.nanoTime();
+      String location;
+      try {
+        location = exporter.export(entry.file, entry.directory, entry.file.getName());
+      } catch (IOException | RuntimeException e) {
+        synchronized (this) {
+          failures++;
+        }
+        if (++entry.attempts >= MAX_EXPORT_ATTEMPTS) {
+          Log.e(TAG, "Unable to export " + entry.file + ", giving up: " + e);
+          abandon(entry, bytes);
+          continue;
+        }
+        Log.e(TAG, "Unable to export " + entry.file + ", retry in " + retryDelayMs + " ms: " + e);
+        long delayMs = retryDelayMs;
+        retryDelayMs = Math.min(MAX_RETRY_DELAY_MS, retryDelayMs * 2);
+        scheduleDrain(delayMs);
+        return;
+      }
+      retryDelayMs = MIN_RETRY_DELAY_MS;
+      entry.file.delete();
+      synchronized (this) {
+        pending.poll();
+        usedBytes -= bytes;
+        exportedFiles++;
+        exportedBytes += bytes;
+        exportNanos += System.nanoTime() - start;
+      }
+      if (listener != null) {
+        try {
+          listener.onExported(entry.file, location);
+        } catch (RuntimeException e) {
+          // The file is exported either way.
+          Log.e(TAG, "Export listener failed for " + entry.file + ": " + e);
+        }
+      }
+    }
+    Log.i(TAG, getMetrics().toString());
+    synchronized (this) {
+      if (!pending.isEmpty()) {
+        scheduleDrain(0);
+      }
+    }
+  }
+
+  // Moves a file that keeps failing to export out of the queue, so the files after it go on.
+  private void abandon(Entry entry, long bytes) {
+    File dir = new File(new File(journalDir, FAILED_DIR), entry.directory);
+    File movedTo = new File(dir, entry.file.getName());
+    if ((dir.isDirectory() || dir.mkdirs()) && entry.file.renameTo(movedTo)) {
+      Log.e(TAG, "Moved " + entry.file + " to " + movedTo);
+    } else {
+      // Left in place, it is retried when the journal is next opened.
+      Log.e(TAG, "Unable to move " + entry.file + " aside");
+      movedTo = entry.file;
+    }
+    retryDelayMs = MIN_RETRY_DELAY_MS;
+    synchronized (this) {
+      pending.poll();
+      usedBytes -= bytes;
+      abandoned++;
+    }
+    if (listener != null) {
+      try {
+        listener.onExportFailed(entry.file, movedTo);
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Export listener failed for " + entry.file + ": " + e);
+      }
+    }
+  }
+}
@@ -0,0 +1,223 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Compares {@link FingerImageEncoder}s on a fixed corpus of finger images: encode and decode time,
+ * size, and fidelity as PSNR and SSIM against the original.
+ *
+ * <p>The corpus is each image as extracted and as ridge-enhanced, the two kinds of image captures
+ * are saved as. Runs on a desktop JVM, where only the encoders that do not need the Android
+ * platform work, and on a device through {@link #run}:
+ *
+ * <pre>
+ *   CodecBenchmark [--rounds N] [--seed S] [--codecs png:1,png,raw] [image.pgm ...]
+ * </pre>
+ *
+ * Without images, the {@link SyntheticFingers} of one capture are used.
+ */
+public final class CodecBenchmark {
+  // Sliding windows SSIM is computed over, and the step between them.
+  private static final int SSIM_WINDOW = 8;
+  private static final int SSIM_STEP = 4;
+  private static final double SSIM_C1 = Math.pow(0.01 * 255, 2);
+  private static final double SSIM_C2 = Math.pow(0.03 * 255, 2);
+
+  private CodecBenchmark() {}
+
+  /** The results of one encoder. */
+  public static final class Result {
+    public final String codec;
+    public int images;
+    public long pixels;
+    public long bytes;
+    public long encodeNanos;
+    public long decodeNanos;
+    public double squaredError;
+    public double ssimSum;
+
+    Result(String codec) {
+      this.codec = codec;
+    }
+
+    /** Returns the PSNR in dB, infinite if lossless. */
+    public double psnr() {
+      return squaredError == 0
+          ? Double.POSITIVE_INFINITY
+          : 10 * Math.log10(255.0 * 255.0 * pixels / squaredError);
+    }
+
+    @Override
+    public String toString() {
+      double n = Math.max(1, images);
+      return String.format(
+          Locale.US,
+          "%-14s encode=%7.2fms decode=%7.2fms bytes=%8.0f bpp=%5.2f psnr=%6.2fdB ssim=%.4f",
+          codec,
+          encodeNanos / n / 1e6,
+          decodeNanos / n / 1e6,
+          bytes / n,
+          8.0 * bytes / Math.max(1, pixels),
+          psnr(),
+          ssimSum / n);
+    }
+  }
+
+  /** Returns {@code images} and their ridge-enhanced versions. */
+  public static List<GrayImage> withEnhanced(List<GrayImage> images) {
+    RidgeEnhancer enhancer = new RidgeEnhancer(null, 1);
+    List<GrayImage> corpus = new ArrayList<>(images);
+    for (GrayImage image : images) {
+      corpus.add(enhancer.enhance(image));
+    }
+    return corpus;
+  }
+
+  /** Runs every encoder over {@code corpus} {@code rounds} times. */
+  public static List<Result> run(
+      List<GrayImage> corpus, List<FingerImageEncoder> encoders, int rounds) throws IOException {
+    Map<String, String> metadata = Collections.singletonMap("Quality", "50");
+    List<Result> results = new ArrayList<>();
+    for (FingerImageEncoder encoder : encoders) {
+      Result result = new Result(encoder.getName());
+      for (int round = 0; round < rounds; round++) {
+        for (GrayImage image : corpus) {
+          long start = System.nanoTime();
+          byte[] encoded = encoder.encode(image, metadata);
+          long encodedAt = System.nanoTime();
+          GrayImage decoded = encoder.decode(encoded);
+          long end = System.nanoTime();
+          if (decoded.getWidth() != image.getWidth() || decoded.getHeight() != image.getHeight()) {
+            throw new IOException(encoder.getName() + " changed the image size");
+          }
+          result.images++;
+          result.pixels += (long) image.getWidth() * image.getHeight();
+          result.bytes += encoded.length;
+          result.encodeNanos += encodedAt - start;
+          result.decodeNanos += end - encodedAt;
+          result.squaredError += squaredError(image, decoded);
+          result.ssimSum += ssim(image, decoded);
+        }
+      }
+      if (encoder.isLossless() && result.squaredError != 0) {
+        throw new IOException(encoder.getName() + " is not lossless");
+      }
+      results.add(result);
+    }
+    return results;
+  }
+
+  static double squaredError(GrayImage a, GrayImage b) {
+    byte[] pa = a.getPixels();
+    byte[] pb = b.getPixels();
+    double sum = 0;
+    for (int i = 0; i < a.getWidth() * a.getHeight(); i++) {
+      int d = (pa[i] & 0xff) - (pb[i] & 0xff);
+      sum += d * d;
+    }
+    return sum;
+  }
+
+  /** Returns the mean SSIM over sliding windows. */
+  static double ssim(GrayImage a, GrayImage b) {
+    int width = a.getWidth();
+    double sum = 0;
+    int windows = 0;
+    int area = SSIM_WINDOW * SSIM_WINDOW;
+    for (int y = 0; y + SSIM_WINDOW <= a.getHeight(); y += SSIM_STEP) {
+      for (int x = 0; x + SSIM_WINDOW <= width; x += SSIM_STEP) {
+        double sa = 0;
+        double sb = 0;
+        double saa = 0;
+        double sbb = 0;
+        double sab = 0;
+        for (int j = 0; j < SSIM_WINDOW; j++) {
+          for (int i = 0; i < SSIM_WINDOW; i++) {
+            int va = a.get(x + i, y + j);
+            int vb = b.get(x + i, y + j);
+            sa += va;
+            sb += vb;
+            saa += va * va;
+            sbb += vb * vb;
+            sab += va * vb;
+          }
+        }
+        double ma = sa / area;
+        double mb = sb / area;
+        double varA = saa / area - ma * ma;
+        double varB = sbb / area - mb * mb;
+        double cov = sab / area - ma * mb;
+        sum +=
+            (2 * ma * mb + SSIM_C1)
+                * (2 * cov + SSIM_C2)
+                / ((ma * ma + mb * mb + SSIM_C1) * (varA + varB + SSIM_C2));
+        windows++;
+      }
+    }
+    return windows == 0 ? 1 : sum / windows;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int rounds = 5;
+    long seed = 42;
+    List<String> codecs = Arrays.asList("png:1", "png", "png:9", "raw");
+    List<File> files = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      switch (args[i]) {
+        case "--rounds":
+          rounds = Integer.parseInt(args[++i]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[++i]);
+          break;
+        case "--codecs":
+          codecs = Arrays.asList(args[++i].split(","));
+          break;
+        default:
+          files.add(new File(args[i]));
+      }
+    }
+    List<GrayImage> images = new ArrayList<>();
+    if (files.isEmpty()) {
+      images.addAll(SyntheticFingers.capture(new Random(seed)));
+    } else {
+      for (File file : files) {
+        images.add(MinutiaeBenchmark.readPgm(file));
+      }
+    }
+    List<GrayImage> corpus = withEnhanced(images);
+    List<FingerImageEncoder> encoders = new ArrayList<>();
+    for (String codec : codecs) {
+      encoders.add(FingerImageEncoders.forName(codec));
+    }
+
+    // Warms up the JIT before the measured run.
+    run(corpus, encoders, 1);
+    System.out.println(corpus.size() + " images, " + rounds + " rounds");
+    for (Result result : run(corpus, encoders, rounds)) {
+      System.out.println(result);
+    }
+  }
+}
@@ -0,0 +1,210 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Binary minutia cylinder codes, after Cappelli et al., MCC.
+ *
+ * <p>Each cylinder describes the neighbourhood of one minutia in its own frame: a disc around the
+ * minutia, rotated to its angle, is divided into spatial cells and each cell into direction bins
+ * relative to the minutia. A bit is set when nearby minutiae with a matching relative direction
+ * contribute enough to the bin. The codes are invariant to translation and rotation, so fingers
+ * are compared without aligning them, and similar codes share many bits, which makes them
+ * suitable for locality-sensitive hashing.
+ *
+ * <p>This variant is compact: 32 cells of a 6 x 6 grid that fall inside the disc, times 4
+ * directions, is 128 bits, or {@link #WORDS} longs per cylinder. Coordinates are at 500 dpi.
+ */
+final class CylinderCode {
+  static final int WORDS = 2;
+  static final int BITS = 64 * WORDS;
+  // Cylinders are built around the best minutiae only.
+  static final int MAX_CYLINDERS = 24;
+
+  private static final float RADIUS = 70f;
+  private static final int GRID = 6;
+  private static final int DIRECTIONS = 4;
+  private static final float SIGMA_SPACE = 28f / 3;
+  private static final float SIGMA_DIRECTION = (float) (2 * Math.PI / 9);
+  // Contribution from which a bit is set; one minutia right on a cell center contributes 1.
+  private static final float BIT_THRESHOLD = 0.15f;
+  // Cylinders with fewer neighbours than this carry too little information.
+  private static final int MIN_NEIGHBOURS = 2;
+  // Matching cylinders must belong to minutiae whose angles differ by less than this.
+  private static final float MAX_ANGLE_DIFFERENCE = (float) (Math.PI / 2);
+  // The global score averages the best this many local similarities, within these bounds.
+  private static final int MIN_PAIRS = 4;
+  private static final int MAX_PAIRS = 12;
+
+  private static final float[] CELL_X = new float[BITS / DIRECTIONS];
+  private static final float[] CELL_Y = new float[BITS / DIRECTIONS];
+
+  static {
+    float cell = 2 * RADIUS / GRID;
+    int count = 0;
+    for (int i = 0; i < GRID; i++) {
+      for (int j = 0; j < GRID; j++) {
+        float x = (i - (GRID - 1) / 2f) * cell;
+        float y = (j - (GRID - 1) / 2f) * cell;
+        if (x * x + y * y <= RADIUS * RADIUS) {
+          CELL_X[count] = x;
+          CELL_Y[count] = y;
+          count++;
+        }
+      }
+    }
+    if (count != CELL_X.length) {
+      throw new AssertionError("Unexpected cylinder cell count " + count);
+    }
+  }
+
+  private CylinderCode() {}
+
+  /**
+   * Encodes the cylinders of up to {@link #MAX_CYLINDERS} minutiae, taken in order.
+   *
+   * @param scale the factor from the minutiae coordinates to 500 dpi.
+   * @param bits receives {@link #WORDS} longs per cylinder.
+   * @param angles receives the angle of the minutia of each cylinder.
+   * @return the number of cylinders encoded.
+   */
+  static int encode(List<Minutia> minutiae, float scale, long[] bits, float[] angles) {
+    int n = minutiae.size();
+    // In a y-up frame, where minutia angles are counter-clockwise.
+    float[] x = new float[n];
+    float[] y = new float[n];
+    float[] theta = new float[n];
+    for (int i = 0; i < n; i++) {
+      Minutia minutia = minutiae.get(i);
+      x[i] = minutia.x * scale;
+      y[i] = -minutia.y * scale;
+      theta[i] = minutia.angle;
+    }
+    float reach = RADIUS + 3 * SIGMA_SPACE;
+    float[] contributions = new float[BITS];
+    int count = 0;
+    for (int c = 0; c < n && count < MAX_CYLINDERS; c++) {
+      float cos = (float) Math.cos(theta[c]);
+      float sin = (float) Math.sin(theta[c]);
+      Arrays.fill(contributions, 0);
+      int neighbours = 0;
+      for (int t = 0; t < n; t++) {
+        if (t == c) {
+          continue;
+        }
+        float dx = x[t] - x[c];
+        float dy = y[t] - y[c];
+        if (dx * dx + dy * dy > reach * reach) {
+          continue;
+        }
+        neighbours++;
+        // Neighbour position and direction in the frame of the cylinder minutia.
+        float localX = dx * cos + dy * sin;
+        float localY = -dx * sin + dy * cos;
+        float relative = angleDifference(theta[t], theta[c]);
+        for (int cell = 0; cell < CELL_X.length; cell++) {
+          float ex = localX - CELL_X[cell];
+          float ey = localY - CELL_Y[cell];
+          float space = (float) Math.exp(-(ex * ex + ey * ey) / (2 * SIGMA_SPACE * SIGMA_SPACE));
+          if (space < 1e-3f) {
+            continue;
+          }
+          for (int d = 0; d < DIRECTIONS; d++) {
+            float binCenter = (float) (-Math.PI + (d + 0.5) * 2 * Math.PI / DIRECTIONS);
+            float ed = angleDifference(relative, binCenter);
+            contributions[cell * DIRECTIONS + d] +=
+                space * (float) Math.exp(-(ed * ed) / (2 * SIGMA_DIRECTION * SIGMA_DIRECTION));
+          }
+        }
+      }
+      if (neighbours < MIN_NEIGHBOURS) {
+        continue;
+      }
+      int offset = count * WORDS;
+      for (int w = 0; w < WORDS; w++) {
+        bits[offset + w] = 0;
+      }
+      for (int bit = 0; bit < BITS; bit++) {
+        if (contributions[bit] >= BIT_THRESHOLD) {
+          bits[offset + bit / 64] |= 1L << (bit % 64);
+        }
+      }
+      angles[count] = theta[c];
+      count++;
+    }
+    return count;
+  }
+
+  /** Returns bit {@code bit} of cylinder {@code index}. */
+  static boolean bit(long[] bits, int index, int bit) {
+    return (bits[index * WORDS + bit / 64] & (1L << (bit % 64))) != 0;
+  }
+
+  /** Returns the similarity of two cylinders, 0 to 1. */
+  static float similarity(
+      long[] aBits, float[] aAngles, int a, long[] bBits, float[] bAngles, int b) {
+    if (Math.abs(angleDifference(aAngles[a], bAngles[b])) > MAX_ANGLE_DIFFERENCE) {
+      return 0;
+    }
+    int differing = 0;
+    int total = 0;
+    for (int w = 0; w < WORDS; w++) {
+      long wordA = aBits[a * WORDS + w];
+      long wordB = bBits[b * WORDS + w];
+      differing += Long.bitCount(wordA ^ wordB);
+      total += Long.bitCount(wordA) + Long.bitCount(wordB);
+    }
+    return total == 0 ? 0 : 1 - (float) differing / total;
+  }
+
+  /**
+   * Returns the similarity of two fingers, 0 to 1: the mean of the best local similarities of
+   * their cylinders.
+   */
+  static float match(
+      long[] aBits, float[] aAngles, int aCount, long[] bBits, float[] bAngles, int bCount) {
+    if (aCount == 0 || bCount == 0) {
+      return 0;
+    }
+    float[] best = new float[aCount];
+    for (int a = 0; a < aCount; a++) {
+      for (int b = 0; b < bCount; b++) {
+        best[a] = Math.max(best[a], similarity(aBits, aAngles, a, bBits, bAngles, b));
+      }
+    }
+    Arrays.sort(best);
+    int pairs = Math.max(MIN_PAIRS, Math.min(MAX_PAIRS, Math.min(aCount, bCount) / 2));
+    pairs = Math.min(pairs, aCount);
+    float sum = 0;
+    for (int i = 0; i < pairs; i++) {
+      sum += best[aCount - 1 - i];
+    }
+    return sum / pairs;
+  }
+
+  // Difference a - b, wrapped to [-pi, pi).
+  private static float angleDifference(float a, float b) {
+    double d = (a - b) % (2 * Math.PI);
+    if (d < -Math.PI) {
+      d += 2 * Math.PI;
+    } else if (d >= Math.PI) {
+      d -= 2 * Math.PI;
+    }
+    return (float) d;
+  }
+}
@@ -0,0 +1,108 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * The capture rules used by the app: a palm-width distance band measured between INDEX_FINGER_MCP
+ * and PINKY_MCP of the first hand, and fixed-size boxes offset around each fingertip.
+ */
+public class DefaultCaptureDecisionEngine implements CaptureDecisionEngine {
+  // The palm width is measured on a fixed reference canvas so that the band does not depend on the
+  // size of the surface the frames are rendered to.
+  static final int REFERENCE_WIDTH = 768;
+  static final int REFERENCE_HEIGHT = 1024;
+  static final double MIN_PALM_WIDTH = 300;
+  static final double MAX_PALM_WIDTH = 450;
+
+  // Fingertip box, in image pixels, relative to the tip landmark.
+  static final int ROI_OFFSET_X = 70;
+  static final int ROI_OFFSET_Y = 60;
+  static final int ROI_WIDTH = 120;
+  static final int ROI_HEIGHT = 170;
+
+  private final double minPalmWidth;
+  private final double maxPalmWidth;
+
+  public DefaultCaptureDecisionEngine() {
+    this(MIN_PALM_WIDTH, MAX_PALM_WIDTH);
+  }
+
+  public DefaultCaptureDecisionEngine(double minPalmWidth, double maxPalmWidth) {
+    this.minPalmWidth = minPalmWidth;
+    this.maxPalmWidth = maxPalmWidth;
+  }
+
+  @Override
+  public void decide(LandmarkFrame frame, CaptureDecision decision) {
+    decision.clear();
+    if (frame.getNumHands() == 0) {
+      return;
+    }
+    // Every hand has to be in range. The reported width is that of the first hand out of range,
+    // preferring a hand that is too close.
+    CaptureDecision.Distance distance = CaptureDecision.Distance.IN_RANGE;
+    double palmWidth = palmWidth(frame, 0);
+    for (int hand = 0; hand < frame.getNumHands(); ++hand) {
+      double handWidth = palmWidth(frame, hand);
+      if (handWidth > maxPalmWidth) {
+        distance = CaptureDecision.Distance.TOO_CLOSE;
+        palmWidth = handWidth;
+        break;
+      } else if (handWidth < minPalmWidth && distance == CaptureDecision.Distance.IN_RANGE) {
+        distance = CaptureDecision.Distance.TOO_FAR;
+        palmWidth = handWidth;
+      }
+    }
+    decision.setDistance(distance, palmWidth);
+
+    int width = frame.getImageWidth();
+    int height = frame.getImageHeight();
+    if (width <= 0 || height <= 0) {
+      return;
+    }
+    for (int hand = 0; hand < frame.getNumHands(); ++hand) {
+      for (int tip : LandmarkFrame.FINGERTIPS) {
+        addRoi(frame, hand, tip, width, height, decision);
+      }
+    }
+  }
+
+  /** Returns the INDEX_FINGER_MCP to PINKY_MCP distance on the reference canvas. */
+  static double palmWidth(LandmarkFrame frame, int hand) {
+    double dx =
+        (frame.getX(hand, LandmarkFrame.PINKY_MCP) - frame.getX(hand, LandmarkFrame.INDEX_FINGER_MCP))
+            * REFERENCE_WIDTH;
+    double dy =
+        (frame.getY(hand, LandmarkFrame.PINKY_MCP) - frame.getY(hand, LandmarkFrame.INDEX_FINGER_MCP))
+            * REFERENCE_HEIGHT;
+    return Math.sqrt(dx * dx + dy * dy);
+  }
+
+  // Places the fingertip box and clips it to the image. Boxes that fall entirely outside the image
+  // are dropped.
+  private static void addRoi(
+      LandmarkFrame frame, int hand, int tip, int width, int height, CaptureDecision decision) {
+    int left = (int) (frame.getX(hand, tip) * width) - ROI_OFFSET_X;
+    int top = (int) (frame.getY(hand, tip) * height) - ROI_OFFSET_Y;
+    int right = Math.min(left + ROI_WIDTH, width);
+    int bottom = Math.min(top + ROI_HEIGHT, height);
+    left = Math.max(left, 0);
+    top = Math.max(top, 0);
+    if (right <= left || bottom <= top) {
+      return;
+    }
+    decision.addRoi(hand, tip, left, top, right - left, bottom - top);
+  }
+}
@@ -0,0 +1,134 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.PowerManager;
+import android.os.SystemClock;
+import androidx.core.content.ContextCompat;
+import javax.annotation.Nullable;
+
+/**
+ * Reports the thermal status of the device and its battery level to a {@link PipelineGovernor},
+ * on the main thread.
+ *
+ * <p>The thermal status comes from {@link PowerManager} from Android 10. Earlier devices have no
+ * thermal status, so it is estimated from the battery temperature, which follows the heat of the
+ * device closely enough to step the pipeline down.
+ *
+ * <p>Both only notify changes, so the latest readings are also reported every {@link
+ * #REPORT_INTERVAL_MS}; otherwise a device that has cooled down and stays cool would never give
+ * the governor the reading that lets it relax.
+ */
+public final class DeviceThermalSource implements PipelineGovernor.Source {
+  // Battery temperatures, in tenths of a degree Celsius, from which the light, moderate and
+  // severe statuses are assumed without a PowerManager status.
+  private static final int[] BATTERY_TEMPERATURE_THRESHOLDS = {370, 400, 450};
+  static final long REPORT_INTERVAL_MS = PipelineGovernor.RECOVERY_DWELL_MS / 4;
+
+  private final Context context;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  private final Runnable periodicReport = this::reportPeriodically;
+  @Nullable private Listener listener;
+  @Nullable private BroadcastReceiver batteryReceiver;
+  @Nullable private PowerManager.OnThermalStatusChangedListener thermalListener;
+  // Latest readings, on the main thread.
+  private int thermalStatus = PipelineGovernor.THERMAL_STATUS_NONE;
+  private int batteryPercent = 100;
+  private boolean charging;
+  private int batteryTemperature;
+
+  public DeviceThermalSource(Context context) {
+    this.context = context.getApplicationContext();
+  }
+
+  @Override
+  public void start(Listener listener) {
+    this.listener = listener;
+    batteryReceiver =
+        new BroadcastReceiver() {
+          @Override
+          public void onReceive(Context context, Intent intent) {
+            int level = intent.getIntExtra(BatteryManager.EXTRA_LEVEL, -1);
+            int scale = intent.getIntExtra(BatteryManager.EXTRA_SCALE, -1);
+            if (level >= 0 && scale > 0) {
+              batteryPercent = level * 100 / scale;
+            }
+            int status = intent.getIntExtra(BatteryManager.EXTRA_STATUS, -1);
+            charging =
+                status == BatteryManager.BATTERY_STATUS_CHARGING
+                    || status == BatteryManager.BATTERY_STATUS_FULL;
+            batteryTemperature = intent.getIntExtra(BatteryManager.EXTRA_TEMPERATURE, 0);
+            report();
+          }
+        };
+    // The battery broadcast is sticky, so the current state arrives at once.
+    context.registerReceiver(batteryReceiver, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      PowerManager powerManager = context.getSystemService(PowerManager.class);
+      thermalListener =
+          status -> {
+            thermalStatus = status;
+            report();
+          };
+      powerManager.addThermalStatusListener(
+          ContextCompat.getMainExecutor(context), thermalListener);
+    }
+    handler.postDelayed(periodicReport, REPORT_INTERVAL_MS);
+  }
+
+  @Override
+  public void stop() {
+    handler.removeCallbacks(periodicReport);
+    if (batteryReceiver != null) {
+      context.unregisterReceiver(batteryReceiver);
+      batteryReceiver = null;
+    }
+    if (thermalListener != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+      context.getSystemService(PowerManager.class).removeThermalStatusListener(thermalListener);
+      thermalListener = null;
+    }
+    listener = null;
+  }
+
+  private void reportPeriodically() {
+    report();
+    handler.postDelayed(periodicReport, REPORT_INTERVAL_MS);
+  }
+
+  private void report() {
+    Listener current = listener;
+    if (current == null) {
+      return;
+    }
+    int status = thermalStatus;
+    if (thermalListener == null) {
+      status = PipelineGovernor.THERMAL_STATUS_NONE;
+      while (status < BATTERY_TEMPERATURE_THRESHOLDS.length
+          && batteryTemperature >= BATTERY_TEMPERATURE_THRESHOLDS[status]) {
+        status++;
+      }
+    }
+    current.onReading(status, batteryPercent, charging, SystemClock.elapsedRealtime());
+  }
+}
@@ -0,0 +1,111 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Exports capture files to a directory on a file system the app can write to, optionally
+ * encrypting them on the way.
+ */
+public final class DirectoryExporter implements CaptureExporter {
+  /** Appended to the names of encrypted files. */
+  public static final String ENCRYPTED_SUFFIX = ".enc";
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+  private final File root;
+  private final StreamingAead aead;
+
+  public DirectoryExporter(File root) {
+    this(root, null);
+  }
+
+  /**
+   * @param aead if not null, encrypts the files, which are then named with an {@link
+   *     #ENCRYPTED_SUFFIX}; their name without it is the associated data.
+   */
+  public DirectoryExporter(File root, StreamingAead aead) {
+    this.root = root;
+    this.aead = aead;
+  }
+
+  @Override
+  public String export(File file, String directory, String name) throws IOException {
+    File dir = new File(root, directory);
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create " + dir);
+    }
+    File target = new File(dir, aead == null ? name : name + ENCRYPTED_SUFFIX);
+    File part = new File(dir, target.getName() + ".part");
+    try (FileChannel in = new FileInputStream(file).getChannel();
+        FileOutputStream out = new FileOutputStream(part)) {
+      if (aead == null) {
+        long size = in.size();
+        for (long position = 0; position < size; ) {
+          position += in.transferTo(position, size - position, out.getChannel());
+        }
+      } else {
+        // Closing the encrypting stream would close the file before it is synced.
+        OutputStream encrypting =
+            aead.newEncryptingStream(new NonClosingOutputStream(out), associatedData(name));
+        copy(Channels.newInputStream(in), encrypting);
+        encrypting.close();
+      }
+      out.getFD().sync();
+    }
+    if (!part.renameTo(target)) {
+      part.delete();
+      throw new IOException("Unable to move " + part + " to " + target);
+    }
+    return target.getAbsolutePath();
+  }
+
+  /** Returns the associated data files named {@code name} are encrypted with. */
+  static byte[] associatedData(String name) {
+    return name.getBytes(UTF_8);
+  }
+
+  static void copy(InputStream in, OutputStream out) throws IOException {
+    byte[] buffer = new byte[64 * 1024];
+    for (int n; (n = in.read(buffer)) > 0; ) {
+      out.write(buffer, 0, n);
+    }
+  }
+
+  private static final class NonClosingOutputStream extends FilterOutputStream {
+    NonClosingOutputStream(OutputStream out) {
+      super(out);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      out.write(b, off, len);
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.flush();
+    }
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Benchmark of encrypted against plaintext exports: the same files are exported through a {@link
+ * DirectoryExporter} with and without a {@link StreamingAead}, including the final sync, and the
+ * encrypted ones are then decrypted.
+ *
+ * <p>Runs on a desktop JVM:
+ *
+ * <pre>
+ *   EncryptionBenchmark [--files N] [--size BYTES] [--rounds N] [--dir DIR]
+ * </pre>
+ *
+ * The defaults are a capture's worth of finger images; a large {@code --size} shows the
+ * throughput of the cipher itself.
+ */
+public final class EncryptionBenchmark {
+  private EncryptionBenchmark() {}
+
+  public static void main(String[] args) throws IOException, GeneralSecurityException {
+    int files = SyntheticFingers.FINGERS_PER_CAPTURE;
+    int size = 120 * 1024;
+    int rounds = 20;
+    File dir = new File(System.getProperty("java.io.tmpdir"), "kwikcapture-encryption-benchmark");
+    for (int i = 0; i < args.length; ++i) {
+      switch (args[i]) {
+        case "--files":
+          files = Integer.parseInt(args[++i]);
+          break;
+        case "--size":
+          size = Integer.parseInt(args[++i]);
+          break;
+        case "--rounds":
+          rounds = Integer.parseInt(args[++i]);
+          break;
+        case "--dir":
+          dir = new File(args[++i]);
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown argument " + args[i]);
+      }
+    }
+
+    File sources = new File(dir, "sources");
+    if (!sources.isDirectory() && !sources.mkdirs()) {
+      throw new IOException("Unable to create " + sources);
+    }
+    Random random = new Random(42);
+    byte[] data = new byte[size];
+    File[] inputs = new File[files];
+    for (int i = 0; i < files; i++) {
+      random.nextBytes(data);
+      inputs[i] = new File(sources, "finger-" + i + ".png");
+      try (OutputStream out = new FileOutputStream(inputs[i])) {
+        out.write(data);
+      }
+    }
+    KeyPair key = ExportDecryptor.generateKeyPair();
+    DirectoryExporter plain = new DirectoryExporter(new File(dir, "plain"));
+    DirectoryExporter encrypted =
+        new DirectoryExporter(new File(dir, "encrypted"), new StreamingAead(key.getPublic()));
+    File decrypted = new File(dir, "decrypted");
+    if (!decrypted.isDirectory() && !decrypted.mkdirs()) {
+      throw new IOException("Unable to create " + decrypted);
+    }
+
+    long plainNanos = 0;
+    long encryptNanos = 0;
+    long decryptNanos = 0;
+    // The first round warms up the JIT and the file system.
+    for (int round = -1; round < rounds; round++) {
+      String set = "set-" + Math.max(0, round);
+      long start = System.nanoTime();
+      for (File input : inputs) {
+        plain.export(input, set, input.getName());
+      }
+      long plainDone = System.nanoTime();
+      String[] locations = new String[files];
+      for (int i = 0; i < files; i++) {
+        locations[i] = encrypted.export(inputs[i], set, inputs[i].getName());
+      }
+      long encryptDone = System.nanoTime();
+      for (int i = 0; i < files; i++) {
+        ExportDecryptor.decrypt(
+            key.getPrivate(), new File(locations[i]), new File(decrypted, inputs[i].getName()));
+      }
+      long end = System.nanoTime();
+      if (round >= 0) {
+        plainNanos += plainDone - start;
+        encryptNanos += encryptDone - plainDone;
+        decryptNanos += end - encryptDone;
+      }
+    }
+
+    double megabytes = (double) files * size * rounds / 1e6;
+    System.out.println(
+        String.format(
+            Locale.US,
+            "%d rounds of %d files of %d bytes: plaintext=%.1fMB/s encrypted=%.1fMB/s"
+                + " (%.2fms per capture, %+.0f%%) decrypt=%.1fMB/s",
+            rounds,
+            files,
+            size,
+            megabytes / (plainNanos / 1e9),
+            megabytes / (encryptNanos / 1e9),
+            (encryptNanos - plainNanos) / 1e6 / rounds,
+            100.0 * (encryptNanos - plainNanos) / plainNanos,
+            megabytes / (decryptNanos / 1e9)));
+  }
+}
@@ -0,0 +1,133 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+
+/**
+ * Decrypts exported capture files, in constant memory, for export tools:
+ *
+ * <pre>
+ *   ExportDecryptor --key private.pk8 [--out DIR] file.png.enc ...
+ *   ExportDecryptor --generate-key private.pk8
+ * </pre>
+ *
+ * Each file is written next to it, or to {@code DIR}, without its {@code .enc} suffix. A file that
+ * fails authentication is deleted rather than left partly decrypted. {@code --generate-key}
+ * writes a new PKCS#8 private key and prints the hexadecimal public key to build the app with, as
+ * {@code kwikExportPublicKey}; the private key never goes into the app.
+ */
+public final class ExportDecryptor {
+  private ExportDecryptor() {}
+
+  /** Decrypts {@code file}, named as {@link DirectoryExporter} names it, into {@code target}. */
+  public static void decrypt(PrivateKey privateKey, File file, File target) throws IOException {
+    String plainName = plainName(file.getName());
+    if (plainName == null) {
+      throw new IOException(file + " is not an encrypted export file");
+    }
+    boolean done = false;
+    try (InputStream in =
+            StreamingAead.newDecryptingStream(
+                privateKey,
+                new BufferedInputStream(new FileInputStream(file)),
+                DirectoryExporter.associatedData(plainName));
+        OutputStream out = new FileOutputStream(target)) {
+      DirectoryExporter.copy(in, out);
+      done = true;
+    } finally {
+      if (!done) {
+        target.delete();
+      }
+    }
+  }
+
+  // Returns the name without the encrypted suffix, or null if it has none.
+  private static String plainName(String name) {
+    return name.endsWith(DirectoryExporter.ENCRYPTED_SUFFIX)
+        ? name.substring(0, name.length() - DirectoryExporter.ENCRYPTED_SUFFIX.length())
+        : null;
+  }
+
+  /** Returns a new RSA key pair for {@link StreamingAead}. */
+  public static KeyPair generateKeyPair() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(3072);
+    return generator.generateKeyPair();
+  }
+
+  private static byte[] readFile(File file) throws IOException {
+    try (RandomAccessFile in = new RandomAccessFile(file, "r")) {
+      byte[] bytes = new byte[(int) in.length()];
+      in.readFully(bytes);
+      return bytes;
+    }
+  }
+
+  public static void main(String[] args) throws IOException, GeneralSecurityException {
+    PrivateKey key = null;
+    File outDir = null;
+    int failures = 0;
+    for (int i = 0; i < args.length; ++i) {
+      switch (args[i]) {
+        case "--key":
+          key = StreamingAead.parsePrivateKey(readFile(new File(args[++i])));
+          break;
+        case "--generate-key":
+          KeyPair pair = generateKeyPair();
+          try (OutputStream out = new FileOutputStream(args[++i])) {
+            out.write(pair.getPrivate().getEncoded());
+          }
+          System.out.println(
+              "kwikExportPublicKey=" + StreamingAead.encodeHex(pair.getPublic().getEncoded()));
+          break;
+        case "--out":
+          outDir = new File(args[++i]);
+          break;
+        default:
+          if (key == null) {
+            throw new IllegalArgumentException("--key must come before the files");
+          }
+          File file = new File(args[i]);
+          String plainName = plainName(file.getName());
+          File target =
+              new File(
+                  outDir != null ? outDir : file.getAbsoluteFile().getParentFile(),
+                  plainName != null ? plainName : file.getName() + ".dec");
+          try {
+            decrypt(key, file, target);
+            System.out.println(file + " -> " + target);
+          } catch (IOException e) {
+            System.err.println(file + ": " + e.getMessage());
+            failures++;
+          }
+      }
+    }
+    if (failures > 0) {
+      System.exit(1);
+    }
+  }
+}
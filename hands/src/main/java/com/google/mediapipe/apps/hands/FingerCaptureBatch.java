@@ -0,0 +1,283 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.File;
+import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * The finger images of one capture, processed together.
+ *
+ * <p>All fingers are cut from the same source frame. Processing runs in parallel across cores in
+ * two phases: every finger is first extracted and scored, and the capture is rejected before any
+ * encoding work if one of them falls below the quality threshold; the fingers are then enhanced
+ * and encoded, and written in a single pass with one shared timestamp, so the files of a capture
+ * sort together. They are written to one {@link CaptureWriteQueue} transaction, which exports them
+ * to shared storage in the background. Images are encoded by a configurable {@link
+ * FingerImageEncoder}, with the quality scores in their metadata where the format has any. When a
+ * minutiae extractor is set, the minutiae of all fingers are also written as one ISO/IEC 19794-2
+ * template, so the full images need not be uploaded for matching. When an ANSI/NIST-ITL
+ * transaction is set, each finger is also appended to it, as a PNG image, as it is written.
+ */
+final class FingerCaptureBatch {
+  static final int OUTPUT_WIDTH = OrientedRoiExtractor.FINGER_WIDTH;
+  static final int OUTPUT_HEIGHT = OrientedRoiExtractor.FINGER_HEIGHT;
+
+  private static final ExecutorService ENCODE_EXECUTOR =
+      Executors.newFixedThreadPool(
+          Math.max(2, Runtime.getRuntime().availableProcessors() - 1),
+          runnable -> {
+            Thread thread = new Thread(runnable, "FingerEncoder");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  /** Thrown when a finger scores below the quality threshold; nothing has been written. */
+  static final class LowQualityException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    final int fingerNo;
+    final transient FingerQualityScorer.Score score;
+
+    LowQualityException(int fingerNo, FingerQualityScorer.Score score) {
+      super("Finger " + fingerNo + " below quality threshold: " + score);
+      this.fingerNo = fingerNo;
+      this.score = score;
+    }
+  }
+
+  // A finger between the two phases.
+  private static final class Scored {
+    final GrayImage image;
+    final float[] normalized;
+    final RidgeEnhancer.Field field;
+    final FingerQualityScorer.Score score;
+
+    Scored(
+        GrayImage image,
+        float[] normalized,
+        RidgeEnhancer.Field field,
+        FingerQualityScorer.Score score) {
+      this.image = image;
+      this.normalized = normalized;
+      this.field = field;
+      this.score = score;
+    }
+  }
+
+  // A finger after the second phase.
+  private static final class Encoded {
+    final byte[] image;
+    final byte[] nistImage;
+    final List<Minutia> minutiae;
+    final float pixelsPerCm;
+
+    Encoded(byte[] image, byte[] nistImage, List<Minutia> minutiae, float pixelsPerCm) {
+      this.image = image;
+      this.nistImage = nistImage;
+      this.minutiae = minutiae;
+      this.pixelsPerCm = pixelsPerCm;
+    }
+  }
+
+  private final RidgeEnhancer ridgeEnhancer;
+  private final boolean enhanceRidges;
+  private final int minQuality;
+  private final MinutiaeExtractor minutiaeExtractor;
+  private final FingerImageEncoder imageEncoder;
+  private final NistTransactionBuilder nistTransaction;
+  private final List<Integer> fingerNumbers = new ArrayList<>();
+  private final List<Callable<GrayImage>> crops = new ArrayList<>();
+  private long capturedAtMs;
+  private final List<FingerQualityScorer.Score> scores = new ArrayList<>();
+  private File templateFile;
+  private final List<TemplateGallery.Finger> templateFingers = new ArrayList<>();
+
+  /**
+   * @param ridgeEnhancer estimates the ridge field that quality is scored from.
+   * @param enhanceRidges whether the enhanced images are written instead of the extracted ones.
+   * @param minQuality the lowest acceptable {@link FingerQualityScorer.Score#value}.
+   * @param minutiaeExtractor if not null, extracts the minutiae written to the template.
+   * @param imageEncoder encodes the finger images.
+   * @param nistTransaction if not null, the ANSI/NIST-ITL transaction the fingers are appended to.
+   */
+  FingerCaptureBatch(
+      RidgeEnhancer ridgeEnhancer,
+      boolean enhanceRidges,
+      int minQuality,
+      MinutiaeExtractor minutiaeExtractor,
+      FingerImageEncoder imageEncoder,
+      NistTransactionBuilder nistTransaction) {
+    this.ridgeEnhancer = ridgeEnhancer;
+    this.enhanceRidges = enhanceRidges;
+    this.minQuality = minQuality;
+    this.minutiaeExtractor = minutiaeExtractor;
+    this.imageEncoder = imageEncoder;
+    this.nistTransaction = nistTransaction;
+  }
+
+  /**
+   * Adds a finger; {@code crop} is run on an encoder thread and must not touch shared state. It
+   * must return an {@link #OUTPUT_WIDTH} x {@link #OUTPUT_HEIGHT} image.
+   */
+  void add(int fingerNo, Callable<GrayImage> crop) {
+    fingerNumbers.add(fingerNo);
+    crops.add(crop);
+  }
+
+  int size() {
+    return crops.size();
+  }
+
+  /**
+   * Extracts and scores all fingers, then encodes them and writes them to {@code transaction}.
+   *
+   * @return the journal files of the images, in the order the fingers were added.
+   * @throws LowQualityException if a finger scores below the threshold.
+   */
+  List<File> writeAll(CaptureWriteQueue.Transaction transaction, String uniqueId, String setNo)
+      throws IOException {
+    List<Future<Scored>> scoring = new ArrayList<>();
+    for (Callable<GrayImage> crop : crops) {
+      scoring.add(ENCODE_EXECUTOR.submit(() -> score(crop.call())));
+    }
+    List<Scored> scored = new ArrayList<>();
+    for (int i = 0; i < scoring.size(); i++) {
+      scored.add(await(scoring.get(i), i));
+    }
+    for (int i = 0; i < scored.size(); i++) {
+      scores.add(scored.get(i).score);
+      if (scored.get(i).score.value < minQuality) {
+        throw new LowQualityException(fingerNumbers.get(i), scored.get(i).score);
+      }
+    }
+
+    List<Future<Encoded>> encoded = new ArrayList<>();
+    for (Scored finger : scored) {
+      encoded.add(ENCODE_EXECUTOR.submit(() -> encode(finger)));
+    }
+    capturedAtMs = System.currentTimeMillis();
+    String date = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS", Locale.US).format(capturedAtMs);
+    String prefix = "kwikCapture_" + uniqueId + "_Set-" + setNo;
+    String extension = imageEncoder.getExtension();
+    List<File> files = new ArrayList<>();
+    IsoMinutiaeTemplate template = new IsoMinutiaeTemplate();
+    for (int i = 0; i < encoded.size(); i++) {
+      Encoded finger = await(encoded.get(i), i);
+      files.add(
+          transaction.write(
+              prefix + "_Finger-" + fingerNumbers.get(i) + "_" + date + "." + extension,
+              finger.image));
+      if (nistTransaction != null) {
+        nistTransaction.addFinger(
+            fingerNumbers.get(i),
+            OUTPUT_WIDTH,
+            OUTPUT_HEIGHT,
+            finger.pixelsPerCm,
+            scored.get(i).score.value,
+            NistTransactionBuilder.COMPRESSION_PNG,
+            finger.nistImage,
+            capturedAtMs);
+      }
+      if (finger.minutiae != null) {
+        template.addView(
+            fingerNumbers.get(i),
+            scored.get(i).score.value,
+            finger.pixelsPerCm,
+            OUTPUT_WIDTH,
+            OUTPUT_HEIGHT,
+            finger.minutiae);
+        templateFingers.add(
+            new TemplateGallery.Finger(fingerNumbers.get(i), finger.minutiae, finger.pixelsPerCm));
+      }
+    }
+    if (template.getViewCount() > 0) {
+      templateFile = transaction.write(prefix + "_" + date + ".fmr", template.toByteArray());
+    }
+    return files;
+  }
+
+  /** Returns the time the files of {@link #writeAll} are stamped with. */
+  long getCapturedAtMs() {
+    return capturedAtMs;
+  }
+
+  /** Returns the quality scores of the fingers, in the order they were added. */
+  List<FingerQualityScorer.Score> getScores() {
+    return scores;
+  }
+
+  /** Returns the ISO/IEC 19794-2 template written by {@link #writeAll}, or null. */
+  File getTemplateFile() {
+    return templateFile;
+  }
+
+  /** Returns the fingers written to the template, for duplicate checks. */
+  List<TemplateGallery.Finger> getTemplateFingers() {
+    return templateFingers;
+  }
+
+  private <T> T await(Future<T> future, int index) throws IOException {
+    try {
+      return future.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while processing finger images", e);
+    } catch (ExecutionException e) {
+      throw new IOException("Unable to process finger " + fingerNumbers.get(index), e.getCause());
+    }
+  }
+
+  private Scored score(GrayImage image) {
+    float[] normalized = new float[image.getWidth() * image.getHeight()];
+    RidgeEnhancer.Field field = ridgeEnhancer.estimate(image, normalized);
+    return new Scored(image, normalized, field, FingerQualityScorer.score(image, field));
+  }
+
+  private Encoded encode(Scored finger) throws IOException {
+    GrayImage enhanced =
+        enhanceRidges || minutiaeExtractor != null
+            ? ridgeEnhancer.enhance(
+                finger.normalized, finger.image.getWidth(), finger.image.getHeight(), finger.field)
+            : null;
+    List<Minutia> minutiae =
+        minutiaeExtractor != null ? minutiaeExtractor.extract(enhanced, finger.field) : null;
+    GrayImage image = enhanceRidges ? enhanced : finger.image;
+    byte[] encoded = imageEncoder.encode(image, finger.score.toMetadata());
+    byte[] nistImage = null;
+    if (nistTransaction != null) {
+      // The transaction takes PNG, which the saved image may already be.
+      nistImage =
+          imageEncoder instanceof GrayPngEncoder
+              ? encoded
+              : new GrayPngEncoder(GrayPngEncoder.DEFAULT_LEVEL)
+                  .encode(image, finger.score.toMetadata());
+    }
+    return new Encoded(
+        encoded,
+        nistImage,
+        minutiae,
+        MinutiaeExtractor.pixelsPerCm(finger.field));
+  }
+}
@@ -0,0 +1,56 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Encodes finger images to a file format. Encoders are looked up by name through {@link
+ * FingerImageEncoders}, and further formats can be added there by a {@link Provider}.
+ *
+ * <p>Implementations must be thread-safe, as the fingers of a capture are encoded in parallel.
+ */
+public interface FingerImageEncoder {
+  /** Creates encoders by name, e.g. from a codec library listed in {@code META-INF/services}. */
+  interface Provider {
+    /**
+     * Returns the encoder called {@code name}, or null if this provider has none.
+     *
+     * @param argument the text after the colon in a name such as {@code jpeg:90}, or null.
+     * @throws IllegalArgumentException if the argument is invalid or the format is not supported
+     *     on this device.
+     */
+    FingerImageEncoder create(String name, String argument);
+  }
+
+  /** Returns the name the encoder is configured by, including its argument. */
+  String getName();
+
+  /** Returns the file name extension, without the dot. */
+  String getExtension();
+
+  /** Returns whether decoding returns exactly the encoded image. */
+  boolean isLossless();
+
+  /**
+   * Encodes {@code image}, with {@code metadata} as text fields if the format has them; it is
+   * dropped otherwise.
+   */
+  byte[] encode(GrayImage image, Map<String, String> metadata) throws IOException;
+
+  /** Decodes an image encoded by {@link #encode}, e.g. to measure its fidelity. */
+  GrayImage decode(byte[] data) throws IOException;
+}
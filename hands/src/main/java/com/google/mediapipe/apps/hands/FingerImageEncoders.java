@@ -0,0 +1,102 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.ServiceLoader;
+
+/**
+ * Looks up {@link FingerImageEncoder}s by name.
+ *
+ * <p>Names are a format, optionally followed by a colon and an argument:
+ *
+ * <ul>
+ *   <li>{@code png} or {@code png:<level>}: 8-bit grayscale PNG at a deflate level, 0-9.
+ *   <li>{@code png-argb}: PNG as {@code Bitmap.compress} writes it, on Android.
+ *   <li>{@code webp-lossless}: lossless WebP, from Android 10.
+ *   <li>{@code jpeg:<quality>}: JPEG at a quality, 0-100, on Android.
+ *   <li>{@code raw}: uncompressed samples in a binary PGM file.
+ * </ul>
+ *
+ * Other formats, such as dedicated fingerprint codecs, are found through {@link ServiceLoader}:
+ * a library registers its {@link FingerImageEncoder.Provider} in {@code META-INF/services}. The
+ * platform codecs of {@link BitmapImageEncoder} are registered that way too, so this class and
+ * the built-in encoders need no Android classes and also run on a desktop JVM, where the
+ * platform formats are unknown.
+ */
+public final class FingerImageEncoders {
+  static final String DEFAULT_NAME = "png";
+
+  /** The names of the encoders that come with the app, compared by the codec benchmark. */
+  static final List<String> BUILT_IN_NAMES =
+      Collections.unmodifiableList(
+          Arrays.asList(
+              "png:1", "png", "png:9", "png-argb", "webp-lossless", "jpeg:95", "jpeg:75", "raw"));
+
+  private static final List<FingerImageEncoder.Provider> providers = new ArrayList<>();
+
+  static {
+    providers.add(FingerImageEncoders::createBuiltIn);
+    for (FingerImageEncoder.Provider provider :
+        ServiceLoader.load(
+            FingerImageEncoder.Provider.class, FingerImageEncoders.class.getClassLoader())) {
+      providers.add(provider);
+    }
+  }
+
+  private FingerImageEncoders() {}
+
+  /**
+   * Returns the encoder called {@code name}.
+   *
+   * @throws IllegalArgumentException if there is none, or it is not supported on this device.
+   */
+  public static FingerImageEncoder forName(String name) {
+    int colon = name.indexOf(':');
+    String format = colon < 0 ? name : name.substring(0, colon);
+    String argument = colon < 0 ? null : name.substring(colon + 1);
+    for (FingerImageEncoder.Provider provider : providers) {
+      FingerImageEncoder encoder = provider.create(format, argument);
+      if (encoder != null) {
+        return encoder;
+      }
+    }
+    throw new IllegalArgumentException("Unknown finger image encoder " + name);
+  }
+
+  private static FingerImageEncoder createBuiltIn(String format, String argument) {
+    switch (format) {
+      case "png":
+        return new GrayPngEncoder(
+            argument == null ? GrayPngEncoder.DEFAULT_LEVEL : parse(format, argument));
+      case "raw":
+        return new PgmEncoder();
+      default:
+        return null;
+    }
+  }
+
+  /** Parses the numeric argument of {@code format}. */
+  static int parse(String format, String argument) {
+    try {
+      return Integer.parseInt(argument);
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid " + format + " argument " + argument, e);
+    }
+  }
+}
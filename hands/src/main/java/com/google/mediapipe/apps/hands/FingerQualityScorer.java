@@ -0,0 +1,138 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Scores the quality of a fingertip image from the block estimates of {@link RidgeEnhancer}, in
+ * the spirit of NFIQ: a score of 0 to 100 built from a few features that each range from 0 to 1.
+ *
+ * <ul>
+ *   <li>Coverage: the share of blocks that are foreground.
+ *   <li>Clarity: how much of the gray level variation of the foreground blocks is ridges rather
+ *       than noise, counting blocks without a measurable ridge period as 0.
+ *   <li>Orientation certainty: the mean gradient coherence of the foreground blocks.
+ *   <li>Contrast: the mean gray level deviation due to ridges in the foreground blocks, relative
+ *       to a good one; noise does not count.
+ *   <li>Glare: the share of the image that is saturated, which hides ridges. It is counted over
+ *       the whole image, as saturated regions have no ridge variance and so never make it into
+ *       the foreground.
+ * </ul>
+ *
+ * <p>The block statistics come from the integral images of the estimate, so scoring itself only
+ * walks the blocks plus one pass over the pixels for glare.
+ */
+public final class FingerQualityScorer {
+  // Coverage from which a finger counts as fully visible.
+  private static final float FULL_COVERAGE = 0.6f;
+  // Ridge deviation from which contrast counts as good.
+  private static final float GOOD_CONTRAST = 20f;
+  private static final int GLARE_LEVEL = 250;
+  // Glare covering this share of the image makes the finger unusable.
+  private static final float MAX_GLARE = 0.25f;
+  private static final float CLARITY_WEIGHT = 0.4f;
+  private static final float CERTAINTY_WEIGHT = 0.35f;
+  private static final float CONTRAST_WEIGHT = 0.25f;
+
+  private FingerQualityScorer() {}
+
+  /** The quality of one finger image. */
+  public static final class Score {
+    public final float coverage;
+    public final float clarity;
+    public final float orientationCertainty;
+    public final float contrast;
+    public final float glare;
+    // Overall quality, 0 (unusable) to 100.
+    public final int value;
+
+    Score(float coverage, float clarity, float orientationCertainty, float contrast, float glare) {
+      this.coverage = coverage;
+      this.clarity = clarity;
+      this.orientationCertainty = orientationCertainty;
+      this.contrast = contrast;
+      this.glare = glare;
+      float ridges =
+          CLARITY_WEIGHT * clarity
+              + CERTAINTY_WEIGHT * orientationCertainty
+              + CONTRAST_WEIGHT * contrast;
+      float visible = Math.min(1f, coverage / FULL_COVERAGE);
+      float unglared = Math.max(0f, 1f - glare / MAX_GLARE);
+      this.value = Math.round(100 * ridges * visible * unglared);
+    }
+
+    /** Returns the score as text entries, for image metadata. */
+    public Map<String, String> toMetadata() {
+      Map<String, String> metadata = new LinkedHashMap<>();
+      metadata.put("Quality", Integer.toString(value));
+      metadata.put("QualityCoverage", format(coverage));
+      metadata.put("QualityClarity", format(clarity));
+      metadata.put("QualityOrientationCertainty", format(orientationCertainty));
+      metadata.put("QualityContrast", format(contrast));
+      metadata.put("QualityGlare", format(glare));
+      return metadata;
+    }
+
+    @Override
+    public String toString() {
+      return "Score{" + value + ", " + toMetadata() + "}";
+    }
+
+    private static String format(float feature) {
+      return String.format(Locale.US, "%.3f", feature);
+    }
+  }
+
+  /** Scores {@code image}, given its estimate. */
+  public static Score score(GrayImage image, RidgeEnhancer.Field field) {
+    int foreground = 0;
+    float clarity = 0;
+    float coherence = 0;
+    float contrast = 0;
+    for (int block = 0; block < field.foreground.length; block++) {
+      if (!field.foreground[block]) {
+        continue;
+      }
+      foreground++;
+      float blockClarity = field.periodMeasured[block] ? field.clarity[block] : 0;
+      clarity += blockClarity;
+      coherence += field.coherence[block];
+      // The clarity is the share of the variance due to ridges.
+      float ridgeDeviation = field.contrast[block] * (float) Math.sqrt(blockClarity);
+      contrast += Math.min(1f, ridgeDeviation / GOOD_CONTRAST);
+    }
+    if (foreground == 0) {
+      return new Score(0, 0, 0, 0, 0);
+    }
+
+    byte[] pixels = image.getPixels();
+    int imagePixels = image.getWidth() * image.getHeight();
+    int glarePixels = 0;
+    for (int i = 0; i < imagePixels; i++) {
+      if ((pixels[i] & 0xff) >= GLARE_LEVEL) {
+        glarePixels++;
+      }
+    }
+    return new Score(
+        (float) foreground / field.foreground.length,
+        clarity / foreground,
+        coherence / foreground,
+        contrast / foreground,
+        (float) glarePixels / imagePixels);
+  }
+}
@@ -0,0 +1,306 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.util.Log;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mediapipe.solutions.hands.HandsResult;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
+
+/**
+ * Keeps the camera focused and metered on the fingertips of the hands being tracked.
+ *
+ * <p>On every result the controller computes the box around the fingertips of all hands and, when
+ * it has moved or changed size enough since the region last focused on, moves the focus and
+ * metering region of its {@link Lens} there. Requests are spaced at least {@link
+ * #MIN_RETARGET_INTERVAL_MS} apart and never made while one is still converging, as every new
+ * request restarts the lens sweep and would keep it hunting. Once focus has locked it stays locked
+ * until the fingertips move. When the hands have been gone for a while the lens returns to
+ * continuous focus over the whole frame.
+ *
+ * <p>Captures wait for the lock through {@link #awaitLock}. The time from request to lock is
+ * measured and reported by {@link #toString}. All methods are thread-safe.
+ */
+public final class FingertipFocusController implements CaptureSession.ResultSink {
+  private static final String TAG = "FingertipFocusController";
+  static final long MIN_RETARGET_INTERVAL_MS = 300;
+  // Moves of the fingertip box centre, in normalized frame units, that trigger a new request.
+  private static final float MIN_MOVE = 0.06f;
+  // Relative changes of the box size, i.e. of the distance to the hand, that trigger one.
+  private static final float MIN_SIZE_CHANGE = 0.25f;
+  // The region is the fingertip box plus this margin, within these bounds.
+  private static final float REGION_MARGIN = 1.2f;
+  private static final float MIN_REGION = 0.1f;
+  private static final float MAX_REGION = 0.5f;
+  // Requests not answered within this are given up on.
+  private static final long FOCUS_TIMEOUT_MS = 3000;
+  // Hands missing for this long release the region.
+  private static final long HAND_LOST_MS = 1000;
+
+  /** The focus states of the lens. */
+  public enum State {
+    // Continuous focus over the whole frame.
+    IDLE,
+    FOCUSING,
+    LOCKED,
+    // The last request did not lock; another is made after the retarget interval.
+    FAILED,
+  }
+
+  /** A camera whose focus and metering region can be moved. */
+  public interface Lens {
+    /**
+     * Focuses and meters on a square region, in coordinates normalized to the upright frames sent
+     * to the graph, and holds it until the next call.
+     *
+     * @return completes with true once focus has locked, false if it could not.
+     */
+    ListenableFuture<Boolean> focusOn(float x, float y, float size);
+
+    /** Returns to continuous focus and metering over the whole frame. */
+    void cancelFocus();
+  }
+
+  private static final class Waiter {
+    final SettableFuture<Boolean> future = SettableFuture.create();
+    final long deadlineNs;
+
+    Waiter(long deadlineNs) {
+      this.deadlineNs = deadlineNs;
+    }
+  }
+
+  // Guarded by this.
+  @Nullable private Lens lens;
+  private State state = State.IDLE;
+  private int request;
+  private long requestedAtNs;
+  private long lastHandNs;
+  private float targetX;
+  private float targetY;
+  private float targetSize;
+  private final List<Waiter> waiters = new ArrayList<>();
+  // Times out waiters when no result, and no focus result, arrives in time.
+  private final ScheduledExecutorService timer =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          });
+  private long requests;
+  private long locks;
+  private long failures;
+  private long totalConvergenceNs;
+  private long maxConvergenceNs;
+
+  /** Sets the lens to control, or null when the camera stops. */
+  public void setLens(@Nullable Lens lens) {
+    List<Waiter> released;
+    synchronized (this) {
+      this.lens = lens;
+      request++;
+      state = State.IDLE;
+      released = takeWaiters(Long.MAX_VALUE);
+    }
+    complete(released, false);
+  }
+
+  public synchronized State getState() {
+    return state;
+  }
+
+  /**
+   * Completes with true as soon as focus is locked on the fingertips, or with false if it is not
+   * within {@code timeoutMs}, with no lens or when the lens changes.
+   */
+  public ListenableFuture<Boolean> awaitLock(long timeoutMs) {
+    boolean locked;
+    synchronized (this) {
+      locked = state == State.LOCKED;
+      if (lens != null && !locked) {
+        Waiter waiter = new Waiter(System.nanoTime() + timeoutMs * 1_000_000);
+        waiters.add(waiter);
+        timer.schedule(() -> expire(waiter), timeoutMs, TimeUnit.MILLISECONDS);
+        return waiter.future;
+      }
+    }
+    SettableFuture<Boolean> done = SettableFuture.create();
+    done.set(locked);
+    return done;
+  }
+
+  @Override
+  public void onResult(LandmarkFrame frame, @Nullable HandsResult result) {
+    long now = System.nanoTime();
+    float minX = Float.MAX_VALUE;
+    float minY = Float.MAX_VALUE;
+    float maxX = -Float.MAX_VALUE;
+    float maxY = -Float.MAX_VALUE;
+    for (int hand = 0; hand < frame.getNumHands(); hand++) {
+      for (int tip : LandmarkFrame.FINGERTIPS) {
+        minX = Math.min(minX, frame.getX(hand, tip));
+        minY = Math.min(minY, frame.getY(hand, tip));
+        maxX = Math.max(maxX, frame.getX(hand, tip));
+        maxY = Math.max(maxY, frame.getY(hand, tip));
+      }
+    }
+    Lens target;
+    int targetRequest;
+    float x;
+    float y;
+    float size;
+    List<Waiter> expired = null;
+    try {
+      synchronized (this) {
+        expired = takeWaiters(now);
+        target = lens;
+        if (target == null) {
+          return;
+        }
+        if (frame.getNumHands() == 0) {
+          if (state != State.IDLE && now - lastHandNs > HAND_LOST_MS * 1_000_000) {
+            request++;
+            state = State.IDLE;
+            target.cancelFocus();
+          }
+          return;
+        }
+        lastHandNs = now;
+        x = clamp((minX + maxX) / 2, 0, 1);
+        y = clamp((minY + maxY) / 2, 0, 1);
+        size = clamp(Math.max(maxX - minX, maxY - minY) * REGION_MARGIN, MIN_REGION, MAX_REGION);
+        if (!shouldRetarget(now, x, y, size)) {
+          return;
+        }
+        targetRequest = ++request;
+        requestedAtNs = now;
+        targetX = x;
+        targetY = y;
+        targetSize = size;
+        state = State.FOCUSING;
+        requests++;
+      }
+    } finally {
+      if (expired != null) {
+        complete(expired, false);
+      }
+    }
+    ListenableFuture<Boolean> focused = target.focusOn(x, y, size);
+    focused.addListener(() -> onFocusResult(targetRequest, focused), Runnable::run);
+  }
+
+  // Guarded by this.
+  private boolean shouldRetarget(long now, float x, float y, float size) {
+    long sinceRequestNs = now - requestedAtNs;
+    if (state == State.FOCUSING) {
+      // A request that never completes must not block focusing for good.
+      return sinceRequestNs > FOCUS_TIMEOUT_MS * 1_000_000;
+    }
+    if (state == State.IDLE) {
+      return true;
+    }
+    if (sinceRequestNs < MIN_RETARGET_INTERVAL_MS * 1_000_000) {
+      return false;
+    }
+    return state == State.FAILED
+        || Math.hypot(x - targetX, y - targetY) > MIN_MOVE
+        || Math.abs(size - targetSize) > MIN_SIZE_CHANGE * targetSize;
+  }
+
+  private void onFocusResult(int focusRequest, ListenableFuture<Boolean> focused) {
+    boolean locked;
+    try {
+      locked = focused.get();
+    } catch (ExecutionException | InterruptedException | RuntimeException e) {
+      // Also when the request was superseded by the next one.
+      locked = false;
+    }
+    long convergenceNs;
+    List<Waiter> released;
+    synchronized (this) {
+      if (focusRequest != request) {
+        return;
+      }
+      convergenceNs = System.nanoTime() - requestedAtNs;
+      if (locked) {
+        state = State.LOCKED;
+        locks++;
+        totalConvergenceNs += convergenceNs;
+        maxConvergenceNs = Math.max(maxConvergenceNs, convergenceNs);
+      } else {
+        state = State.FAILED;
+        failures++;
+      }
+      released = locked ? takeWaiters(Long.MAX_VALUE) : new ArrayList<>();
+    }
+    Log.i(TAG, (locked ? "Focus locked in " : "Focus failed after ")
+        + convergenceNs / 1_000_000 + " ms");
+    complete(released, true);
+  }
+
+  private void expire(Waiter waiter) {
+    boolean removed;
+    synchronized (this) {
+      removed = waiters.remove(waiter);
+    }
+    if (removed) {
+      waiter.future.set(false);
+    }
+  }
+
+  // Removes the waiters whose deadline is before nowNs. Guarded by this.
+  private List<Waiter> takeWaiters(long nowNs) {
+    List<Waiter> taken = new ArrayList<>();
+    for (int i = waiters.size() - 1; i >= 0; i--) {
+      if (waiters.get(i).deadlineNs < nowNs) {
+        taken.add(waiters.remove(i));
+      }
+    }
+    return taken;
+  }
+
+  private static void complete(List<Waiter> released, boolean locked) {
+    for (Waiter waiter : released) {
+      waiter.future.set(locked);
+    }
+  }
+
+  private static float clamp(float value, float min, float max) {
+    return Math.max(min, Math.min(max, value));
+  }
+
+  @Override
+  public synchronized String toString() {
+    return String.format(
+        Locale.US,
+        "state=%s requests=%d locks=%d failures=%d convergence mean=%.0fms max=%.0fms",
+        state,
+        requests,
+        locks,
+        failures,
+        locks == 0 ? 0 : totalConvergenceNs / 1e6 / locks,
+        maxConvergenceNs / 1e6);
+  }
+}
@@ -0,0 +1,256 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.view.Choreographer;
+import com.google.mediapipe.solutions.hands.HandsResult;
+import io.flutter.plugin.common.BasicMessageChannel;
+import io.flutter.plugin.common.BinaryCodec;
+import io.flutter.plugin.common.BinaryMessenger;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import javax.annotation.Nullable;
+
+/**
+ * Streams live landmarks and capture events to the Flutter UI over a binary {@link
+ * BasicMessageChannel}. It is a {@link CaptureSession.ResultSink}, fed by the session the app
+ * captures from.
+ *
+ * <p>Messages are packed little-endian structs in direct {@link ByteBuffer}s that are allocated
+ * once and reused, so nothing is encoded through the standard codec or allocated per frame; the
+ * engine copies each message once as it crosses into Dart. Results usually arrive faster than the
+ * UI can use them, so landmarks are coalesced: each result overwrites the pending snapshot, and
+ * the latest one is sent at most once per display frame, on the main thread. The Dart side replies
+ * to every message once handled, and no more than {@link #MAX_IN_FLIGHT} messages wait for a
+ * reply, so a busy UI isolate drops stale snapshots instead of queueing them. Capture events are
+ * never coalesced and are sent ahead of landmarks.
+ *
+ * <p>Every message starts with a 16-byte header:
+ *
+ * <pre>
+ *   0  u8  type, {@link #TYPE_LANDMARKS} or {@link #TYPE_CAPTURE}
+ *   1  u8  {@link #VERSION}
+ *   2  u16 hand count, or capture status
+ *   4  i32 sequence number, per type
+ *   8  i64 frame timestamp in microseconds, or wall-clock time for captures
+ * </pre>
+ *
+ * A landmarks message then holds:
+ *
+ * <pre>
+ *  16  i32 snapshots coalesced away since the previous message
+ *  20  u8  {@link CaptureDecision.Distance} ordinal
+ *  21  3 bytes padding
+ *  24  f32 palm width
+ *  28  per hand, 256 bytes: u8 1 if left hand, 3 bytes padding, 21 x (f32 x, y, z) normalized
+ * </pre>
+ *
+ * And a capture message, after a u32 finger count at 16, holds an i32 finger number and an i32
+ * quality per finger from 20.
+ */
+public final class FlutterLandmarkChannel implements CaptureSession.ResultSink {
+  public static final String CHANNEL_NAME = "kwikcapture/landmarks";
+  public static final int VERSION = 1;
+  public static final int TYPE_LANDMARKS = 1;
+  public static final int TYPE_CAPTURE = 2;
+
+  /** Capture statuses. */
+  public static final int CAPTURE_SAVED = 0;
+  public static final int CAPTURE_LOW_QUALITY = 1;
+  public static final int CAPTURE_STORAGE_BUSY = 2;
+  public static final int CAPTURE_FAILED = 3;
+
+  // Messages sent but not yet acknowledged by the Dart side.
+  static final int MAX_IN_FLIGHT = 2;
+  // Capture events waiting to be sent; the oldest are dropped beyond this.
+  private static final int MAX_PENDING_CAPTURES = 16;
+  private static final int HEADER_BYTES = 16;
+  private static final int HANDS_OFFSET = 28;
+  private static final int HAND_BYTES = 4 + LandmarkFrame.NUM_LANDMARKS * 3 * 4;
+  private static final int LANDMARKS_BYTES = HANDS_OFFSET + LandmarkFrame.MAX_HANDS * HAND_BYTES;
+
+  private final BasicMessageChannel<ByteBuffer> channel;
+  private final CaptureDecisionEngine decisionEngine;
+  // Used by the thread that delivers results only.
+  private final CaptureDecision decision = new CaptureDecision();
+  private final Choreographer.FrameCallback frameCallback = this::onFrame;
+  private final BasicMessageChannel.Reply<ByteBuffer> reply = unused -> onReply();
+
+  // Guarded by this: the latest snapshot, and the events not yet sent.
+  private ByteBuffer pending = newBuffer(LANDMARKS_BYTES);
+  private boolean hasPending;
+  private int coalesced;
+  private int landmarksSequence;
+  private int captureSequence;
+  private final ArrayDeque<ByteBuffer> captures = new ArrayDeque<>();
+  private long droppedCaptures;
+
+  // Main thread only.
+  private ByteBuffer sending = newBuffer(LANDMARKS_BYTES);
+  private int inFlight;
+  private boolean started;
+  private long sent;
+  private long skippedFrames;
+
+  public FlutterLandmarkChannel(BinaryMessenger messenger) {
+    this(messenger, new DefaultCaptureDecisionEngine());
+  }
+
+  public FlutterLandmarkChannel(BinaryMessenger messenger, CaptureDecisionEngine decisionEngine) {
+    this.channel = new BasicMessageChannel<>(messenger, CHANNEL_NAME, BinaryCodec.INSTANCE);
+    this.decisionEngine = decisionEngine;
+  }
+
+  /**
+   * Starts sending on every display frame. The callback runs on every frame until {@link #stop},
+   * so it is stopped while the UI is not shown. Main thread only.
+   */
+  public void start() {
+    if (!started) {
+      started = true;
+      Choreographer.getInstance().postFrameCallback(frameCallback);
+    }
+  }
+
+  /** Stops sending; pending messages are kept until {@link #start}. Main thread only. */
+  public void stop() {
+    if (started) {
+      started = false;
+      Choreographer.getInstance().removeFrameCallback(frameCallback);
+    }
+  }
+
+  /** Makes {@code frame} the pending snapshot. Results must come from a single thread. */
+  @Override
+  public void onResult(LandmarkFrame frame, @Nullable HandsResult result) {
+    // Landmarks are normalized, so no ROIs are placed.
+    decisionEngine.decide(frame, decision);
+    synchronized (this) {
+      if (hasPending) {
+        coalesced++;
+      }
+      packLandmarks(pending, frame, decision, landmarksSequence++, coalesced);
+      hasPending = true;
+    }
+  }
+
+  /**
+   * Queues a capture event.
+   *
+   * @param fingerNumbers the fingers captured, or the finger that failed.
+   * @param qualities the quality of each finger.
+   */
+  public void publishCapture(int status, int[] fingerNumbers, int[] qualities) {
+    ByteBuffer buffer = newBuffer(HEADER_BYTES + 4 + fingerNumbers.length * 8);
+    synchronized (this) {
+      putHeader(
+          buffer, TYPE_CAPTURE, status, captureSequence++, System.currentTimeMillis() * 1000);
+      buffer.putInt(fingerNumbers.length);
+      for (int i = 0; i < fingerNumbers.length; i++) {
+        buffer.putInt(fingerNumbers[i]).putInt(qualities[i]);
+      }
+      if (captures.size() == MAX_PENDING_CAPTURES) {
+        captures.poll();
+        droppedCaptures++;
+      }
+      captures.add(buffer);
+    }
+  }
+
+  private void onFrame(long frameTimeNanos) {
+    if (!started) {
+      return;
+    }
+    Choreographer.getInstance().postFrameCallback(frameCallback);
+    while (inFlight < MAX_IN_FLIGHT) {
+      ByteBuffer message;
+      boolean snapshot = false;
+      synchronized (this) {
+        message = captures.poll();
+        if (message == null && hasPending) {
+          // Swaps buffers so the result thread can keep writing while this one is sent.
+          message = pending;
+          pending = sending;
+          hasPending = false;
+          coalesced = 0;
+          snapshot = true;
+        }
+      }
+      if (message == null) {
+        return;
+      }
+      if (snapshot) {
+        sending = message;
+      }
+      // The message is the bytes up to the position; the engine copies them before returning.
+      channel.send(message, reply);
+      inFlight++;
+      sent++;
+    }
+    skippedFrames++;
+  }
+
+  private void onReply() {
+    inFlight--;
+  }
+
+  /** Returns a summary of what has been sent and dropped. */
+  @Override
+  public String toString() {
+    synchronized (this) {
+      return "FlutterLandmarkChannel{sent=" + sent + " inFlight=" + inFlight
+          + " framesAtLimit=" + skippedFrames + " droppedCaptures=" + droppedCaptures + "}";
+    }
+  }
+
+  private static void packLandmarks(
+      ByteBuffer buffer,
+      LandmarkFrame frame,
+      CaptureDecision decision,
+      int sequence,
+      int coalesced) {
+    int hands = frame.getNumHands();
+    putHeader(buffer, TYPE_LANDMARKS, hands, sequence, frame.getTimestampUs());
+    buffer.putInt(coalesced);
+    buffer.put((byte) decision.getDistance().ordinal());
+    buffer.put((byte) 0).put((byte) 0).put((byte) 0);
+    buffer.putFloat((float) decision.getPalmWidth());
+    for (int hand = 0; hand < hands; hand++) {
+      buffer.put((byte) (frame.isLeftHand(hand) ? 1 : 0));
+      buffer.put((byte) 0).put((byte) 0).put((byte) 0);
+      for (int l = 0; l < LandmarkFrame.NUM_LANDMARKS; l++) {
+        buffer.putFloat(frame.getX(hand, l));
+        buffer.putFloat(frame.getY(hand, l));
+        buffer.putFloat(frame.getZ(hand, l));
+      }
+    }
+  }
+
+  private static void putHeader(
+      ByteBuffer buffer, int type, int count, int sequence, long timestampUs) {
+    buffer.clear();
+    buffer.put((byte) type);
+    buffer.put((byte) VERSION);
+    buffer.putShort((short) count);
+    buffer.putInt(sequence);
+    buffer.putLong(timestampUs);
+  }
+
+  private static ByteBuffer newBuffer(int capacity) {
+    return ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+  }
+}
@@ -0,0 +1,84 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/** An 8-bit grayscale image, stored row by row, independent of the Android graphics stack. */
+public final class GrayImage implements GraySource {
+  private final int width;
+  private final int height;
+  private final byte[] pixels;
+
+  public GrayImage(int width, int height) {
+    this(width, height, new byte[width * height]);
+  }
+
+  /** Wraps {@code pixels}, which must hold at least {@code width * height} bytes. */
+  public GrayImage(int width, int height, byte[] pixels) {
+    if (pixels.length < width * height) {
+      throw new IllegalArgumentException("Pixel buffer too small for " + width + "x" + height);
+    }
+    this.width = width;
+    this.height = height;
+    this.pixels = pixels;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /** Returns the backing row-major pixel array. */
+  public byte[] getPixels() {
+    return pixels;
+  }
+
+  /** Returns the pixel value, 0-255. */
+  public int get(int x, int y) {
+    return pixels[y * width + x] & 0xff;
+  }
+
+  /** Sets the pixel, clamping {@code value} to 0-255. */
+  public void set(int x, int y, int value) {
+    pixels[y * width + x] = (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+  }
+
+  @Override
+  public int getUprightWidth() {
+    return width;
+  }
+
+  @Override
+  public int getUprightHeight() {
+    return height;
+  }
+
+  @Override
+  public int getUpright(int u, int v) {
+    return get(u, v);
+  }
+
+  /** Returns the pixels as opaque gray ARGB values, e.g. for {@code Bitmap.createBitmap}. */
+  public int[] toArgb() {
+    int[] argb = new int[width * height];
+    for (int i = 0; i < argb.length; i++) {
+      int luma = pixels[i] & 0xff;
+      argb[i] = 0xff000000 | (luma << 16) | (luma << 8) | luma;
+    }
+    return argb;
+  }
+}
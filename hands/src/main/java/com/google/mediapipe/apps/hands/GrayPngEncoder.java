@@ -0,0 +1,238 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Encodes 8-bit grayscale PNG files, with metadata in {@code tEXt} chunks.
+ *
+ * <p>Finger images are gray, so this writes a quarter of the samples {@code Bitmap.compress}
+ * writes for the same image as RGBA. Each row uses the PNG filter that minimizes its sum of
+ * absolute differences, the usual heuristic for photographic content.
+ */
+public final class GrayPngEncoder implements FingerImageEncoder {
+  static final int DEFAULT_LEVEL = 6;
+  private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+  private static final byte[] SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+  private static final int FILTERS = 5;
+
+  private final int level;
+
+  /** @param level the deflate level, 0 (none) to 9 (smallest). */
+  public GrayPngEncoder(int level) {
+    if (level < Deflater.NO_COMPRESSION || level > Deflater.BEST_COMPRESSION) {
+      throw new IllegalArgumentException("Invalid PNG compression level " + level);
+    }
+    this.level = level;
+  }
+
+  @Override
+  public String getName() {
+    return level == DEFAULT_LEVEL ? "png" : "png:" + level;
+  }
+
+  @Override
+  public String getExtension() {
+    return "png";
+  }
+
+  @Override
+  public boolean isLossless() {
+    return true;
+  }
+
+  @Override
+  public byte[] encode(GrayImage image, Map<String, String> metadata) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    byte[] pixels = image.getPixels();
+    int stride = width + 1;
+    byte[] filtered = new byte[stride * height];
+    byte[] candidate = new byte[width];
+    for (int y = 0; y < height; y++) {
+      int row = y * width;
+      int bestSum = Integer.MAX_VALUE;
+      for (int filter = 0; filter < FILTERS; filter++) {
+        int sum = 0;
+        for (int x = 0; x < width; x++) {
+          int a = x > 0 ? pixels[row + x - 1] & 0xff : 0;
+          int b = y > 0 ? pixels[row - width + x] & 0xff : 0;
+          int c = x > 0 && y > 0 ? pixels[row - width + x - 1] & 0xff : 0;
+          byte value = (byte) ((pixels[row + x] & 0xff) - predict(filter, a, b, c));
+          candidate[x] = value;
+          sum += Math.abs((int) value);
+        }
+        if (sum < bestSum) {
+          bestSum = sum;
+          filtered[y * stride] = (byte) filter;
+          System.arraycopy(candidate, 0, filtered, y * stride + 1, width);
+        }
+      }
+    }
+
+    Deflater deflater = new Deflater(level);
+    ByteArrayOutputStream idat = new ByteArrayOutputStream(filtered.length / 2);
+    try {
+      deflater.setInput(filtered);
+      deflater.finish();
+      byte[] buffer = new byte[16 * 1024];
+      while (!deflater.finished()) {
+        idat.write(buffer, 0, deflater.deflate(buffer));
+      }
+    } finally {
+      deflater.end();
+    }
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream(idat.size() + 256);
+    out.write(SIGNATURE, 0, SIGNATURE.length);
+    ByteBuffer header = ByteBuffer.allocate(13);
+    // 8 bits per sample, grayscale, deflate, adaptive filtering, not interlaced.
+    header.putInt(width).putInt(height).put((byte) 8).put((byte) 0);
+    writeChunk(out, "IHDR", header.array());
+    for (Map.Entry<String, String> entry : metadata.entrySet()) {
+      byte[] keyword = entry.getKey().getBytes(LATIN_1);
+      byte[] text = entry.getValue().getBytes(LATIN_1);
+      byte[] data = new byte[keyword.length + 1 + text.length];
+      System.arraycopy(keyword, 0, data, 0, keyword.length);
+      System.arraycopy(text, 0, data, keyword.length + 1, text.length);
+      writeChunk(out, "tEXt", data);
+    }
+    writeChunk(out, "IDAT", idat.toByteArray());
+    writeChunk(out, "IEND", new byte[0]);
+    return out.toByteArray();
+  }
+
+  @Override
+  public GrayImage decode(byte[] data) throws IOException {
+    ByteBuffer in = ByteBuffer.wrap(data);
+    byte[] signature = new byte[SIGNATURE.length];
+    in.get(signature);
+    if (!Arrays.equals(signature, SIGNATURE)) {
+      throw new IOException("Not a PNG file");
+    }
+    int width = 0;
+    int height = 0;
+    ByteArrayOutputStream idat = new ByteArrayOutputStream();
+    while (in.remaining() >= 12) {
+      int length = in.getInt();
+      int start = in.position();
+      String type = new String(data, start, 4, LATIN_1);
+      CRC32 crc = new CRC32();
+      crc.update(data, start, 4 + length);
+      in.position(start + 4 + length);
+      if ((int) crc.getValue() != in.getInt()) {
+        throw new IOException("Corrupt PNG chunk " + type);
+      }
+      if (type.equals("IHDR")) {
+        width = ByteBuffer.wrap(data, start + 4, 4).getInt();
+        height = ByteBuffer.wrap(data, start + 8, 4).getInt();
+        if (data[start + 12] != 8 || data[start + 13] != 0 || data[start + 16] != 0) {
+          throw new IOException("Not an 8-bit grayscale non-interlaced PNG file");
+        }
+      } else if (type.equals("IDAT")) {
+        idat.write(data, start + 4, length);
+      } else if (type.equals("IEND")) {
+        break;
+      }
+    }
+
+    int stride = width + 1;
+    byte[] filtered = new byte[stride * height];
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(idat.toByteArray());
+      int inflated = 0;
+      while (inflated < filtered.length && !inflater.finished()) {
+        int n = inflater.inflate(filtered, inflated, filtered.length - inflated);
+        if (n == 0 && inflater.needsInput()) {
+          break;
+        }
+        inflated += n;
+      }
+      if (inflated < filtered.length) {
+        throw new IOException("Truncated PNG image data");
+      }
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt PNG image data", e);
+    } finally {
+      inflater.end();
+    }
+
+    GrayImage image = new GrayImage(width, height);
+    byte[] pixels = image.getPixels();
+    for (int y = 0; y < height; y++) {
+      int filter = filtered[y * stride];
+      if (filter < 0 || filter >= FILTERS) {
+        throw new IOException("Invalid PNG filter " + filter);
+      }
+      int row = y * width;
+      for (int x = 0; x < width; x++) {
+        int a = x > 0 ? pixels[row + x - 1] & 0xff : 0;
+        int b = y > 0 ? pixels[row - width + x] & 0xff : 0;
+        int c = x > 0 && y > 0 ? pixels[row - width + x - 1] & 0xff : 0;
+        pixels[row + x] = (byte) (filtered[y * stride + 1 + x] + predict(filter, a, b, c));
+      }
+    }
+    return image;
+  }
+
+  // The PNG predictors, from the left, upper and upper left samples.
+  private static int predict(int filter, int a, int b, int c) {
+    switch (filter) {
+      case 1:
+        return a;
+      case 2:
+        return b;
+      case 3:
+        return (a + b) >>> 1;
+      case 4:
+        int p = a + b - c;
+        int pa = Math.abs(p - a);
+        int pb = Math.abs(p - b);
+        int pc = Math.abs(p - c);
+        return pa <= pb && pa <= pc ? a : pb <= pc ? b : c;
+      default:
+        return 0;
+    }
+  }
+
+  private static void writeChunk(ByteArrayOutputStream out, String type, byte[] data) {
+    byte[] typeBytes = type.getBytes(LATIN_1);
+    CRC32 crc = new CRC32();
+    crc.update(typeBytes);
+    crc.update(data);
+    writeInt(out, data.length);
+    out.write(typeBytes, 0, typeBytes.length);
+    out.write(data, 0, data.length);
+    writeInt(out, (int) crc.getValue());
+  }
+
+  private static void writeInt(ByteArrayOutputStream out, int value) {
+    out.write(value >>> 24);
+    out.write(value >>> 16);
+    out.write(value >>> 8);
+    out.write(value);
+  }
+}
@@ -0,0 +1,28 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * A luminance image addressed in upright coordinates, the space normalized landmarks refer to.
+ * Implementations map those coordinates onto however their pixels are stored.
+ */
+public interface GraySource {
+  int getUprightWidth();
+
+  int getUprightHeight();
+
+  /** Returns the luminance at upright coordinates, 0-255. */
+  int getUpright(int u, int v);
+}
@@ -0,0 +1,233 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.os.SystemClock;
+import android.util.Log;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.mediapipe.solutioncore.ErrorListener;
+import com.google.mediapipe.solutioncore.ResultListener;
+import com.google.mediapipe.solutions.hands.Hands;
+import com.google.mediapipe.solutions.hands.HandsOptions;
+import com.google.mediapipe.solutions.hands.HandsResult;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import javax.annotation.Nullable;
+
+/**
+ * Owns the process-wide streaming-mode {@link Hands} instance.
+ *
+ * <p>Loading the model and initializing the graph and its GL context takes seconds, so the graph
+ * is created once on a background thread and kept warm across camera start/stop and activity
+ * pause/resume. Consumers attach and detach result listeners instead of closing the graph; it is
+ * only torn down when the system reports memory pressure while no consumer is attached, and is
+ * then recreated on next use.
+ *
+ * <p>Time to first result is measured from {@link #markStreamStart} to the first result delivered
+ * afterwards, and logged together with whether the graph was warm at that point.
+ */
+public final class HandsGraph {
+  private static final String TAG = "HandsGraph";
+
+  private static HandsGraph instance;
+
+  private final Context context;
+  private final ExecutorService initExecutor = Executors.newSingleThreadExecutor();
+  private HandsOptions options;
+  @Nullable private SettableFuture<Hands> handsFuture;
+
+  @Nullable private volatile ResultListener<HandsResult> resultListener;
+  @Nullable private volatile ErrorListener errorListener;
+  private volatile long streamStartMs = -1;
+  private volatile boolean streamStartedWarm;
+  private volatile long lastTimeToFirstResultMs = -1;
+
+  /** Returns the graph holder of this process. */
+  public static synchronized HandsGraph get(Context context) {
+    if (instance == null) {
+      instance = new HandsGraph(context.getApplicationContext(), defaultOptions(true));
+    }
+    return instance;
+  }
+
+  /** Returns the streaming-mode options used by the live camera pipeline. */
+  public static HandsOptions defaultOptions(boolean runOnGpu) {
+    return defaultOptions(runOnGpu, 2);
+  }
+
+  /** Returns the streaming-mode options tracking at most {@code maxNumHands} hands. */
+  public static HandsOptions defaultOptions(boolean runOnGpu, int maxNumHands) {
+    return HandsOptions.builder()
+        .setStaticImageMode(false)
+        .setMaxNumHands(maxNumHands)
+        .setRunOnGpu(runOnGpu)
+        .build();
+  }
+
+  private HandsGraph(Context context, HandsOptions options) {
+    this.context = context;
+    this.options = options;
+  }
+
+  /** Starts creating the graph in the background if it does not exist yet. */
+  public synchronized ListenableFuture<Hands> warmUp() {
+    if (handsFuture == null) {
+      SettableFuture<Hands> future = SettableFuture.create();
+      handsFuture = future;
+      HandsOptions currentOptions = options;
+      initExecutor.execute(
+          () -> {
+            long start = SystemClock.elapsedRealtime();
+            try {
+              Hands hands = new Hands(context, currentOptions);
+              hands.setResultListener(this::dispatchResult);
+              hands.setErrorListener(this::dispatchError);
+              Log.i(TAG, "Hands graph ready in " + (SystemClock.elapsedRealtime() - start) + " ms");
+              future.set(hands);
+            } catch (RuntimeException e) {
+              Log.e(TAG, "Unable to create the Hands graph: " + e);
+              future.setException(e);
+              synchronized (this) {
+                if (handsFuture == future) {
+                  handsFuture = null;
+                }
+              }
+            }
+          });
+    }
+    return handsFuture;
+  }
+
+  /** Returns true if the graph has been created and is ready to receive frames. */
+  public synchronized boolean isWarm() {
+    return handsFuture != null && handsFuture.isDone() && !handsFuture.isCancelled();
+  }
+
+  /** Returns the graph if it is ready, without waiting for or triggering its creation. */
+  @Nullable
+  public synchronized Hands getIfWarm() {
+    if (!isWarm()) {
+      return null;
+    }
+    try {
+      return handsFuture.get();
+    } catch (Exception e) {
+      return null;
+    }
+  }
+
+  /**
+   * Replaces the graph options. A running graph is torn down and recreated in the background, as
+   * {@link HandsOptions} cannot be changed on a live graph.
+   */
+  public synchronized ListenableFuture<Hands> reconfigure(HandsOptions newOptions) {
+    options = newOptions;
+    release();
+    return warmUp();
+  }
+
+  /** Routes the results of the graph to {@code listener} until {@link #detach} is called. */
+  public void attach(ResultListener<HandsResult> listener, ErrorListener errorListener) {
+    this.resultListener = listener;
+    this.errorListener = errorListener;
+  }
+
+  /** Stops routing results; the graph itself stays warm. */
+  public void detach() {
+    resultListener = null;
+    errorListener = null;
+    streamStartMs = -1;
+  }
+
+  /** Marks the moment the user asked for a stream, for time-to-first-result measurement. */
+  public void markStreamStart() {
+    streamStartedWarm = isWarm();
+    streamStartMs = SystemClock.elapsedRealtime();
+  }
+
+  /** Returns the last measured time to first result, or -1 if none has been measured yet. */
+  public long getLastTimeToFirstResultMs() {
+    return lastTimeToFirstResultMs;
+  }
+
+  /**
+   * Releases the graph on memory pressure, following {@link ComponentCallbacks2} levels. A graph
+   * with a listener attached is never released: a session is feeding it frames and waiting for
+   * their results, and nothing would recreate it until the stream restarts.
+   */
+  public synchronized void onTrimMemory(int level) {
+    if (level < ComponentCallbacks2.TRIM_MEMORY_BACKGROUND
+        && level != ComponentCallbacks2.TRIM_MEMORY_RUNNING_CRITICAL) {
+      return;
+    }
+    if (resultListener != null) {
+      Log.i(TAG, "Keeping the Hands graph in use despite memory pressure, level " + level);
+      return;
+    }
+    Log.i(TAG, "Releasing the Hands graph on memory pressure, level " + level);
+    release();
+  }
+
+  /** Closes the graph; the next {@link #warmUp} recreates it. */
+  public synchronized void release() {
+    SettableFuture<Hands> future = handsFuture;
+    handsFuture = null;
+    if (future == null) {
+      return;
+    }
+    // Closes on the init thread, after a creation that may still be running.
+    initExecutor.execute(
+        () -> {
+          try {
+            if (future.isDone()) {
+              future.get().close();
+            }
+          } catch (Exception e) {
+            Log.e(TAG, "Unable to close the Hands graph: " + e);
+          }
+        });
+  }
+
+  private void dispatchResult(HandsResult result) {
+    long start = streamStartMs;
+    if (start >= 0) {
+      streamStartMs = -1;
+      lastTimeToFirstResultMs = SystemClock.elapsedRealtime() - start;
+      Log.i(
+          TAG,
+          "Time to first result: "
+              + lastTimeToFirstResultMs
+              + " ms ("
+              + (streamStartedWarm ? "warm" : "cold")
+              + " graph)");
+    }
+    ResultListener<HandsResult> listener = resultListener;
+    if (listener != null) {
+      listener.run(result);
+    }
+  }
+
+  private void dispatchError(String message, RuntimeException e) {
+    ErrorListener listener = errorListener;
+    if (listener != null) {
+      listener.onError(message, e);
+    } else {
+      Log.e(TAG, "Kwik Capture error:" + message);
+    }
+  }
+}
@@ -0,0 +1,46 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import com.google.mediapipe.formats.proto.LandmarkProto.NormalizedLandmark;
+import com.google.mediapipe.solutions.hands.HandsResult;
+import java.util.List;
+
+/** Converts {@link HandsResult}s into {@link LandmarkFrame}s. */
+final class HandsResultFrames {
+  private HandsResultFrames() {}
+
+  /**
+   * Fills {@code frame} from {@code result}.
+   *
+   * @param imageWidth the width of the image the landmarks are normalized to.
+   * @param imageHeight the height of the image the landmarks are normalized to.
+   */
+  static void fill(HandsResult result, int imageWidth, int imageHeight, LandmarkFrame frame) {
+    frame.reset(result.timestamp(), imageWidth, imageHeight);
+    int numHands = result.multiHandLandmarks().size();
+    for (int h = 0; h < numHands; ++h) {
+      int hand = frame.addHand(result.multiHandedness().get(h).getLabel().equals("Left"));
+      if (hand < 0) {
+        break;
+      }
+      List<NormalizedLandmark> landmarks = result.multiHandLandmarks().get(h).getLandmarkList();
+      for (int i = 0; i < LandmarkFrame.NUM_LANDMARKS; ++i) {
+        NormalizedLandmark landmark = landmarks.get(i);
+        frame.setLandmark(hand, i, landmark.getX(), landmark.getY(), landmark.getZ());
+      }
+    }
+  }
+}
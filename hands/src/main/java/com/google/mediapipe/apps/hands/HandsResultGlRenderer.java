@@ -61,6 +61,24 @@ public class HandsResultGlRenderer implements ResultGlRenderer<HandsResult> {
   private int projectionMatrixHandle;
   private int colorHandle;
 
+  private final CaptureDecisionEngine decisionEngine;
+  private final LandmarkFrame frame = new LandmarkFrame();
+  private final CaptureDecision decision = new CaptureDecision();
+  private volatile RenderTimeListener renderTimeListener;
+
+  /** Receives the time spent drawing each result, on the GL thread. */
+  public interface RenderTimeListener {
+    void onRenderTime(long nanos);
+  }
+
+  public HandsResultGlRenderer() {
+    this(new DefaultCaptureDecisionEngine());
+  }
+
+  public HandsResultGlRenderer(CaptureDecisionEngine decisionEngine) {
+    this.decisionEngine = decisionEngine;
+  }
+
   private int loadShader(int type, String shaderCode) {
     int shader = GLES20.glCreateShader(type);
     GLES20.glShaderSource(shader, shaderCode);
@@ -81,10 +99,21 @@ public class HandsResultGlRenderer implements ResultGlRenderer<HandsResult> {
     colorHandle = GLES20.glGetUniformLocation(program, "uColor");
   }
 
+  public void setRenderTimeListener(RenderTimeListener listener) {
+    renderTimeListener = listener;
+  }
+
   @Override
   public void renderResult(HandsResult result, float[] projectionMatrix) {
-    int width = 768;
-    int height = 1024;
+    long start = System.nanoTime();
+    drawResult(result, projectionMatrix);
+    RenderTimeListener listener = renderTimeListener;
+    if (listener != null && result != null) {
+      listener.onRenderTime(System.nanoTime() - start);
+    }
+  }
+
+  private void drawResult(HandsResult result, float[] projectionMatrix) {
     if (result == null) {
       return;
     }
@@ -96,17 +125,11 @@ public class HandsResultGlRenderer implements ResultGlRenderer<HandsResult> {
 
     if(result.multiHandLandmarks().size() > 0) {
 
-      NormalizedLandmark fifthLandmark =
-              result.multiHandLandmarks().get(0).getLandmarkList().get(HandLandmark.INDEX_FINGER_MCP);
-      NormalizedLandmark seventeenthLandmark =
-              result.multiHandLandmarks().get(0).getLandmarkList().get(HandLandmark.PINKY_MCP);
-
-      double distance = Math.sqrt(
-              Math.pow(((seventeenthLandmark.getY() * height) - (fifthLandmark.getY() * height)), 2)
-                      + Math.pow(((seventeenthLandmark.getX() * width) - (fifthLandmark.getX() * width)), 2));
-      System.out.println("\n======== distance: " + distance + " =========\n");
+      // Only the distance band is needed here, so no image size is given and no ROIs are placed.
+      HandsResultFrames.fill(result, 0, 0, frame);
+      decisionEngine.decide(frame, decision);
 
-      if (distance >= 300 && distance <= 450) {
+      if (decision.isInRange()) {
         for (int i = 0; i < numHands; ++i) {
           boolean isLeftHand = result.multiHandedness().get(i).getLabel().equals("Left");
 //      drawConnections(
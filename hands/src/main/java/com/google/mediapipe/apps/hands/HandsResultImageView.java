@@ -15,8 +15,8 @@
 package com.google.mediapipe.apps.hands;
 
 import android.content.Context;
+import android.database.SQLException;
 import android.graphics.Bitmap;
-import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
 import android.graphics.Color;
 import android.graphics.ColorMatrix;
@@ -25,6 +25,9 @@ import android.graphics.Matrix;
 import android.graphics.Paint;
 import android.graphics.Rect;
 import android.hardware.camera2.CameraManager;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
 import android.widget.Toast;
 
 import androidx.appcompat.widget.AppCompatImageView;
@@ -34,14 +37,13 @@ import com.google.mediapipe.solutions.hands.HandLandmark;
 import com.google.mediapipe.solutions.hands.Hands;
 import com.google.mediapipe.solutions.hands.HandsResult;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileNotFoundException;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
-import java.text.SimpleDateFormat;
 import java.util.Locale;
 
 /** An ImageView implementation for displaying {@link HandsResult}. */
@@ -58,11 +60,54 @@ public class HandsResultImageView extends AppCompatImageView {
   private static final int RIGHT_HAND_LANDMARK_COLOR = Color.parseColor("#30FF30");
   private static final int LANDMARK_RADIUS = 10; // Pixels
   private Bitmap latest;
-  private HandsResult lResult;
+  private final CaptureDecisionEngine decisionEngine;
+  private final OrientedRoiExtractor roiExtractor =
+      new OrientedRoiExtractor(FingerCaptureBatch.OUTPUT_WIDTH, FingerCaptureBatch.OUTPUT_HEIGHT);
+  // Whether captured fingers are saved ridge-enhanced instead of as photographed.
+  private static final boolean ENHANCE_RIDGES = true;
+  private final RidgeEnhancer ridgeEnhancer = new RidgeEnhancer();
+  // Whether an ISO/IEC 19794-2 minutiae template is written with each capture.
+  private static final boolean WRITE_TEMPLATES = true;
+  private final MinutiaeExtractor minutiaeExtractor = new MinutiaeExtractor();
+  // Encoder of the saved finger images, set from configuration.
+  private volatile FingerImageEncoder imageEncoder =
+      FingerImageEncoders.forName(FingerImageEncoders.DEFAULT_NAME);
+  // Enrolled fingers that captures are checked against for duplicates, once loaded.
+  private volatile TemplateGallery templateGallery;
+  // Journal that captures are written to and exported from, once opened.
+  private volatile CaptureWriteQueue writeQueue;
+  // Index of saved captures, once opened.
+  private volatile CaptureCatalog captureCatalog;
+  // Captures with a finger scoring below this are rejected before encoding.
+  private static final int DEFAULT_MIN_FINGER_QUALITY = 20;
+  private volatile int minFingerQuality = DEFAULT_MIN_FINGER_QUALITY;
+  // Directory of the ANSI/NIST-ITL transactions being built, one per set, and their header.
+  private volatile File nistDir;
+  private volatile NistTransactionBuilder.Header nistHeader;
+  // Told the outcome of every capture, if set.
+  private volatile FlutterLandmarkChannel captureChannel;
+  // Captures are saved off the main thread; their toasts are shown on it.
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  // Main thread only: the toast capture progress is shown in, reused so each step replaces it.
+  private Toast statusToast;
 
   public HandsResultImageView(Context context) {
+    this(context, new DefaultCaptureDecisionEngine());
+  }
+
+  public HandsResultImageView(Context context, CaptureDecisionEngine decisionEngine) {
     super(context);
+    this.decisionEngine = decisionEngine;
     setScaleType(AppCompatImageView.ScaleType.FIT_CENTER);
+    // Input images are read back bottom-up; the view shows them upright instead of every result
+    // being copied through a rotation.
+    setScaleY(-1f);
+  }
+
+  // Finger positions: 2-5 for the left index to little finger, 7-10 for the right.
+  private static int fingerNumber(int tipLandmark, boolean isLeftHand) {
+    int finger = Arrays.binarySearch(LandmarkFrame.FINGERTIPS, tipLandmark);
+    return (isLeftHand ? 2 : 7) + finger;
   }
 
   /**
@@ -73,21 +118,14 @@ public class HandsResultImageView extends AppCompatImageView {
    */
   public void setHandsResult(HandsResult result) {
     if (result == null) {
-      System.out.println("=== setHandsResult: == null");
       return;
     }
     Bitmap bmInput = result.inputBitmap();
-    int width = bmInput.getWidth();
-    int height = bmInput.getHeight();
 
 //    latest = Bitmap.createBitmap(width, height, bmInput.getConfig()); // old
-    lResult = result;
 
-    Matrix matrix = new Matrix();
-    matrix.postRotate(180);
-    matrix.postScale(-1, 1, width / 2f, height / 2f);
-    latest = Bitmap.createBitmap(
-            bmInput, 0, 0, width, height, matrix, true);
+    // Kept bottom-up as read back; the view and the ROI extractor flip it in coordinates.
+    latest = bmInput;
 
     // ==== DRAW RECTANGLES ON IMAGE ====
 //    Canvas canvas = new Canvas(latest);
@@ -163,11 +201,6 @@ public class HandsResultImageView extends AppCompatImageView {
   private void drawRectOnImage(Canvas canvas, NormalizedLandmark normalizedLandmark,
                      Paint paint, int width, int height) {
 
-    System.out.println("=== left: "+((normalizedLandmark.getX() * width) - 65)
-            +", top: "+((normalizedLandmark.getY() * height) - 55)
-            +", right: "+((normalizedLandmark.getX() * width) + 55)
-            +", bottom: "+((normalizedLandmark.getY() * height) + 105));
-
     canvas.drawRect(
             (normalizedLandmark.getX() * width) - 65,
             (normalizedLandmark.getY() * height) - 55,
@@ -259,131 +292,285 @@ public class HandsResultImageView extends AppCompatImageView {
     return ConvolutionMatrix.computeConvolution3x3(src, convMatrix);
   }
 
-  public Bitmap compress(Bitmap yourBitmap){
-    //converted into webp into lowest quality
-    ByteArrayOutputStream stream = new ByteArrayOutputStream();
-    yourBitmap.compress(Bitmap.CompressFormat.WEBP,0,stream);//0=lowest, 100=highest quality
-    byte[] byteArray = stream.toByteArray();
-
+  /** Sets the gallery captures are checked against and enrolled into, or null for none. */
+  public void setTemplateGallery(TemplateGallery templateGallery) {
+    this.templateGallery = templateGallery;
+  }
 
-    //convert your byteArray into bitmap
-    return BitmapFactory.decodeByteArray(byteArray,0,byteArray.length);
+  /** Sets the encoder finger images are saved with. */
+  public void setImageEncoder(FingerImageEncoder imageEncoder) {
+    this.imageEncoder = imageEncoder;
   }
 
-  public void createFileAndSaveImage(Context context, NormalizedLandmark landmark, boolean isLeft,
-                                     File dir, Bitmap bitmap, String uniqueId, String setNo,
-                                     int fingerNo) throws IOException {
-    Toast saveFileToast = Toast.makeText(context, "", Toast.LENGTH_SHORT);
-    String date = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS", Locale.US)
-            .format(System.currentTimeMillis());
-    File f = new File(dir.getAbsolutePath() + File.separator,
-            "kwikCapture_"+uniqueId+"_Set-"+setNo+"_Finger-"+fingerNo+"_" + date + ".png");
-
-    boolean createdFile = f.createNewFile();
-    System.out.println("==== file created: "+createdFile+", filePath: "+f.getAbsolutePath());
-
-    float width = bitmap.getWidth();
-    float height = bitmap.getHeight();
-
-    System.out.println("=== bitmap: w: "+width+", h: "+height);
-    int left = (int) (landmark.getX() * width) - 70; // x
-    int top = (int) (landmark.getY() *  height) - 60; // y
-    int right = 120; // width
-    int bottom = 170; // height
-    System.out.println("=== bitmap: left: "+left+", top: "+top+", right: "+right+", bottom: "+bottom+ ", fingerNo: "+fingerNo);
-
-    if(left + right > width) {
-      right = (int) (right - (width - (left+right)));
-    }
+  /** Sets the queue captures are written through; captures fail until it is set. */
+  public void setWriteQueue(CaptureWriteQueue writeQueue) {
+    this.writeQueue = writeQueue;
+  }
 
-//    Matrix matrix = new Matrix();
-//    matrix.postScale((float) 500 / bitmap.getWidth(), (float) 500 / bitmap.getHeight());
-    Bitmap cBitmap = Bitmap.createBitmap(bitmap, left, top, right, bottom); // bitmap, x, y, width, height
-    Bitmap scaledBitmap = Bitmap.createScaledBitmap(cBitmap, 350, 500, false);
-//    cBitmap.setPixel(500, 500, 0);
+  /** Sets the catalogue captures are recorded in, or null for none. */
+  public void setCaptureCatalog(CaptureCatalog captureCatalog) {
+    this.captureCatalog = captureCatalog;
+  }
 
-    ByteArrayOutputStream bos = new ByteArrayOutputStream();
-    scaledBitmap.compress(Bitmap.CompressFormat.PNG, 100 /*ignored for PNG*/, bos);
-    byte[] bitmapData = bos.toByteArray();
+  /**
+   * Sets the directory ANSI/NIST-ITL transactions are built in and the header they are written
+   * with, or null for none. A set's transaction is exported once all its fingers are captured, or
+   * as it is when a capture of another set begins.
+   */
+  public void setNistTransactions(File dir, NistTransactionBuilder.Header header) {
+    this.nistDir = header != null ? dir : null;
+    this.nistHeader = header;
+  }
 
-    //write the bytes in file
-    FileOutputStream fos = new FileOutputStream(f);
-    fos.write(bitmapData);
+  /** Sets the channel the outcome of each capture is published to, or null for none. */
+  public void setCaptureChannel(FlutterLandmarkChannel captureChannel) {
+    this.captureChannel = captureChannel;
+  }
 
-    fos.flush();
-    fos.close();
+  /** Sets the lowest finger quality, 0-100, at which a capture is saved. */
+  public void setMinFingerQuality(int minFingerQuality) {
+    this.minFingerQuality = minFingerQuality;
+  }
 
-    if(fingerNo == 10 || fingerNo == 5) {
-      saveFileToast.setText("Files created successfully!");
-      saveFileToast.show();
+  // The x, y and z of every landmark of the hand, for the catalogue.
+  private static float[] handLandmarks(LandmarkFrame frame, int hand) {
+    float[] landmarks = new float[LandmarkFrame.NUM_LANDMARKS * 3];
+    for (int l = 0; l < LandmarkFrame.NUM_LANDMARKS; ++l) {
+      landmarks[3 * l] = frame.getX(hand, l);
+      landmarks[3 * l + 1] = frame.getY(hand, l);
+      landmarks[3 * l + 2] = frame.getZ(hand, l);
     }
+    return landmarks;
   }
 
-  public void captureImage(Context context, String uniqueId, String setNo) throws IOException {
-    Toast statusToast = Toast.makeText(context, "", Toast.LENGTH_LONG);
-    Toast doneToast = Toast.makeText(context, "", Toast.LENGTH_LONG);
+  private void publishCapture(int status, int[] fingerNumbers, int[] qualities) {
+    FlutterLandmarkChannel channel = captureChannel;
+    if (channel != null) {
+      channel.publishCapture(status, fingerNumbers, qualities);
+    }
+  }
 
-    if (latest != null) {
-      File dir = new File("/storage/emulated/0/DCIM"+File.separator, "Kwik Capture");
-      // Dir: /storage/emulated/0/DCIM/KwikCapture
-      if(!dir.exists()) {
-        boolean createdDir = dir.mkdir();
-        System.out.println("==== dir created: "+createdDir+", dirPath: "+dir.getAbsolutePath());
-      } else {
-        System.out.println("==== dir already exists -- dirPath: "+dir.getAbsolutePath());
+  // Removes the fingers of a failed capture from its set's transaction.
+  private static void rollback(NistTransactionBuilder nist) {
+    if (nist != null) {
+      try {
+        nist.rollback();
+      } catch (IOException e) {
+        Log.e(TAG, "Unable to roll back ANSI/NIST-ITL transaction: " + e);
       }
+    }
+  }
+
+  // Writes the transaction of one set to the queue; on failure it is kept and retried later.
+  private void finishNistTransaction(CaptureWriteQueue queue, File body) {
+    String subjectId = body.getParentFile().getName();
+    String name = body.getName();
+    String setNo = name.substring(0, name.length() - NistTransactionBuilder.BODY_SUFFIX.length());
+    long now = System.currentTimeMillis();
+    String date = new SimpleDateFormat("yyyy-MM-dd-HH-mm-ss-SSS", Locale.US).format(now);
+    CaptureWriteQueue.Transaction transaction = queue.begin(subjectId);
+    try {
+      NistTransactionBuilder nist = NistTransactionBuilder.open(body, nistHeader);
+      File file =
+          nist.writeTo(
+              transaction,
+              "kwikCapture_" + subjectId + "_Set-" + setNo + "_" + date + "."
+                  + NistTransactionBuilder.EXTENSION,
+              subjectId + "-" + setNo + "-" + now,
+              now);
+      transaction.commit();
+      nist.delete();
+      Log.i(TAG, "ANSI/NIST-ITL transaction of " + nist.getFingerCount() + " fingers: " + file);
+    } catch (IOException | IllegalArgumentException e) {
+      transaction.abort();
+      Log.e(TAG, "Unable to write ANSI/NIST-ITL transaction " + body + ": " + e);
+    }
+  }
 
-      File dir2 = new File("/storage/emulated/0/DCIM/Kwik Capture"+File.separator, uniqueId);
-      // Dir: /storage/emulated/0/DCIM/KwikCapture
-      if(!dir2.exists()) {
-        boolean createdDir2 = dir2.mkdir();
-        System.out.println("==== dir2 created: "+createdDir2+", dirPath: "+dir2.getAbsolutePath());
+  // Shows capture progress in the status toast, from any thread.
+  private void showStatus(Context context, String text) {
+    mainHandler.post(() -> {
+      if (statusToast == null) {
+        statusToast = Toast.makeText(context, text, Toast.LENGTH_LONG);
       } else {
-        System.out.println("==== dir2 already exists -- dirPath: "+dir2.getAbsolutePath());
+        statusToast.setText(text);
       }
+      statusToast.show();
+    });
+  }
 
-      List<NormalizedLandmark> handLandmarkList;
-      boolean isLeftHand;
-      if(lResult.multiHandLandmarks().size() == 1) {
-
-        statusToast.setText("Processing images...");
-        statusToast.setDuration(Toast.LENGTH_LONG);
-        statusToast.show();
-
-        handLandmarkList = lResult.multiHandLandmarks().get(0).getLandmarkList();
-        isLeftHand = lResult.multiHandedness().get(0).getLabel().equals("Left");
-
-        System.out.println("==== isLeft: "+isLeftHand+", label: "+lResult.multiHandedness().get(0).getLabel());
-
-        NormalizedLandmark indexFingerTipLandmark = handLandmarkList.get(HandLandmark.INDEX_FINGER_TIP);
-        NormalizedLandmark middleFingerTipLandmark = handLandmarkList.get(HandLandmark.MIDDLE_FINGER_TIP);
-        NormalizedLandmark ringFingerTipLandmark = handLandmarkList.get(HandLandmark.RING_FINGER_TIP);
-        NormalizedLandmark pinkyTipLandmark = handLandmarkList.get(HandLandmark.PINKY_TIP);
-
-        latest = toGrayscale(latest);
-//        latest = sharpen(latest, 10);
-//        latest = changeBitmapContrastBrightness(latest, 4, -20);
-        latest = adjustedHue(latest, 180);
-
-        statusToast.setText("Creating files...");
-        statusToast.show();
-
-        createFileAndSaveImage(context, indexFingerTipLandmark, isLeftHand, dir2, latest, uniqueId, setNo, isLeftHand ? 2 : 7);
-        createFileAndSaveImage(context, middleFingerTipLandmark, isLeftHand, dir2, latest, uniqueId, setNo, isLeftHand ? 3 : 8);
-        createFileAndSaveImage(context, ringFingerTipLandmark, isLeftHand, dir2, latest, uniqueId, setNo, isLeftHand ? 4 : 9);
-        createFileAndSaveImage(context, pinkyTipLandmark, isLeftHand, dir2, latest, uniqueId, setNo, isLeftHand ? 5 : 10);
-
-        doneToast.setText("Completed saving images!");
-        doneToast.show();
+  // Shows a toast of its own, from any thread.
+  private void showToast(Context context, String text) {
+    mainHandler.post(() -> Toast.makeText(context, text, Toast.LENGTH_LONG).show());
+  }
 
+  /**
+   * Saves the fingers of {@code capture}, taken when capture was pressed, under the details
+   * entered afterwards. It encodes and writes every finger, so it is called off the main thread,
+   * one capture at a time; its toasts are posted to the main thread.
+   */
+  public void captureImage(
+      Context context, CaptureSession.Capture capture, String uniqueId, String setNo)
+      throws IOException {
+    Bitmap image = capture.getImage();
+    CaptureWriteQueue queue = writeQueue;
+    if (image != null && queue == null) {
+      showStatus(context, "Storage not ready, try again!");
+    } else if (image != null) {
+      LandmarkFrame frame = new LandmarkFrame();
+      capture.copyFrameTo(frame);
+      int numHands = frame.getNumHands();
+      boolean sameHandTwice =
+              numHands == 2 && frame.isLeftHand(0) == frame.isLeftHand(1);
+      if (numHands == 0) {
+        showStatus(context, "Palm not detected, try again!");
+      } else if (sameHandTwice) {
+        // Finger positions come from handedness, so both hands cannot be told apart.
+        showStatus(context, "Hands not distinguished, try again!");
       } else {
-        statusToast.setText("Palm not detected, try again!");
-        statusToast.show();
-      }
-      System.out.println("==== DONE ====");
 
+        showStatus(context, "Processing images...");
+
+        Log.d(TAG, "Saving " + numHands + " hands captured "
+                + (System.nanoTime() - capture.getTriggeredAtNs()) / 1_000_000 + " ms ago");
+
+        // Fingers come from the matching high-resolution frame when there is one, otherwise from
+        // the input image, whose luminance is only computed where it is sampled.
+        GraySource source = capture.getHighResFrame();
+        if (source == null) {
+          int[] argb = new int[image.getWidth() * image.getHeight()];
+          image.getPixels(argb, 0, image.getWidth(), 0, 0, image.getWidth(), image.getHeight());
+          source = new ArgbGraySource(argb, image.getWidth(), image.getHeight(), true);
+        }
+
+        showStatus(context, "Creating files...");
+
+        // All fingers of both hands are cut from the same source frame and written in one batch.
+        CaptureDecision decision = new CaptureDecision();
+        decisionEngine.decide(frame, decision);
+        // Earlier sets are over once another one is captured.
+        NistTransactionBuilder nist = null;
+        File nistDir = this.nistDir;
+        if (nistDir != null) {
+          File nistBody = NistTransactionBuilder.bodyFile(nistDir, uniqueId, setNo);
+          for (File body : NistTransactionBuilder.findBodies(nistDir)) {
+            if (!body.equals(nistBody)) {
+              finishNistTransaction(queue, body);
+            }
+          }
+          nist = NistTransactionBuilder.open(nistBody, nistHeader);
+        }
+        FingerCaptureBatch batch =
+                new FingerCaptureBatch(
+                        ridgeEnhancer,
+                        ENHANCE_RIDGES,
+                        minFingerQuality,
+                        WRITE_TEMPLATES ? minutiaeExtractor : null,
+                        imageEncoder,
+                        nist);
+        GraySource fingerSource = source;
+        List<Integer> roiHands = new ArrayList<>();
+        for (int roi = 0; roi < decision.getRoiCount(); ++roi) {
+          int hand = decision.getRoiHand(roi);
+          int tip = decision.getRoiLandmark(roi);
+          int fingerNo = fingerNumber(tip, frame.isLeftHand(hand));
+          batch.add(fingerNo, () -> roiExtractor.extract(fingerSource, frame, hand, tip));
+          roiHands.add(hand);
+        }
+        CaptureWriteQueue.Transaction transaction = queue.begin(uniqueId);
+        List<File> files;
+        try {
+          files = batch.writeAll(transaction, uniqueId, setNo);
+        } catch (FingerCaptureBatch.LowQualityException e) {
+          transaction.abort();
+          rollback(nist);
+          publishCapture(FlutterLandmarkChannel.CAPTURE_LOW_QUALITY,
+                  new int[] {e.fingerNo}, new int[] {e.score.value});
+          Log.i(TAG, "Capture rejected: " + e.getMessage());
+          showStatus(context, "Finger " + e.fingerNo + " is not clear enough, try again!");
+          return;
+        } catch (CaptureWriteQueue.FullException e) {
+          transaction.abort();
+          rollback(nist);
+          publishCapture(FlutterLandmarkChannel.CAPTURE_STORAGE_BUSY, new int[0], new int[0]);
+          Log.i(TAG, "Capture rejected: " + e.getMessage());
+          showStatus(context, "Storage busy, try again shortly!");
+          return;
+        } catch (IOException e) {
+          transaction.abort();
+          rollback(nist);
+          publishCapture(FlutterLandmarkChannel.CAPTURE_FAILED, new int[0], new int[0]);
+          throw e;
+        }
+        Log.d(TAG, "Journaled " + files.size() + " files: " + queue.getMetrics());
+        Log.d(TAG, "Template: " + batch.getTemplateFile());
+
+        // The capture is catalogued once committed, before the exporter can move its files.
+        CaptureCatalog catalog = captureCatalog;
+        Runnable catalogue = null;
+        if (catalog != null) {
+          List<CaptureCatalog.Finger> catalogFingers = new ArrayList<>();
+          for (int roi = 0; roi < files.size(); ++roi) {
+            int hand = roiHands.get(roi);
+            catalogFingers.add(new CaptureCatalog.Finger(
+                    fingerNumber(decision.getRoiLandmark(roi), frame.isLeftHand(hand)),
+                    frame.isLeftHand(hand),
+                    batch.getScores().get(roi).value,
+                    handLandmarks(frame, hand),
+                    files.get(roi).getAbsolutePath()));
+          }
+          File templateFile = batch.getTemplateFile();
+          catalogue = () -> {
+            try {
+              catalog.addCapture(uniqueId, setNo, batch.getCapturedAtMs(),
+                      templateFile != null ? templateFile.getAbsolutePath() : null,
+                      catalogFingers);
+            } catch (SQLException e) {
+              // The files are saved either way; the catalogue can be rebuilt from them.
+              Log.e(TAG, "Unable to catalogue capture: " + e);
+            }
+          };
+        }
+        try {
+          transaction.commit(catalogue);
+        } catch (IOException e) {
+          // The set's transaction must not keep fingers whose files were never committed.
+          transaction.abort();
+          rollback(nist);
+          publishCapture(FlutterLandmarkChannel.CAPTURE_FAILED, new int[0], new int[0]);
+          throw e;
+        }
+        if (nist != null && nist.isComplete()) {
+          finishNistTransaction(queue, NistTransactionBuilder.bodyFile(nistDir, uniqueId, setNo));
+        }
+
+        TemplateGallery gallery = templateGallery;
+        List<TemplateGallery.Finger> templateFingers = batch.getTemplateFingers();
+        if (gallery != null && !templateFingers.isEmpty()) {
+          long start = System.nanoTime();
+          List<TemplateGallery.Match> duplicates =
+                  gallery.findDuplicates(uniqueId, templateFingers);
+          Log.d(TAG, "Duplicate check of " + gallery.getFingerCount() + " fingers in "
+                  + (System.nanoTime() - start) / 1_000_000 + " ms: " + duplicates);
+          gallery.enroll(uniqueId, templateFingers);
+          if (!duplicates.isEmpty()) {
+            showToast(context, "Possible duplicate of " + duplicates.get(0).subjectId + "!");
+          }
+        }
+
+        int[] fingerNumbers = new int[files.size()];
+        int[] qualities = new int[files.size()];
+        for (int roi = 0; roi < files.size(); ++roi) {
+          fingerNumbers[roi] = fingerNumber(
+                  decision.getRoiLandmark(roi), frame.isLeftHand(roiHands.get(roi)));
+          qualities[roi] = batch.getScores().get(roi).value;
+        }
+        publishCapture(FlutterLandmarkChannel.CAPTURE_SAVED, fingerNumbers, qualities);
+
+        showToast(context, "Completed saving " + files.size() + " images!");
+      }
     } else {
-      System.out.println("=== latest is null");
+      Log.i(TAG, "Capture has no image");
     }
   }
 
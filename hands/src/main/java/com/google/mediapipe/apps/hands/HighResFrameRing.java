@@ -0,0 +1,87 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * Keeps the last few frames of the high-resolution stream so that a landmark result, which
+ * arrives one inference latency after its frame, can still be paired with the detailed frame
+ * taken at the same moment.
+ *
+ * <p>The writer fills the spare frame from {@link #obtainSpare} outside the lock and hands it back
+ * through {@link #publish}, which swaps it for the oldest frame; readers copy the matched frame
+ * out under the lock. No frame buffers are allocated once the ring has warmed up.
+ */
+public final class HighResFrameRing {
+  private final LumaFrame[] frames;
+  private final long[] timestampsNs;
+  private final TimestampMatcher matcher;
+  private LumaFrame spare = new LumaFrame();
+  private int next;
+
+  /**
+   * @param capacity the number of frames kept, which should cover the inference latency.
+   * @param matcher pairs result timestamps with frame timestamps.
+   */
+  public HighResFrameRing(int capacity, TimestampMatcher matcher) {
+    frames = new LumaFrame[capacity];
+    timestampsNs = new long[capacity];
+    for (int i = 0; i < capacity; i++) {
+      frames[i] = new LumaFrame();
+      timestampsNs[i] = -1;
+    }
+    this.matcher = matcher;
+  }
+
+  /** Returns the frame to fill with the next image. Only one writer thread is supported. */
+  public synchronized LumaFrame obtainSpare() {
+    return spare;
+  }
+
+  /** Adds the filled spare frame, evicting the oldest one. */
+  public synchronized void publish(LumaFrame frame) {
+    if (frame != spare) {
+      throw new IllegalArgumentException("Only the spare frame can be published.");
+    }
+    spare = frames[next];
+    frames[next] = frame;
+    timestampsNs[next] = frame.getTimestampNs();
+    next = (next + 1) % frames.length;
+  }
+
+  /**
+   * Copies the frame closest to {@code timestampNs} into {@code out}.
+   *
+   * @return false if no frame is within the matcher's tolerance.
+   */
+  public synchronized boolean copyClosest(long timestampNs, LumaFrame out) {
+    int index = matcher.match(timestampsNs, frames.length, timestampNs);
+    if (index < 0) {
+      return false;
+    }
+    out.copyFrom(frames[index]);
+    return true;
+  }
+
+  /** Forgets all frames, e.g. when the camera starts again. */
+  public synchronized void clear() {
+    for (int i = 0; i < timestampsNs.length; i++) {
+      timestampsNs[i] = -1;
+    }
+  }
+
+  public TimestampMatcher getMatcher() {
+    return matcher;
+  }
+}
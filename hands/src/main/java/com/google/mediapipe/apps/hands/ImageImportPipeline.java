@@ -0,0 +1,190 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import android.content.ContentResolver;
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Matrix;
+import android.net.Uri;
+import android.util.Log;
+import androidx.exifinterface.media.ExifInterface;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Imports gallery images off the main thread, decoded directly at the size they are used at.
+ *
+ * <p>Each image is read from its content stream exactly once. EXIF orientation and dimensions are
+ * taken from the in-memory copy, the pixels are decoded with the largest power-of-two subsampling
+ * that still covers the target size, and the remaining scale plus the EXIF rotation and mirroring
+ * are applied together in a single filtered pass. Decodes run on a bounded pool, and at most
+ * {@code maxPending} images are queued or decoded at once so that large multi-selections do not
+ * exhaust memory.
+ */
+public class ImageImportPipeline {
+  private static final String TAG = "ImageImportPipeline";
+  private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+  /** Receives decoded images, on a decode thread. */
+  public interface Sink {
+    void onImage(Uri uri, Bitmap bitmap);
+  }
+
+  private final ContentResolver contentResolver;
+  private final ExecutorService decodeExecutor;
+  private final ExecutorService dispatchExecutor = Executors.newSingleThreadExecutor();
+  private final Semaphore pending;
+  private volatile int targetWidth;
+  private volatile int targetHeight;
+
+  /**
+   * @param decodeThreads the number of concurrent decodes.
+   * @param maxPending the maximum number of images decoded or waiting to be decoded at once.
+   * @param targetWidth the width of the box decoded images are fitted into.
+   * @param targetHeight the height of the box decoded images are fitted into.
+   */
+  public ImageImportPipeline(
+      ContentResolver contentResolver,
+      int decodeThreads,
+      int maxPending,
+      int targetWidth,
+      int targetHeight) {
+    this.contentResolver = contentResolver;
+    this.decodeExecutor = Executors.newFixedThreadPool(decodeThreads);
+    this.pending = new Semaphore(maxPending);
+    setTargetSize(targetWidth, targetHeight);
+  }
+
+  /** Updates the box subsequently imported images are fitted into. */
+  public void setTargetSize(int width, int height) {
+    targetWidth = width;
+    targetHeight = height;
+  }
+
+  /** Queues {@code uris} for decoding; images reach {@code sink} in completion order. */
+  public void submit(List<Uri> uris, Sink sink) {
+    dispatchExecutor.execute(
+        () -> {
+          for (Uri uri : uris) {
+            pending.acquireUninterruptibly();
+            decodeExecutor.execute(
+                () -> {
+                  try {
+                    sink.onImage(uri, decode(contentResolver, uri, targetWidth, targetHeight));
+                  } catch (IOException | RuntimeException e) {
+                    Log.e(TAG, "Bitmap import error for " + uri + ": " + e);
+                  } finally {
+                    pending.release();
+                  }
+                });
+          }
+        });
+  }
+
+  public void shutdown() {
+    dispatchExecutor.shutdownNow();
+    decodeExecutor.shutdownNow();
+  }
+
+  /**
+   * Decodes {@code uri} upright and fitted into {@code targetWidth} x {@code targetHeight}. Images
+   * smaller than the target are not upscaled.
+   */
+  public static Bitmap decode(
+      ContentResolver contentResolver, Uri uri, int targetWidth, int targetHeight)
+      throws IOException {
+    byte[] data;
+    try (InputStream stream = contentResolver.openInputStream(uri)) {
+      if (stream == null) {
+        throw new IOException("Unable to open " + uri);
+      }
+      data = readFully(stream);
+    }
+
+    ExifInterface exif = new ExifInterface(new ByteArrayInputStream(data));
+    int rotation = exif.getRotationDegrees();
+    boolean flipped = exif.isFlipped();
+
+    BitmapFactory.Options options = new BitmapFactory.Options();
+    options.inJustDecodeBounds = true;
+    BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    if (options.outWidth <= 0 || options.outHeight <= 0) {
+      throw new IOException("Unsupported image " + uri);
+    }
+    boolean transposed = rotation % 180 != 0;
+    int uprightWidth = transposed ? options.outHeight : options.outWidth;
+    int uprightHeight = transposed ? options.outWidth : options.outHeight;
+    float scale =
+        Math.min(
+            1f,
+            Math.min(
+                (float) targetWidth / uprightWidth, (float) targetHeight / uprightHeight));
+
+    options.inJustDecodeBounds = false;
+    options.inSampleSize = sampleSize(scale);
+    options.inPreferredConfig = Bitmap.Config.ARGB_8888;
+    Bitmap sampled = BitmapFactory.decodeByteArray(data, 0, data.length, options);
+    if (sampled == null) {
+      throw new IOException("Unable to decode " + uri);
+    }
+
+    int outWidth = Math.max(1, Math.round(uprightWidth * scale));
+    int outHeight = Math.max(1, Math.round(uprightHeight * scale));
+    int sampledUprightWidth = transposed ? sampled.getHeight() : sampled.getWidth();
+    if (rotation == 0 && !flipped && sampledUprightWidth == outWidth) {
+      return sampled;
+    }
+    // Rotated first and mirrored second, as ExifInterface defines the flipped orientations.
+    Matrix matrix = new Matrix();
+    matrix.postRotate(rotation);
+    if (flipped) {
+      matrix.postScale(-1, 1);
+    }
+    float residualScale = (float) outWidth / sampledUprightWidth;
+    matrix.postScale(residualScale, residualScale);
+    Bitmap upright =
+        Bitmap.createBitmap(sampled, 0, 0, sampled.getWidth(), sampled.getHeight(), matrix, true);
+    if (upright != sampled) {
+      sampled.recycle();
+    }
+    return upright;
+  }
+
+  // Largest power of two that does not subsample below the requested scale.
+  private static int sampleSize(float scale) {
+    int sampleSize = 1;
+    while (scale * sampleSize * 2 <= 1f) {
+      sampleSize *= 2;
+    }
+    return sampleSize;
+  }
+
+  private static byte[] readFully(InputStream stream) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(READ_BUFFER_SIZE);
+    byte[] buffer = new byte[READ_BUFFER_SIZE];
+    int read;
+    while ((read = stream.read(buffer)) != -1) {
+      out.write(buffer, 0, read);
+    }
+    return out.toByteArray();
+  }
+}
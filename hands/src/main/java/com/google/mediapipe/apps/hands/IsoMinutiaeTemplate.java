@@ -0,0 +1,135 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Builds an ISO/IEC 19794-2:2005 finger minutiae record with one view per finger.
+ *
+ * <p>Contactless finger images have no fixed resolution, so each view is rescaled to the record
+ * resolution of 500 dpi from its own resolution, as estimated by {@link
+ * MinutiaeExtractor#pixelsPerCm}. Finger positions use the ISO codes, which the capture finger
+ * numbers already follow.
+ */
+public final class IsoMinutiaeTemplate {
+  // 500 dpi.
+  static final int PIXELS_PER_CM = 197;
+  // Live-scan plain; the 2005 edition has no contactless impression type.
+  private static final int IMPRESSION_TYPE = 0;
+  private static final int HEADER_LENGTH = 24;
+  private static final int VIEW_HEADER_LENGTH = 4;
+  private static final int MINUTIA_LENGTH = 6;
+  private static final int EXTENDED_DATA_LENGTH = 2;
+  private static final int MAX_COORDINATE = (1 << 14) - 1;
+
+  private static final class View {
+    final int fingerPosition;
+    final int quality;
+    final float scale;
+    final List<Minutia> minutiae;
+
+    View(int fingerPosition, int quality, float scale, List<Minutia> minutiae) {
+      this.fingerPosition = fingerPosition;
+      this.quality = quality;
+      this.scale = scale;
+      this.minutiae = minutiae;
+    }
+  }
+
+  private final List<View> views = new ArrayList<>();
+  private int width;
+  private int height;
+
+  /**
+   * Adds the view of one finger.
+   *
+   * @param fingerPosition the ISO finger position, 0 (unknown) to 10.
+   * @param quality the finger quality, 0-100.
+   * @param pixelsPerCm the resolution of the image the minutiae were found in.
+   */
+  public void addView(
+      int fingerPosition,
+      int quality,
+      float pixelsPerCm,
+      int imageWidth,
+      int imageHeight,
+      List<Minutia> minutiae) {
+    float scale = PIXELS_PER_CM / pixelsPerCm;
+    width = Math.max(width, Math.round(imageWidth * scale));
+    height = Math.max(height, Math.round(imageHeight * scale));
+    List<Minutia> kept =
+        minutiae.size() > MinutiaeExtractor.MAX_MINUTIAE
+            ? minutiae.subList(0, MinutiaeExtractor.MAX_MINUTIAE)
+            : minutiae;
+    views.add(new View(fingerPosition, quality, scale, new ArrayList<>(kept)));
+  }
+
+  public int getViewCount() {
+    return views.size();
+  }
+
+  /** Returns the encoded record. */
+  public byte[] toByteArray() {
+    int length = HEADER_LENGTH;
+    for (View view : views) {
+      length += VIEW_HEADER_LENGTH + view.minutiae.size() * MINUTIA_LENGTH + EXTENDED_DATA_LENGTH;
+    }
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream(length);
+    DataOutputStream out = new DataOutputStream(bytes);
+    try {
+      out.writeBytes("FMR\0");
+      out.writeBytes(" 20\0");
+      out.writeInt(length);
+      // Capture equipment compliance and ID, both unreported.
+      out.writeShort(0);
+      out.writeShort(Math.min(width, 0xffff));
+      out.writeShort(Math.min(height, 0xffff));
+      out.writeShort(PIXELS_PER_CM);
+      out.writeShort(PIXELS_PER_CM);
+      out.writeByte(views.size());
+      out.writeByte(0);
+      int[] viewCounts = new int[11];
+      for (View view : views) {
+        int position =
+            view.fingerPosition >= 0 && view.fingerPosition <= 10 ? view.fingerPosition : 0;
+        int viewNumber = Math.min(viewCounts[position]++, 15);
+        out.writeByte(position);
+        out.writeByte((viewNumber << 4) | IMPRESSION_TYPE);
+        out.writeByte(Math.max(0, Math.min(100, view.quality)));
+        out.writeByte(view.minutiae.size());
+        for (Minutia minutia : view.minutiae) {
+          int type = minutia.type == Minutia.Type.ENDING ? 1 : 2;
+          int x = Math.min(MAX_COORDINATE, Math.round(minutia.x * view.scale));
+          int y = Math.min(MAX_COORDINATE, Math.round(minutia.y * view.scale));
+          out.writeShort((type << 14) | x);
+          out.writeShort(y);
+          // Units of 360 / 256 degrees.
+          out.writeByte(Math.round((float) (minutia.angle / (2 * Math.PI) * 256)) & 0xff);
+          out.writeByte(minutia.quality);
+        }
+        out.writeShort(0);
+      }
+    } catch (IOException e) {
+      // Writing to memory does not fail.
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+}
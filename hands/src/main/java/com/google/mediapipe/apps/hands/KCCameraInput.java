@@ -17,13 +17,19 @@ package com.google.mediapipe.apps.hands;
 import android.app.Activity;
 import android.graphics.SurfaceTexture;
 import android.util.Log;
+import android.util.Range;
 import android.util.Size;
+import androidx.camera.core.FocusMeteringResult;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import com.google.mediapipe.components.CameraHelper;
 import com.google.mediapipe.components.ExternalTextureConverter;
 import com.google.mediapipe.components.PermissionHelper;
 import com.google.mediapipe.components.TextureFrameConsumer;
 import com.google.mediapipe.framework.MediaPipeException;
 import com.google.mediapipe.framework.TextureFrame;
+import javax.annotation.Nullable;
 import javax.microedition.khronos.egl.EGLContext;
 
 /**
@@ -45,6 +51,8 @@ public class KCCameraInput {
     // {@link SurfaceTexture} where the camera-preview frames can be accessed.
     private SurfaceTexture frameTexture;
     private ExternalTextureConverter converter;
+    // Preview and converter output sizes chosen by a PreviewResolutionController, if any.
+    @Nullable private PreviewResolutionController.Tier tier;
 
     /**
      * Initializes CamereInput and requests camera permissions.
@@ -100,7 +108,10 @@ public class KCCameraInput {
         converter.setConsumer(newFrameListener);
         cameraHelper.setOnCameraStartedListener(
                 surfaceTexture -> {
-                    if (width != 0 && height != 0) {
+                    PreviewResolutionController.Tier currentTier = tier;
+                    if (currentTier != null) {
+                        setConverterSize(currentTier.outputWidth, currentTier.outputHeight);
+                    } else if (width != 0 && height != 0) {
                         // Sets the size of the output texture frame.
                         updateOutputSize(width, height);
                     }
@@ -114,9 +125,10 @@ public class KCCameraInput {
                         ? CameraHelper.CameraFacing.FRONT
                         : CameraHelper.CameraFacing.BACK,
                 /*surfaceTexture=*/ frameTexture,
-                (width == 0 || height == 0) ? null : new Size(width, height));
+                tier != null
+                        ? new Size(tier.previewWidth, tier.previewHeight)
+                        : (width == 0 || height == 0) ? null : new Size(width, height));
 
-//        cameraHelper.enableTorch();
     }
 
     /**
@@ -142,9 +154,85 @@ public class KCCameraInput {
                 isCameraRotated ? displaySize.getWidth() : displaySize.getHeight());
     }
 
+    /**
+     * Sets the preview resolution and the size of the output {@link TextureFrame}s. Before {@link
+     * #start} this sets the initial resolution; afterwards only the preview use case is rebound and
+     * the converter resized once the new preview has started, so the consumer keeps running. Must
+     * be called on the main thread.
+     */
+    public void setPreviewTier(PreviewResolutionController.Tier tier) {
+        this.tier = tier;
+        if (converter != null) {
+            cameraHelper.rebindPreview(new Size(tier.previewWidth, tier.previewHeight));
+        }
+    }
+
+    // Sets the converter output to a landscape size, following the camera rotation.
+    private void setConverterSize(int width, int height) {
+        boolean isCameraRotated = cameraHelper.isCameraRotated();
+        Log.i(TAG, "Set camera output texture frame size to " + width + "x" + height);
+        converter.setDestinationSize(
+                isCameraRotated ? height : width, isCameraRotated ? width : height);
+    }
+
+    /**
+     * Adds a high-resolution stream whose luminance frames are kept in {@code frames}, next to the
+     * preview that is converted for the graph. Must be called before {@link #start}.
+     *
+     * @param targetSize the desired size of the high-resolution frames, in landscape orientation.
+     */
+    public void enableHighResStream(Size targetSize, HighResFrameRing frames) {
+        cameraHelper.enableHighResAnalysis(targetSize, frames);
+    }
+
+    /**
+     * Focuses and meters on a square region of the upright frames and holds it. Must be called on
+     * the main thread.
+     *
+     * @return completes with true once focus has locked.
+     */
+    public ListenableFuture<Boolean> focusOn(float x, float y, float size) {
+        return Futures.transform(
+                cameraHelper.startFocusAndMetering(x, y, size),
+                FocusMeteringResult::isFocusSuccessful,
+                MoreExecutors.directExecutor());
+    }
+
+    /** Returns to continuous focus and metering. Must be called on the main thread. */
+    public void cancelFocus() {
+        cameraHelper.cancelFocusAndMetering();
+    }
+
+    /**
+     * Lets {@code controller} meter the high-resolution stream, if there is one. Must be called
+     * before {@link #start}.
+     */
+    public void enableLightingControl(LightingController controller) {
+        cameraHelper.setLightingController(controller);
+    }
+
+    /** Switches the torch. Must be called on the main thread. */
+    public void enableTorch(boolean on) {
+        cameraHelper.enableTorch(on);
+    }
+
+    /**
+     * Returns the supported exposure compensation indices, or null. Must be called on the main
+     * thread.
+     */
+    @Nullable
+    public Range<Integer> getExposureCompensationRange() {
+        return cameraHelper.getExposureCompensationRange();
+    }
+
+    /** Sets the exposure compensation index. Must be called on the main thread. */
+    public void setExposureCompensationIndex(int index) {
+        cameraHelper.setExposureCompensationIndex(index);
+    }
+
     /** Closes the camera input. */
     public void close() {
-//        this.cameraHelper.stopTorch();
+        cameraHelper.stopHighResAnalysis();
         if (converter != null) {
             converter.close();
         }
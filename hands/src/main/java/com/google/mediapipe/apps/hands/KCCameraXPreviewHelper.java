@@ -17,11 +17,8 @@ package com.google.mediapipe.apps.hands;
 import android.app.Activity;
 import android.content.Context;
 import android.graphics.SurfaceTexture;
-import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraCharacteristics;
-import android.hardware.camera2.CameraManager;
 import android.hardware.camera2.CameraMetadata;
-import android.hardware.camera2.params.StreamConfigurationMap;
 import android.opengl.GLES20;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -38,6 +35,8 @@ import androidx.camera.core.CameraSelector;
 import androidx.camera.core.CameraX;
 import androidx.camera.core.ExposureState;
 import androidx.camera.core.FocusMeteringAction;
+import androidx.camera.core.FocusMeteringResult;
+import androidx.camera.core.ImageAnalysis;
 import androidx.camera.core.ImageCapture;
 import androidx.camera.core.ImageCapture.OnImageSavedCallback;
 import androidx.camera.core.ImageCapture.OutputFileOptions;
@@ -48,19 +47,16 @@ import androidx.camera.core.impl.CameraConfig;
 import androidx.camera.lifecycle.ProcessCameraProvider;
 import androidx.core.content.ContextCompat;
 import androidx.lifecycle.LifecycleOwner;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.mediapipe.components.CameraHelper;
 import com.google.mediapipe.glutil.EglManager;
 import java.io.File;
-import java.util.Arrays;
-import java.util.List;
-import java.util.Objects;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -112,8 +108,6 @@ public class KCCameraXPreviewHelper extends CameraHelper {
 
     // Target frame and view resolution size in landscape.
     private static final Size TARGET_SIZE = new Size(1280, 720);
-    private static final double ASPECT_TOLERANCE = 0.25;
-    private static final double ASPECT_PENALTY = 10000;
     // Number of attempts for calculating the offset between the camera's clock and MONOTONIC clock.
     private static final int CLOCK_OFFSET_CALIBRATION_ATTEMPTS = 3;
 
@@ -121,14 +115,22 @@ public class KCCameraXPreviewHelper extends CameraHelper {
             new SingleThreadHandlerExecutor("RenderThread", Process.THREAD_PRIORITY_DEFAULT);
 
     private ProcessCameraProvider cameraProvider;
+    private LifecycleOwner lifecycleOwner;
+    private CameraSelector cameraSelector;
+    private Context previewContext;
+    @Nullable private SurfaceTexture previewSurfaceTexture;
     private Preview preview;
     private ImageCapture imageCapture;
     private ImageCapture.Builder imageCaptureBuilder;
     private ExecutorService imageCaptureExecutorService;
+    // Optional high-resolution luminance stream, kept in highResFrames for detailed crops.
+    @Nullable private Size highResTargetSize;
+    @Nullable private HighResFrameRing highResFrames;
+    @Nullable private LightingController lightingController;
+    private ImageAnalysis highResAnalysis;
+    private ExecutorService highResAnalysisExecutor;
     private Camera camera;
     private int[] textures = null;
-    private FocusMeteringAction autoFocusAction;
-    private MeteringPoint autoFocusPoint;
 
     // Size of the camera-preview frames from the camera.
     private Size frameSize;
@@ -137,7 +139,7 @@ public class KCCameraXPreviewHelper extends CameraHelper {
     // Checks if the image capture use case is enabled.
     private boolean isImageCaptureEnabled = false;
 
-    @Nullable private CameraCharacteristics cameraCharacteristics = null;
+    @Nullable private CameraCapabilityProfile.Lens lens = null;
 
     // Focal length resolved in pixels on the frame texture. If it cannot be determined, this value
     // is Float.MIN_VALUE.
@@ -219,17 +221,18 @@ public class KCCameraXPreviewHelper extends CameraHelper {
         Executor mainThreadExecutor = ContextCompat.getMainExecutor(context);
 
         ListenableFuture<ProcessCameraProvider> cameraProviderFuture =
-                ProcessCameraProvider.getInstance(context);
+                ProcessCameraProvider.getInstance(context.getApplicationContext());
 
         imageCaptureBuilder = new ImageCapture.Builder();
-
-        final boolean isSurfaceTextureProvided = surfaceTexture != null;
+        this.lifecycleOwner = lifecycleOwner;
+        this.previewContext = context;
+        this.previewSurfaceTexture = surfaceTexture;
 
         Integer selectedLensFacing =
                 cameraFacing == CameraHelper.CameraFacing.FRONT
                         ? CameraMetadata.LENS_FACING_FRONT
                         : CameraMetadata.LENS_FACING_BACK;
-        cameraCharacteristics = getCameraCharacteristics(context, selectedLensFacing);
+        lens = CameraCapabilityProfile.get(context).getLens(selectedLensFacing);
         targetSize = getOptimalViewSize(targetSize);
         // Falls back to TARGET_SIZE if either targetSize is not set or getOptimalViewSize() can't
         // determine the optimal view size.
@@ -244,7 +247,7 @@ public class KCCameraXPreviewHelper extends CameraHelper {
         Size rotatedSize =
                 new Size(/* width= */ targetSize.getHeight(), /* height= */ targetSize.getWidth());
 
-        cameraProviderFuture.addListener(
+        Runnable bindUseCases =
                 () -> {
                     try {
                         cameraProvider = cameraProviderFuture.get();
@@ -256,69 +259,9 @@ public class KCCameraXPreviewHelper extends CameraHelper {
                         return;
                     }
 
-                    preview = new Preview.Builder().setTargetResolution(rotatedSize).build();
-
-                    // Provide surface texture.
-                    preview.setSurfaceProvider(
-                            renderExecutor,
-                            request -> {
-                                frameSize = request.getResolution();
-                                Log.d(
-                                        TAG,
-                                        String.format(
-                                                "Received surface request for resolution %dx%d",
-                                                frameSize.getWidth(), frameSize.getHeight()));
-
-                                SurfaceTexture previewFrameTexture =
-                                        isSurfaceTextureProvided ? surfaceTexture : createSurfaceTexture();
-                                previewFrameTexture.setDefaultBufferSize(
-                                        frameSize.getWidth(), frameSize.getHeight());
-
-                                request.setTransformationInfoListener(
-                                        renderExecutor,
-                                        transformationInfo -> {
-                                            frameRotation = transformationInfo.getRotationDegrees();
-                                            updateCameraCharacteristics();
-
-                                            if (!isSurfaceTextureProvided) {
-                                                // Detach the SurfaceTexture from the GL context we created earlier so that
-                                                // the MediaPipe pipeline can attach it.
-                                                // Only needed if MediaPipe pipeline doesn't provide a SurfaceTexture.
-                                                previewFrameTexture.detachFromGLContext();
-                                            }
-
-                                            OnCameraStartedListener listener = onCameraStartedListener;
-                                            if (listener != null) {
-                                                ContextCompat.getMainExecutor(context)
-                                                        .execute(() -> listener.onCameraStarted(previewFrameTexture));
-                                            }
-                                        });
-
-                                Surface surface = new Surface(previewFrameTexture);
-                                Log.d(TAG, "Providing surface");
-                                request.provideSurface(
-                                        surface,
-                                        renderExecutor,
-                                        result -> {
-                                            Log.d(TAG, "Surface request result: " + result);
-                                            if (textures != null) {
-                                                GLES20.glDeleteTextures(1, textures, 0);
-                                            }
-                                            // Per
-                                            // https://developer.android.com/reference/androidx/camera/core/SurfaceRequest.Result,
-                                            // the surface was either never used (RESULT_INVALID_SURFACE,
-                                            // RESULT_REQUEST_CANCELLED, RESULT_SURFACE_ALREADY_PROVIDED) or the surface
-                                            // was used successfully and was eventually detached
-                                            // (RESULT_SURFACE_USED_SUCCESSFULLY) so we can release it now to free up
-                                            // resources.
-                                            if (!isSurfaceTextureProvided) {
-                                                previewFrameTexture.release();
-                                            }
-                                            surface.release();
-                                        });
-                            });
+                    preview = buildPreview(context, rotatedSize, surfaceTexture);
 
-                    CameraSelector cameraSelector =
+                    cameraSelector =
                             cameraFacing == CameraHelper.CameraFacing.FRONT
                                     ? CameraSelector.DEFAULT_FRONT_CAMERA
                                     : CameraSelector.DEFAULT_BACK_CAMERA;
@@ -331,7 +274,8 @@ public class KCCameraXPreviewHelper extends CameraHelper {
                     if (imageCaptureBuilder != null) {
                         imageCapture = imageCaptureBuilder
                                 .setCaptureMode(ImageCapture.CAPTURE_MODE_MINIMIZE_LATENCY)
-                                .setFlashMode(ImageCapture.FLASH_MODE_ON)
+                                // The torch is driven by a LightingController instead.
+                                .setFlashMode(ImageCapture.FLASH_MODE_OFF)
                                 .build();
                         camera = cameraProvider.bindToLifecycle(
                                         lifecycleOwner, cameraSelector, preview, imageCapture);
@@ -340,44 +284,283 @@ public class KCCameraXPreviewHelper extends CameraHelper {
                     } else {
                         camera = cameraProvider.bindToLifecycle(lifecycleOwner, cameraSelector, preview);
                     }
+                    bindHighResAnalysis();
 
-//                    System.out.println("======= state-start: "+this.camera.getCameraInfo().getTorchState().getValue());
-                    camera.getCameraControl().enableTorch(true);
-                    new android.os.Handler(Looper.getMainLooper()).postDelayed(
-                            () -> camera.getCameraControl().enableTorch(false),
-                            5000);
-
-//                    ExposureState exposureState = camera.getCameraInfo().getExposureState();
-//                    if (!exposureState.isExposureCompensationSupported()) return;
-//                    Range<Integer> range = exposureState.getExposureCompensationRange();
-//                    if (range.contains(15)) {
-//                        camera.getCameraControl().setExposureCompensationIndex(2);
-//                    }
-
-                    float x = Objects.requireNonNull(preview.getResolutionInfo()).getResolution().getWidth() / 2f;
-                    float y = Objects.requireNonNull(preview.getResolutionInfo()).getResolution().getHeight() / 2f;
-                    float afPointWidth = 1.0f / 2.0f;
-                    autoFocusPoint = new SurfaceOrientedMeteringPointFactory(5f, 5f)
-                            .createPoint(x, y, afPointWidth);
-
-                    autoFocusAction = new FocusMeteringAction.Builder(
-                            autoFocusPoint,
-                            FocusMeteringAction.FLAG_AF)
-//                            .disableAutoCancel()
-                            .setAutoCancelDuration(1, TimeUnit.SECONDS)
-                            .addPoint(autoFocusPoint, FocusMeteringAction.FLAG_AE | FocusMeteringAction.FLAG_AWB)
-                            .build();
-                    camera.getCameraControl().startFocusAndMetering(autoFocusAction);
+
+                    // Focus and metering stay continuous over the whole frame until a
+                    // FingertipFocusController moves them to the fingertips.
                     camera.getCameraControl().setLinearZoom(0.27f);
-                },
-                mainThreadExecutor);
+                };
+        if (cameraProviderFuture.isDone() && Looper.myLooper() == Looper.getMainLooper()) {
+            // The provider was resolved at startup, bind without waiting for another main loop pass.
+            bindUseCases.run();
+        } else {
+            cameraProviderFuture.addListener(bindUseCases, mainThreadExecutor);
+        }
+    }
+
+    /**
+     * Focuses and meters on a square region and holds it, without auto-cancel, until the next
+     * call. Coordinates are normalized to the upright frames; the preview surface is in sensor
+     * orientation, so they are rotated back by the frame rotation. Must be called on the main
+     * thread.
+     *
+     * @param size the side of the region, as a fraction of the frame.
+     */
+    public ListenableFuture<FocusMeteringResult> startFocusAndMetering(
+            float x, float y, float size) {
+        if (camera == null) {
+            return Futures.immediateFailedFuture(new IllegalStateException("Camera not started"));
+        }
+        float surfaceX;
+        float surfaceY;
+        switch (frameRotation) {
+            case 90:
+                surfaceX = y;
+                surfaceY = 1 - x;
+                break;
+            case 180:
+                surfaceX = 1 - x;
+                surfaceY = 1 - y;
+                break;
+            case 270:
+                surfaceX = 1 - y;
+                surfaceY = x;
+                break;
+            default:
+                surfaceX = x;
+                surfaceY = y;
+        }
+        MeteringPoint point =
+                new SurfaceOrientedMeteringPointFactory(1f, 1f)
+                        .createPoint(surfaceX, surfaceY, size);
+        FocusMeteringAction action =
+                new FocusMeteringAction.Builder(
+                                point,
+                                FocusMeteringAction.FLAG_AF
+                                        | FocusMeteringAction.FLAG_AE
+                                        | FocusMeteringAction.FLAG_AWB)
+                        .disableAutoCancel()
+                        .build();
+        return camera.getCameraControl().startFocusAndMetering(action);
+    }
+
+    /** Returns to continuous focus and metering over the whole frame. Main thread only. */
+    public void cancelFocusAndMetering() {
+        if (camera != null) {
+            camera.getCameraControl().cancelFocusAndMetering();
+        }
+    }
+
+    /** Switches the torch. Main thread only. */
+    public void enableTorch(boolean on) {
+        if (camera != null) {
+            camera.getCameraControl().enableTorch(on);
+        }
+    }
+
+    /**
+     * Returns the supported exposure compensation indices, or null if compensation is not
+     * supported or the camera has not started. Main thread only.
+     */
+    @Nullable
+    public Range<Integer> getExposureCompensationRange() {
+        if (camera == null) {
+            return null;
+        }
+        ExposureState exposureState = camera.getCameraInfo().getExposureState();
+        return exposureState.isExposureCompensationSupported()
+                ? exposureState.getExposureCompensationRange()
+                : null;
+    }
+
+    /** Sets the exposure compensation index. Main thread only. */
+    public void setExposureCompensationIndex(int index) {
+        if (camera != null) {
+            camera.getCameraControl().setExposureCompensationIndex(index);
+        }
+    }
+
+    /**
+     * Meters every high-resolution frame with {@code controller} before it is kept, on the
+     * analysis thread. Must be called before startCamera.
+     */
+    public void setLightingController(@Nullable LightingController controller) {
+        lightingController = controller;
+    }
+
+    /**
+     * Adds a high-resolution {@link ImageAnalysis} stream next to the preview when the camera
+     * starts. Its luminance planes are copied into {@code frames}, so that crops can be taken from
+     * more pixels than the preview that feeds hand tracking. Must be called before startCamera.
+     *
+     * @param targetSize the desired analysis size in landscape orientation.
+     */
+    public void enableHighResAnalysis(Size targetSize, HighResFrameRing frames) {
+        highResTargetSize = targetSize;
+        highResFrames = frames;
     }
 
-//    public void stopTorch() {
-//        System.out.println("======= state-end: "+this.camera.getCameraInfo().getTorchState().getValue());
-//        boolean isDone = this.camera.getCameraControl().enableTorch(false).isDone();
-//        System.out.println("======= isDone: "+isDone);
-//    }
+    private void bindHighResAnalysis() {
+        if (highResTargetSize == null || highResFrames == null) {
+            return;
+        }
+        HighResFrameRing frames = highResFrames;
+        // Frames of an earlier run are dropped when the stream starts rather than when it stops,
+        // so a capture can still read the last frames after the camera has stopped.
+        frames.clear();
+        LightingController lighting = lightingController;
+        if (highResAnalysisExecutor == null) {
+            highResAnalysisExecutor = Executors.newSingleThreadExecutor();
+        }
+        highResAnalysis =
+                new ImageAnalysis.Builder()
+                        .setTargetResolution(
+                                new Size(highResTargetSize.getHeight(), highResTargetSize.getWidth()))
+                        .setBackpressureStrategy(ImageAnalysis.STRATEGY_KEEP_ONLY_LATEST)
+                        .build();
+        highResAnalysis.setAnalyzer(
+                highResAnalysisExecutor,
+                image -> {
+                    try {
+                        LumaFrame frame = frames.obtainSpare();
+                        frame.set(
+                                image.getPlanes()[0].getBuffer(),
+                                image.getPlanes()[0].getRowStride(),
+                                image.getWidth(),
+                                image.getHeight(),
+                                image.getImageInfo().getTimestamp(),
+                                image.getImageInfo().getRotationDegrees());
+                        if (lighting != null) {
+                            lighting.onLumaFrame(frame);
+                        }
+                        frames.publish(frame);
+                    } finally {
+                        image.close();
+                    }
+                });
+        try {
+            camera = cameraProvider.bindToLifecycle(lifecycleOwner, cameraSelector, highResAnalysis);
+        } catch (IllegalArgumentException e) {
+            // The device cannot stream this combination; crops fall back to the preview frames.
+            Log.e(TAG, "Unable to bind the high-resolution stream: " + e);
+            highResAnalysis = null;
+        }
+    }
+
+    /** Stops copying high-resolution frames and releases the analysis thread. */
+    public void stopHighResAnalysis() {
+        if (highResAnalysis != null) {
+            highResAnalysis.clearAnalyzer();
+            highResAnalysis = null;
+        }
+        if (highResAnalysisExecutor != null) {
+            highResAnalysisExecutor.shutdown();
+            highResAnalysisExecutor = null;
+        }
+    }
+
+    /** Returns true if the high-resolution stream is bound. */
+    public boolean isHighResAnalysisBound() {
+        return highResAnalysis != null;
+    }
+
+    /**
+     * Rebinds only the preview use case at a new target size. The camera stays open, the other
+     * use cases stay bound and frames keep going to the same surface texture, so the consumers of
+     * the frames do not need to be restarted. Must be called on the main thread after the camera
+     * has started.
+     *
+     * @param targetSize the desired preview size in landscape orientation.
+     */
+    public void rebindPreview(Size targetSize) {
+        if (cameraProvider == null || camera == null || preview == null) {
+            return;
+        }
+        Size optimalSize = getOptimalViewSize(targetSize);
+        if (optimalSize == null) {
+            optimalSize = targetSize;
+        }
+        if (frameSize != null
+                && frameSize.getWidth() == optimalSize.getWidth()
+                && frameSize.getHeight() == optimalSize.getHeight()) {
+            return;
+        }
+        Size rotatedSize =
+                new Size(/* width= */ optimalSize.getHeight(), /* height= */ optimalSize.getWidth());
+        cameraProvider.unbind(preview);
+        preview = buildPreview(previewContext, rotatedSize, previewSurfaceTexture);
+        camera = cameraProvider.bindToLifecycle(lifecycleOwner, cameraSelector, preview);
+    }
+
+    // Creates a preview use case at rotatedSize whose frames go to surfaceTexture, or to a texture
+    // created here if none is provided.
+    private Preview buildPreview(
+            Context context, Size rotatedSize, @Nullable SurfaceTexture surfaceTexture) {
+        final boolean isSurfaceTextureProvided = surfaceTexture != null;
+        Preview newPreview = new Preview.Builder().setTargetResolution(rotatedSize).build();
+
+        // Provide surface texture.
+        newPreview.setSurfaceProvider(
+                renderExecutor,
+                request -> {
+                    frameSize = request.getResolution();
+                    Log.d(
+                            TAG,
+                            String.format(
+                                    "Received surface request for resolution %dx%d",
+                                    frameSize.getWidth(), frameSize.getHeight()));
+
+                    SurfaceTexture previewFrameTexture =
+                            isSurfaceTextureProvided ? surfaceTexture : createSurfaceTexture();
+                    previewFrameTexture.setDefaultBufferSize(
+                            frameSize.getWidth(), frameSize.getHeight());
+
+                    request.setTransformationInfoListener(
+                            renderExecutor,
+                            transformationInfo -> {
+                                frameRotation = transformationInfo.getRotationDegrees();
+                                updateCameraCharacteristics();
+
+                                if (!isSurfaceTextureProvided) {
+                                    // Detach the SurfaceTexture from the GL context we created earlier so that
+                                    // the MediaPipe pipeline can attach it.
+                                    // Only needed if MediaPipe pipeline doesn't provide a SurfaceTexture.
+                                    previewFrameTexture.detachFromGLContext();
+                                }
+
+                                OnCameraStartedListener listener = onCameraStartedListener;
+                                if (listener != null) {
+                                    ContextCompat.getMainExecutor(context)
+                                            .execute(() -> listener.onCameraStarted(previewFrameTexture));
+                                }
+                            });
+
+                    Surface surface = new Surface(previewFrameTexture);
+                    Log.d(TAG, "Providing surface");
+                    request.provideSurface(
+                            surface,
+                            renderExecutor,
+                            result -> {
+                                Log.d(TAG, "Surface request result: " + result);
+                                if (textures != null) {
+                                    GLES20.glDeleteTextures(1, textures, 0);
+                                }
+                                // Per
+                                // https://developer.android.com/reference/androidx/camera/core/SurfaceRequest.Result,
+                                // the surface was either never used (RESULT_INVALID_SURFACE,
+                                // RESULT_REQUEST_CANCELLED, RESULT_SURFACE_ALREADY_PROVIDED) or the surface
+                                // was used successfully and was eventually detached
+                                // (RESULT_SURFACE_USED_SUCCESSFULLY) so we can release it now to free up
+                                // resources.
+                                if (!isSurfaceTextureProvided) {
+                                    previewFrameTexture.release();
+                                }
+                                surface.release();
+                            });
+                });
+        return newPreview;
+    }
 
     /**
      * Captures a new still image and saves to a file along with application specified metadata. This
@@ -409,40 +592,10 @@ public class KCCameraXPreviewHelper extends CameraHelper {
 
     @Nullable
     private Size getOptimalViewSize(@Nullable Size targetSize) {
-        if (targetSize == null || cameraCharacteristics == null) {
+        if (targetSize == null || lens == null) {
             return null;
         }
-        StreamConfigurationMap map =
-                cameraCharacteristics.get(CameraCharacteristics.SCALER_STREAM_CONFIGURATION_MAP);
-        Size[] outputSizes = map.getOutputSizes(SurfaceTexture.class);
-
-        // Find the best matching size. We give a large penalty to sizes whose aspect
-        // ratio is too different from the desired one. That way we choose a size with
-        // an acceptable aspect ratio if available, otherwise we fall back to one that
-        // is close in width.
-        Size optimalSize = null;
-        double targetRatio = (double) targetSize.getWidth() / targetSize.getHeight();
-        Log.d(
-                TAG,
-                String.format(
-                        "Camera target size ratio: %f width: %d", targetRatio, targetSize.getWidth()));
-        double minCost = Double.MAX_VALUE;
-        for (Size size : outputSizes) {
-            double aspectRatio = (double) size.getWidth() / size.getHeight();
-            double ratioDiff = Math.abs(aspectRatio - targetRatio);
-            double cost =
-                    (ratioDiff > ASPECT_TOLERANCE ? ASPECT_PENALTY + ratioDiff * targetSize.getHeight() : 0)
-                            + Math.abs(size.getWidth() - targetSize.getWidth());
-//            Log.d(
-//                    TAG,
-//                    String.format(
-//                            "Camera size candidate width: %d height: %d ratio: %f cost: %f",
-//                            size.getWidth(), size.getHeight(), aspectRatio, cost));
-            if (cost < minCost) {
-                optimalSize = size;
-                minCost = cost;
-            }
-        }
+        Size optimalSize = lens.getOptimalSize(targetSize);
         if (optimalSize != null) {
             Log.d(
                     TAG,
@@ -503,32 +656,14 @@ public class KCCameraXPreviewHelper extends CameraHelper {
     }
 
     private void updateCameraCharacteristics() {
-        if (cameraCharacteristics != null) {
-            // Queries camera timestamp source. It should be one of REALTIME or UNKNOWN
-            // as documented in
+        if (lens != null) {
+            // Camera timestamp source, one of REALTIME or UNKNOWN as documented in
             // https://developer.android.com/reference/android/hardware/camera2/CameraCharacteristics.html#SENSOR_INFO_TIMESTAMP_SOURCE.
-            cameraTimestampSource =
-                    cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
-            focalLengthPixels = calculateFocalLengthInPixels();
+            cameraTimestampSource = lens.getTimestampSource();
+            focalLengthPixels = lens.getFocalLengthPixels(frameSize.getWidth());
         }
     }
 
-    // Computes the focal length of the camera in pixels based on lens and sensor properties.
-    private float calculateFocalLengthInPixels() {
-        // Focal length of the camera in millimeters.
-        // Note that CameraCharacteristics returns a list of focal lengths and there could be more
-        // than one focal length available if optical zoom is enabled or there are multiple physical
-        // cameras in the logical camera referenced here. A theoretically correct of doing this would
-        // be to use the focal length set explicitly via Camera2 API, as documented in
-        // https://developer.android.com/reference/android/hardware/camera2/CaptureRequest#LENS_FOCAL_LENGTH.
-        float focalLengthMm =
-                cameraCharacteristics.get(CameraCharacteristics.LENS_INFO_AVAILABLE_FOCAL_LENGTHS)[0];
-        // Sensor Width of the camera in millimeters.
-        float sensorWidthMm =
-                cameraCharacteristics.get(CameraCharacteristics.SENSOR_INFO_PHYSICAL_SIZE).getWidth();
-        return frameSize.getWidth() * focalLengthMm / sensorWidthMm;
-    }
-
     private SurfaceTexture createSurfaceTexture() {
         // Create a temporary surface to make the context current.
         EglManager eglManager = new EglManager(null);
@@ -540,27 +675,4 @@ public class KCCameraXPreviewHelper extends CameraHelper {
         return previewFrameTexture;
     }
 
-    @Nullable
-    private static CameraCharacteristics getCameraCharacteristics(
-            Context context, Integer lensFacing) {
-        CameraManager cameraManager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
-        try {
-            List<String> cameraList = Arrays.asList(cameraManager.getCameraIdList());
-            for (String availableCameraId : cameraList) {
-                CameraCharacteristics availableCameraCharacteristics =
-                        cameraManager.getCameraCharacteristics(availableCameraId);
-                Integer availableLensFacing =
-                        availableCameraCharacteristics.get(CameraCharacteristics.LENS_FACING);
-                if (availableLensFacing == null) {
-                    continue;
-                }
-                if (availableLensFacing.equals(lensFacing)) {
-                    return availableCameraCharacteristics;
-                }
-            }
-        } catch (CameraAccessException e) {
-            Log.e(TAG, "Accessing camera ID info got error: " + e);
-        }
-        return null;
-    }
 }
@@ -0,0 +1,125 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * A plain-Java snapshot of the hand landmarks of one frame.
+ *
+ * <p>It carries no Android or MediaPipe types, so capture decisions can be driven from a live
+ * {@code HandsResult}, a recording, or a synthetic generator alike. Instances are meant to be
+ * reused: {@link #reset} and {@link #setLandmark} never allocate.
+ */
+public final class LandmarkFrame {
+  public static final int NUM_LANDMARKS = 21;
+  public static final int MAX_HANDS = 2;
+  private static final int FLOATS_PER_HAND = NUM_LANDMARKS * 3;
+
+  // Landmark indices, mirroring com.google.mediapipe.solutions.hands.HandLandmark.
+  public static final int WRIST = 0;
+  public static final int INDEX_FINGER_MCP = 5;
+  public static final int INDEX_FINGER_DIP = 7;
+  public static final int INDEX_FINGER_TIP = 8;
+  public static final int MIDDLE_FINGER_DIP = 11;
+  public static final int MIDDLE_FINGER_TIP = 12;
+  public static final int RING_FINGER_DIP = 15;
+  public static final int RING_FINGER_TIP = 16;
+  public static final int PINKY_MCP = 17;
+  public static final int PINKY_DIP = 19;
+  public static final int PINKY_TIP = 20;
+
+  /** Tips of the four captured fingers, from index to little finger. */
+  public static final int[] FINGERTIPS = {
+    INDEX_FINGER_TIP, MIDDLE_FINGER_TIP, RING_FINGER_TIP, PINKY_TIP
+  };
+
+  private final float[] coordinates = new float[MAX_HANDS * FLOATS_PER_HAND];
+  private final boolean[] leftHand = new boolean[MAX_HANDS];
+  private long timestampUs;
+  private int imageWidth;
+  private int imageHeight;
+  private int numHands;
+
+  /** Clears the frame and sets its timestamp and image dimensions. */
+  public void reset(long timestampUs, int imageWidth, int imageHeight) {
+    this.timestampUs = timestampUs;
+    this.imageWidth = imageWidth;
+    this.imageHeight = imageHeight;
+    this.numHands = 0;
+  }
+
+  /**
+   * Appends a hand to the frame.
+   *
+   * @return the index of the new hand, or -1 if the frame already holds {@link #MAX_HANDS} hands.
+   */
+  public int addHand(boolean isLeftHand) {
+    if (numHands == MAX_HANDS) {
+      return -1;
+    }
+    leftHand[numHands] = isLeftHand;
+    return numHands++;
+  }
+
+  /** Sets a normalized landmark of the given hand. */
+  public void setLandmark(int hand, int landmark, float x, float y, float z) {
+    int offset = hand * FLOATS_PER_HAND + landmark * 3;
+    coordinates[offset] = x;
+    coordinates[offset + 1] = y;
+    coordinates[offset + 2] = z;
+  }
+
+  /** Copies the content of {@code other} into this frame. */
+  public void copyFrom(LandmarkFrame other) {
+    reset(other.timestampUs, other.imageWidth, other.imageHeight);
+    numHands = other.numHands;
+    System.arraycopy(other.leftHand, 0, leftHand, 0, MAX_HANDS);
+    System.arraycopy(other.coordinates, 0, coordinates, 0, numHands * FLOATS_PER_HAND);
+  }
+
+  public long getTimestampUs() {
+    return timestampUs;
+  }
+
+  public int getImageWidth() {
+    return imageWidth;
+  }
+
+  public int getImageHeight() {
+    return imageHeight;
+  }
+
+  public int getNumHands() {
+    return numHands;
+  }
+
+  public boolean isLeftHand(int hand) {
+    return leftHand[hand];
+  }
+
+  /** Returns the normalized x coordinate of a landmark, in [0, 1]. */
+  public float getX(int hand, int landmark) {
+    return coordinates[hand * FLOATS_PER_HAND + landmark * 3];
+  }
+
+  /** Returns the normalized y coordinate of a landmark, in [0, 1]. */
+  public float getY(int hand, int landmark) {
+    return coordinates[hand * FLOATS_PER_HAND + landmark * 3 + 1];
+  }
+
+  /** Returns the relative depth of a landmark. */
+  public float getZ(int hand, int landmark) {
+    return coordinates[hand * FLOATS_PER_HAND + landmark * 3 + 2];
+  }
+}
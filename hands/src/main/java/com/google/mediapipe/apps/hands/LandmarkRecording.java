@@ -0,0 +1,128 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+/**
+ * Binary recording format for {@link LandmarkFrame} sequences.
+ *
+ * <p>A recording starts with the magic {@code KCLM} and a version number, followed by one record
+ * per frame: timestamp, image size, hand count and, per hand, the handedness and 21 x/y/z
+ * normalized landmarks.
+ */
+public final class LandmarkRecording {
+  private static final int MAGIC = 0x4B434C4D; // "KCLM"
+  private static final int VERSION = 1;
+
+  private LandmarkRecording() {}
+
+  /** Appends frames to a recording. */
+  public static final class Writer implements Closeable {
+    private final DataOutputStream out;
+
+    public Writer(File file) throws IOException {
+      this(new FileOutputStream(file));
+    }
+
+    public Writer(OutputStream stream) throws IOException {
+      out = new DataOutputStream(new BufferedOutputStream(stream));
+      out.writeInt(MAGIC);
+      out.writeInt(VERSION);
+    }
+
+    public void write(LandmarkFrame frame) throws IOException {
+      out.writeLong(frame.getTimestampUs());
+      out.writeInt(frame.getImageWidth());
+      out.writeInt(frame.getImageHeight());
+      out.writeByte(frame.getNumHands());
+      for (int hand = 0; hand < frame.getNumHands(); ++hand) {
+        out.writeBoolean(frame.isLeftHand(hand));
+        for (int i = 0; i < LandmarkFrame.NUM_LANDMARKS; ++i) {
+          out.writeFloat(frame.getX(hand, i));
+          out.writeFloat(frame.getY(hand, i));
+          out.writeFloat(frame.getZ(hand, i));
+        }
+      }
+    }
+
+    @Override
+    public void close() throws IOException {
+      out.close();
+    }
+  }
+
+  /** Replays a recording as a {@link LandmarkStream}. */
+  public static final class Reader implements LandmarkStream {
+    private final DataInputStream in;
+
+    public Reader(File file) throws IOException {
+      this(new FileInputStream(file));
+    }
+
+    public Reader(InputStream stream) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(stream));
+      if (in.readInt() != MAGIC) {
+        in.close();
+        throw new IOException("Not a landmark recording.");
+      }
+      int version = in.readInt();
+      if (version != VERSION) {
+        in.close();
+        throw new IOException("Unsupported landmark recording version: " + version);
+      }
+    }
+
+    @Override
+    public boolean next(LandmarkFrame frame) throws IOException {
+      long timestampUs;
+      try {
+        timestampUs = in.readLong();
+      } catch (EOFException e) {
+        return false;
+      }
+      frame.reset(timestampUs, in.readInt(), in.readInt());
+      int numHands = in.readUnsignedByte();
+      for (int h = 0; h < numHands; ++h) {
+        int hand = frame.addHand(in.readBoolean());
+        for (int i = 0; i < LandmarkFrame.NUM_LANDMARKS; ++i) {
+          float x = in.readFloat();
+          float y = in.readFloat();
+          float z = in.readFloat();
+          if (hand >= 0) {
+            frame.setLandmark(hand, i, x, y, z);
+          }
+        }
+      }
+      return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+      in.close();
+    }
+  }
+}
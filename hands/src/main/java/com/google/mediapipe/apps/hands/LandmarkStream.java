@@ -0,0 +1,28 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/** A source of {@link LandmarkFrame}s that replaces the camera and {@code Hands} graph. */
+public interface LandmarkStream extends Closeable {
+  /**
+   * Fills {@code frame} with the next frame of the stream.
+   *
+   * @return false once the stream is exhausted.
+   */
+  boolean next(LandmarkFrame frame) throws IOException;
+}
@@ -0,0 +1,281 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.util.Log;
+import com.google.mediapipe.solutions.hands.HandsResult;
+import java.util.Arrays;
+import java.util.Locale;
+import javax.annotation.Nullable;
+
+/**
+ * Switches the torch and steps the exposure compensation from the brightness of the hands.
+ *
+ * <p>Each luminance frame of the high-resolution stream is sampled inside the box around the hand
+ * landmarks of the latest result, at most {@link #MAX_SAMPLES} pixels, into a histogram. Its median
+ * is kept within a target band by stepping the exposure compensation one index at a time, giving
+ * auto-exposure time to settle between steps, and stepping down whenever too much of the hand is
+ * clipped. The torch is the last resort: it is switched on only when the hands stay dark with the
+ * compensation at its maximum, and off again when they are bright with the compensation at its
+ * minimum or after the hands have gone. The thresholds are far apart and every state is held for a
+ * minimum time, so neither the torch nor the exposure oscillates.
+ *
+ * <p>The time the torch was on is logged with an estimate of the energy it drew on every switch,
+ * and reported by {@link #toString}. All methods are thread-safe.
+ */
+public final class LightingController implements CaptureSession.ResultSink {
+  private static final String TAG = "LightingController";
+  static final int MAX_SAMPLES = 4096;
+  // Median luma of the hand region the exposure is kept within.
+  private static final int TARGET_LOW = 100;
+  private static final int TARGET_HIGH = 160;
+  // Fraction of hand pixels at or above CLIPPED_LUMA that counts as overexposed.
+  private static final int CLIPPED_LUMA = 250;
+  private static final float MAX_CLIPPED = 0.05f;
+  // The torch goes on below TORCH_ON_LUMA at full compensation, off above TORCH_OFF_LUMA at the
+  // least, and each state is held for at least TORCH_DWELL_MS.
+  private static final int TORCH_ON_LUMA = 70;
+  private static final int TORCH_OFF_LUMA = 200;
+  private static final long TORCH_DWELL_MS = 2000;
+  // Time auto-exposure is given to settle after a compensation step.
+  private static final long EXPOSURE_SETTLE_MS = 400;
+  // Hands missing for this long switch the torch off and reset the compensation.
+  private static final long HAND_LOST_MS = 3000;
+  // Typical draw of a phone LED torch, for the energy estimate.
+  private static final float TORCH_POWER_W = 0.8f;
+
+  /** A camera whose torch and exposure compensation can be set. */
+  public interface Lights {
+    void enableTorch(boolean on);
+
+    /** Sets the exposure compensation, within [{@link #getMinExposureIndex}, max]. */
+    void setExposureIndex(int index);
+
+    /** Returns the lowest exposure compensation index, 0 if compensation is not supported. */
+    int getMinExposureIndex();
+
+    /** Returns the highest exposure compensation index, 0 if compensation is not supported. */
+    int getMaxExposureIndex();
+  }
+
+  private final int[] histogram = new int[256];
+
+  // Guarded by this.
+  @Nullable private Lights lights;
+  private boolean torchAllowed = true;
+  private boolean torchOn;
+  private long torchChangedNs;
+  private long torchOnNs;
+  private int torchSwitches;
+  private int exposureIndex;
+  private long exposureChangedNs;
+  private int exposureSteps;
+  private int medianLuma = -1;
+  // Upright normalized box around the hands of the latest result, empty if there were none.
+  private float minX;
+  private float minY;
+  private float maxX = -1;
+  private float maxY = -1;
+  private long lastHandNs;
+
+  /** Sets the camera to control, or null when it stops; setting the same one again does nothing. */
+  public void setLights(@Nullable Lights lights) {
+    synchronized (this) {
+      if (this.lights == lights) {
+        return;
+      }
+      if (this.lights != null) {
+        setTorch(this.lights, false, System.nanoTime());
+      }
+      this.lights = lights;
+      exposureIndex = 0;
+      medianLuma = -1;
+      torchChangedNs = 0;
+    }
+  }
+
+  /** Allows or forbids the torch, which is switched off at once when forbidden. */
+  public void setTorchAllowed(boolean allowed) {
+    synchronized (this) {
+      torchAllowed = allowed;
+      if (!allowed && lights != null) {
+        setTorch(lights, false, System.nanoTime());
+      }
+    }
+  }
+
+  public synchronized boolean isTorchOn() {
+    return torchOn;
+  }
+
+  @Override
+  public void onResult(LandmarkFrame frame, @Nullable HandsResult result) {
+    if (frame.getNumHands() == 0) {
+      synchronized (this) {
+        maxX = -1;
+        maxY = -1;
+      }
+      return;
+    }
+    float x0 = 1;
+    float y0 = 1;
+    float x1 = 0;
+    float y1 = 0;
+    for (int hand = 0; hand < frame.getNumHands(); hand++) {
+      for (int i = 0; i < LandmarkFrame.NUM_LANDMARKS; i++) {
+        x0 = Math.min(x0, frame.getX(hand, i));
+        y0 = Math.min(y0, frame.getY(hand, i));
+        x1 = Math.max(x1, frame.getX(hand, i));
+        y1 = Math.max(y1, frame.getY(hand, i));
+      }
+    }
+    synchronized (this) {
+      minX = Math.max(0, x0);
+      minY = Math.max(0, y0);
+      maxX = Math.min(1, x1);
+      maxY = Math.min(1, y1);
+      lastHandNs = System.nanoTime();
+    }
+  }
+
+  /** Meters {@code frame} over the hands. Called on the thread delivering frames, one at a time. */
+  public void onLumaFrame(LumaFrame frame) {
+    float x0;
+    float y0;
+    float x1;
+    float y1;
+    synchronized (this) {
+      if (lights == null) {
+        return;
+      }
+      if (maxX <= minX || maxY <= minY) {
+        releaseIfHandLost(System.nanoTime());
+        return;
+      }
+      x0 = minX;
+      y0 = minY;
+      x1 = maxX;
+      y1 = maxY;
+    }
+    int width = frame.getUprightWidth();
+    int height = frame.getUprightHeight();
+    int u0 = (int) (x0 * (width - 1));
+    int v0 = (int) (y0 * (height - 1));
+    int u1 = (int) (x1 * (width - 1));
+    int v1 = (int) (y1 * (height - 1));
+    // An even grid of samples over the box.
+    double area = (u1 - u0 + 1) * (double) (v1 - v0 + 1);
+    int step = Math.max(1, (int) Math.ceil(Math.sqrt(area / MAX_SAMPLES)));
+    Arrays.fill(histogram, 0);
+    int samples = 0;
+    for (int v = v0; v <= v1; v += step) {
+      for (int u = u0; u <= u1; u += step) {
+        histogram[frame.getUpright(u, v)]++;
+        samples++;
+      }
+    }
+    int median = 0;
+    for (int count = 0; median < 255 && (count += histogram[median]) < samples / 2; ) {
+      median++;
+    }
+    int clipped = 0;
+    for (int luma = CLIPPED_LUMA; luma < 256; luma++) {
+      clipped += histogram[luma];
+    }
+    adjust(median, (float) clipped / samples, System.nanoTime());
+  }
+
+  private synchronized void adjust(int median, float clippedFraction, long now) {
+    Lights target = lights;
+    if (target == null) {
+      return;
+    }
+    medianLuma = median;
+    int minIndex = target.getMinExposureIndex();
+    int maxIndex = target.getMaxExposureIndex();
+    boolean settled = now - exposureChangedNs > EXPOSURE_SETTLE_MS * 1_000_000;
+    boolean torchSettled = now - torchChangedNs > TORCH_DWELL_MS * 1_000_000;
+    if (!settled) {
+      return;
+    }
+    if (median > TARGET_HIGH || clippedFraction > MAX_CLIPPED) {
+      if (torchOn && torchSettled && median > TORCH_OFF_LUMA && exposureIndex <= minIndex) {
+        setTorch(target, false, now);
+      } else if (exposureIndex > minIndex) {
+        setExposure(target, exposureIndex - 1, now);
+      }
+    } else if (median < TARGET_LOW) {
+      if (exposureIndex < maxIndex) {
+        setExposure(target, exposureIndex + 1, now);
+      } else if (!torchOn && torchAllowed && torchSettled && median < TORCH_ON_LUMA) {
+        setTorch(target, true, now);
+        // The scene brightens a lot; start over from no compensation.
+        setExposure(target, 0, now);
+      }
+    }
+  }
+
+  // Guarded by this.
+  private void releaseIfHandLost(long now) {
+    if (now - lastHandNs < HAND_LOST_MS * 1_000_000) {
+      return;
+    }
+    if (torchOn) {
+      setTorch(lights, false, now);
+    }
+    if (exposureIndex != 0) {
+      setExposure(lights, 0, now);
+    }
+  }
+
+  // Guarded by this.
+  private void setExposure(Lights target, int index, long now) {
+    exposureIndex = index;
+    exposureChangedNs = now;
+    exposureSteps++;
+    target.setExposureIndex(index);
+  }
+
+  // Guarded by this.
+  private void setTorch(Lights target, boolean on, long now) {
+    if (torchOn == on) {
+      return;
+    }
+    if (torchOn) {
+      torchOnNs += now - torchChangedNs;
+    }
+    torchOn = on;
+    torchChangedNs = now;
+    torchSwitches++;
+    target.enableTorch(on);
+    Log.i(TAG, "Torch " + (on ? "on" : "off") + " at median luma " + medianLuma + ", " + this);
+  }
+
+  @Override
+  public synchronized String toString() {
+    long onNs = torchOnNs + (torchOn ? System.nanoTime() - torchChangedNs : 0);
+    return String.format(
+        Locale.US,
+        "torch=%s switches=%d on=%.1fs (~%.1fJ) exposure=%d steps=%d median=%d",
+        torchOn ? "on" : "off",
+        torchSwitches,
+        onNs / 1e9,
+        onNs / 1e9 * TORCH_POWER_W,
+        exposureIndex,
+        exposureSteps,
+        medianLuma);
+  }
+}
@@ -0,0 +1,121 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The luminance plane of one camera frame, as delivered by the sensor, plus the rotation that
+ * makes it upright.
+ *
+ * <p>Instances are reused: {@link #set} only reallocates when the frame grows. Coordinates in the
+ * {@code *Upright} methods are in the upright image, which is what normalized landmarks refer to,
+ * so callers never rotate the full frame.
+ */
+public final class LumaFrame implements GraySource {
+  private byte[] data = new byte[0];
+  private int width;
+  private int height;
+  private long timestampNs = -1;
+  private int rotationDegrees;
+
+  /**
+   * Copies a luminance plane.
+   *
+   * @param plane the plane, read from its current position without changing it.
+   * @param rowStride the distance in bytes between two rows of {@code plane}.
+   * @param rotationDegrees the clockwise rotation that makes the frame upright, a multiple of 90.
+   */
+  public void set(
+      ByteBuffer plane,
+      int rowStride,
+      int width,
+      int height,
+      long timestampNs,
+      int rotationDegrees) {
+    ensureCapacity(width * height);
+    ByteBuffer source = plane.duplicate();
+    int base = source.position();
+    for (int y = 0; y < height; y++) {
+      source.position(base + y * rowStride);
+      source.get(data, y * width, width);
+    }
+    this.width = width;
+    this.height = height;
+    this.timestampNs = timestampNs;
+    this.rotationDegrees = ((rotationDegrees % 360) + 360) % 360;
+  }
+
+  /** Makes this frame a copy of {@code other}. */
+  public void copyFrom(LumaFrame other) {
+    ensureCapacity(other.width * other.height);
+    System.arraycopy(other.data, 0, data, 0, other.width * other.height);
+    width = other.width;
+    height = other.height;
+    timestampNs = other.timestampNs;
+    rotationDegrees = other.rotationDegrees;
+  }
+
+  private void ensureCapacity(int size) {
+    if (data.length < size) {
+      data = new byte[size];
+    }
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  public long getTimestampNs() {
+    return timestampNs;
+  }
+
+  public int getRotationDegrees() {
+    return rotationDegrees;
+  }
+
+  /** Returns the luminance at sensor coordinates, 0-255. */
+  public int get(int x, int y) {
+    return data[y * width + x] & 0xff;
+  }
+
+  @Override
+  public int getUprightWidth() {
+    return rotationDegrees % 180 == 0 ? width : height;
+  }
+
+  @Override
+  public int getUprightHeight() {
+    return rotationDegrees % 180 == 0 ? height : width;
+  }
+
+  @Override
+  public int getUpright(int u, int v) {
+    switch (rotationDegrees) {
+      case 90:
+        return get(v, height - 1 - u);
+      case 180:
+        return get(width - 1 - u, height - 1 - v);
+      case 270:
+        return get(width - 1 - v, u);
+      default:
+        return get(u, v);
+    }
+  }
+}
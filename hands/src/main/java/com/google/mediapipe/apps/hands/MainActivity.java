@@ -15,19 +15,20 @@
 package com.google.mediapipe.apps.hands;
 
 import android.app.AlertDialog;
+import android.content.ClipData;
 import android.content.Context;
 import android.content.DialogInterface;
 import android.content.Intent;
 import android.graphics.Bitmap;
-import android.graphics.Matrix;
 import android.hardware.camera2.CameraAccessException;
 import android.hardware.camera2.CameraManager;
+import android.net.Uri;
 import android.os.Build;
 import android.os.Bundle;
-import android.os.Looper;
 import android.provider.MediaStore;
 import androidx.appcompat.app.AppCompatActivity;
 import android.util.Log;
+import android.util.Size;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -35,23 +36,34 @@ import android.widget.Button;
 import android.widget.EditText;
 import android.widget.FrameLayout;
 import android.widget.ImageButton;
+import android.widget.TextView;
 import android.widget.Toast;
 
 import androidx.activity.result.ActivityResultLauncher;
 import androidx.activity.result.contract.ActivityResultContracts;
-import androidx.exifinterface.media.ExifInterface;
+import androidx.camera.lifecycle.ProcessCameraProvider;
+import androidx.core.content.ContextCompat;
 import androidx.fragment.app.DialogFragment;
+import androidx.lifecycle.Lifecycle;
 // ContentResolver dependency
+import com.google.common.util.concurrent.ListenableFuture;
 import com.google.mediapipe.formats.proto.LandmarkProto.Landmark;
 import com.google.mediapipe.formats.proto.LandmarkProto.NormalizedLandmark;
 import com.google.mediapipe.solutioncore.SolutionGlSurfaceView;
-import com.google.mediapipe.solutioncore.VideoInput;
 import com.google.mediapipe.solutions.hands.HandLandmark;
 import com.google.mediapipe.solutions.hands.Hands;
 import com.google.mediapipe.solutions.hands.HandsOptions;
 import com.google.mediapipe.solutions.hands.HandsResult;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import io.flutter.embedding.android.FlutterActivity;
 import io.flutter.embedding.engine.FlutterEngine;
 import io.flutter.embedding.engine.FlutterEngineCache;
@@ -62,9 +74,66 @@ public class MainActivity extends AppCompatActivity {
   private static final String TAG = "MainActivity";
   final Context context = this;
 
+  // Streaming-mode graph, owned by HandsGraph and kept warm across camera start/stop, and the
+  // session that feeds it and fans out its results.
+  private HandsGraph handsGraph;
+  private CaptureSession captureSession;
+  private StartupScheduler startupScheduler;
+  // The graph the preview is rendered from.
   private Hands hands;
+  // Static-image-mode graph, owned by this activity.
+  private Hands staticHands;
   // Run the pipeline and the model inference on GPU or CPU.
   private static final boolean RUN_ON_GPU = true;
+  // Records the live landmark stream so it can be replayed by CaptureDecisionBenchmark.
+  private static final boolean RECORD_LANDMARKS = false;
+  // Minimum number of frames between two fingertip ROI sets saved by the batch mode.
+  private static final int BATCH_ROI_INTERVAL_FRAMES = 15;
+  // Gallery import: concurrent decodes, images held in memory at once, and the fallback size of
+  // the box images are decoded into before the image view has been laid out.
+  private static final int IMPORT_DECODE_THREADS = 2;
+  private static final int IMPORT_MAX_PENDING = 4;
+  private static final int IMPORT_TARGET_SIZE = 1280;
+  // Startup tasks, and the cache key of the pre-warmed FlutterEngine.
+  private static final String STARTUP_HANDS_GRAPH = "hands-graph";
+  private static final String STARTUP_CAMERA_PROVIDER = "camera-provider";
+  private static final String STARTUP_CAMERA_PROFILE = "camera-profile";
+  private static final String STARTUP_FLUTTER_ENGINE = "flutter-engine";
+  private static final String STARTUP_TEMPLATE_GALLERY = "template-gallery";
+  private static final String TEMPLATE_GALLERY_FILE = "template_gallery.bin";
+  private static final String STARTUP_CAPTURE_CATALOG = "capture-catalog";
+  private static final String STARTUP_WRITE_QUEUE = "write-queue";
+  private static final String STARTUP_CODEC_BENCHMARK = "codec-benchmark";
+  // Whether the finger image encoders are compared and logged after startup, e.g. on a new device.
+  private static final boolean RUN_CODEC_BENCHMARK = false;
+  private static final int CODEC_BENCHMARK_ROUNDS = 3;
+  // App-private journal captures are written to before they are exported, and its size limit.
+  private static final String CAPTURE_JOURNAL_DIR = "capture-journal";
+  private static final long CAPTURE_JOURNAL_MAX_BYTES = 256L * 1024 * 1024;
+  // App-private directory captures are exported to when the export key is unusable.
+  private static final String UNEXPORTED_DIR = "unexported";
+  // ANSI/NIST-ITL transactions being built, until their set is complete.
+  private static final String NIST_TRANSACTION_DIR = "nist";
+  private static final String FLUTTER_ENGINE_ID = "my_engine_id";
+  // Live preview resolution: frame rate the latency budget is derived from, and the starting tier
+  // of PreviewResolutionController.defaultLadder() (1280x720).
+  private static final float PREVIEW_TARGET_FPS = 15f;
+  private static final int PREVIEW_INITIAL_TIER = 2;
+  // Dual-stream capture: the preview only feeds hand tracking, capped at 720p and starting at
+  // 960x540, while crops come from a separate high-resolution stream. Frames kept cover the
+  // inference latency; results and high-res frames further apart than the tolerance are not paired.
+  private static final boolean DUAL_STREAM = true;
+  private static final int DUAL_STREAM_TRACKING_TIERS = 3;
+  private static final int DUAL_STREAM_INITIAL_TIER = 1;
+  private static final Size HIGH_RES_SIZE = new Size(1920, 1080);
+  private static final int HIGH_RES_FRAMES = 6;
+  private static final long HIGH_RES_MATCH_TOLERANCE_NS = 20_000_000L;
+  // Longest a capture waits for focus to lock on the fingertips before it is taken anyway.
+  private static final long CAPTURE_FOCUS_TIMEOUT_MS = 1500;
+  // Whether the pipeline governor is driven by a simulated shift instead of the device's thermal
+  // status and battery, and how many times faster than real time the shift plays.
+  private static final boolean SIMULATE_THERMAL = false;
+  private static final float SIMULATED_SHIFT_SPEEDUP = 120f;
 
   private enum InputSource {
     UNKNOWN,
@@ -77,14 +146,44 @@ public class MainActivity extends AppCompatActivity {
   // Image demo UI and image loader components.
   private ActivityResultLauncher<Intent> imageGetter;
   private HandsResultImageView imageView;
+  // Told about exports by the write queue, which may start before it is opened.
+  private volatile CaptureCatalog captureCatalog;
+  private ImageImportPipeline imageImportPipeline;
+  // Saves captures one at a time, off the main thread.
+  private final ExecutorService captureExecutor = Executors.newSingleThreadExecutor();
   // Video demo UI and video loader components.
-  private VideoInput videoInput;
   private ActivityResultLauncher<Intent> videoGetter;
+  // Headless batch processing of archived videos.
+  private ActivityResultLauncher<Intent> batchVideoGetter;
+  // Asks for shared storage access, which exports need before Android 10.
+  private ActivityResultLauncher<String> storagePermissionRequest;
+  private BatchVideoProcessor batchVideoProcessor;
+  private TextView batchProgressView;
   // Live camera demo UI and camera components.
-  private KCCameraInput cameraInput;
-  private SolutionGlSurfaceView<HandsResult> glSurfaceView;
+  private CameraFrameSource cameraSource;
+  private volatile SolutionGlSurfaceView<HandsResult> glSurfaceView;
+  // Kept across camera restarts so that the learned resolution is reused; told about results
+  // while the camera runs.
+  private PreviewResolutionController previewResolutionController;
+  private volatile PreviewResolutionController streamController;
+  private HighResFrameRing highResFrames;
+  // Keeps the camera focused on the fingertips; captures wait for its lock.
+  private final FingertipFocusController focusController = new FingertipFocusController();
+  // Switches the torch and sets the exposure from the brightness of the hands.
+  private final LightingController lightingController = new LightingController();
+  // Steps the pipeline down as the device heats up or its battery runs low, and the source of
+  // its readings.
+  private PipelineGovernor governor;
+  private PipelineGovernor.Source thermalSource;
+  // Hands tracked by the streaming graph, which only changes while the camera is stopped.
+  private int graphMaxNumHands = 2;
 
   public FlutterEngine flutterEngine;
+  // Streams landmarks and captures to the Flutter UI once the engine is warm.
+  private volatile FlutterLandmarkChannel landmarkChannel;
+
+  private LandmarkRecording.Writer landmarkRecorder;
+  private final LandmarkFrame recordedFrame = new LandmarkFrame();
 
   private CameraManager camManager;
   ImageButton captureImageButton;
@@ -100,15 +199,232 @@ public class MainActivity extends AppCompatActivity {
     stopCameraButton = findViewById(R.id.button_stop_camera);
     captureImageButton = findViewById(R.id.button_capture_image);
 
+    handsGraph = HandsGraph.get(this);
+    captureSession = new CaptureSession(handsGraph);
+    captureSession.addSink(this::onSessionResult);
+    captureSession.addSink(focusController);
+    captureSession.addSink(lightingController);
+    captureSession.addStateListener(this::onSessionStateChanged);
+    // Stops the source while paused and restarts it on resume.
+    captureSession.bindToLifecycle(this);
+    governor =
+        new PipelineGovernor(
+            PipelineGovernor.defaultTiers(),
+            (tier, reason) -> runOnUiThread(() -> applyPipelineTier(tier)));
+    thermalSource =
+        SIMULATE_THERMAL
+            ? new SimulatedThermalSource(
+                SimulatedThermalSource.defaultShift(), SIMULATED_SHIFT_SPEEDUP)
+            : new DeviceThermalSource(this);
+    thermalSource.start(governor::onReading);
+    startupScheduler = createStartupScheduler();
+    startupScheduler.start();
+    requestStoragePermission();
+
     setupStaticImageDemoUiComponents();
     setupVideoDemoUiComponents();
+    setupBatchVideoUiComponents();
     setupLiveDemoUiComponents();
     stopLiveDemoUiComponent();
 //    setupFlutterScreenInit();
     setupCaptureImageUiComponents();
 
+    // Runs after the first traversal of the view hierarchy, i.e. once the first frame is drawn.
+    getWindow().getDecorView().post(startupScheduler::markFirstFrame);
+  }
+
+  /**
+   * Declares the heavy initializers. The graph, the camera provider and the camera capability
+   * profile are needed by the first camera start and load in the background, as do the template
+   * gallery, the capture catalogue and the capture write queue, which are only needed by the first
+   * capture; the queue starts once the catalogue is open, as it updates it from its first export.
+   * The FlutterEngine is only needed by the Flutter screen, so it is warmed up, and the landmark
+   * channel to it started, once the main thread is idle and the camera path is ready; the codec
+   * benchmark, when enabled, runs in the background from then on.
+   */
+  private StartupScheduler createStartupScheduler() {
+    Context appContext = getApplicationContext();
+    return new StartupScheduler()
+        .add(
+            STARTUP_HANDS_GRAPH,
+            StartupScheduler.Priority.BACKGROUND,
+            () -> handsGraph.warmUp().get())
+        .add(
+            STARTUP_CAMERA_PROVIDER,
+            StartupScheduler.Priority.BACKGROUND,
+            () -> ProcessCameraProvider.getInstance(appContext).get())
+        .add(
+            STARTUP_CAMERA_PROFILE,
+            StartupScheduler.Priority.BACKGROUND,
+            () -> CameraCapabilityProfile.get(appContext))
+        .add(
+            STARTUP_TEMPLATE_GALLERY,
+            StartupScheduler.Priority.BACKGROUND,
+            () -> {
+              TemplateGallery gallery =
+                  TemplateGallery.open(new File(appContext.getFilesDir(), TEMPLATE_GALLERY_FILE));
+              runOnUiThread(() -> imageView.setTemplateGallery(gallery));
+            })
+        .add(
+            STARTUP_CAPTURE_CATALOG,
+            StartupScheduler.Priority.BACKGROUND,
+            () -> {
+              CaptureCatalog catalog = new CaptureCatalog(appContext);
+              // Creates or migrates the database off the main thread.
+              catalog.getWritableDatabase();
+              captureCatalog = catalog;
+              runOnUiThread(() -> imageView.setCaptureCatalog(catalog));
+            })
+        .add(
+            STARTUP_WRITE_QUEUE,
+            StartupScheduler.Priority.BACKGROUND,
+            () -> {
+              CaptureWriteQueue queue =
+                  CaptureWriteQueue.open(
+                      new File(appContext.getNoBackupFilesDir(), CAPTURE_JOURNAL_DIR),
+                      createExporter(appContext),
+                      CAPTURE_JOURNAL_MAX_BYTES,
+                      new CaptureWriteQueue.Listener() {
+                        @Override
+                        public void onExported(File journalFile, String location) {
+                          captureCatalog.setExported(journalFile.getAbsolutePath(), location);
+                        }
+
+                        @Override
+                        public void onExportFailed(File journalFile, File movedTo) {
+                          captureCatalog.setExportFailed(
+                              journalFile.getAbsolutePath(), movedTo.getAbsolutePath());
+                        }
+                      });
+              runOnUiThread(() -> imageView.setWriteQueue(queue));
+            },
+            STARTUP_CAPTURE_CATALOG)
+        .add(
+            STARTUP_FLUTTER_ENGINE,
+            StartupScheduler.Priority.MAIN_IDLE,
+            () -> {
+              warmUpFlutterEngine();
+              startLandmarkChannel();
+            },
+            STARTUP_HANDS_GRAPH,
+            STARTUP_CAMERA_PROVIDER)
+        .add(
+            STARTUP_CODEC_BENCHMARK,
+            StartupScheduler.Priority.BACKGROUND,
+            () -> {
+              if (RUN_CODEC_BENCHMARK) {
+                runCodecBenchmark();
+              }
+            },
+            STARTUP_HANDS_GRAPH,
+            STARTUP_CAMERA_PROVIDER);
+  }
+
+  /**
+   * Returns the exporter of captures, which encrypts them for the public key configured in the
+   * resources if one is. A key that does not parse keeps exports in app-private storage rather
+   * than stopping the queue or exporting in the clear.
+   */
+  private CaptureExporter createExporter(Context appContext) {
+    String key = getString(R.string.export_public_key);
+    if (key.isEmpty()) {
+      // Only debug builds get here; release builds fail without a key.
+      Log.w(TAG, "No export public key configured, captures are exported unencrypted");
+      return new MediaStoreExporter(appContext, null);
+    }
+    try {
+      StreamingAead aead = new StreamingAead(StreamingAead.parsePublicKey(key));
+      return new MediaStoreExporter(appContext, aead);
+    } catch (GeneralSecurityException e) {
+      File dir = new File(appContext.getNoBackupFilesDir(), UNEXPORTED_DIR);
+      Log.e(TAG, "Invalid export public key, keeping captures in " + dir + ": " + e);
+      runOnUiThread(
+          () ->
+              Toast.makeText(
+                      this, "Export key is invalid; captures are not exported", Toast.LENGTH_LONG)
+                  .show());
+      return new DirectoryExporter(dir);
+    }
+  }
+
+  /**
+   * Asks for the permission exports to shared storage need before Android 10. Until it is granted,
+   * MediaStoreExporter keeps exports in the app's own external directory.
+   */
+  private void requestStoragePermission() {
+    storagePermissionRequest =
+        registerForActivityResult(
+            new ActivityResultContracts.RequestPermission(),
+            granted -> {
+              if (!granted) {
+                Log.w(TAG, "Storage permission denied, exporting to app storage");
+                Toast.makeText(
+                        this,
+                        "Captures are exported to app storage without the storage permission",
+                        Toast.LENGTH_LONG)
+                    .show();
+              }
+            });
+    if (MediaStoreExporter.needsLegacyPermission(this)) {
+      storagePermissionRequest.launch(MediaStoreExporter.LEGACY_PERMISSION);
+    }
+  }
+
+  /** Returns the finger image encoder configured in the resources, or the default one. */
+  private FingerImageEncoder createImageEncoder() {
+    String name = getString(R.string.finger_image_encoder);
+    try {
+      return FingerImageEncoders.forName(name);
+    } catch (IllegalArgumentException e) {
+      Log.e(TAG, "Unable to use finger image encoder " + name + ": " + e);
+      return FingerImageEncoders.forName(FingerImageEncoders.DEFAULT_NAME);
+    }
+  }
+
+  /**
+   * Returns the ANSI/NIST-ITL transaction header configured in the resources, or null if no
+   * originating agency is.
+   */
+  private NistTransactionBuilder.Header createNistHeader() {
+    String originatingAgency = getString(R.string.nist_originating_agency);
+    if (originatingAgency.isEmpty()) {
+      return null;
+    }
+    try {
+      return new NistTransactionBuilder.Header(
+          getString(R.string.nist_transaction_type),
+          getString(R.string.nist_destination_agency),
+          originatingAgency);
+    } catch (IllegalArgumentException e) {
+      Log.e(TAG, "Unable to use ANSI/NIST-ITL header: " + e);
+      return null;
+    }
+  }
+
+  // Logs the size, speed and fidelity of each encoder on synthetic fingers.
+  private static void runCodecBenchmark() throws IOException {
+    List<GrayImage> images = SyntheticFingers.capture(new Random(0));
+    List<FingerImageEncoder> encoders = new ArrayList<>();
+    for (String name : FingerImageEncoders.BUILT_IN_NAMES) {
+      try {
+        encoders.add(FingerImageEncoders.forName(name));
+      } catch (IllegalArgumentException e) {
+        Log.i(TAG, "Codec benchmark skips " + name + ": " + e.getMessage());
+      }
+    }
+    for (CodecBenchmark.Result result :
+        CodecBenchmark.run(CodecBenchmark.withEnhanced(images), encoders, CODEC_BENCHMARK_ROUNDS)) {
+      Log.i(TAG, "Codec benchmark: " + result);
+    }
+  }
+
+  private void warmUpFlutterEngine() {
+    flutterEngine = FlutterEngineCache.getInstance().get(FLUTTER_ENGINE_ID);
+    if (flutterEngine != null) {
+      return;
+    }
     // Instantiate a FlutterEngine.
-    flutterEngine = new FlutterEngine(this);
+    flutterEngine = new FlutterEngine(getApplicationContext());
 
     // Start executing Dart code to pre-warm the FlutterEngine.
     flutterEngine.getDartExecutor().executeDartEntrypoint(
@@ -118,69 +434,78 @@ public class MainActivity extends AppCompatActivity {
     // Cache the FlutterEngine to be used by FlutterActivity.
     FlutterEngineCache
             .getInstance()
-            .put("my_engine_id", flutterEngine);
+            .put(FLUTTER_ENGINE_ID, flutterEngine);
+  }
+
+  private void startLandmarkChannel() {
+    FlutterLandmarkChannel channel = new FlutterLandmarkChannel(flutterEngine.getDartExecutor());
+    // Sends only while resumed; otherwise it is started by onResume.
+    if (getLifecycle().getCurrentState().isAtLeast(Lifecycle.State.RESUMED)) {
+      channel.start();
+    }
+    landmarkChannel = channel;
+    captureSession.addSink(channel);
+    imageView.setCaptureChannel(channel);
   }
 
   @Override
   protected void onResume() {
     super.onResume();
-    if (inputSource == InputSource.CAMERA) {
-      // Restarts the camera and the opengl surface rendering.
-      cameraInput = new KCCameraInput(this);
-      cameraInput.setNewFrameListener(textureFrame -> hands.send(textureFrame));
-      glSurfaceView.post(this::startCamera);
-      glSurfaceView.setVisibility(View.VISIBLE);
-    } else if (inputSource == InputSource.VIDEO) {
-      videoInput.resume();
+    FlutterLandmarkChannel channel = landmarkChannel;
+    if (channel != null) {
+      channel.start();
     }
   }
 
   @Override
   protected void onPause() {
     super.onPause();
-    if (inputSource == InputSource.CAMERA) {
-      glSurfaceView.setVisibility(View.GONE);
-      cameraInput.close();
-    } else if (inputSource == InputSource.VIDEO) {
-      videoInput.pause();
+    // No frame callback runs while nothing is shown; results keep being coalesced meanwhile.
+    FlutterLandmarkChannel channel = landmarkChannel;
+    if (channel != null) {
+      channel.stop();
     }
   }
 
-  private Bitmap downscaleBitmap(Bitmap originalBitmap) {
-    double aspectRatio = (double) originalBitmap.getWidth() / originalBitmap.getHeight();
-    int width = imageView.getWidth();
-    int height = imageView.getHeight();
-    if (((double) imageView.getWidth() / imageView.getHeight()) > aspectRatio) {
-      width = (int) (height * aspectRatio);
-    } else {
-      height = (int) (width / aspectRatio);
-    }
-    return Bitmap.createScaledBitmap(originalBitmap, width, height, false);
+  @Override
+  public void onTrimMemory(int level) {
+    super.onTrimMemory(level);
+    handsGraph.onTrimMemory(level);
   }
 
-  private Bitmap rotateBitmap(Bitmap inputBitmap, InputStream imageData) throws IOException {
-    int orientation =
-        new ExifInterface(imageData)
-            .getAttributeInt(ExifInterface.TAG_ORIENTATION, ExifInterface.ORIENTATION_NORMAL);
-    if (orientation == ExifInterface.ORIENTATION_NORMAL) {
-      return inputBitmap;
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    startupScheduler.shutdown();
+    imageImportPipeline.shutdown();
+    if (batchVideoProcessor != null) {
+      batchVideoProcessor.stop();
+    }
+    // Captures already confirmed are still saved.
+    captureExecutor.shutdown();
+    Log.i(TAG, "Fingertip focus: " + focusController);
+    Log.i(TAG, "Lighting: " + lightingController);
+    thermalSource.stop();
+    Log.i(TAG, "Pipeline governor: " + governor);
+    FlutterLandmarkChannel channel = landmarkChannel;
+    if (channel != null) {
+      channel.stop();
+      Log.i(TAG, channel.toString());
     }
-    Matrix matrix = new Matrix();
-    switch (orientation) {
-      case ExifInterface.ORIENTATION_ROTATE_90:
-        matrix.postRotate(90);
-        break;
-      case ExifInterface.ORIENTATION_ROTATE_180:
-        matrix.postRotate(180);
-        break;
-      case ExifInterface.ORIENTATION_ROTATE_270:
-        matrix.postRotate(270);
-        break;
-      default:
-        matrix.postRotate(0);
+  }
+
+  // Returns the content picked by a single- or multi-select chooser.
+  private static List<Uri> selectedUris(Intent resultIntent) {
+    List<Uri> uris = new ArrayList<>();
+    ClipData clipData = resultIntent.getClipData();
+    if (clipData != null) {
+      for (int i = 0; i < clipData.getItemCount(); ++i) {
+        uris.add(clipData.getItemAt(i).getUri());
+      }
+    } else if (resultIntent.getData() != null) {
+      uris.add(resultIntent.getData());
     }
-    return Bitmap.createBitmap(
-        inputBitmap, 0, 0, inputBitmap.getWidth(), inputBitmap.getHeight(), matrix, true);
+    return uris;
   }
 
   /** Sets up the UI components for the static image demo. */
@@ -193,25 +518,19 @@ public class MainActivity extends AppCompatActivity {
               Intent resultIntent = result.getData();
               if (resultIntent != null) {
                 if (result.getResultCode() == RESULT_OK) {
-                  Bitmap bitmap = null;
-                  try {
-                    bitmap =
-                        downscaleBitmap(
-                            MediaStore.Images.Media.getBitmap(
-                                this.getContentResolver(), resultIntent.getData()));
-                  } catch (IOException e) {
-                    Log.e(TAG, "Bitmap reading error:" + e);
-                  }
-                  try {
-                    InputStream imageData =
-                        this.getContentResolver().openInputStream(resultIntent.getData());
-                    bitmap = rotateBitmap(bitmap, imageData);
-                  } catch (IOException e) {
-                    Log.e(TAG, "Bitmap rotation error:" + e);
-                  }
-                  if (bitmap != null) {
-                    hands.send(bitmap);
+                  List<Uri> uris = selectedUris(resultIntent);
+                  if (imageView.getWidth() > 0 && imageView.getHeight() > 0) {
+                    imageImportPipeline.setTargetSize(imageView.getWidth(), imageView.getHeight());
                   }
+                  Hands imageHands = staticHands;
+                  imageImportPipeline.submit(
+                      uris,
+                      (uri, bitmap) -> {
+                        // Hands is fed from several decode threads.
+                        synchronized (imageHands) {
+                          imageHands.send(bitmap);
+                        }
+                      });
                 }
               }
             });
@@ -225,16 +544,28 @@ public class MainActivity extends AppCompatActivity {
 //          // Reads images from gallery.
 //          Intent pickImageIntent = new Intent(Intent.ACTION_PICK);
 //          pickImageIntent.setDataAndType(MediaStore.Images.Media.INTERNAL_CONTENT_URI, "image/*");
+//          pickImageIntent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
 //          imageGetter.launch(pickImageIntent);
 //        });
     imageView = new HandsResultImageView(this);
+    imageView.setImageEncoder(createImageEncoder());
+    imageView.setMinFingerQuality(getResources().getInteger(R.integer.min_finger_quality));
+    imageView.setNistTransactions(
+        new File(getNoBackupFilesDir(), NIST_TRANSACTION_DIR), createNistHeader());
+    imageImportPipeline =
+        new ImageImportPipeline(
+            getContentResolver(),
+            IMPORT_DECODE_THREADS,
+            IMPORT_MAX_PENDING,
+            IMPORT_TARGET_SIZE,
+            IMPORT_TARGET_SIZE);
   }
 
   /** Sets up core workflow for static image mode. */
   private void setupStaticImageModePipeline() {
     this.inputSource = InputSource.IMAGE;
     // Initializes a new MediaPipe Hands solution instance in the static image mode.
-    hands =
+    staticHands =
         new Hands(
             this,
             HandsOptions.builder()
@@ -244,13 +575,13 @@ public class MainActivity extends AppCompatActivity {
                 .build());
 
     // Connects MediaPipe Hands solution to the user-defined HandsResultImageView.
-    hands.setResultListener(
+    staticHands.setResultListener(
         handsResult -> {
 //          logIndexFingerTipLandmark(handsResult);
           imageView.setHandsResult(handsResult);
           runOnUiThread(() -> imageView.update());
         });
-    hands.setErrorListener((message, e) -> Log.e(TAG, "Kwik Capture error:" + message));
+    staticHands.setErrorListener((message, e) -> Log.e(TAG, "Kwik Capture error:" + message));
 
     // Updates the preview layout.
     FrameLayout frameLayout = findViewById(R.id.preview_display_layout);
@@ -270,14 +601,14 @@ public class MainActivity extends AppCompatActivity {
               Intent resultIntent = result.getData();
               if (resultIntent != null) {
                 if (result.getResultCode() == RESULT_OK) {
-                  glSurfaceView.post(
-                      () ->
-                          videoInput.start(
-                              this,
-                              resultIntent.getData(),
-                              hands.getGlContext(),
-                              glSurfaceView.getWidth(),
-                              glSurfaceView.getHeight()));
+                  FrameLayout frameLayout = findViewById(R.id.preview_display_layout);
+                  setupStreamingModePipeline(
+                      InputSource.VIDEO,
+                      new VideoFrameSource(
+                          this,
+                          resultIntent.getData(),
+                          frameLayout.getWidth(),
+                          frameLayout.getHeight()));
                 }
               }
             });
@@ -285,7 +616,6 @@ public class MainActivity extends AppCompatActivity {
 //    loadVideoButton.setOnClickListener(
 //        v -> {
 //          stopCurrentPipeline();
-//          setupStreamingModePipeline(InputSource.VIDEO);
 //          // Reads video from gallery.
 //          Intent pickVideoIntent = new Intent(Intent.ACTION_PICK);
 //          pickVideoIntent.setDataAndType(MediaStore.Video.Media.INTERNAL_CONTENT_URI, "video/*");
@@ -293,6 +623,83 @@ public class MainActivity extends AppCompatActivity {
 //        });
   }
 
+  /** Sets up the UI components for headless batch processing of archived videos. */
+  private void setupBatchVideoUiComponents() {
+    batchProgressView = findViewById(R.id.batch_progress);
+    batchVideoGetter =
+        registerForActivityResult(
+            new ActivityResultContracts.StartActivityForResult(),
+            result -> {
+              Intent resultIntent = result.getData();
+              if (resultIntent == null || result.getResultCode() != RESULT_OK) {
+                return;
+              }
+              List<Uri> uris = selectedUris(resultIntent);
+              // Keeps read access so an interrupted batch can resume after a restart.
+              for (Uri uri : uris) {
+                getContentResolver()
+                    .takePersistableUriPermission(uri, Intent.FLAG_GRANT_READ_URI_PERMISSION);
+              }
+              try {
+                getBatchVideoProcessor().enqueue(uris);
+              } catch (IOException e) {
+                Log.e(TAG, "Batch queue error:" + e);
+                return;
+              }
+              startBatchVideoProcessing();
+            });
+    Button batchVideoButton = findViewById(R.id.button_batch_video);
+    batchVideoButton.setOnClickListener(
+        v -> {
+          Intent pickVideosIntent = new Intent(Intent.ACTION_OPEN_DOCUMENT);
+          pickVideosIntent.addCategory(Intent.CATEGORY_OPENABLE);
+          pickVideosIntent.setType("video/*");
+          pickVideosIntent.putExtra(Intent.EXTRA_ALLOW_MULTIPLE, true);
+          batchVideoGetter.launch(pickVideosIntent);
+        });
+    // Resumes a batch that was interrupted by a stop or a restart of the app.
+    try {
+      if (getBatchVideoProcessor().hasPendingVideos()) {
+        startBatchVideoProcessing();
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Batch queue error:" + e);
+    }
+  }
+
+  private BatchVideoProcessor getBatchVideoProcessor() throws IOException {
+    if (batchVideoProcessor == null) {
+      File batchDir = getExternalFilesDir("batch");
+      if (batchDir == null) {
+        batchDir = new File(getFilesDir(), "batch");
+      }
+      batchVideoProcessor =
+          new BatchVideoProcessor(this, batchDir, RUN_ON_GPU, BATCH_ROI_INTERVAL_FRAMES);
+    }
+    return batchVideoProcessor;
+  }
+
+  private void startBatchVideoProcessing() {
+    batchProgressView.setVisibility(View.VISIBLE);
+    batchProgressView.setText(R.string.batch_video);
+    batchVideoProcessor.start(
+        new BatchVideoProcessor.Listener() {
+          @Override
+          public void onProgress(BatchVideoProcessor.Progress progress) {
+            runOnUiThread(() -> batchProgressView.setText(progress.toString()));
+          }
+
+          @Override
+          public void onQueueFinished() {
+            runOnUiThread(
+                () -> {
+                  batchProgressView.setVisibility(View.GONE);
+                  Toast.makeText(context, "Batch processing completed!", Toast.LENGTH_LONG).show();
+                });
+          }
+        });
+  }
+
   /** Sets up the UI components for the live demo with camera input. */
 //  private void setupFlutterScreenInit() {
 //    Button startCameraButton = findViewById(R.id.flutter_screen);
@@ -301,7 +708,7 @@ public class MainActivity extends AppCompatActivity {
 //      v -> {
 //        startActivity(
 //          FlutterActivity
-//            .withCachedEngine("my_engine_id")
+//            .withCachedEngine(FLUTTER_ENGINE_ID)
 //            .build(getApplicationContext())
 //        );
 //      });
@@ -318,7 +725,9 @@ public class MainActivity extends AppCompatActivity {
         startCameraButton.setVisibility(View.GONE);
         captureImageButton.setVisibility(View.VISIBLE);
         stopCameraButton.setVisibility(View.VISIBLE);
-        setupStreamingModePipeline(InputSource.CAMERA);
+        cameraSource = createCameraSource();
+        cameraSource.setFrameSkip(governor.getTier().frameSkip);
+        setupStreamingModePipeline(InputSource.CAMERA, cameraSource);
       });
   }
 
@@ -330,7 +739,8 @@ public class MainActivity extends AppCompatActivity {
               });
   }
 
-  public void showConfirmationDialog() {
+  /** Asks for the details of {@code capture}, which is saved under them. */
+  public void showConfirmationDialog(CaptureSession.Capture capture) {
     LayoutInflater li = LayoutInflater.from(context);
     View promptsView = li.inflate(R.layout.dialog, null);
 
@@ -346,21 +756,17 @@ public class MainActivity extends AppCompatActivity {
             .setCancelable(false)
             .setPositiveButton("Save",
                     (dialog, id) -> {
-                      System.out.println("==== uniqueId: "+uniqueId.getText()
-                              +", setNo: "+setNo.getText());
-
-                      new android.os.Handler(Looper.getMainLooper()).postDelayed(
-                        () -> {
-                          try {
-                            imageView.captureImage(getApplicationContext(),
-                                    uniqueId.getText().toString(), setNo.getText().toString());
-                          } catch (IOException e) {
-                            System.out.println("===== CAUGHT EXCEPTION IMAGE CAP: " + e.getMessage());
-                            e.printStackTrace();
-                          }
-//                          stopCamera();
-                          System.out.println("====== STOP :: CAPTURE IMAGE ===== ");
-                        }, 1000);
+                      String subjectId = uniqueId.getText().toString();
+                      String set = setNo.getText().toString();
+                      Log.i(TAG, "Saving capture of " + subjectId + ", set " + set);
+                      Context appContext = getApplicationContext();
+                      captureExecutor.execute(() -> {
+                        try {
+                          imageView.captureImage(appContext, capture, subjectId, set);
+                        } catch (IOException e) {
+                          Log.e(TAG, "Unable to save capture: " + e);
+                        }
+                      });
                     })
             .setNegativeButton("Cancel",
                     (dialog, id) -> dialog.cancel());
@@ -369,82 +775,226 @@ public class MainActivity extends AppCompatActivity {
     alertDialog.show();
   }
 
-  /** Capture image */
+  /**
+   * Capture image: the frame is taken as soon as focus has locked on the fingertips and the camera
+   * keeps running, so the details are entered afterwards and the next capture needs no restart.
+   */
   private void setupCaptureImageUiComponents() {
     if(captureImageButton != null) {
       captureImageButton.setOnClickListener(
               v -> {
-                stopCamera();
-                System.out.println("====== START :: CAPTURE IMAGE =====");
-                showConfirmationDialog();
-//                new android.os.Handler(Looper.getMainLooper()).postDelayed(
-//                        () -> { },
-//                        1000);
+                long pressedAtNs = System.nanoTime();
+                ListenableFuture<Boolean> focused =
+                        focusController.awaitLock(CAPTURE_FOCUS_TIMEOUT_MS);
+                focused.addListener(
+                        () -> captureWhenFocused(focused, pressedAtNs),
+                        ContextCompat.getMainExecutor(this));
               }
       );
     }
   }
 
-  /** Sets up core workflow for streaming mode. */
-  private void setupStreamingModePipeline(InputSource inputSource) {
+  private void captureWhenFocused(ListenableFuture<Boolean> focused, long pressedAtNs) {
+    boolean locked = false;
+    try {
+      locked = focused.get();
+    } catch (ExecutionException | InterruptedException e) {
+      // Captured without the lock, as when it times out.
+    }
+    Log.d(TAG, "Focus " + (locked ? "locked" : "not locked") + " after "
+            + (System.nanoTime() - pressedAtNs) / 1_000_000 + " ms, " + focusController);
+    ListenableFuture<CaptureSession.Capture> captured = captureSession.capture();
+    captured.addListener(
+        () -> {
+          try {
+            showConfirmationDialog(captured.get());
+          } catch (CancellationException e) {
+            // Stopped before a frame arrived.
+          } catch (ExecutionException | InterruptedException e) {
+            Log.e(TAG, "Kwik Capture error: Unable to capture: " + e);
+            Toast.makeText(this, "Camera not running, try again!", Toast.LENGTH_SHORT).show();
+          }
+        },
+        ContextCompat.getMainExecutor(this));
+  }
+
+  /** Sets up core workflow for streaming mode, with frames from {@code source}. */
+  private void setupStreamingModePipeline(
+      InputSource inputSource, CaptureSession.FrameSource source) {
     this.inputSource = inputSource;
-    // Initializes a new MediaPipe Hands solution instance in the streaming mode.
-    hands =
-        new Hands(
-            this,
-            HandsOptions.builder()
-                .setStaticImageMode(false)
-                .setMaxNumHands(2)
-                .setRunOnGpu(RUN_ON_GPU)
-                .build());
-    hands.setErrorListener((message, e) -> Log.e(TAG, "Kwik Capture error:" + message));
+    streamController = inputSource == InputSource.CAMERA ? getPreviewResolutionController() : null;
+    if (inputSource != InputSource.CAMERA) {
+      captureSession.setHighResFrames(null);
+    }
+    // Reuses the warm streaming graph, or waits for the one being created.
+    ListenableFuture<Hands> started = captureSession.start(source);
+    started.addListener(
+        () -> {
+          try {
+            started.get();
+          } catch (CancellationException e) {
+            // Stopped or replaced by another source first.
+          } catch (ExecutionException | InterruptedException e) {
+            Log.e(TAG, "Kwik Capture error: Hands graph unavailable: " + e);
+          }
+        },
+        ContextCompat.getMainExecutor(this));
+  }
 
-    if (inputSource == InputSource.CAMERA) {
-      cameraInput = new KCCameraInput(this);
-      cameraInput.setNewFrameListener(textureFrame -> hands.send(textureFrame));
-    } else if (inputSource == InputSource.VIDEO) {
-      videoInput = new VideoInput(this);
-      videoInput.setNewFrameListener(textureFrame -> hands.send(textureFrame));
+  // Shows the preview while the session runs. The graph is new after it was released under
+  // memory pressure, and the preview is then rebuilt on its GL context.
+  private void onSessionStateChanged(CaptureSession.State state) {
+    SolutionGlSurfaceView<HandsResult> view = glSurfaceView;
+    if (state == CaptureSession.State.RUNNING) {
+      Hands current = captureSession.getHands();
+      if (current == null) {
+        return;
+      }
+      if (current == hands && view != null && view.getParent() != null) {
+        view.setVisibility(View.VISIBLE);
+      } else {
+        showStreamingView(current);
+      }
+    } else if (state == CaptureSession.State.PAUSED && view != null) {
+      view.setVisibility(View.GONE);
     }
+  }
+
+  private void showStreamingView(Hands hands) {
+    this.hands = hands;
 
     // Initializes a new Gl surface view with a user-defined HandsResultGlRenderer.
-    glSurfaceView =
+    SolutionGlSurfaceView<HandsResult> view =
         new SolutionGlSurfaceView<>(this, hands.getGlContext(), hands.getGlMajorVersion());
-    glSurfaceView.setSolutionResultRenderer(new HandsResultGlRenderer());
-    glSurfaceView.setRenderInputImage(true);
-    hands.setResultListener(
-        handsResult -> {
-//          logIndexFingerTipLandmark(handsResult);
-
-          imageView.setHandsResult(handsResult);
-          runOnUiThread(() -> imageView.update());
-
-          glSurfaceView.setRenderData(handsResult);
-          glSurfaceView.requestRender();
-        });
-
-    // The runnable to start camera after the gl surface view is attached.
-    // For video input source, videoInput.start() will be called when the video uri is available.
-    if (inputSource == InputSource.CAMERA) {
-      glSurfaceView.post(this::startCamera);
+    HandsResultGlRenderer renderer = new HandsResultGlRenderer();
+    PreviewResolutionController controller = streamController;
+    if (controller != null) {
+      renderer.setRenderTimeListener(controller::onRenderTime);
     }
+    view.setSolutionResultRenderer(renderer);
+    view.setRenderInputImage(true);
+    glSurfaceView = view;
 
     // Updates the preview layout.
     FrameLayout frameLayout = findViewById(R.id.preview_display_layout);
     imageView.setVisibility(View.GONE);
     frameLayout.removeAllViewsInLayout();
-    frameLayout.addView(glSurfaceView);
-    glSurfaceView.setVisibility(View.VISIBLE);
+    frameLayout.addView(view);
+    view.setVisibility(View.VISIBLE);
     frameLayout.requestLayout();
   }
 
-  private void startCamera() {
-    cameraInput.start(
-        this,
-        hands.getGlContext(),
-        KCCameraInput.CameraFacing.BACK,
-        glSurfaceView.getWidth(),
-        glSurfaceView.getHeight());
+  // Runs on the graph thread for every result of the capture session.
+  private void onSessionResult(LandmarkFrame frame, HandsResult handsResult) {
+    if (handsResult == null) {
+      // Replayed landmarks have no image to show.
+      return;
+    }
+//    logIndexFingerTipLandmark(handsResult);
+    PreviewResolutionController controller = streamController;
+    if (controller != null) {
+      controller.onResult(handsResult.timestamp());
+    }
+
+    SolutionGlSurfaceView<HandsResult> view = glSurfaceView;
+    if (view != null) {
+      view.setRenderData(handsResult);
+      view.requestRender();
+    }
+
+    if (RECORD_LANDMARKS) {
+      recordLandmarks(handsResult);
+    }
+  }
+
+  // Creates the camera source at the current preview resolution, timing every frame sent to hands.
+  private CameraFrameSource createCameraSource() {
+    PreviewResolutionController controller = getPreviewResolutionController();
+    if (!DUAL_STREAM) {
+      captureSession.setHighResFrames(null);
+      // Lighting is metered on the high-resolution stream, so it is left to the camera here.
+      return new CameraFrameSource(this, controller, focusController, null, null, null);
+    }
+    if (highResFrames == null) {
+      highResFrames =
+          new HighResFrameRing(
+              HIGH_RES_FRAMES, new TimestampMatcher(0, HIGH_RES_MATCH_TOLERANCE_NS));
+    }
+    captureSession.setHighResFrames(highResFrames);
+    return new CameraFrameSource(
+        this, controller, focusController, lightingController, HIGH_RES_SIZE, highResFrames);
+  }
+
+  private PreviewResolutionController getPreviewResolutionController() {
+    if (previewResolutionController == null) {
+      previewResolutionController =
+          new PreviewResolutionController(
+              DUAL_STREAM
+                  ? PreviewResolutionController.defaultLadder()
+                      .subList(0, DUAL_STREAM_TRACKING_TIERS)
+                  : PreviewResolutionController.defaultLadder(),
+              DUAL_STREAM ? DUAL_STREAM_INITIAL_TIER : PREVIEW_INITIAL_TIER,
+              PREVIEW_TARGET_FPS,
+              tier ->
+                  runOnUiThread(
+                      () -> {
+                        Log.i(TAG, "Switching preview resolution to " + tier);
+                        if (inputSource == InputSource.CAMERA && cameraSource != null) {
+                          cameraSource.setPreviewTier(tier);
+                        }
+                      }));
+      previewResolutionController.setMaxPreviewWidth(governor.getTier().maxPreviewWidth);
+    }
+    return previewResolutionController;
+  }
+
+  // Applies a tier of the pipeline governor, on the main thread.
+  private void applyPipelineTier(PipelineGovernor.Tier tier) {
+    lightingController.setTorchAllowed(tier.torchAllowed);
+    if (cameraSource != null) {
+      cameraSource.setFrameSkip(tier.frameSkip);
+    }
+    if (previewResolutionController != null) {
+      previewResolutionController.setMaxPreviewWidth(tier.maxPreviewWidth);
+    }
+    applyMaxNumHands();
+  }
+
+  // Options cannot change on a live graph, so the session restarts its source on a new one.
+  private void applyMaxNumHands() {
+    int maxNumHands = governor.getTier().maxNumHands;
+    if (maxNumHands != graphMaxNumHands) {
+      Log.i(TAG, "Tracking at most " + maxNumHands + " hands");
+      graphMaxNumHands = maxNumHands;
+      captureSession.reconfigureGraph(HandsGraph.defaultOptions(RUN_ON_GPU, maxNumHands));
+    }
+  }
+
+  private synchronized void recordLandmarks(HandsResult result) {
+    try {
+      if (landmarkRecorder == null) {
+        File file =
+            new File(getExternalFilesDir(null), "landmarks-" + System.currentTimeMillis() + ".kclm");
+        landmarkRecorder = new LandmarkRecording.Writer(file);
+        Log.i(TAG, "Recording landmarks to " + file.getAbsolutePath());
+      }
+      Bitmap input = result.inputBitmap();
+      HandsResultFrames.fill(result, input.getWidth(), input.getHeight(), recordedFrame);
+      landmarkRecorder.write(recordedFrame);
+    } catch (IOException e) {
+      Log.e(TAG, "Landmark recording error:" + e);
+    }
+  }
+
+  private synchronized void closeLandmarkRecorder() {
+    if (landmarkRecorder != null) {
+      try {
+        landmarkRecorder.close();
+      } catch (IOException e) {
+        Log.e(TAG, "Landmark recording error:" + e);
+      }
+      landmarkRecorder = null;
+    }
   }
 
   private void stopCamera() {
@@ -454,36 +1004,24 @@ public class MainActivity extends AppCompatActivity {
     if(inputSource == InputSource.CAMERA) {
       inputSource = InputSource.UNKNOWN;
     }
-    if (cameraInput != null) {
-      cameraInput.setNewFrameListener(null);
-      cameraInput.close();
-    }
-    if (videoInput != null) {
-      videoInput.setNewFrameListener(null);
-      videoInput.close();
-    }
+    streamController = null;
+    // The streaming graph stays warm for the next start.
+    captureSession.stop();
     if (glSurfaceView != null) {
       glSurfaceView.setVisibility(View.GONE);
     }
-    if (hands != null) {
-      hands.close();
-    }
+    closeLandmarkRecorder();
   }
 
   private void stopCurrentPipeline() {
-    if (cameraInput != null) {
-      cameraInput.setNewFrameListener(null);
-      cameraInput.close();
-    }
-    if (videoInput != null) {
-      videoInput.setNewFrameListener(null);
-      videoInput.close();
-    }
+    streamController = null;
+    captureSession.stop();
     if (glSurfaceView != null) {
       glSurfaceView.setVisibility(View.GONE);
     }
-    if (hands != null) {
-      hands.close();
+    if (staticHands != null) {
+      staticHands.close();
+      staticHands = null;
     }
   }
 
@@ -0,0 +1,177 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.Manifest;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.database.Cursor;
+import android.media.MediaScannerConnection;
+import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Environment;
+import android.provider.MediaStore;
+import androidx.core.content.ContextCompat;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+
+/**
+ * Exports capture files to shared storage: through MediaStore on Android 10 and later, where apps
+ * cannot write to shared directories by path, and to the public DCIM directory before that. Without
+ * {@link #LEGACY_PERMISSION}, which must be granted at runtime on Android 6 to 9, files go to the
+ * app's own DCIM directory on external storage instead, which needs no permission.
+ *
+ * <p>Images go to DCIM/Kwik Capture and other files, such as templates, to Documents/Kwik Capture,
+ * the only shared collections that accept them; so do encrypted files. A file exported again
+ * after a crash replaces its earlier copy rather than adding a numbered duplicate.
+ */
+public final class MediaStoreExporter implements CaptureExporter {
+  private static final String FOLDER = "Kwik Capture";
+  /** Needed to export to the public DCIM directory before Android 10. */
+  public static final String LEGACY_PERMISSION = Manifest.permission.WRITE_EXTERNAL_STORAGE;
+
+  private final Context context;
+  private final StreamingAead aead;
+  private final DirectoryExporter legacyExporter;
+  private final DirectoryExporter appExporter;
+
+  public MediaStoreExporter(Context context) {
+    this(context, null);
+  }
+
+  /** @param aead if not null, encrypts the files, as {@link DirectoryExporter} does. */
+  public MediaStoreExporter(Context context, StreamingAead aead) {
+    this.context = context.getApplicationContext();
+    this.aead = aead;
+    this.legacyExporter =
+        new DirectoryExporter(
+            new File(
+                Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_DCIM),
+                FOLDER),
+            aead);
+    File appDir = this.context.getExternalFilesDir(Environment.DIRECTORY_DCIM);
+    this.appExporter =
+        new DirectoryExporter(
+            new File(appDir != null ? appDir : this.context.getFilesDir(), FOLDER), aead);
+  }
+
+  /** Returns whether exports need {@link #LEGACY_PERMISSION} to reach shared storage. */
+  public static boolean needsLegacyPermission(Context context) {
+    return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+        && ContextCompat.checkSelfPermission(context, LEGACY_PERMISSION)
+            != PackageManager.PERMISSION_GRANTED;
+  }
+
+  @Override
+  public String export(File file, String directory, String plainName) throws IOException {
+    String name = aead == null ? plainName : plainName + DirectoryExporter.ENCRYPTED_SUFFIX;
+    String mimeType = mimeType(name);
+    if (Build.VERSION.SDK_INT < Build.VERSION_CODES.Q) {
+      // Checked on every export, as the permission may be granted or revoked at any time.
+      DirectoryExporter exporter = needsLegacyPermission(context) ? appExporter : legacyExporter;
+      String path = exporter.export(file, directory, plainName);
+      MediaScannerConnection.scanFile(context, new String[] {path}, new String[] {mimeType}, null);
+      return path;
+    }
+
+    boolean image = mimeType.startsWith("image/");
+    Uri collection =
+        image
+            ? MediaStore.Images.Media.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY)
+            : MediaStore.Files.getContentUri(MediaStore.VOLUME_EXTERNAL_PRIMARY);
+    String relativePath =
+        (image ? Environment.DIRECTORY_DCIM : Environment.DIRECTORY_DOCUMENTS)
+            + "/" + FOLDER + "/" + directory + "/";
+    ContentResolver resolver = context.getContentResolver();
+    Uri uri = find(resolver, collection, relativePath, name);
+    if (uri == null) {
+      ContentValues values = new ContentValues();
+      values.put(MediaStore.MediaColumns.DISPLAY_NAME, name);
+      values.put(MediaStore.MediaColumns.MIME_TYPE, mimeType);
+      values.put(MediaStore.MediaColumns.RELATIVE_PATH, relativePath);
+      values.put(MediaStore.MediaColumns.IS_PENDING, 1);
+      uri = resolver.insert(collection, values);
+      if (uri == null) {
+        throw new IOException("Unable to create " + relativePath + name);
+      }
+    }
+    try (InputStream in = new FileInputStream(file);
+        OutputStream out = resolver.openOutputStream(uri, "wt")) {
+      if (out == null) {
+        throw new IOException("Unable to open " + uri);
+      }
+      if (aead == null) {
+        DirectoryExporter.copy(in, out);
+      } else {
+        OutputStream encrypting =
+            aead.newEncryptingStream(out, DirectoryExporter.associatedData(plainName));
+        DirectoryExporter.copy(in, encrypting);
+        encrypting.close();
+      }
+    }
+    ContentValues published = new ContentValues();
+    published.put(MediaStore.MediaColumns.IS_PENDING, 0);
+    resolver.update(uri, published, null, null);
+    return uri.toString();
+  }
+
+  // Includes files left pending by an export that was cut short.
+  private static Uri find(
+      ContentResolver resolver, Uri collection, String relativePath, String name) {
+    String[] projection = {MediaStore.MediaColumns._ID};
+    String selection =
+        MediaStore.MediaColumns.RELATIVE_PATH + " = ? AND "
+            + MediaStore.MediaColumns.DISPLAY_NAME + " = ?";
+    String[] selectionArgs = {relativePath, name};
+    Cursor cursor;
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+      Bundle queryArgs = new Bundle();
+      queryArgs.putString(ContentResolver.QUERY_ARG_SQL_SELECTION, selection);
+      queryArgs.putStringArray(ContentResolver.QUERY_ARG_SQL_SELECTION_ARGS, selectionArgs);
+      queryArgs.putInt(MediaStore.QUERY_ARG_MATCH_PENDING, MediaStore.MATCH_INCLUDE);
+      cursor = resolver.query(collection, projection, queryArgs, null);
+    } else {
+      cursor =
+          resolver.query(
+              MediaStore.setIncludePending(collection), projection, selection, selectionArgs, null);
+    }
+    if (cursor == null) {
+      return null;
+    }
+    try (Cursor found = cursor) {
+      return found.moveToFirst() ? ContentUris.withAppendedId(collection, found.getLong(0)) : null;
+    }
+  }
+
+  static String mimeType(String name) {
+    String lower = name.toLowerCase(Locale.US);
+    if (lower.endsWith(".png")) {
+      return "image/png";
+    } else if (lower.endsWith(".jpg") || lower.endsWith(".jpeg")) {
+      return "image/jpeg";
+    } else if (lower.endsWith(".webp")) {
+      return "image/webp";
+    }
+    return "application/octet-stream";
+  }
+}
@@ -0,0 +1,52 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * A ridge ending or bifurcation, in the pixel coordinates of its finger image.
+ *
+ * <p>The angle follows ISO/IEC 19794-2: counter-clockwise from the x axis, with y pointing down
+ * the image. An ending points into its ridge, and a bifurcation into the valley between its two
+ * branches, which is the same as the valley ending it forms.
+ */
+public final class Minutia {
+  /** The kind of a minutia. */
+  public enum Type {
+    ENDING,
+    BIFURCATION
+  }
+
+  public final Type type;
+  public final int x;
+  public final int y;
+  // In radians, in [0, 2 pi).
+  public final float angle;
+  // 0 (unknown) to 100.
+  public final int quality;
+
+  public Minutia(Type type, int x, int y, float angle, int quality) {
+    this.type = type;
+    this.x = x;
+    this.y = y;
+    this.angle = angle;
+    this.quality = quality;
+  }
+
+  @Override
+  public String toString() {
+    return type + "(" + x + ", " + y + ", " + Math.round(Math.toDegrees(angle)) + "deg, q" + quality
+        + ")";
+  }
+}
@@ -0,0 +1,225 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Benchmark of the on-device template pipeline: ridge estimation, enhancement, minutiae extraction
+ * and ISO/IEC 19794-2 encoding of finger images.
+ *
+ * <p>Each stage is timed on one thread, then whole captures of {@link
+ * SyntheticFingers#FINGERS_PER_CAPTURE} fingers are timed with the fingers processed in parallel,
+ * as the app does.
+ *
+ * <p>Runs on a desktop JVM:
+ *
+ * <pre>
+ *   MinutiaeBenchmark [--rounds N] [--threads N] [--seed S] [image.pgm ...]
+ * </pre>
+ *
+ * Images are 8-bit binary PGM finger crops, e.g. saved ROI images converted with any image tool.
+ * Without images, the {@link SyntheticFingers} of one capture are used as the corpus.
+ */
+public final class MinutiaeBenchmark {
+  private static final int FINGERS_PER_CAPTURE = SyntheticFingers.FINGERS_PER_CAPTURE;
+
+  private MinutiaeBenchmark() {}
+
+  /** The results of one benchmark run. */
+  public static final class Report {
+    public int images;
+    public long estimateNanos;
+    public long enhanceNanos;
+    public long extractNanos;
+    public long encodeNanos;
+    public long minutiae;
+    public long templateBytes;
+    public int captures;
+    public long captureNanos;
+
+    @Override
+    public String toString() {
+      double n = Math.max(1, images);
+      return String.format(
+          Locale.US,
+          "images=%d per finger: estimate=%.2fms enhance=%.2fms extract=%.2fms encode=%.3fms"
+              + " minutiae=%.1f templateBytes=%.0f | parallel capture of %d fingers=%.1fms",
+          images,
+          estimateNanos / n / 1e6,
+          enhanceNanos / n / 1e6,
+          extractNanos / n / 1e6,
+          encodeNanos / n / 1e6,
+          minutiae / n,
+          templateBytes / n,
+          FINGERS_PER_CAPTURE,
+          captures == 0 ? 0 : captureNanos / (double) captures / 1e6);
+    }
+  }
+
+  /** Runs the pipeline over {@code corpus} {@code rounds} times. */
+  public static Report run(List<GrayImage> corpus, int rounds, ExecutorService executor)
+      throws InterruptedException, ExecutionException {
+    RidgeEnhancer enhancer = new RidgeEnhancer(null, 1);
+    MinutiaeExtractor extractor = new MinutiaeExtractor();
+    Report report = new Report();
+    for (int round = 0; round < rounds; round++) {
+      for (GrayImage image : corpus) {
+        long start = System.nanoTime();
+        float[] normalized = new float[image.getWidth() * image.getHeight()];
+        RidgeEnhancer.Field field = enhancer.estimate(image, normalized);
+        long estimated = System.nanoTime();
+        GrayImage enhanced =
+            enhancer.enhance(normalized, image.getWidth(), image.getHeight(), field);
+        long enhancedAt = System.nanoTime();
+        List<Minutia> minutiae = extractor.extract(enhanced, field);
+        long extracted = System.nanoTime();
+        IsoMinutiaeTemplate template = new IsoMinutiaeTemplate();
+        template.addView(
+            0,
+            FingerQualityScorer.score(image, field).value,
+            MinutiaeExtractor.pixelsPerCm(field),
+            image.getWidth(),
+            image.getHeight(),
+            minutiae);
+        byte[] encoded = template.toByteArray();
+        long end = System.nanoTime();
+        report.images++;
+        report.estimateNanos += estimated - start;
+        report.enhanceNanos += enhancedAt - estimated;
+        report.extractNanos += extracted - enhancedAt;
+        report.encodeNanos += end - extracted;
+        report.minutiae += minutiae.size();
+        report.templateBytes += encoded.length;
+      }
+    }
+
+    for (int round = 0; round < rounds; round++) {
+      for (int first = 0; first < corpus.size(); first += FINGERS_PER_CAPTURE) {
+        List<Callable<Integer>> fingers = new ArrayList<>();
+        for (int i = 0; i < FINGERS_PER_CAPTURE; i++) {
+          GrayImage image = corpus.get((first + i) % corpus.size());
+          fingers.add(
+              () -> {
+                float[] normalized = new float[image.getWidth() * image.getHeight()];
+                RidgeEnhancer.Field field = enhancer.estimate(image, normalized);
+                GrayImage enhanced =
+                    enhancer.enhance(normalized, image.getWidth(), image.getHeight(), field);
+                return extractor.extract(enhanced, field).size();
+              });
+        }
+        long start = System.nanoTime();
+        for (Future<Integer> finger : executor.invokeAll(fingers)) {
+          finger.get();
+        }
+        report.captureNanos += System.nanoTime() - start;
+        report.captures++;
+      }
+    }
+    return report;
+  }
+
+  /** Reads an 8-bit binary PGM (P5) image. */
+  static GrayImage readPgm(File file) throws IOException {
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+      if (!"P5".equals(readToken(in))) {
+        throw new IOException(file + " is not a binary PGM image");
+      }
+      int width = Integer.parseInt(readToken(in));
+      int height = Integer.parseInt(readToken(in));
+      int maxValue = Integer.parseInt(readToken(in));
+      if (maxValue > 255) {
+        throw new IOException(file + " has more than 8 bits per pixel");
+      }
+      byte[] pixels = new byte[width * height];
+      new DataInputStream(in).readFully(pixels);
+      return new GrayImage(width, height, pixels);
+    }
+  }
+
+  // Reads a whitespace-separated header token, skipping comments, and the whitespace after it.
+  private static String readToken(InputStream in) throws IOException {
+    StringBuilder token = new StringBuilder();
+    int c;
+    while ((c = in.read()) != -1) {
+      if (c == '#' && token.length() == 0) {
+        while (c != -1 && c != '\n') {
+          c = in.read();
+        }
+      } else if (Character.isWhitespace(c)) {
+        if (token.length() > 0) {
+          break;
+        }
+      } else {
+        token.append((char) c);
+      }
+    }
+    return token.toString();
+  }
+
+  public static void main(String[] args)
+      throws IOException, InterruptedException, ExecutionException {
+    int rounds = 5;
+    int threads = Runtime.getRuntime().availableProcessors();
+    long seed = 42;
+    List<File> images = new ArrayList<>();
+    for (int i = 0; i < args.length; ++i) {
+      switch (args[i]) {
+        case "--rounds":
+          rounds = Integer.parseInt(args[++i]);
+          break;
+        case "--threads":
+          threads = Integer.parseInt(args[++i]);
+          break;
+        case "--seed":
+          seed = Long.parseLong(args[++i]);
+          break;
+        default:
+          images.add(new File(args[i]));
+      }
+    }
+    List<GrayImage> corpus = new ArrayList<>();
+    if (images.isEmpty()) {
+      corpus.addAll(SyntheticFingers.capture(new Random(seed)));
+    } else {
+      for (File image : images) {
+        corpus.add(readPgm(image));
+      }
+    }
+
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      // Warms up the JIT before the measured run.
+      run(corpus, 2, executor);
+      System.out.println(run(corpus, rounds, executor));
+    } finally {
+      executor.shutdown();
+    }
+  }
+}
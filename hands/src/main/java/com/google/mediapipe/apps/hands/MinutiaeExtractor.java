@@ -0,0 +1,351 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Extracts minutiae from a finger image enhanced by {@link RidgeEnhancer}.
+ *
+ * <p>The foreground blocks of the ridge field segment the finger. Ridges are binarized from the
+ * enhanced image, which is already centered on mid-gray, and thinned to one pixel with Zhang-Suen.
+ * Skeleton pixels with a crossing number of 1 are endings and of 3 bifurcations; their angle comes
+ * from tracing the skeleton a fixed distance. False minutiae are then pruned: those near the edge
+ * of the finger, where ridges end artificially, those in unclear blocks, and pairs closer than a
+ * ridge period, which are breaks, spurs and bridges rather than real features.
+ *
+ * <p>Instances hold no state and can be shared across threads.
+ */
+public final class MinutiaeExtractor {
+  // Minutiae are reported in templates with at most this many per finger.
+  static final int MAX_MINUTIAE = 255;
+  // Distance along the skeleton used to measure angles, in ridge periods.
+  private static final float TRACE_PERIODS = 1.5f;
+  // Minutiae closer than this to the background are dropped, in ridge periods.
+  private static final float BORDER_PERIODS = 1.5f;
+  // Pairs closer than this are dropped, in ridge periods.
+  private static final float MIN_DISTANCE_PERIODS = 1f;
+  private static final float MIN_CLARITY = 0.15f;
+  // Average distance between ridges on a fingertip, used to derive the image resolution.
+  static final float NOMINAL_RIDGE_PERIOD_CM = 0.048f;
+
+  // Neighbours of a pixel in clockwise order, starting north.
+  private static final int[] DX = {0, 1, 1, 1, 0, -1, -1, -1};
+  private static final int[] DY = {-1, -1, 0, 1, 1, 1, 0, -1};
+
+  /** Returns the minutiae of {@code enhanced}, best quality first. */
+  public List<Minutia> extract(GrayImage enhanced, RidgeEnhancer.Field field) {
+    int width = enhanced.getWidth();
+    int height = enhanced.getHeight();
+    byte[] pixels = enhanced.getPixels();
+    float period = medianPeriod(field);
+
+    byte[] skeleton = new byte[width * height];
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        int index = y * width + x;
+        boolean ridge = isForeground(field, x, y) && (pixels[index] & 0xff) < 128;
+        skeleton[index] = (byte) (ridge ? 1 : 0);
+      }
+    }
+    thin(skeleton, width, height);
+
+    int traceSteps = Math.max(3, Math.round(TRACE_PERIODS * period));
+    int border = Math.round(BORDER_PERIODS * period);
+    List<Minutia> candidates = new ArrayList<>();
+    for (int y = 1; y < height - 1; y++) {
+      for (int x = 1; x < width - 1; x++) {
+        if (skeleton[y * width + x] == 0) {
+          continue;
+        }
+        int crossings = crossingNumber(skeleton, width, x, y);
+        if (crossings != 1 && crossings != 3) {
+          continue;
+        }
+        if (nearBackground(field, width, height, x, y, border)) {
+          continue;
+        }
+        int block = (y / RidgeEnhancer.BLOCK_SIZE) * field.blocksX + x / RidgeEnhancer.BLOCK_SIZE;
+        float clarity = field.clarity[block];
+        if (clarity < MIN_CLARITY) {
+          continue;
+        }
+        float angle =
+            crossings == 1
+                ? endingAngle(skeleton, width, height, x, y, traceSteps)
+                : bifurcationAngle(skeleton, width, height, x, y, traceSteps);
+        if (Float.isNaN(angle)) {
+          continue;
+        }
+        candidates.add(
+            new Minutia(
+                crossings == 1 ? Minutia.Type.ENDING : Minutia.Type.BIFURCATION,
+                x,
+                y,
+                angle,
+                Math.max(1, Math.round(100 * clarity * field.coherence[block]))));
+      }
+    }
+
+    List<Minutia> minutiae = prunePairs(candidates, MIN_DISTANCE_PERIODS * period);
+    Collections.sort(minutiae, (a, b) -> b.quality - a.quality);
+    return minutiae.size() > MAX_MINUTIAE ? minutiae.subList(0, MAX_MINUTIAE) : minutiae;
+  }
+
+  /** Returns the resolution of a finger image, from its ridge period. */
+  public static float pixelsPerCm(RidgeEnhancer.Field field) {
+    return medianPeriod(field) / NOMINAL_RIDGE_PERIOD_CM;
+  }
+
+  private static float medianPeriod(RidgeEnhancer.Field field) {
+    float[] periods = new float[field.period.length];
+    int count = 0;
+    for (int block = 0; block < periods.length; block++) {
+      if (field.foreground[block] && field.periodMeasured[block]) {
+        periods[count++] = field.period[block];
+      }
+    }
+    if (count == 0) {
+      return RidgeEnhancer.DEFAULT_PERIOD;
+    }
+    Arrays.sort(periods, 0, count);
+    return periods[count / 2];
+  }
+
+  private static boolean isForeground(RidgeEnhancer.Field field, int x, int y) {
+    return field.foreground[
+        (y / RidgeEnhancer.BLOCK_SIZE) * field.blocksX + x / RidgeEnhancer.BLOCK_SIZE];
+  }
+
+  // Whether any pixel within distance of (x, y) along the axes is background or off the image.
+  private static boolean nearBackground(
+      RidgeEnhancer.Field field, int width, int height, int x, int y, int distance) {
+    int x0 = x - distance;
+    int y0 = y - distance;
+    int x1 = x + distance;
+    int y1 = y + distance;
+    if (x0 < 0 || y0 < 0 || x1 >= width || y1 >= height) {
+      return true;
+    }
+    for (int by = y0 / RidgeEnhancer.BLOCK_SIZE; by <= y1 / RidgeEnhancer.BLOCK_SIZE; by++) {
+      for (int bx = x0 / RidgeEnhancer.BLOCK_SIZE; bx <= x1 / RidgeEnhancer.BLOCK_SIZE; bx++) {
+        if (!field.foreground[by * field.blocksX + bx]) {
+          return true;
+        }
+      }
+    }
+    return false;
+  }
+
+  // Zhang-Suen thinning of a 0/1 image, in place.
+  static void thin(byte[] image, int width, int height) {
+    int[] removals = new int[width * height];
+    boolean changed = true;
+    while (changed) {
+      changed = false;
+      for (int pass = 0; pass < 2; pass++) {
+        int removalCount = 0;
+        for (int y = 1; y < height - 1; y++) {
+          for (int x = 1; x < width - 1; x++) {
+            int index = y * width + x;
+            if (image[index] == 0) {
+              continue;
+            }
+            int p2 = image[index - width];
+            int p3 = image[index - width + 1];
+            int p4 = image[index + 1];
+            int p5 = image[index + width + 1];
+            int p6 = image[index + width];
+            int p7 = image[index + width - 1];
+            int p8 = image[index - 1];
+            int p9 = image[index - width - 1];
+            int neighbours = p2 + p3 + p4 + p5 + p6 + p7 + p8 + p9;
+            if (neighbours < 2 || neighbours > 6) {
+              continue;
+            }
+            int transitions =
+                (p2 == 0 && p3 == 1 ? 1 : 0)
+                    + (p3 == 0 && p4 == 1 ? 1 : 0)
+                    + (p4 == 0 && p5 == 1 ? 1 : 0)
+                    + (p5 == 0 && p6 == 1 ? 1 : 0)
+                    + (p6 == 0 && p7 == 1 ? 1 : 0)
+                    + (p7 == 0 && p8 == 1 ? 1 : 0)
+                    + (p8 == 0 && p9 == 1 ? 1 : 0)
+                    + (p9 == 0 && p2 == 1 ? 1 : 0);
+            if (transitions != 1) {
+              continue;
+            }
+            boolean remove =
+                pass == 0
+                    ? p2 * p4 * p6 == 0 && p4 * p6 * p8 == 0
+                    : p2 * p4 * p8 == 0 && p2 * p6 * p8 == 0;
+            if (remove) {
+              removals[removalCount++] = index;
+            }
+          }
+        }
+        for (int i = 0; i < removalCount; i++) {
+          image[removals[i]] = 0;
+        }
+        changed |= removalCount > 0;
+      }
+    }
+  }
+
+  // Half the number of value changes around the 8-neighbourhood of a skeleton pixel.
+  private static int crossingNumber(byte[] skeleton, int width, int x, int y) {
+    int changes = 0;
+    for (int i = 0; i < 8; i++) {
+      int a = skeleton[(y + DY[i]) * width + x + DX[i]];
+      int b = skeleton[(y + DY[(i + 1) % 8]) * width + x + DX[(i + 1) % 8]];
+      changes += Math.abs(a - b);
+    }
+    return changes / 2;
+  }
+
+  private static float endingAngle(
+      byte[] skeleton, int width, int height, int x, int y, int steps) {
+    for (int i = 0; i < 8; i++) {
+      if (skeleton[(y + DY[i]) * width + x + DX[i]] != 0) {
+        int[] end = trace(skeleton, width, height, x, y, x + DX[i], y + DY[i], steps);
+        return angle(x, y, end[0], end[1]);
+      }
+    }
+    return Float.NaN;
+  }
+
+  // Points between the two branches closest in direction, away from the third.
+  private static float bifurcationAngle(
+      byte[] skeleton, int width, int height, int x, int y, int steps) {
+    float[] branches = new float[3];
+    int count = 0;
+    int previous = skeleton[(y + DY[7]) * width + x + DX[7]];
+    for (int i = 0; i < 8 && count < 3; i++) {
+      int current = skeleton[(y + DY[i]) * width + x + DX[i]];
+      // Follows the first pixel of each run of neighbours, one per branch.
+      if (current != 0 && previous == 0) {
+        int[] end = trace(skeleton, width, height, x, y, x + DX[i], y + DY[i], steps);
+        branches[count++] = angle(x, y, end[0], end[1]);
+      }
+      previous = current;
+    }
+    if (count < 3) {
+      return Float.NaN;
+    }
+    int stem = 0;
+    float widest = -1;
+    for (int i = 0; i < 3; i++) {
+      float separation =
+          Math.min(
+              angularDistance(branches[i], branches[(i + 1) % 3]),
+              angularDistance(branches[i], branches[(i + 2) % 3]));
+      if (separation > widest) {
+        widest = separation;
+        stem = i;
+      }
+    }
+    return normalize(branches[stem] + (float) Math.PI);
+  }
+
+  // Follows the skeleton from (fromX, fromY) through (x, y) for up to steps pixels, stopping at
+  // junctions; returns the last pixel reached.
+  private static int[] trace(
+      byte[] skeleton, int width, int height, int fromX, int fromY, int x, int y, int steps) {
+    int previousX = fromX;
+    int previousY = fromY;
+    int beforeX = fromX;
+    int beforeY = fromY;
+    for (int step = 1; step < steps; step++) {
+      int nextX = -1;
+      int nextY = -1;
+      int options = 0;
+      for (int i = 0; i < 8; i++) {
+        int nx = x + DX[i];
+        int ny = y + DY[i];
+        if (nx < 0 || ny < 0 || nx >= width || ny >= height || skeleton[ny * width + nx] == 0) {
+          continue;
+        }
+        // Skips the pixels just visited and their neighbours on the path.
+        if ((nx == previousX && ny == previousY) || (nx == beforeX && ny == beforeY)) {
+          continue;
+        }
+        if (Math.abs(nx - previousX) <= 1 && Math.abs(ny - previousY) <= 1) {
+          continue;
+        }
+        options++;
+        nextX = nx;
+        nextY = ny;
+      }
+      if (options != 1) {
+        break;
+      }
+      beforeX = previousX;
+      beforeY = previousY;
+      previousX = x;
+      previousY = y;
+      x = nextX;
+      y = nextY;
+    }
+    return new int[] {x, y};
+  }
+
+  private static List<Minutia> prunePairs(List<Minutia> candidates, float minDistance) {
+    int count = candidates.size();
+    boolean[] dropped = new boolean[count];
+    float limit = minDistance * minDistance;
+    for (int i = 0; i < count; i++) {
+      Minutia a = candidates.get(i);
+      for (int j = i + 1; j < count; j++) {
+        Minutia b = candidates.get(j);
+        // Candidates are in raster order, so later ones are never far above.
+        if (b.y - a.y > minDistance) {
+          break;
+        }
+        float dx = a.x - b.x;
+        float dy = a.y - b.y;
+        if (dx * dx + dy * dy < limit) {
+          dropped[i] = true;
+          dropped[j] = true;
+        }
+      }
+    }
+    List<Minutia> kept = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      if (!dropped[i]) {
+        kept.add(candidates.get(i));
+      }
+    }
+    return kept;
+  }
+
+  // Angle of the vector from (x, y) to (toX, toY), counter-clockwise with y pointing down.
+  private static float angle(int x, int y, int toX, int toY) {
+    return normalize((float) Math.atan2(y - toY, toX - x));
+  }
+
+  private static float angularDistance(float a, float b) {
+    float d = Math.abs(a - b) % (float) (2 * Math.PI);
+    return d > Math.PI ? (float) (2 * Math.PI) - d : d;
+  }
+
+  private static float normalize(float angle) {
+    float twoPi = (float) (2 * Math.PI);
+    angle %= twoPi;
+    return angle < 0 ? angle + twoPi : angle;
+  }
+}
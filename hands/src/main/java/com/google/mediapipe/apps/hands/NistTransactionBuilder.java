@@ -0,0 +1,433 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.RandomAccessFile;
+import java.io.SequenceInputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Builds an ANSI/NIST-ITL 1-2011 transaction, traditional encoding, of one set of fingers.
+ *
+ * <p>Each finger is appended as a Type-14 record to a body file as soon as it is captured, so
+ * memory use does not grow with the number of fingers and a set may span several captures, or
+ * app restarts: {@link #open} recovers the records already in the body and drops a torn last one.
+ * The Type-1 record, which lists every other record, can only be written once the set is known,
+ * so {@link #writeTo} streams it followed by the body into a {@link CaptureWriteQueue}
+ * transaction. Finger positions use the ANSI/NIST codes, which the capture finger numbers already
+ * follow.
+ *
+ * <p>A finger captured again, e.g. a retake, replaces the earlier record of its position. The body
+ * stays append-only, so that a rollback brings the earlier record back; superseded records are
+ * only left out when the transaction is written.
+ */
+public final class NistTransactionBuilder {
+  static final String BODY_SUFFIX = ".body";
+  static final String EXTENSION = "an2";
+  static final String COMPRESSION_NONE = "NONE";
+  static final String COMPRESSION_PNG = "PNG";
+
+  private static final String VERSION = "0500";
+  private static final char FS = 0x1c;
+  private static final char GS = 0x1d;
+  private static final char RS = 0x1e;
+  private static final char US = 0x1f;
+  // Live-scan optical contactless plain.
+  private static final int IMPRESSION_TYPE = 24;
+  // THPS and TVPS are in pixels per centimeter.
+  private static final int SCALE_UNITS = 2;
+  private static final int BITS_PER_PIXEL = 8;
+  // The quality algorithm is not registered with IBIA.
+  private static final String QUALITY_VENDOR = "0000";
+  private static final String QUALITY_ALGORITHM = "0";
+  // Native scanning resolution and transmitting resolution, for images that are not scanned.
+  private static final String NO_RESOLUTION = "00.00";
+  // The positions of a complete set; thumbs are not captured.
+  private static final int[] SET_POSITIONS = {2, 3, 4, 5, 7, 8, 9, 10};
+  // The tagged fields of a Type-14 record, which precede the image data, fit in this many bytes.
+  private static final int MAX_FIELDS_LENGTH = 1024;
+
+  /** The fields of the Type-1 record that identify the transaction and its agencies. */
+  public static final class Header {
+    final String transactionType;
+    final String destinationAgency;
+    final String originatingAgency;
+
+    /**
+     * @param transactionType the TOT, e.g. "CAR", as agreed with the receiving agency.
+     * @param destinationAgency the DAI, the identifier of the receiving agency.
+     * @param originatingAgency the ORI, the identifier of this agency.
+     */
+    public Header(String transactionType, String destinationAgency, String originatingAgency) {
+      this.transactionType = checkValue(transactionType);
+      this.destinationAgency = checkValue(destinationAgency);
+      this.originatingAgency = checkValue(originatingAgency);
+    }
+  }
+
+  // The tagged fields of one record.
+  private static final class Record {
+    final int type;
+    final StringBuilder fields = new StringBuilder();
+
+    Record(int type) {
+      this.type = type;
+    }
+
+    Record add(int field, Object value) {
+      fields.append(GS).append(String.format(Locale.US, "%d.%03d:", type, field)).append(value);
+      return this;
+    }
+
+    // Returns the record with its length field, followed by {@code data} in field 999 if not null.
+    byte[] toByteArray(byte[] data) {
+      byte[] ascii = fields.toString().getBytes(StandardCharsets.US_ASCII);
+      String dataTag = GS + Integer.toString(type) + ".999:";
+      int rest = ascii.length + (data != null ? dataTag.length() + data.length : 0) + 1;
+      String lengthTag = type + ".001:";
+      int length = lengthTag.length() + rest;
+      while (lengthTag.length() + Integer.toString(length).length() + rest != length) {
+        length = lengthTag.length() + Integer.toString(length).length() + rest;
+      }
+      ByteArrayOutputStream out = new ByteArrayOutputStream(length);
+      byte[] head = (lengthTag + length).getBytes(StandardCharsets.US_ASCII);
+      out.write(head, 0, head.length);
+      out.write(ascii, 0, ascii.length);
+      if (data != null) {
+        byte[] tag = dataTag.getBytes(StandardCharsets.US_ASCII);
+        out.write(tag, 0, tag.length);
+        out.write(data, 0, data.length);
+      }
+      out.write(FS);
+      return out.toByteArray();
+    }
+  }
+
+  private final File body;
+  private final Header header;
+  // The position and the offset in the body of every record, including superseded ones.
+  private final List<Integer> positions = new ArrayList<>();
+  private final List<Long> offsets = new ArrayList<>();
+  private long length;
+  private int openedCount;
+  private long openedLength;
+
+  private NistTransactionBuilder(File body, Header header) {
+    this.body = body;
+    this.header = header;
+  }
+
+  /** Returns the body file of set {@code setNo} of {@code subjectId} in {@code dir}. */
+  static File bodyFile(File dir, String subjectId, String setNo) {
+    return new File(new File(dir, subjectId), setNo + BODY_SUFFIX);
+  }
+
+  /** Returns the body files in {@code dir}, of every subject and set. */
+  static List<File> findBodies(File dir) {
+    List<File> bodies = new ArrayList<>();
+    File[] subjects = dir.listFiles(File::isDirectory);
+    if (subjects != null) {
+      for (File subject : subjects) {
+        File[] files = subject.listFiles((d, name) -> name.endsWith(BODY_SUFFIX));
+        if (files != null) {
+          for (File file : files) {
+            bodies.add(file);
+          }
+        }
+      }
+    }
+    return bodies;
+  }
+
+  /** Opens the transaction in {@code body}, recovering the fingers already appended to it. */
+  public static NistTransactionBuilder open(File body, Header header) throws IOException {
+    File dir = body.getParentFile();
+    if (!dir.isDirectory() && !dir.mkdirs()) {
+      throw new IOException("Unable to create " + dir);
+    }
+    NistTransactionBuilder builder = new NistTransactionBuilder(body, header);
+    if (body.exists()) {
+      builder.recover();
+    }
+    builder.openedCount = builder.positions.size();
+    builder.openedLength = builder.length;
+    return builder;
+  }
+
+  private void recover() throws IOException {
+    try (RandomAccessFile file = new RandomAccessFile(body, "rw")) {
+      long fileLength = file.length();
+      byte[] buffer = new byte[MAX_FIELDS_LENGTH];
+      while (length < fileLength) {
+        int n = (int) Math.min(buffer.length, fileLength - length);
+        file.seek(length);
+        file.readFully(buffer, 0, n);
+        String fields = new String(buffer, 0, n, StandardCharsets.ISO_8859_1);
+        int end = fields.indexOf(GS + "14.999:");
+        String recordLength = end < 0 ? null : field(fields.substring(0, end), "14.001:");
+        String position = end < 0 ? null : field(fields.substring(0, end), "14.013:");
+        if (recordLength == null || position == null) {
+          break;
+        }
+        long next;
+        try {
+          next = length + Long.parseLong(recordLength);
+          positions.add(Integer.parseInt(position));
+        } catch (NumberFormatException e) {
+          break;
+        }
+        if (next > fileLength) {
+          positions.remove(positions.size() - 1);
+          break;
+        }
+        offsets.add(length);
+        length = next;
+      }
+      if (length < fileLength) {
+        // The last record was torn by a crash while it was appended.
+        file.setLength(length);
+      }
+    }
+  }
+
+  // Returns the value of the field with {@code tag} among GS-separated {@code fields}, or null.
+  private static String field(String fields, String tag) {
+    for (String field : fields.split(String.valueOf(GS))) {
+      if (field.startsWith(tag)) {
+        return field.substring(tag.length());
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Appends the Type-14 record of one finger image and syncs it to storage. It replaces any
+   * earlier record of the same position.
+   *
+   * @param position the finger position, 1 to 10.
+   * @param pixelsPerCm the resolution of the image.
+   * @param quality the finger quality, 0-100.
+   * @param compression {@link #COMPRESSION_PNG} or {@link #COMPRESSION_NONE} for raw 8-bit pixels.
+   */
+  public void addFinger(
+      int position,
+      int width,
+      int height,
+      float pixelsPerCm,
+      int quality,
+      String compression,
+      byte[] data,
+      long capturedAtMs)
+      throws IOException {
+    int ppcm = Math.round(pixelsPerCm);
+    byte[] record =
+        new Record(14)
+            .add(2, idc(positions.size()))
+            .add(3, IMPRESSION_TYPE)
+            .add(4, header.originatingAgency)
+            .add(5, date(capturedAtMs))
+            .add(6, width)
+            .add(7, height)
+            .add(8, SCALE_UNITS)
+            .add(9, ppcm)
+            .add(10, ppcm)
+            .add(11, compression)
+            .add(12, BITS_PER_PIXEL)
+            .add(13, position)
+            .add(
+                24,
+                position
+                    + "" + US + Math.max(0, Math.min(100, quality))
+                    + US + QUALITY_VENDOR
+                    + US + QUALITY_ALGORITHM)
+            .toByteArray(data);
+    try (FileOutputStream out = new FileOutputStream(body, true)) {
+      out.write(record);
+      out.getFD().sync();
+    }
+    offsets.add(length);
+    length += record.length;
+    positions.add(position);
+  }
+
+  /** Removes the fingers appended since the transaction was opened. */
+  public void rollback() throws IOException {
+    if (openedLength == 0) {
+      body.delete();
+    } else {
+      try (RandomAccessFile file = new RandomAccessFile(body, "rw")) {
+        file.setLength(openedLength);
+      }
+    }
+    positions.subList(openedCount, positions.size()).clear();
+    offsets.subList(openedCount, offsets.size()).clear();
+    length = openedLength;
+  }
+
+  /** Returns the number of fingers, counting each position once. */
+  public int getFingerCount() {
+    return currentRecords().size();
+  }
+
+  // The indices of the records not superseded by a later one of the same position, in order.
+  private List<Integer> currentRecords() {
+    List<Integer> current = new ArrayList<>();
+    for (int i = 0; i < positions.size(); i++) {
+      if (positions.lastIndexOf(positions.get(i)) == i) {
+        current.add(i);
+      }
+    }
+    return current;
+  }
+
+  /** Returns whether every finger of a set has been appended. */
+  public boolean isComplete() {
+    for (int position : SET_POSITIONS) {
+      if (!positions.contains(position)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Writes the whole transaction, the Type-1 record followed by the fingers, to {@code
+   * transaction}, reading the fingers back from the body in constant memory. The body is kept
+   * until {@link #delete} is called, once the transaction has committed.
+   *
+   * @param controlNumber the TCN, unique to this transaction.
+   * @return the journal file.
+   */
+  public File writeTo(
+      CaptureWriteQueue.Transaction transaction, String name, String controlNumber, long timeMs)
+      throws IOException {
+    List<Integer> current = currentRecords();
+    long[] starts = new long[current.size()];
+    long[] ends = new long[current.size()];
+    long recordsLength = 0;
+    StringBuilder content = new StringBuilder("1").append(US).append(current.size());
+    for (int r = 0; r < current.size(); r++) {
+      int i = current.get(r);
+      // Each record keeps the IDC it was appended with.
+      content.append(RS).append("14").append(US).append(idc(i));
+      starts[r] = offsets.get(i);
+      ends[r] = i + 1 < offsets.size() ? offsets.get(i + 1) : length;
+      recordsLength += ends[r] - starts[r];
+    }
+    byte[] type1 =
+        new Record(1)
+            .add(2, VERSION)
+            .add(3, content)
+            .add(4, header.transactionType)
+            .add(5, date(timeMs))
+            .add(7, header.destinationAgency)
+            .add(8, header.originatingAgency)
+            .add(9, checkValue(controlNumber))
+            .add(11, NO_RESOLUTION)
+            .add(12, NO_RESOLUTION)
+            .toByteArray(null);
+    try (InputStream in =
+        new SequenceInputStream(
+            new ByteArrayInputStream(type1), new RangesInputStream(body, starts, ends))) {
+      return transaction.write(name, in, type1.length + recordsLength);
+    }
+  }
+
+  /** Deletes the body, and its directory once it holds no other set. */
+  public void delete() {
+    body.delete();
+    body.getParentFile().delete();
+  }
+
+  // Reads the byte ranges [starts[i], ends[i]) of a file in turn.
+  private static final class RangesInputStream extends InputStream {
+    private final RandomAccessFile file;
+    private final long[] starts;
+    private final long[] ends;
+    private int range;
+    private long position;
+
+    RangesInputStream(File file, long[] starts, long[] ends) throws IOException {
+      this.file = new RandomAccessFile(file, "r");
+      this.starts = starts;
+      this.ends = ends;
+      this.position = starts.length > 0 ? starts[0] : 0;
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (range < starts.length && position == ends[range]) {
+        if (++range < starts.length) {
+          position = starts[range];
+        }
+      }
+      if (range == starts.length) {
+        return -1;
+      }
+      file.seek(position);
+      int n = file.read(b, off, (int) Math.min(len, ends[range] - position));
+      if (n < 0) {
+        throw new EOFException("Truncated transaction body");
+      }
+      position += n;
+      return n;
+    }
+
+    @Override
+    public void close() throws IOException {
+      file.close();
+    }
+  }
+
+  // The IDC of the record of finger {@code index}; 0 is left to the Type-1 record.
+  private static String idc(int index) {
+    return String.format(Locale.US, "%02d", index + 1);
+  }
+
+  private static String date(long timeMs) {
+    return new SimpleDateFormat("yyyyMMdd", Locale.US).format(timeMs);
+  }
+
+  private static String checkValue(String value) {
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c < 0x20 || c > 0x7e) {
+        throw new IllegalArgumentException("Invalid character in ANSI/NIST field: " + value);
+      }
+    }
+    return value;
+  }
+}
@@ -0,0 +1,147 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * Cuts a fingertip out of a frame as an upright, fixed-size image in one resampling pass.
+ *
+ * <p>The rectangle follows the finger: its long axis runs along the DIP to TIP direction, with
+ * the fingertip at the top of the output, and its size is proportional to the palm width, so the
+ * finger fills the output the same way at any distance or roll. Every output pixel is sampled
+ * bilinearly straight from the source at the target resolution; there are no intermediate crops,
+ * scales or full-frame rotations.
+ */
+public final class OrientedRoiExtractor {
+  // The index to little finger MCP distance spans about three finger widths; the ROI is a bit
+  // wider than one finger.
+  static final float WIDTH_PER_PALM_WIDTH = 0.45f;
+  // Space kept beyond the fingertip, in ROI widths.
+  static final float TIP_MARGIN = 0.15f;
+  /** The size captured fingers are extracted at. */
+  static final int FINGER_WIDTH = 350;
+  static final int FINGER_HEIGHT = 500;
+
+  private final int outputWidth;
+  private final int outputHeight;
+
+  /** Creates an extractor of portrait images {@code outputWidth} x {@code outputHeight}. */
+  public OrientedRoiExtractor(int outputWidth, int outputHeight) {
+    this.outputWidth = outputWidth;
+    this.outputHeight = outputHeight;
+  }
+
+  public int getOutputWidth() {
+    return outputWidth;
+  }
+
+  public int getOutputHeight() {
+    return outputHeight;
+  }
+
+  /** Returns the DIP landmark of the finger ending at {@code tip}. */
+  static int dipOf(int tip) {
+    return tip - 1;
+  }
+
+  /** Extracts the finger ending at {@code tip} of {@code hand} into a new image. */
+  public GrayImage extract(GraySource source, LandmarkFrame frame, int hand, int tip) {
+    GrayImage out = new GrayImage(outputWidth, outputHeight);
+    extract(source, frame, hand, tip, out);
+    return out;
+  }
+
+  /**
+   * Extracts the finger ending at {@code tip} of {@code hand} into {@code out}, which must be
+   * {@link #getOutputWidth} x {@link #getOutputHeight}.
+   *
+   * @param frame landmarks normalized to the upright coordinates of {@code source}.
+   */
+  public void extract(GraySource source, LandmarkFrame frame, int hand, int tip, GrayImage out) {
+    int width = source.getUprightWidth();
+    int height = source.getUprightHeight();
+    float tipX = frame.getX(hand, tip) * width;
+    float tipY = frame.getY(hand, tip) * height;
+    float dipX = frame.getX(hand, dipOf(tip)) * width;
+    float dipY = frame.getY(hand, dipOf(tip)) * height;
+
+    // Unit vector from the DIP joint towards the tip, and its right-hand normal.
+    float dx = tipX - dipX;
+    float dy = tipY - dipY;
+    float length = (float) Math.sqrt(dx * dx + dy * dy);
+    if (length < 1f) {
+      dx = 0;
+      dy = -1;
+    } else {
+      dx /= length;
+      dy /= length;
+    }
+    float nx = -dy;
+    float ny = dx;
+
+    float palmX =
+        (frame.getX(hand, LandmarkFrame.PINKY_MCP) - frame.getX(hand, LandmarkFrame.INDEX_FINGER_MCP))
+            * width;
+    float palmY =
+        (frame.getY(hand, LandmarkFrame.PINKY_MCP) - frame.getY(hand, LandmarkFrame.INDEX_FINGER_MCP))
+            * height;
+    float roiWidth =
+        Math.max(length, (float) Math.sqrt(palmX * palmX + palmY * palmY) * WIDTH_PER_PALM_WIDTH);
+    float roiHeight = roiWidth * outputHeight / outputWidth;
+
+    // Middle of the top edge, just beyond the tip; output rows run from there towards the palm.
+    float topX = tipX + dx * TIP_MARGIN * roiWidth;
+    float topY = tipY + dy * TIP_MARGIN * roiWidth;
+    float stepUx = nx * roiWidth / outputWidth;
+    float stepUy = ny * roiWidth / outputWidth;
+    float stepVx = -dx * roiHeight / outputHeight;
+    float stepVy = -dy * roiHeight / outputHeight;
+    float originX = topX - nx * roiWidth / 2 + (stepUx + stepVx) / 2;
+    float originY = topY - ny * roiWidth / 2 + (stepUy + stepVy) / 2;
+
+    byte[] pixels = out.getPixels();
+    for (int j = 0; j < outputHeight; j++) {
+      float x = originX + j * stepVx;
+      float y = originY + j * stepVy;
+      int row = j * outputWidth;
+      for (int i = 0; i < outputWidth; i++) {
+        pixels[row + i] = (byte) sampleBilinear(source, x, y, width, height);
+        x += stepUx;
+        y += stepUy;
+      }
+    }
+  }
+
+  // Samples at continuous coordinates where pixel (k, l) covers [k, k + 1) x [l, l + 1),
+  // clamping to the edge of the source.
+  private static int sampleBilinear(GraySource source, float x, float y, int width, int height) {
+    float fx = x - 0.5f;
+    float fy = y - 0.5f;
+    int x0 = (int) Math.floor(fx);
+    int y0 = (int) Math.floor(fy);
+    float ax = fx - x0;
+    float ay = fy - y0;
+    int xa = clamp(x0, width);
+    int xb = clamp(x0 + 1, width);
+    int ya = clamp(y0, height);
+    int yb = clamp(y0 + 1, height);
+    float top = source.getUpright(xa, ya) * (1 - ax) + source.getUpright(xb, ya) * ax;
+    float bottom = source.getUpright(xa, yb) * (1 - ax) + source.getUpright(xb, yb) * ax;
+    return (int) (top * (1 - ay) + bottom * ay + 0.5f);
+  }
+
+  private static int clamp(int value, int size) {
+    return value < 0 ? 0 : value >= size ? size - 1 : value;
+  }
+}
@@ -0,0 +1,102 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.util.Map;
+
+/**
+ * Writes raw 8-bit samples as binary PGM files, with metadata in header comments. The fastest
+ * format and the largest; the header makes the files readable by common image tools.
+ */
+public final class PgmEncoder implements FingerImageEncoder {
+  private static final Charset LATIN_1 = Charset.forName("ISO-8859-1");
+
+  @Override
+  public String getName() {
+    return "raw";
+  }
+
+  @Override
+  public String getExtension() {
+    return "pgm";
+  }
+
+  @Override
+  public boolean isLossless() {
+    return true;
+  }
+
+  @Override
+  public byte[] encode(GrayImage image, Map<String, String> metadata) {
+    StringBuilder header = new StringBuilder("P5\n");
+    for (Map.Entry<String, String> entry : metadata.entrySet()) {
+      header
+          .append("# ")
+          .append(entry.getKey())
+          .append(": ")
+          .append(entry.getValue().replace('\n', ' '))
+          .append('\n');
+    }
+    header.append(image.getWidth()).append(' ').append(image.getHeight()).append("\n255\n");
+    byte[] headerBytes = header.toString().getBytes(LATIN_1);
+    int samples = image.getWidth() * image.getHeight();
+    ByteArrayOutputStream out = new ByteArrayOutputStream(headerBytes.length + samples);
+    out.write(headerBytes, 0, headerBytes.length);
+    out.write(image.getPixels(), 0, samples);
+    return out.toByteArray();
+  }
+
+  @Override
+  public GrayImage decode(byte[] data) throws IOException {
+    int[] position = {0};
+    if (!"P5".equals(readToken(data, position))) {
+      throw new IOException("Not a binary PGM file");
+    }
+    int width = Integer.parseInt(readToken(data, position));
+    int height = Integer.parseInt(readToken(data, position));
+    if (Integer.parseInt(readToken(data, position)) > 255) {
+      throw new IOException("PGM file has more than 8 bits per sample");
+    }
+    if (data.length - position[0] < width * height) {
+      throw new IOException("Truncated PGM file");
+    }
+    GrayImage image = new GrayImage(width, height);
+    System.arraycopy(data, position[0], image.getPixels(), 0, width * height);
+    return image;
+  }
+
+  // Reads a header token, skipping comments, and the single whitespace after it.
+  private static String readToken(byte[] data, int[] position) throws IOException {
+    StringBuilder token = new StringBuilder();
+    while (position[0] < data.length) {
+      char c = (char) data[position[0]++];
+      if (c == '#' && token.length() == 0) {
+        while (position[0] < data.length && data[position[0]] != '\n') {
+          position[0]++;
+        }
+      } else if (Character.isWhitespace(c)) {
+        if (token.length() > 0) {
+          return token.toString();
+        }
+      } else {
+        token.append(c);
+      }
+    }
+    throw new IOException("Truncated PGM header");
+  }
+}
@@ -0,0 +1,205 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Moves the capture pipeline between performance {@link Tier}s as the device heats up or its
+ * battery runs down, so that long enrollment shifts stay within the thermal budget.
+ *
+ * <p>Each reading of a {@link Source} maps to a target tier: the thermal status, which follows
+ * the levels of {@code PowerManager.THERMAL_STATUS_*}, and the battery level when not charging
+ * each ask for a tier, and the most restricted one wins. Restrictions apply at once; relaxing is
+ * done one tier at a time, and only after the target has stayed lower for {@link
+ * #RECOVERY_DWELL_MS}, so that a device hovering around a threshold does not flap between tiers.
+ *
+ * <p>Every transition is logged with its reason and the time spent in the previous tier, and the
+ * time spent in each tier is reported by {@link #toString}. Times come with the readings, so a
+ * {@link SimulatedThermalSource} can drive the policy through hours of a shift in seconds. All
+ * methods are thread-safe; the listener is called on the thread that delivered the reading.
+ */
+public final class PipelineGovernor {
+  private static final String TAG = "PipelineGovernor";
+  static final long RECOVERY_DWELL_MS = 60_000;
+
+  public static final int THERMAL_STATUS_NONE = 0;
+  public static final int THERMAL_STATUS_LIGHT = 1;
+  public static final int THERMAL_STATUS_MODERATE = 2;
+  public static final int THERMAL_STATUS_SEVERE = 3;
+
+  // Battery levels, in percent and when not charging, below which tiers 1, 2 and 3 are asked for.
+  private static final int[] BATTERY_THRESHOLDS = {30, 15, 5};
+
+  /** One performance tier of the pipeline. */
+  public static final class Tier {
+    public final String name;
+    // One camera frame in frameSkip is processed.
+    public final int frameSkip;
+    // The widest preview the resolution controller may pick.
+    public final int maxPreviewWidth;
+    public final int maxNumHands;
+    public final boolean torchAllowed;
+
+    public Tier(
+        String name, int frameSkip, int maxPreviewWidth, int maxNumHands, boolean torchAllowed) {
+      this.name = name;
+      this.frameSkip = frameSkip;
+      this.maxPreviewWidth = maxPreviewWidth;
+      this.maxNumHands = maxNumHands;
+      this.torchAllowed = torchAllowed;
+    }
+
+    @Override
+    public String toString() {
+      return name + "{skip=" + frameSkip + " width<=" + maxPreviewWidth + " hands="
+          + maxNumHands + " torch=" + torchAllowed + "}";
+    }
+  }
+
+  /** Notified when the governor moves to another tier. */
+  public interface Listener {
+    void onTierChanged(Tier tier, String reason);
+  }
+
+  /**
+   * Reports the thermal status and battery level of the device, periodically and not only on
+   * changes, as relaxing needs readings that show the target has stayed lower for a while.
+   */
+  public interface Source {
+    /** Receives readings, on the thread of the source. */
+    interface Listener {
+      void onReading(int thermalStatus, int batteryPercent, boolean charging, long timeMs);
+    }
+
+    void start(Listener listener);
+
+    void stop();
+  }
+
+  /**
+   * Returns the default tiers, least restricted first: the full pipeline; previews capped at
+   * 960 wide; every other frame at 640 wide, without the torch; and one frame in three of a single
+   * hand.
+   */
+  public static List<Tier> defaultTiers() {
+    List<Tier> tiers = new ArrayList<>();
+    tiers.add(new Tier("full", 1, 1920, 2, true));
+    tiers.add(new Tier("warm", 1, 960, 2, true));
+    tiers.add(new Tier("hot", 2, 640, 2, false));
+    tiers.add(new Tier("critical", 3, 640, 1, false));
+    return Collections.unmodifiableList(tiers);
+  }
+
+  private final List<Tier> tiers;
+  private final Listener listener;
+
+  // Guarded by this.
+  private int tier;
+  private long tierSinceMs = -1;
+  // Since when the target has been below the current tier, or -1.
+  private long lowerSinceMs = -1;
+  private long lastReadingMs = -1;
+  private final long[] residencyMs;
+  private int transitions;
+
+  public PipelineGovernor(List<Tier> tiers, Listener listener) {
+    if (tiers.isEmpty()) {
+      throw new IllegalArgumentException("No pipeline tiers");
+    }
+    this.tiers = tiers;
+    this.listener = listener;
+    this.residencyMs = new long[tiers.size()];
+  }
+
+  public synchronized Tier getTier() {
+    return tiers.get(tier);
+  }
+
+  /** Takes a reading; a {@link Source.Listener} of the governor's source. */
+  public void onReading(int thermalStatus, int batteryPercent, boolean charging, long timeMs) {
+    int thermalTarget = Math.max(0, thermalStatus);
+    int batteryTarget = 0;
+    if (!charging) {
+      while (batteryTarget < BATTERY_THRESHOLDS.length
+          && batteryPercent < BATTERY_THRESHOLDS[batteryTarget]) {
+        batteryTarget++;
+      }
+    }
+    int target = Math.min(tiers.size() - 1, Math.max(thermalTarget, batteryTarget));
+    Tier changed = null;
+    String reason = null;
+    synchronized (this) {
+      if (tierSinceMs < 0) {
+        tierSinceMs = timeMs;
+      }
+      if (lastReadingMs >= 0) {
+        residencyMs[tier] += Math.max(0, timeMs - lastReadingMs);
+      }
+      lastReadingMs = timeMs;
+      int next = tier;
+      if (target > tier) {
+        next = target;
+        lowerSinceMs = -1;
+      } else if (target < tier) {
+        if (lowerSinceMs < 0) {
+          lowerSinceMs = timeMs;
+        } else if (timeMs - lowerSinceMs >= RECOVERY_DWELL_MS) {
+          next = tier - 1;
+          // The next step down needs its own dwell.
+          lowerSinceMs = timeMs;
+        }
+      } else {
+        lowerSinceMs = -1;
+      }
+      if (next != tier) {
+        reason =
+            String.format(
+                Locale.US,
+                "thermal=%d battery=%d%%%s after %.0fs in %s",
+                thermalStatus,
+                batteryPercent,
+                charging ? " charging" : "",
+                (timeMs - tierSinceMs) / 1e3,
+                tiers.get(tier).name);
+        tier = next;
+        tierSinceMs = timeMs;
+        transitions++;
+        changed = tiers.get(tier);
+      }
+    }
+    if (changed != null) {
+      Log.i(TAG, "Tier " + changed + ": " + reason);
+      listener.onTierChanged(changed, reason);
+    }
+  }
+
+  @Override
+  public synchronized String toString() {
+    StringBuilder builder = new StringBuilder();
+    builder.append("tier=").append(tiers.get(tier).name);
+    builder.append(" transitions=").append(transitions);
+    for (int i = 0; i < tiers.size(); i++) {
+      String name = tiers.get(i).name;
+      builder.append(String.format(Locale.US, " %s=%.0fs", name, residencyMs[i] / 1e3));
+    }
+    return builder.toString();
+  }
+}
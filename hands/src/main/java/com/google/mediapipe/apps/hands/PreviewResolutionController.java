@@ -0,0 +1,232 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Picks the camera preview resolution from the measured per-frame latency.
+ *
+ * <p>The controller keeps exponentially weighted averages of the inference latency (frame sent to
+ * the graph until its result arrives) and of the render time, and compares their sum against the
+ * frame budget. It steps down the ladder of {@link Tier}s when the latency has been over budget
+ * for a while, and up when it has been well under budget for much longer. After every switch the
+ * averages are reset and samples are ignored until the new resolution has settled, and an
+ * upgrade that has to be undone soon after is blocked for exponentially longer, so the resolution
+ * does not oscillate between two tiers. A cap set with {@link #setMaxPreviewWidth}, e.g. while the
+ * device is hot, bounds the tiers the controller may pick.
+ *
+ * <p>All methods are thread-safe; the listener is called on the thread that reported the sample
+ * causing the switch.
+ */
+public final class PreviewResolutionController {
+  // Weight of a new sample in the latency averages.
+  private static final float ALPHA = 0.1f;
+  // Upgrade only if the latency would still be within budget at this fraction of it.
+  private static final float UPGRADE_HEADROOM = 0.6f;
+  // Consecutive frames over or well under budget before stepping down or up.
+  private static final int DOWNGRADE_DWELL_FRAMES = 15;
+  private static final int UPGRADE_DWELL_FRAMES = 120;
+  // Frames ignored after a switch while the camera reconfigures.
+  private static final int SETTLE_FRAMES = 30;
+  // A downgrade within this many frames of an upgrade marks the upgrade as failed.
+  private static final int FAILED_UPGRADE_WINDOW_FRAMES = 300;
+  private static final int MAX_UPGRADE_BACKOFF_FRAMES = 30 * 60 * 5;
+  private static final int MAX_PENDING_FRAMES = 8;
+
+  /** One rung of the resolution ladder, sizes in landscape orientation. */
+  public static final class Tier {
+    public final int previewWidth;
+    public final int previewHeight;
+    // Size of the frames handed to the graph.
+    public final int outputWidth;
+    public final int outputHeight;
+
+    public Tier(int previewWidth, int previewHeight, int outputWidth, int outputHeight) {
+      this.previewWidth = previewWidth;
+      this.previewHeight = previewHeight;
+      this.outputWidth = outputWidth;
+      this.outputHeight = outputHeight;
+    }
+
+    @Override
+    public String toString() {
+      return previewWidth + "x" + previewHeight + "->" + outputWidth + "x" + outputHeight;
+    }
+  }
+
+  /** Notified when the controller switches to another tier. */
+  public interface Listener {
+    void onTierChanged(Tier tier);
+  }
+
+  /**
+   * Returns the default ladder, cheapest first. The top tier previews at 1080p for detail in the
+   * saved crops, but keeps feeding the graph 720p frames.
+   */
+  public static List<Tier> defaultLadder() {
+    List<Tier> ladder = new ArrayList<>();
+    ladder.add(new Tier(640, 360, 640, 360));
+    ladder.add(new Tier(960, 540, 960, 540));
+    ladder.add(new Tier(1280, 720, 1280, 720));
+    ladder.add(new Tier(1920, 1080, 1280, 720));
+    return Collections.unmodifiableList(ladder);
+  }
+
+  private final List<Tier> ladder;
+  private final float frameBudgetMs;
+  private final Listener listener;
+  private final long[] pendingTimestamps = new long[MAX_PENDING_FRAMES];
+  private final long[] pendingSendNanos = new long[MAX_PENDING_FRAMES];
+  private int pendingNext;
+
+  private int tier;
+  private int maxTier;
+  private float inferenceMs = -1;
+  private float renderMs = 0;
+  private int settleFrames = SETTLE_FRAMES;
+  private int overBudgetFrames;
+  private int underBudgetFrames;
+  private long frame;
+  private long lastUpgradeFrame = Long.MIN_VALUE / 2;
+  private long upgradeBlockedUntilFrame;
+  private int upgradeBackoffFrames = FAILED_UPGRADE_WINDOW_FRAMES;
+
+  /**
+   * @param ladder the tiers, cheapest first.
+   * @param initialTier the index of the tier the camera starts at.
+   * @param targetFps the frame rate the latency budget is derived from.
+   */
+  public PreviewResolutionController(
+      List<Tier> ladder, int initialTier, float targetFps, Listener listener) {
+    if (ladder.isEmpty()) {
+      throw new IllegalArgumentException("Empty resolution ladder");
+    }
+    this.ladder = ladder;
+    this.tier = Math.max(0, Math.min(initialTier, ladder.size() - 1));
+    this.maxTier = ladder.size() - 1;
+    this.frameBudgetMs = 1000f / targetFps;
+    this.listener = listener;
+  }
+
+  public synchronized Tier getTier() {
+    return ladder.get(tier);
+  }
+
+  /**
+   * Caps the tiers to those previewing at most {@code width} pixels wide, or the cheapest one if
+   * none does, stepping down at once if the current tier is above the cap.
+   */
+  public void setMaxPreviewWidth(int width) {
+    Tier changed = null;
+    synchronized (this) {
+      maxTier = 0;
+      for (int i = 1; i < ladder.size(); i++) {
+        if (ladder.get(i).previewWidth <= width) {
+          maxTier = i;
+        }
+      }
+      if (tier > maxTier) {
+        changed = switchTo(maxTier);
+      }
+    }
+    if (changed != null) {
+      listener.onTierChanged(changed);
+    }
+  }
+
+  /** Records that the frame with {@code timestampUs} was sent to the graph. */
+  public synchronized void onFrameSent(long timestampUs) {
+    pendingTimestamps[pendingNext] = timestampUs;
+    pendingSendNanos[pendingNext] = System.nanoTime();
+    pendingNext = (pendingNext + 1) % MAX_PENDING_FRAMES;
+  }
+
+  /** Records the result of the frame with {@code timestampUs}, measuring its inference latency. */
+  public void onResult(long timestampUs) {
+    long now = System.nanoTime();
+    Tier changed;
+    synchronized (this) {
+      long sentNanos = -1;
+      for (int i = 0; i < MAX_PENDING_FRAMES; i++) {
+        if (pendingTimestamps[i] == timestampUs && pendingSendNanos[i] != 0) {
+          sentNanos = pendingSendNanos[i];
+          pendingSendNanos[i] = 0;
+          break;
+        }
+      }
+      if (sentNanos < 0) {
+        return;
+      }
+      float latencyMs = (now - sentNanos) / 1e6f;
+      inferenceMs = inferenceMs < 0 ? latencyMs : inferenceMs + ALPHA * (latencyMs - inferenceMs);
+      changed = evaluate();
+    }
+    if (changed != null) {
+      listener.onTierChanged(changed);
+    }
+  }
+
+  /** Records the time spent rendering one frame. */
+  public synchronized void onRenderTime(long nanos) {
+    renderMs += ALPHA * (nanos / 1e6f - renderMs);
+  }
+
+  // Returns the new tier if the controller switched.
+  private Tier evaluate() {
+    frame++;
+    if (settleFrames > 0) {
+      settleFrames--;
+      return null;
+    }
+    float latencyMs = inferenceMs + renderMs;
+    if (latencyMs > frameBudgetMs) {
+      overBudgetFrames++;
+      underBudgetFrames = 0;
+    } else if (latencyMs < frameBudgetMs * UPGRADE_HEADROOM) {
+      underBudgetFrames++;
+      overBudgetFrames = 0;
+    } else {
+      overBudgetFrames = 0;
+      underBudgetFrames = 0;
+    }
+
+    if (overBudgetFrames >= DOWNGRADE_DWELL_FRAMES && tier > 0) {
+      if (frame - lastUpgradeFrame < FAILED_UPGRADE_WINDOW_FRAMES) {
+        upgradeBackoffFrames = Math.min(upgradeBackoffFrames * 2, MAX_UPGRADE_BACKOFF_FRAMES);
+        upgradeBlockedUntilFrame = frame + upgradeBackoffFrames;
+      }
+      return switchTo(tier - 1);
+    }
+    if (underBudgetFrames >= UPGRADE_DWELL_FRAMES
+        && tier < maxTier
+        && frame >= upgradeBlockedUntilFrame) {
+      lastUpgradeFrame = frame;
+      return switchTo(tier + 1);
+    }
+    return null;
+  }
+
+  private Tier switchTo(int newTier) {
+    tier = newTier;
+    inferenceMs = -1;
+    settleFrames = SETTLE_FRAMES;
+    overBudgetFrames = 0;
+    underBudgetFrames = 0;
+    return ladder.get(tier);
+  }
+}
@@ -0,0 +1,81 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.util.Log;
+import com.google.mediapipe.solutions.hands.Hands;
+import java.io.IOException;
+import javax.annotation.Nullable;
+
+/**
+ * Feeds a {@link CaptureSession} with recorded or synthetic landmarks from a {@link
+ * LandmarkStream}, without the camera or the graph, e.g. to test the UI and capture logic. Frames
+ * are delivered on a background thread at a fixed rate until the stream is exhausted. The stream
+ * is left open, so a paused session continues where it stopped; its owner closes it.
+ */
+public final class ReplayFrameSource implements CaptureSession.FrameSource {
+  private static final String TAG = "ReplayFrameSource";
+
+  private final LandmarkStream stream;
+  private final long frameIntervalMs;
+  @Nullable private Thread thread;
+
+  public ReplayFrameSource(LandmarkStream stream, float framesPerSecond) {
+    this.stream = stream;
+    this.frameIntervalMs = Math.round(1000 / framesPerSecond);
+  }
+
+  @Override
+  public boolean needsGraph() {
+    return false;
+  }
+
+  @Override
+  public void start(@Nullable Hands hands, CaptureSession.LandmarkSink landmarks) {
+    Thread replay =
+        new Thread(
+            () -> {
+              LandmarkFrame frame = new LandmarkFrame();
+              try {
+                while (!Thread.currentThread().isInterrupted() && stream.next(frame)) {
+                  landmarks.onFrame(frame);
+                  Thread.sleep(frameIntervalMs);
+                }
+              } catch (IOException e) {
+                Log.e(TAG, "Unable to replay landmarks: " + e);
+              } catch (InterruptedException e) {
+                // Stopped.
+              }
+            },
+            TAG);
+    thread = replay;
+    replay.start();
+  }
+
+  @Override
+  public void stop() {
+    if (thread != null) {
+      thread.interrupt();
+      try {
+        // Waits for the current frame only, so that a restart never reads the stream twice.
+        thread.join();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      thread = null;
+    }
+  }
+}
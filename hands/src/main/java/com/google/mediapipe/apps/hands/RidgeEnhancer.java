@@ -0,0 +1,502 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Enhances the ridges of a fingertip image with block-wise oriented Gabor filtering.
+ *
+ * <p>The image is first normalized to zero mean and unit variance over a sliding window. For
+ * every block, the ridge orientation is estimated from the structure tensor of the gradients, the
+ * ridge period from how often the profile taken across the ridges crosses its mean, and the
+ * foreground from the local variance; all window sums come from integral images, so each costs
+ * four lookups. Each foreground pixel is then filtered with the even-symmetric Gabor kernel tuned
+ * to its block, taken from a bank precomputed once per process for every quantized orientation
+ * and period. Filtering, which dominates the cost, runs in horizontal bands in parallel.
+ *
+ * <p>Ridges come out dark on a mid-gray base and the background white, ready for quality scoring
+ * and minutiae extraction.
+ */
+public final class RidgeEnhancer {
+  static final int BLOCK_SIZE = 16;
+  static final int NUM_ORIENTATIONS = 16;
+  // Ridge periods covered by the kernel bank, in pixels.
+  static final int MIN_PERIOD = 4;
+  static final int MAX_PERIOD = 16;
+  static final int DEFAULT_PERIOD = 8;
+  // Gaussian envelope of the kernels, in ridge periods.
+  private static final float SIGMA_PER_PERIOD = 0.45f;
+  // Half-width of the band around the mean a ridge profile must cross, in mean deviations.
+  private static final float HYSTERESIS = 0.5f;
+  // Blocks whose gray level standard deviation is below this are background.
+  private static final float MIN_FOREGROUND_STDDEV = 6f;
+  // Gray level of a zero filter response, and gain of the response.
+  private static final float OUTPUT_BASE = 128f;
+  private static final float OUTPUT_GAIN = 90f;
+  private static final int BACKGROUND = 255;
+
+  private static final ExecutorService SHARED_EXECUTOR =
+      Executors.newFixedThreadPool(
+          Math.max(1, Runtime.getRuntime().availableProcessors()),
+          runnable -> {
+            Thread thread = new Thread(runnable, "RidgeEnhancer");
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  private static float[][] kernelBank;
+  private static int[] kernelRadii;
+
+  private final ExecutorService executor;
+  private final int bands;
+
+  /** Creates an enhancer that filters on a shared pool with one band per core. */
+  public RidgeEnhancer() {
+    this(SHARED_EXECUTOR, Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param executor runs the filtering bands, or null to filter on the calling thread.
+   * @param bands the number of horizontal bands the image is split into.
+   */
+  public RidgeEnhancer(ExecutorService executor, int bands) {
+    this.executor = executor;
+    this.bands = Math.max(1, bands);
+  }
+
+  /** The per-block estimates an enhancement is based on. */
+  public static final class Field {
+    public final int blocksX;
+    public final int blocksY;
+    // Gradient direction, normal to the ridges, in [0, pi).
+    public final float[] orientation;
+    // Coherence of the gradients, 0 (isotropic) to 1 (parallel ridges).
+    public final float[] coherence;
+    public final float[] period;
+    // Whether the period was measured in the block, rather than filled in from the others.
+    public final boolean[] periodMeasured;
+    // Share of the pixel variance that is constant along the ridges, 0 (noise) to 1 (clean
+    // ridges).
+    public final float[] clarity;
+    // Standard deviation of the gray levels in the block.
+    public final float[] contrast;
+    public final boolean[] foreground;
+
+    Field(int blocksX, int blocksY) {
+      this.blocksX = blocksX;
+      this.blocksY = blocksY;
+      int blocks = blocksX * blocksY;
+      orientation = new float[blocks];
+      coherence = new float[blocks];
+      period = new float[blocks];
+      periodMeasured = new boolean[blocks];
+      clarity = new float[blocks];
+      contrast = new float[blocks];
+      foreground = new boolean[blocks];
+    }
+  }
+
+  /** Returns the enhanced image. */
+  public GrayImage enhance(GrayImage image) {
+    float[] normalized = new float[image.getWidth() * image.getHeight()];
+    return enhance(normalized, image.getWidth(), image.getHeight(), estimate(image, normalized));
+  }
+
+  /** Filters an image already passed through {@link #estimate}. */
+  public GrayImage enhance(float[] normalized, int width, int height, Field field) {
+    GrayImage out = new GrayImage(width, height);
+    filter(normalized, width, height, field, out.getPixels());
+    return out;
+  }
+
+  /**
+   * Estimates the block orientation, period and foreground of {@code image}.
+   *
+   * @param normalized receives the locally normalized image, width * height values.
+   */
+  public Field estimate(GrayImage image, float[] normalized) {
+    int width = image.getWidth();
+    int height = image.getHeight();
+    byte[] pixels = image.getPixels();
+    int stride = width + 1;
+
+    // Local normalization and foreground from integral images of the pixels and their squares.
+    double[] sum = new double[stride * (height + 1)];
+    double[] sumSq = new double[stride * (height + 1)];
+    for (int y = 0; y < height; y++) {
+      double rowSum = 0;
+      double rowSumSq = 0;
+      for (int x = 0; x < width; x++) {
+        int value = pixels[y * width + x] & 0xff;
+        rowSum += value;
+        rowSumSq += value * value;
+        sum[(y + 1) * stride + x + 1] = sum[y * stride + x + 1] + rowSum;
+        sumSq[(y + 1) * stride + x + 1] = sumSq[y * stride + x + 1] + rowSumSq;
+      }
+    }
+    int window = BLOCK_SIZE;
+    for (int y = 0; y < height; y++) {
+      int y0 = Math.max(0, y - window);
+      int y1 = Math.min(height, y + window + 1);
+      for (int x = 0; x < width; x++) {
+        int x0 = Math.max(0, x - window);
+        int x1 = Math.min(width, x + window + 1);
+        double n = (double) (x1 - x0) * (y1 - y0);
+        double mean = boxSum(sum, stride, x0, y0, x1, y1) / n;
+        double variance = boxSum(sumSq, stride, x0, y0, x1, y1) / n - mean * mean;
+        double stddev = Math.sqrt(Math.max(variance, 1.0));
+        normalized[y * width + x] = (float) (((pixels[y * width + x] & 0xff) - mean) / stddev);
+      }
+    }
+
+    // Structure tensor from Sobel gradients of the normalized image.
+    double[] gxx = new double[stride * (height + 1)];
+    double[] gyy = new double[stride * (height + 1)];
+    double[] gxy = new double[stride * (height + 1)];
+    for (int y = 0; y < height; y++) {
+      double rowXx = 0;
+      double rowYy = 0;
+      double rowXy = 0;
+      int ym = Math.max(0, y - 1) * width;
+      int yc = y * width;
+      int yp = Math.min(height - 1, y + 1) * width;
+      for (int x = 0; x < width; x++) {
+        int xm = Math.max(0, x - 1);
+        int xp = Math.min(width - 1, x + 1);
+        float gx =
+            normalized[ym + xp] + 2 * normalized[yc + xp] + normalized[yp + xp]
+                - normalized[ym + xm] - 2 * normalized[yc + xm] - normalized[yp + xm];
+        float gy =
+            normalized[yp + xm] + 2 * normalized[yp + x] + normalized[yp + xp]
+                - normalized[ym + xm] - 2 * normalized[ym + x] - normalized[ym + xp];
+        rowXx += gx * gx;
+        rowYy += gy * gy;
+        rowXy += gx * gy;
+        int index = (y + 1) * stride + x + 1;
+        gxx[index] = gxx[index - stride] + rowXx;
+        gyy[index] = gyy[index - stride] + rowYy;
+        gxy[index] = gxy[index - stride] + rowXy;
+      }
+    }
+
+    int blocksX = (width + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    int blocksY = (height + BLOCK_SIZE - 1) / BLOCK_SIZE;
+    Field field = new Field(blocksX, blocksY);
+    float[] validPeriods = new float[blocksX * blocksY];
+    int validCount = 0;
+    for (int by = 0; by < blocksY; by++) {
+      for (int bx = 0; bx < blocksX; bx++) {
+        int block = by * blocksX + bx;
+        int cx = bx * BLOCK_SIZE + BLOCK_SIZE / 2;
+        int cy = by * BLOCK_SIZE + BLOCK_SIZE / 2;
+        // Orientation over a window twice the block size, for some smoothing.
+        int x0 = Math.max(0, cx - BLOCK_SIZE);
+        int y0 = Math.max(0, cy - BLOCK_SIZE);
+        int x1 = Math.min(width, cx + BLOCK_SIZE);
+        int y1 = Math.min(height, cy + BLOCK_SIZE);
+        double sxx = boxSum(gxx, stride, x0, y0, x1, y1);
+        double syy = boxSum(gyy, stride, x0, y0, x1, y1);
+        double sxy = boxSum(gxy, stride, x0, y0, x1, y1);
+        double angle = 0.5 * Math.atan2(2 * sxy, sxx - syy);
+        if (angle < 0) {
+          angle += Math.PI;
+        }
+        field.orientation[block] = (float) angle;
+        double trace = sxx + syy;
+        field.coherence[block] =
+            trace > 0
+                ? (float) (Math.sqrt((sxx - syy) * (sxx - syy) + 4 * sxy * sxy) / trace)
+                : 0;
+
+        int bx0 = bx * BLOCK_SIZE;
+        int by0 = by * BLOCK_SIZE;
+        int bx1 = Math.min(width, bx0 + BLOCK_SIZE);
+        int by1 = Math.min(height, by0 + BLOCK_SIZE);
+        double n = (double) (bx1 - bx0) * (by1 - by0);
+        double mean = boxSum(sum, stride, bx0, by0, bx1, by1) / n;
+        double variance = boxSum(sumSq, stride, bx0, by0, bx1, by1) / n - mean * mean;
+        field.contrast[block] = (float) Math.sqrt(Math.max(variance, 0));
+        field.foreground[block] = field.contrast[block] >= MIN_FOREGROUND_STDDEV;
+
+        measureRidges(normalized, width, height, cx, cy, angle, field, block);
+        float period = field.period[block];
+        if (period > 0 && field.foreground[block]) {
+          validPeriods[validCount++] = period;
+        }
+      }
+    }
+    float fallback = DEFAULT_PERIOD;
+    if (validCount > 0) {
+      Arrays.sort(validPeriods, 0, validCount);
+      fallback = validPeriods[validCount / 2];
+    }
+    for (int block = 0; block < field.period.length; block++) {
+      if (field.period[block] <= 0) {
+        field.period[block] = fallback;
+      }
+    }
+    return field;
+  }
+
+  // Measures the profile across the ridges at (cx, cy), each point averaged along the ridges: the
+  // ridge period from the spacing of its mean crossings, 0 if it does not look like a ridge
+  // pattern, and the clarity from how much of the variance the averaging keeps.
+  private static void measureRidges(
+      float[] normalized,
+      int width,
+      int height,
+      int cx,
+      int cy,
+      double gradientAngle,
+      Field field,
+      int block) {
+    int length = 2 * BLOCK_SIZE;
+    int depth = BLOCK_SIZE;
+    float ux = (float) Math.cos(gradientAngle);
+    float uy = (float) Math.sin(gradientAngle);
+    float[] profile = new float[length];
+    double sampleSum = 0;
+    double sampleSumSq = 0;
+    for (int k = 0; k < length; k++) {
+      float acc = 0;
+      for (int d = -depth / 2; d < depth / 2; d++) {
+        int x = Math.round(cx + (k - length / 2) * ux - d * uy);
+        int y = Math.round(cy + (k - length / 2) * uy + d * ux);
+        x = x < 0 ? 0 : x >= width ? width - 1 : x;
+        y = y < 0 ? 0 : y >= height ? height - 1 : y;
+        float sample = normalized[y * width + x];
+        acc += sample;
+        sampleSumSq += sample * sample;
+      }
+      sampleSum += acc;
+      profile[k] = acc / depth;
+    }
+    double sampleMean = sampleSum / (length * depth);
+    double sampleVariance = sampleSumSq / (length * depth) - sampleMean * sampleMean;
+    float mean = 0;
+    for (float value : profile) {
+      mean += value;
+    }
+    mean /= length;
+    float profileVariance = 0;
+    for (float value : profile) {
+      profileVariance += (value - mean) * (value - mean);
+    }
+    profileVariance /= length;
+    // Averaging independent noise over the depth divides its variance by the depth; ridges keep
+    // theirs.
+    float kept = sampleVariance > 0 ? (float) (profileVariance / sampleVariance) : 0;
+    float floor = 1f / depth;
+    field.clarity[block] = Math.max(0f, Math.min(1f, (kept - floor) / (1f - floor)));
+
+    float amplitude = 0;
+    for (float value : profile) {
+      amplitude += Math.abs(value - mean);
+    }
+    amplitude /= length;
+    // Crossings of the mean, with hysteresis so noise does not add spurious ridges; two crossings
+    // make one period.
+    float hysteresis = HYSTERESIS * amplitude;
+    int side = 0;
+    int first = -1;
+    int last = -1;
+    int crossings = 0;
+    for (int k = 0; k < length; k++) {
+      float value = profile[k] - mean;
+      int newSide = value > hysteresis ? 1 : value < -hysteresis ? -1 : side;
+      if (side != 0 && newSide != side) {
+        if (first < 0) {
+          first = k;
+        }
+        last = k;
+        crossings++;
+      }
+      side = newSide;
+    }
+    float period = crossings < 3 ? 0 : 2f * (last - first) / (crossings - 1);
+    boolean measured = period >= MIN_PERIOD && period <= MAX_PERIOD;
+    field.period[block] = measured ? period : 0;
+    field.periodMeasured[block] = measured;
+  }
+
+  private void filter(float[] normalized, int width, int height, Field field, byte[] out) {
+    float[][] bank = kernelBank();
+    int[] radii = kernelRadii;
+    int bandHeight = (height + bands - 1) / bands;
+    List<Callable<Void>> tasks = new ArrayList<>();
+    for (int band = 0; band < bands; band++) {
+      int yStart = band * bandHeight;
+      int yEnd = Math.min(height, yStart + bandHeight);
+      if (yStart >= yEnd) {
+        break;
+      }
+      tasks.add(
+          () -> {
+            filterBand(normalized, width, height, field, bank, radii, yStart, yEnd, out);
+            return null;
+          });
+    }
+    if (executor == null || tasks.size() == 1) {
+      for (Callable<Void> task : tasks) {
+        try {
+          task.call();
+        } catch (Exception e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return;
+    }
+    try {
+      for (Future<Void> future : executor.invokeAll(tasks)) {
+        future.get();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while enhancing ridges", e);
+    } catch (ExecutionException e) {
+      throw new IllegalStateException("Ridge enhancement failed", e.getCause());
+    }
+  }
+
+  private static void filterBand(
+      float[] normalized,
+      int width,
+      int height,
+      Field field,
+      float[][] bank,
+      int[] radii,
+      int yStart,
+      int yEnd,
+      byte[] out) {
+    for (int y = yStart; y < yEnd; y++) {
+      int by = y / BLOCK_SIZE;
+      for (int x = 0; x < width; x++) {
+        int block = by * field.blocksX + x / BLOCK_SIZE;
+        if (!field.foreground[block]) {
+          out[y * width + x] = (byte) BACKGROUND;
+          continue;
+        }
+        int periodIndex = periodIndex(field.period[block]);
+        float[] kernel =
+            bank[orientationIndex(field.orientation[block]) * numPeriods() + periodIndex];
+        int radius = radii[periodIndex];
+        int size = 2 * radius + 1;
+        float response = 0;
+        if (x >= radius && y >= radius && x + radius < width && y + radius < height) {
+          for (int ky = 0; ky < size; ky++) {
+            int row = (y + ky - radius) * width + x - radius;
+            int krow = ky * size;
+            for (int kx = 0; kx < size; kx++) {
+              response += kernel[krow + kx] * normalized[row + kx];
+            }
+          }
+        } else {
+          for (int ky = 0; ky < size; ky++) {
+            int sy = Math.min(height - 1, Math.max(0, y + ky - radius));
+            for (int kx = 0; kx < size; kx++) {
+              int sx = Math.min(width - 1, Math.max(0, x + kx - radius));
+              response += kernel[ky * size + kx] * normalized[sy * width + sx];
+            }
+          }
+        }
+        int value = Math.round(OUTPUT_BASE + OUTPUT_GAIN * response);
+        out[y * width + x] = (byte) (value < 0 ? 0 : value > 255 ? 255 : value);
+      }
+    }
+  }
+
+  private static int numPeriods() {
+    return MAX_PERIOD - MIN_PERIOD + 1;
+  }
+
+  private static int orientationIndex(float angle) {
+    int index = Math.round((float) (angle / Math.PI * NUM_ORIENTATIONS));
+    return index % NUM_ORIENTATIONS;
+  }
+
+  private static int periodIndex(float period) {
+    int index = Math.round(period) - MIN_PERIOD;
+    return index < 0 ? 0 : Math.min(index, numPeriods() - 1);
+  }
+
+  // Even-symmetric Gabor kernels for each quantized gradient orientation and integer period, with
+  // the DC removed and unit gain on a matching sinusoid.
+  private static synchronized float[][] kernelBank() {
+    if (kernelBank != null) {
+      return kernelBank;
+    }
+    int periods = numPeriods();
+    float[][] bank = new float[NUM_ORIENTATIONS * periods][];
+    int[] radii = new int[periods];
+    for (int p = 0; p < periods; p++) {
+      int period = MIN_PERIOD + p;
+      double sigma = SIGMA_PER_PERIOD * period;
+      radii[p] = (int) Math.ceil(2.5 * sigma);
+    }
+    for (int o = 0; o < NUM_ORIENTATIONS; o++) {
+      double angle = Math.PI * o / NUM_ORIENTATIONS;
+      double cos = Math.cos(angle);
+      double sin = Math.sin(angle);
+      for (int p = 0; p < periods; p++) {
+        int period = MIN_PERIOD + p;
+        double sigma = SIGMA_PER_PERIOD * period;
+        int radius = radii[p];
+        int size = 2 * radius + 1;
+        double[] kernel = new double[size * size];
+        double[] wave = new double[size * size];
+        double mean = 0;
+        for (int ky = -radius; ky <= radius; ky++) {
+          for (int kx = -radius; kx <= radius; kx++) {
+            double along = kx * cos + ky * sin;
+            double envelope = Math.exp(-(kx * kx + ky * ky) / (2 * sigma * sigma));
+            int index = (ky + radius) * size + kx + radius;
+            wave[index] = Math.cos(2 * Math.PI * along / period);
+            kernel[index] = envelope * wave[index];
+            mean += kernel[index];
+          }
+        }
+        mean /= kernel.length;
+        double gain = 0;
+        for (int i = 0; i < kernel.length; i++) {
+          kernel[i] -= mean;
+          gain += kernel[i] * wave[i];
+        }
+        float[] normalizedKernel = new float[kernel.length];
+        for (int i = 0; i < kernel.length; i++) {
+          normalizedKernel[i] = (float) (kernel[i] / gain);
+        }
+        bank[o * periods + p] = normalizedKernel;
+      }
+    }
+    kernelRadii = radii;
+    kernelBank = bank;
+    return kernelBank;
+  }
+
+  private static double boxSum(double[] integral, int stride, int x0, int y0, int x1, int y1) {
+    return integral[y1 * stride + x1]
+        - integral[y0 * stride + x1]
+        - integral[y1 * stride + x0]
+        + integral[y0 * stride + x0];
+  }
+}
@@ -0,0 +1,115 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.os.Handler;
+import android.os.Looper;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Replays a scripted sequence of thermal and battery readings, so the {@link PipelineGovernor}
+ * policy can be exercised without heating a device.
+ *
+ * <p>Each {@link Step} lasts a simulated duration, during which a reading is reported every {@link
+ * #READING_INTERVAL_MS} of simulated time. Simulated time runs {@code speedup} times faster than
+ * real time, and readings carry the simulated time, so an hours-long shift plays out in seconds
+ * with the same dwell behaviour. Readings are reported on the main thread.
+ */
+public final class SimulatedThermalSource implements PipelineGovernor.Source {
+  static final long READING_INTERVAL_MS = 10_000;
+
+  /** The device state for a simulated duration. */
+  public static final class Step {
+    final long durationMs;
+    final int thermalStatus;
+    final int batteryPercent;
+    final boolean charging;
+
+    public Step(long durationMs, int thermalStatus, int batteryPercent, boolean charging) {
+      this.durationMs = durationMs;
+      this.thermalStatus = thermalStatus;
+      this.batteryPercent = batteryPercent;
+      this.charging = charging;
+    }
+  }
+
+  /**
+   * Returns a shift of about two hours: the device warms up and throttles while the battery
+   * drains, briefly cools, then heats up again on a low battery until it is plugged in and cools.
+   */
+  public static List<Step> defaultShift() {
+    List<Step> steps = new ArrayList<>();
+    steps.add(new Step(15 * 60_000, PipelineGovernor.THERMAL_STATUS_NONE, 90, false));
+    steps.add(new Step(15 * 60_000, PipelineGovernor.THERMAL_STATUS_LIGHT, 75, false));
+    steps.add(new Step(10 * 60_000, PipelineGovernor.THERMAL_STATUS_MODERATE, 60, false));
+    steps.add(new Step(30_000, PipelineGovernor.THERMAL_STATUS_LIGHT, 58, false));
+    steps.add(new Step(10 * 60_000, PipelineGovernor.THERMAL_STATUS_MODERATE, 50, false));
+    steps.add(new Step(5 * 60_000, PipelineGovernor.THERMAL_STATUS_SEVERE, 40, false));
+    steps.add(new Step(20 * 60_000, PipelineGovernor.THERMAL_STATUS_LIGHT, 25, false));
+    steps.add(new Step(15 * 60_000, PipelineGovernor.THERMAL_STATUS_LIGHT, 12, false));
+    steps.add(new Step(20 * 60_000, PipelineGovernor.THERMAL_STATUS_NONE, 40, true));
+    return Collections.unmodifiableList(steps);
+  }
+
+  private final List<Step> steps;
+  private final float speedup;
+  private final Handler handler = new Handler(Looper.getMainLooper());
+  @Nullable private Listener listener;
+  private int step;
+  private long stepElapsedMs;
+  private long timeMs;
+
+  /** @param speedup how many times faster than real time the steps are played. */
+  public SimulatedThermalSource(List<Step> steps, float speedup) {
+    this.steps = steps;
+    this.speedup = speedup;
+  }
+
+  @Override
+  public void start(Listener listener) {
+    this.listener = listener;
+    step = 0;
+    stepElapsedMs = 0;
+    timeMs = 0;
+    handler.post(this::report);
+  }
+
+  @Override
+  public void stop() {
+    listener = null;
+    handler.removeCallbacksAndMessages(null);
+  }
+
+  private void report() {
+    Listener current = listener;
+    if (current == null || step >= steps.size()) {
+      return;
+    }
+    Step state = steps.get(step);
+    current.onReading(state.thermalStatus, state.batteryPercent, state.charging, timeMs);
+    long intervalMs = Math.min(READING_INTERVAL_MS, state.durationMs - stepElapsedMs);
+    timeMs += intervalMs;
+    stepElapsedMs += intervalMs;
+    if (stepElapsedMs >= state.durationMs) {
+      step++;
+      stepElapsedMs = 0;
+    }
+    handler.postDelayed(this::report, (long) (intervalMs / speedup));
+  }
+}
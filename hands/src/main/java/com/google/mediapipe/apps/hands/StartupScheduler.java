@@ -0,0 +1,295 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Runs the heavy initializers of the app according to their declared dependencies and priority.
+ *
+ * <p>A task becomes ready once all of its dependencies have completed. Ready {@link
+ * Priority#MAIN} tasks run on the main thread right away, {@link Priority#BACKGROUND} tasks run on
+ * a small thread pool, and {@link Priority#MAIN_IDLE} tasks wait until the main looper has
+ * nothing else to do, so that they never delay the first frame or input handling. If a task
+ * fails, the tasks depending on it are skipped.
+ *
+ * <p>Every task is wrapped in a systrace section, and a startup trace with queue, start and end
+ * times relative to process start is logged once all tasks have settled, together with the time
+ * to interactive: the later of the first drawn frame and the completion of all non-idle tasks.
+ */
+public final class StartupScheduler {
+  private static final String TAG = "StartupScheduler";
+  private static final int BACKGROUND_THREADS = 2;
+
+  /** Where and when a ready task runs. */
+  public enum Priority {
+    MAIN,
+    BACKGROUND,
+    MAIN_IDLE,
+  }
+
+  /** A startup initializer. */
+  public interface Task {
+    void run() throws Exception;
+  }
+
+  private static final class Node {
+    final String name;
+    final Priority priority;
+    final Task task;
+    final String[] dependencies;
+    final List<Node> dependents = new ArrayList<>();
+    int pendingDependencies;
+    long readyMs = -1;
+    long startMs = -1;
+    long endMs = -1;
+    String thread = "";
+    String outcome = "pending";
+
+    Node(String name, Priority priority, Task task, String[] dependencies) {
+      this.name = name;
+      this.priority = priority;
+      this.task = task;
+      this.dependencies = dependencies;
+    }
+  }
+
+  private final Map<String, Node> nodes = new LinkedHashMap<>();
+  private final Handler mainHandler = new Handler(Looper.getMainLooper());
+  private final ExecutorService backgroundExecutor =
+      Executors.newFixedThreadPool(
+          BACKGROUND_THREADS,
+          runnable ->
+              new Thread(
+                  () -> {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    runnable.run();
+                  },
+                  "StartupWorker"));
+  private final long originMs;
+  private int unsettled;
+  private int unsettledNonIdle;
+  private long firstFrameMs = -1;
+  private long nonIdleDoneMs = -1;
+  private boolean started;
+  private boolean shutDown;
+
+  public StartupScheduler() {
+    originMs =
+        Build.VERSION.SDK_INT >= Build.VERSION_CODES.N
+            ? Process.getStartElapsedRealtime()
+            : SystemClock.elapsedRealtime();
+  }
+
+  /**
+   * Declares a task. Dependencies must be declared before {@link #start}, in any order.
+   *
+   * @param dependencies names of the tasks that must complete before this one runs.
+   */
+  public synchronized StartupScheduler add(
+      String name, Priority priority, Task task, String... dependencies) {
+    if (started) {
+      throw new IllegalStateException("Tasks must be added before start().");
+    }
+    nodes.put(name, new Node(name, priority, task, dependencies));
+    return this;
+  }
+
+  /** Resolves dependencies and dispatches the tasks that are ready. */
+  public synchronized void start() {
+    started = true;
+    List<Node> ready = new ArrayList<>();
+    for (Node node : nodes.values()) {
+      for (String dependency : node.dependencies) {
+        Node parent = nodes.get(dependency);
+        if (parent == null) {
+          throw new IllegalArgumentException(
+              "Startup task " + node.name + " depends on unknown task " + dependency);
+        }
+        parent.dependents.add(node);
+      }
+      node.pendingDependencies = node.dependencies.length;
+      unsettled++;
+      if (node.priority != Priority.MAIN_IDLE) {
+        unsettledNonIdle++;
+      }
+    }
+    for (Node node : nodes.values()) {
+      if (node.pendingDependencies == 0) {
+        ready.add(node);
+      }
+    }
+    for (Node node : ready) {
+      dispatch(node);
+    }
+  }
+
+  /**
+   * Runs no further tasks, e.g. once the activity is destroyed. Tasks already running finish, and
+   * the background threads end after them.
+   */
+  public synchronized void shutdown() {
+    shutDown = true;
+    backgroundExecutor.shutdown();
+  }
+
+  /** Records that the first frame of the launch activity has been drawn. */
+  public synchronized void markFirstFrame() {
+    if (firstFrameMs < 0) {
+      firstFrameMs = now();
+      maybeReportInteractive();
+    }
+  }
+
+  private long now() {
+    return SystemClock.elapsedRealtime() - originMs;
+  }
+
+  private void dispatch(Node node) {
+    node.readyMs = now();
+    switch (node.priority) {
+      case MAIN:
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+          execute(node);
+        } else {
+          mainHandler.post(() -> execute(node));
+        }
+        break;
+      case BACKGROUND:
+        backgroundExecutor.execute(() -> execute(node));
+        break;
+      case MAIN_IDLE:
+        mainHandler.post(
+            () ->
+                Looper.myQueue()
+                    .addIdleHandler(
+                        () -> {
+                          execute(node);
+                          return false;
+                        }));
+        break;
+    }
+  }
+
+  private void execute(Node node) {
+    synchronized (this) {
+      if (shutDown) {
+        return;
+      }
+      node.startMs = now();
+      node.thread = Thread.currentThread().getName();
+    }
+    Trace.beginSection("startup:" + node.name);
+    Exception failure = null;
+    try {
+      node.task.run();
+    } catch (Exception e) {
+      failure = e;
+    } finally {
+      Trace.endSection();
+    }
+    List<Node> ready = new ArrayList<>();
+    synchronized (this) {
+      node.endMs = now();
+      if (failure == null) {
+        node.outcome = "done";
+        for (Node dependent : node.dependents) {
+          if (--dependent.pendingDependencies == 0 && !shutDown) {
+            ready.add(dependent);
+          }
+        }
+      } else {
+        Log.e(TAG, "Startup task " + node.name + " failed: " + failure);
+        node.outcome = "failed";
+        skipDependents(node);
+      }
+      settle(node);
+    }
+    for (Node dependent : ready) {
+      dispatch(dependent);
+    }
+  }
+
+  private void skipDependents(Node node) {
+    for (Node dependent : node.dependents) {
+      if (dependent.outcome.equals("pending")) {
+        dependent.outcome = "skipped";
+        skipDependents(dependent);
+        settle(dependent);
+      }
+    }
+  }
+
+  private void settle(Node node) {
+    unsettled--;
+    if (node.priority != Priority.MAIN_IDLE && --unsettledNonIdle == 0) {
+      nonIdleDoneMs = now();
+      maybeReportInteractive();
+    }
+    if (unsettled == 0) {
+      Log.i(TAG, getTrace());
+      backgroundExecutor.shutdown();
+    }
+  }
+
+  private void maybeReportInteractive() {
+    if (firstFrameMs >= 0 && nonIdleDoneMs >= 0) {
+      Log.i(
+          TAG,
+          String.format(
+              Locale.US,
+              "Time to interactive: %d ms (first frame %d ms, critical tasks %d ms)",
+              Math.max(firstFrameMs, nonIdleDoneMs),
+              firstFrameMs,
+              nonIdleDoneMs));
+    }
+  }
+
+  /** Returns the startup trace, one line per task, in milliseconds since process start. */
+  public synchronized String getTrace() {
+    StringBuilder sb = new StringBuilder("Startup trace (ms since process start):");
+    for (Node node : nodes.values()) {
+      sb.append(
+          String.format(
+              Locale.US,
+              "\n  %-24s %-10s %-8s ready=%d start=%d end=%d took=%d thread=%s",
+              node.name,
+              node.priority,
+              node.outcome,
+              node.readyMs,
+              node.startMs,
+              node.endMs,
+              node.endMs >= 0 && node.startMs >= 0 ? node.endMs - node.startMs : -1,
+              node.thread));
+    }
+    if (firstFrameMs >= 0) {
+      sb.append("\n  first frame at ").append(firstFrameMs);
+    }
+    return sb.toString();
+  }
+}
@@ -0,0 +1,465 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PrivateKey;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.security.interfaces.RSAPublicKey;
+import java.security.spec.MGF1ParameterSpec;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.Arrays;
+import javax.crypto.Cipher;
+import javax.crypto.Mac;
+import javax.crypto.spec.GCMParameterSpec;
+import javax.crypto.spec.OAEPParameterSpec;
+import javax.crypto.spec.PSource;
+import javax.crypto.spec.SecretKeySpec;
+
+/**
+ * Streaming authenticated encryption of exported files with AES-256-GCM in fixed-size segments,
+ * so files of any size are encrypted and decrypted in constant memory as they are written and
+ * read.
+ *
+ * <p>Only the recipient's RSA public key is needed to encrypt, so the app never holds a key that
+ * decrypts exports. Each instance draws a random session key and wraps it with RSA-OAEP
+ * (SHA-256); a file key is derived from the session key and a random file salt with HKDF-SHA256.
+ * A file starts with a header holding the segment size, the wrapped session key, the file salt
+ * and a random nonce prefix; the nonce of each segment is the prefix, the segment index and a flag
+ * marking the last segment, so reordered, dropped or truncated segments fail authentication. The
+ * associated data, e.g. the file name, is authenticated with every segment. Instances are
+ * thread-safe.
+ */
+public final class StreamingAead {
+  static final int KEY_LENGTH = 32;
+  static final int DEFAULT_SEGMENT_SIZE = 64 * 1024;
+  static final int MIN_RSA_KEY_BITS = 2048;
+  private static final byte[] MAGIC = {'K', 'C', 'E', '2'};
+  private static final int SALT_LENGTH = 16;
+  private static final int NONCE_PREFIX_LENGTH = 7;
+  private static final int NONCE_LENGTH = 12;
+  private static final int TAG_LENGTH = 16;
+  private static final int MAX_WRAPPED_KEY_LENGTH = 1024;
+  // The header up to the wrapped key, and after it.
+  private static final int HEADER_PREFIX_LENGTH = MAGIC.length + 4 + 2;
+  private static final int HEADER_SUFFIX_LENGTH = SALT_LENGTH + NONCE_PREFIX_LENGTH;
+  private static final Charset UTF_8 = Charset.forName("UTF-8");
+  private static final byte[] FILE_INFO = "kwikCapture export file".getBytes(UTF_8);
+  // Spelled out, as providers disagree on the MGF1 digest of "OAEPWithSHA-256AndMGF1Padding".
+  private static final OAEPParameterSpec OAEP_SHA256 =
+      new OAEPParameterSpec(
+          "SHA-256", "MGF1", MGF1ParameterSpec.SHA256, PSource.PSpecified.DEFAULT);
+
+  private final int segmentSize;
+  private final SecureRandom random = new SecureRandom();
+  private final byte[] sessionKey = new byte[KEY_LENGTH];
+  private final byte[] wrappedSessionKey;
+
+  public StreamingAead(PublicKey recipientKey) throws GeneralSecurityException {
+    this(recipientKey, DEFAULT_SEGMENT_SIZE);
+  }
+
+  /** @param segmentSize the plaintext bytes per segment. */
+  public StreamingAead(PublicKey recipientKey, int segmentSize) throws GeneralSecurityException {
+    checkPublicKey(recipientKey);
+    if (segmentSize <= 0) {
+      throw new IllegalArgumentException("Invalid segment size " + segmentSize);
+    }
+    this.segmentSize = segmentSize;
+    random.nextBytes(sessionKey);
+    Cipher rsa = Cipher.getInstance("RSA/ECB/OAEPPadding");
+    rsa.init(Cipher.ENCRYPT_MODE, recipientKey, OAEP_SHA256, random);
+    wrappedSessionKey = rsa.doFinal(sessionKey);
+  }
+
+  /** Parses a hexadecimal X.509 (SubjectPublicKeyInfo) RSA public key. */
+  public static PublicKey parsePublicKey(String hex) throws GeneralSecurityException {
+    PublicKey key =
+        KeyFactory.getInstance("RSA").generatePublic(new X509EncodedKeySpec(decodeHex(hex)));
+    checkPublicKey(key);
+    return key;
+  }
+
+  /** Parses a PKCS#8 RSA private key. */
+  public static PrivateKey parsePrivateKey(byte[] der) throws GeneralSecurityException {
+    return KeyFactory.getInstance("RSA").generatePrivate(new PKCS8EncodedKeySpec(der));
+  }
+
+  static String encodeHex(byte[] bytes) {
+    StringBuilder hex = new StringBuilder(2 * bytes.length);
+    for (byte b : bytes) {
+      hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+    }
+    return hex.toString();
+  }
+
+  private static byte[] decodeHex(String hex) throws GeneralSecurityException {
+    String digits = hex.trim();
+    if (digits.isEmpty() || digits.length() % 2 != 0) {
+      throw new GeneralSecurityException("Key must be an even number of hex digits");
+    }
+    byte[] bytes = new byte[digits.length() / 2];
+    for (int i = 0; i < bytes.length; i++) {
+      int high = Character.digit(digits.charAt(2 * i), 16);
+      int low = Character.digit(digits.charAt(2 * i + 1), 16);
+      if (high < 0 || low < 0) {
+        throw new GeneralSecurityException("Key is not hexadecimal");
+      }
+      bytes[i] = (byte) (high << 4 | low);
+    }
+    return bytes;
+  }
+
+  private static void checkPublicKey(PublicKey key) throws GeneralSecurityException {
+    if (!(key instanceof RSAPublicKey)) {
+      throw new GeneralSecurityException("Recipient key must be an RSA public key");
+    }
+    int bits = ((RSAPublicKey) key).getModulus().bitLength();
+    if (bits < MIN_RSA_KEY_BITS) {
+      throw new GeneralSecurityException(
+          "Recipient key has " + bits + " bits, at least " + MIN_RSA_KEY_BITS + " are required");
+    }
+  }
+
+  /**
+   * Returns a stream that encrypts into {@code out}. The file is only complete, and valid, once
+   * the stream is closed.
+   */
+  public OutputStream newEncryptingStream(OutputStream out, byte[] associatedData)
+      throws IOException {
+    byte[] fileSalt = new byte[SALT_LENGTH];
+    byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+    random.nextBytes(fileSalt);
+    random.nextBytes(noncePrefix);
+    ByteBuffer header = ByteBuffer.allocate(headerLength());
+    header
+        .put(MAGIC)
+        .putInt(segmentSize)
+        .putShort((short) wrappedSessionKey.length)
+        .put(wrappedSessionKey)
+        .put(fileSalt)
+        .put(noncePrefix);
+    out.write(header.array());
+    try {
+      return new EncryptingStream(
+          out, hkdf(sessionKey, fileSalt, FILE_INFO), noncePrefix, associatedData, segmentSize);
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Unable to start encryption", e);
+    }
+  }
+
+  /**
+   * Returns a stream that decrypts {@code in}, a file encrypted for the public half of {@code
+   * privateKey} with the same associated data. Reads fail with an {@link IOException} as soon as
+   * a segment does not authenticate, and at the end if the file was truncated.
+   */
+  public static InputStream newDecryptingStream(
+      PrivateKey privateKey, InputStream in, byte[] associatedData) throws IOException {
+    byte[] prefix = new byte[HEADER_PREFIX_LENGTH];
+    readFully(in, prefix, 0, HEADER_PREFIX_LENGTH);
+    ByteBuffer buffer = ByteBuffer.wrap(prefix);
+    byte[] magic = new byte[MAGIC.length];
+    buffer.get(magic);
+    if (!Arrays.equals(magic, MAGIC)) {
+      throw new IOException("Not an encrypted export file");
+    }
+    int segmentSize = buffer.getInt();
+    if (segmentSize <= 0 || segmentSize > 1 << 24) {
+      throw new IOException("Invalid segment size " + segmentSize);
+    }
+    int wrappedLength = buffer.getShort() & 0xffff;
+    if (wrappedLength == 0 || wrappedLength > MAX_WRAPPED_KEY_LENGTH) {
+      throw new IOException("Invalid wrapped key length " + wrappedLength);
+    }
+    byte[] suffix = new byte[wrappedLength + HEADER_SUFFIX_LENGTH];
+    readFully(in, suffix, 0, suffix.length);
+    buffer = ByteBuffer.wrap(suffix);
+    byte[] wrappedSessionKey = new byte[wrappedLength];
+    byte[] fileSalt = new byte[SALT_LENGTH];
+    byte[] noncePrefix = new byte[NONCE_PREFIX_LENGTH];
+    buffer.get(wrappedSessionKey).get(fileSalt).get(noncePrefix);
+    byte[] sessionKey;
+    try {
+      Cipher rsa = Cipher.getInstance("RSA/ECB/OAEPPadding");
+      rsa.init(Cipher.DECRYPT_MODE, privateKey, OAEP_SHA256);
+      sessionKey = rsa.doFinal(wrappedSessionKey);
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Unable to unwrap the file key; wrong private key?", e);
+    }
+    if (sessionKey.length != KEY_LENGTH) {
+      throw new IOException("Invalid session key length " + sessionKey.length);
+    }
+    try {
+      byte[] fileKey = hkdf(sessionKey, fileSalt, FILE_INFO);
+      return new DecryptingStream(in, fileKey, noncePrefix, associatedData, segmentSize);
+    } catch (GeneralSecurityException e) {
+      throw new IOException("Unable to start decryption", e);
+    }
+  }
+
+  /** Returns the size of the encryption of {@code plaintextLength} bytes. */
+  public long ciphertextLength(long plaintextLength) {
+    // A full last segment is sealed as it is, so only an empty file has an empty segment.
+    long segments = Math.max(1, (plaintextLength + segmentSize - 1) / segmentSize);
+    return headerLength() + plaintextLength + segments * TAG_LENGTH;
+  }
+
+  private int headerLength() {
+    return HEADER_PREFIX_LENGTH + wrappedSessionKey.length + HEADER_SUFFIX_LENGTH;
+  }
+
+  // HKDF-SHA256 (RFC 5869) of one output block, which is all the key length needs.
+  static byte[] hkdf(byte[] key, byte[] salt, byte[] info) throws GeneralSecurityException {
+    Mac mac = Mac.getInstance("HmacSHA256");
+    mac.init(new SecretKeySpec(salt, "HmacSHA256"));
+    byte[] pseudoRandomKey = mac.doFinal(key);
+    mac.init(new SecretKeySpec(pseudoRandomKey, "HmacSHA256"));
+    mac.update(info);
+    mac.update((byte) 1);
+    return Arrays.copyOf(mac.doFinal(), KEY_LENGTH);
+  }
+
+  private static byte[] nonce(byte[] prefix, long segment, boolean last) throws IOException {
+    if (segment > 0xffffffffL) {
+      throw new IOException("Too many segments");
+    }
+    return ByteBuffer.allocate(NONCE_LENGTH)
+        .put(prefix)
+        .putInt((int) segment)
+        .put((byte) (last ? 1 : 0))
+        .array();
+  }
+
+  private static void readFully(InputStream in, byte[] buffer, int offset, int length)
+      throws IOException {
+    int n = readUpTo(in, buffer, offset, length);
+    if (n < length) {
+      throw new EOFException("Truncated encrypted file");
+    }
+  }
+
+  // Reads until the buffer is full or the stream ends, returning the bytes read.
+  private static int readUpTo(InputStream in, byte[] buffer, int offset, int length)
+      throws IOException {
+    int total = 0;
+    while (total < length) {
+      int n = in.read(buffer, offset + total, length - total);
+      if (n < 0) {
+        break;
+      }
+      total += n;
+    }
+    return total;
+  }
+
+  private static final class EncryptingStream extends FilterOutputStream {
+    private final Cipher cipher;
+    private final SecretKeySpec key;
+    private final byte[] noncePrefix;
+    private final byte[] associatedData;
+    private final byte[] plaintext;
+    private final byte[] ciphertext;
+    private int buffered;
+    private long segment;
+    private boolean closed;
+
+    EncryptingStream(
+        OutputStream out,
+        byte[] fileKey,
+        byte[] noncePrefix,
+        byte[] associatedData,
+        int segmentSize)
+        throws GeneralSecurityException {
+      super(out);
+      this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      this.key = new SecretKeySpec(fileKey, "AES");
+      this.noncePrefix = noncePrefix;
+      this.associatedData = associatedData;
+      this.plaintext = new byte[segmentSize];
+      this.ciphertext = new byte[segmentSize + TAG_LENGTH];
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+      write(new byte[] {(byte) b}, 0, 1);
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+      while (len > 0) {
+        // A full segment is only sealed once more data shows it is not the last one.
+        if (buffered == plaintext.length) {
+          seal(false);
+        }
+        int n = Math.min(len, plaintext.length - buffered);
+        System.arraycopy(b, off, plaintext, buffered, n);
+        buffered += n;
+        off += n;
+        len -= n;
+      }
+    }
+
+    @Override
+    public void flush() throws IOException {
+      out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+      if (closed) {
+        return;
+      }
+      closed = true;
+      try {
+        seal(true);
+      } finally {
+        out.close();
+      }
+    }
+
+    private void seal(boolean last) throws IOException {
+      try {
+        cipher.init(
+            Cipher.ENCRYPT_MODE,
+            key,
+            new GCMParameterSpec(8 * TAG_LENGTH, nonce(noncePrefix, segment, last)));
+        cipher.updateAAD(associatedData);
+        int n = cipher.doFinal(plaintext, 0, buffered, ciphertext, 0);
+        out.write(ciphertext, 0, n);
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Unable to encrypt segment " + segment, e);
+      }
+      segment++;
+      buffered = 0;
+    }
+  }
+
+  private static final class DecryptingStream extends FilterInputStream {
+    private final Cipher cipher;
+    private final SecretKeySpec key;
+    private final byte[] noncePrefix;
+    private final byte[] associatedData;
+    // One segment and the first byte after it, which tells whether the segment is the last one.
+    private final byte[] ciphertext;
+    private int carried;
+    private final byte[] plaintext;
+    private int position;
+    private int available;
+    private long segment;
+    private boolean finished;
+
+    DecryptingStream(
+        InputStream in,
+        byte[] fileKey,
+        byte[] noncePrefix,
+        byte[] associatedData,
+        int segmentSize)
+        throws GeneralSecurityException {
+      super(in);
+      this.cipher = Cipher.getInstance("AES/GCM/NoPadding");
+      this.key = new SecretKeySpec(fileKey, "AES");
+      this.noncePrefix = noncePrefix;
+      this.associatedData = associatedData;
+      this.ciphertext = new byte[segmentSize + TAG_LENGTH + 1];
+      this.plaintext = new byte[segmentSize];
+    }
+
+    @Override
+    public int read() throws IOException {
+      byte[] b = new byte[1];
+      return read(b, 0, 1) < 0 ? -1 : b[0] & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+      if (len == 0) {
+        return 0;
+      }
+      while (position == available) {
+        if (finished) {
+          return -1;
+        }
+        open();
+      }
+      int n = Math.min(len, available - position);
+      System.arraycopy(plaintext, position, b, off, n);
+      position += n;
+      return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      long skipped = 0;
+      byte[] scratch = new byte[(int) Math.min(n, 8192)];
+      while (skipped < n) {
+        int read = read(scratch, 0, (int) Math.min(n - skipped, scratch.length));
+        if (read < 0) {
+          break;
+        }
+        skipped += read;
+      }
+      return skipped;
+    }
+
+    @Override
+    public int available() {
+      return available - position;
+    }
+
+    @Override
+    public boolean markSupported() {
+      return false;
+    }
+
+    private void open() throws IOException {
+      int length = carried + readUpTo(in, ciphertext, carried, ciphertext.length - carried);
+      boolean last = length < ciphertext.length;
+      int segmentLength = last ? length : length - 1;
+      if (segmentLength < TAG_LENGTH) {
+        throw new EOFException("Truncated encrypted file");
+      }
+      try {
+        cipher.init(
+            Cipher.DECRYPT_MODE,
+            key,
+            new GCMParameterSpec(8 * TAG_LENGTH, nonce(noncePrefix, segment, last)));
+        cipher.updateAAD(associatedData);
+        available = cipher.doFinal(ciphertext, 0, segmentLength, plaintext, 0);
+      } catch (GeneralSecurityException e) {
+        throw new IOException("Segment " + segment + " failed authentication", e);
+      }
+      position = 0;
+      segment++;
+      if (last) {
+        finished = true;
+        carried = 0;
+      } else {
+        ciphertext[0] = ciphertext[length - 1];
+        carried = 1;
+      }
+    }
+  }
+}
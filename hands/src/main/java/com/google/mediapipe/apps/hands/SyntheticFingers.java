@@ -0,0 +1,75 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Synthetic finger images, for benchmarks on a desktop JVM and on a device: elliptical foregrounds
+ * of arched ridges with a few dislocations, each of which makes a ridge end or fork, plus noise.
+ * Uses no Android classes.
+ */
+final class SyntheticFingers {
+  /** The fingers of one capture of both hands, thumbs excluded. */
+  static final int FINGERS_PER_CAPTURE = 8;
+
+  private SyntheticFingers() {}
+
+  /** Returns the fingers of one capture, at the size captured fingers are extracted at. */
+  static List<GrayImage> capture(Random random) {
+    List<GrayImage> fingers = new ArrayList<>();
+    for (int i = 0; i < FINGERS_PER_CAPTURE; i++) {
+      fingers.add(
+          finger(random, OrientedRoiExtractor.FINGER_WIDTH, OrientedRoiExtractor.FINGER_HEIGHT));
+    }
+    return fingers;
+  }
+
+  /** Returns one finger-like image. */
+  static GrayImage finger(Random random, int width, int height) {
+    GrayImage image = new GrayImage(width, height);
+    float period = 7 + random.nextFloat() * 3;
+    int dislocations = 6 + random.nextInt(6);
+    float[] centerX = new float[dislocations];
+    float[] centerY = new float[dislocations];
+    float[] sign = new float[dislocations];
+    for (int i = 0; i < dislocations; i++) {
+      centerX[i] = width * (0.25f + 0.5f * random.nextFloat());
+      centerY[i] = height * (0.2f + 0.6f * random.nextFloat());
+      sign[i] = random.nextBoolean() ? 1 : -1;
+    }
+    float coreX = width * 0.5f;
+    float coreY = height * 0.35f;
+    for (int y = 0; y < height; y++) {
+      for (int x = 0; x < width; x++) {
+        float ex = (x - width / 2f) / (width * 0.45f);
+        float ey = (y - height / 2f) / (height * 0.48f);
+        if (ex * ex + ey * ey > 1) {
+          image.set(x, y, 220 + (int) (random.nextGaussian() * 4));
+          continue;
+        }
+        double phase = Math.hypot(x - coreX, (y - coreY) * 1.3) / period * 2 * Math.PI;
+        for (int i = 0; i < dislocations; i++) {
+          phase += sign[i] * Math.atan2(y - centerY[i], x - centerX[i]);
+        }
+        image.set(x, y, (int) (140 + 35 * Math.cos(phase) + random.nextGaussian() * 12));
+      }
+    }
+    return image;
+  }
+}
@@ -0,0 +1,107 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.util.Random;
+
+/**
+ * Generates an open hand that repeatedly moves towards and away from the camera, with Gaussian
+ * landmark jitter. The sequence is fully determined by the seed, so it can serve as a reproducible
+ * corpus for {@link CaptureDecisionBenchmark}.
+ */
+public class SyntheticLandmarkStream implements LandmarkStream {
+  // Right hand, fingers up, in units of hand width relative to the wrist.
+  private static final float[][] HAND_TEMPLATE = {
+    {0f, 0f},
+    {-0.25f, -0.1f}, {-0.4f, -0.25f}, {-0.5f, -0.4f}, {-0.58f, -0.52f},
+    {-0.22f, -0.6f}, {-0.25f, -0.85f}, {-0.27f, -1.0f}, {-0.28f, -1.12f},
+    {-0.02f, -0.62f}, {-0.02f, -0.9f}, {-0.02f, -1.07f}, {-0.02f, -1.2f},
+    {0.17f, -0.58f}, {0.19f, -0.83f}, {0.2f, -0.98f}, {0.21f, -1.1f},
+    {0.33f, -0.5f}, {0.38f, -0.68f}, {0.41f, -0.8f}, {0.43f, -0.9f},
+  };
+  private static final float MIN_SCALE = 0.5f;
+  private static final float MAX_SCALE = 1.3f;
+  private static final long FRAME_INTERVAL_US = 33_333;
+
+  private final Random random;
+  private final int numFrames;
+  private final int numHands;
+  private final int imageWidth;
+  private final int imageHeight;
+  private final int periodFrames;
+  private final float jitter;
+  private int frameIndex;
+
+  /**
+   * @param seed the random seed.
+   * @param numFrames the number of frames to produce.
+   * @param numHands 1 for a right hand, 2 to add a mirrored left hand.
+   * @param periodFrames the number of frames of one approach-and-retreat cycle.
+   * @param jitter the standard deviation of the landmark noise, in normalized units.
+   */
+  public SyntheticLandmarkStream(
+      long seed, int numFrames, int numHands, int periodFrames, float jitter) {
+    this(seed, numFrames, numHands, periodFrames, jitter, 720, 1280);
+  }
+
+  public SyntheticLandmarkStream(
+      long seed,
+      int numFrames,
+      int numHands,
+      int periodFrames,
+      float jitter,
+      int imageWidth,
+      int imageHeight) {
+    this.random = new Random(seed);
+    this.numFrames = numFrames;
+    this.numHands = Math.max(1, Math.min(numHands, LandmarkFrame.MAX_HANDS));
+    this.periodFrames = Math.max(2, periodFrames);
+    this.jitter = jitter;
+    this.imageWidth = imageWidth;
+    this.imageHeight = imageHeight;
+  }
+
+  @Override
+  public boolean next(LandmarkFrame frame) {
+    if (frameIndex >= numFrames) {
+      return false;
+    }
+    frame.reset(frameIndex * FRAME_INTERVAL_US, imageWidth, imageHeight);
+    double phase = 2 * Math.PI * frameIndex / periodFrames;
+    float scale = MIN_SCALE + (MAX_SCALE - MIN_SCALE) * (float) (0.5 - 0.5 * Math.cos(phase));
+    float aspect = (float) imageWidth / imageHeight;
+    for (int h = 0; h < numHands; ++h) {
+      boolean isLeft = h == 1;
+      int hand = frame.addHand(isLeft);
+      float wristX = numHands == 1 ? 0.5f : (isLeft ? 0.3f : 0.7f);
+      float mirror = isLeft ? -1f : 1f;
+      for (int i = 0; i < LandmarkFrame.NUM_LANDMARKS; ++i) {
+        float x = wristX + mirror * HAND_TEMPLATE[i][0] * scale;
+        float y = 0.95f + HAND_TEMPLATE[i][1] * scale * aspect;
+        frame.setLandmark(
+            hand,
+            i,
+            x + (float) random.nextGaussian() * jitter,
+            y + (float) random.nextGaussian() * jitter,
+            0f);
+      }
+    }
+    frameIndex++;
+    return true;
+  }
+
+  @Override
+  public void close() {}
+}
@@ -0,0 +1,371 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * A local gallery of enrolled fingers for 1:N duplicate checks.
+ *
+ * <p>Fingers are stored as {@link CylinderCode}s. Each cylinder is indexed by locality-sensitive
+ * hashing: every one of {@link #TABLES} tables keys it by a fixed random sample of {@link
+ * #KEY_BITS} of its bits, so similar cylinders likely share a bucket in at least one table. A
+ * lookup lets the cylinders of the probe vote for the gallery fingers in their buckets, and only
+ * the most voted fingers of the same position are compared in full. The cost of a lookup thus
+ * grows with bucket sizes rather than with the gallery size.
+ *
+ * <p>The gallery is kept in memory and appended to a file on enrollment; a record cut short by a
+ * crash is dropped when the file is next opened. Instances are thread-safe.
+ */
+public final class TemplateGallery {
+  static final int TABLES = 8;
+  static final int KEY_BITS = 14;
+  // Fingers compared in full per probe finger.
+  private static final int CANDIDATES = 32;
+  // Finger similarity from which two fingers are considered the same.
+  static final float MATCH_THRESHOLD = 0.55f;
+  // Matching fingers needed to report a subject as a duplicate.
+  static final int MIN_MATCHING_FINGERS = 2;
+  private static final int FORMAT_VERSION = 1;
+  private static final long HASH_SEED = 0x6b77696bL;
+
+  // The bits sampled by each table.
+  private static final int[][] KEY_SAMPLES = new int[TABLES][KEY_BITS];
+
+  static {
+    Random random = new Random(HASH_SEED);
+    for (int table = 0; table < TABLES; table++) {
+      List<Integer> bits = new ArrayList<>();
+      for (int bit = 0; bit < CylinderCode.BITS; bit++) {
+        bits.add(bit);
+      }
+      Collections.shuffle(bits, random);
+      for (int k = 0; k < KEY_BITS; k++) {
+        KEY_SAMPLES[table][k] = bits.get(k);
+      }
+    }
+  }
+
+  /** One finger of a probe or an enrollment. */
+  public static final class Finger {
+    final int position;
+    final long[] bits;
+    final float[] angles;
+    final int count;
+
+    /**
+     * @param position the ISO finger position, or 0 if unknown.
+     * @param minutiae the minutiae, best first.
+     * @param pixelsPerCm the resolution of the image the minutiae were found in.
+     */
+    public Finger(int position, List<Minutia> minutiae, float pixelsPerCm) {
+      this.position = position;
+      long[] allBits = new long[CylinderCode.MAX_CYLINDERS * CylinderCode.WORDS];
+      float[] allAngles = new float[CylinderCode.MAX_CYLINDERS];
+      count =
+          CylinderCode.encode(
+              minutiae, IsoMinutiaeTemplate.PIXELS_PER_CM / pixelsPerCm, allBits, allAngles);
+      bits = Arrays.copyOf(allBits, count * CylinderCode.WORDS);
+      angles = Arrays.copyOf(allAngles, count);
+    }
+
+    Finger(int position, long[] bits, float[] angles) {
+      this.position = position;
+      this.bits = bits;
+      this.angles = angles;
+      this.count = angles.length;
+    }
+  }
+
+  /** A gallery subject matching a probe. */
+  public static final class Match {
+    public final String subjectId;
+    public final int matchingFingers;
+    // Mean similarity of the matching fingers.
+    public final float score;
+
+    Match(String subjectId, int matchingFingers, float score) {
+      this.subjectId = subjectId;
+      this.matchingFingers = matchingFingers;
+      this.score = score;
+    }
+
+    @Override
+    public String toString() {
+      return subjectId + " (" + matchingFingers + " fingers, score " + score + ")";
+    }
+  }
+
+  private final File file;
+  private final List<String> subjects = new ArrayList<>();
+  private final Map<String, Integer> subjectIndex = new HashMap<>();
+  // Per enrolled finger.
+  private int[] fingerSubjects = new int[256];
+  private Finger[] fingers = new Finger[256];
+  private int fingerCount;
+  // Per table and bucket, the enrolled fingers with a cylinder in the bucket.
+  private final int[][][] buckets = new int[TABLES][1 << KEY_BITS][];
+  private final int[][] bucketSizes = new int[TABLES][1 << KEY_BITS];
+  // Votes per enrolled finger during a lookup, all zero in between, and the fingers voted for, so
+  // that a lookup only visits fingers sharing a bucket with the probe.
+  private int[] votes = new int[256];
+  private int[] voted = new int[256];
+  private int votedCount;
+
+  private TemplateGallery(File file) {
+    this.file = file;
+  }
+
+  /** Opens the gallery stored in {@code file}, creating it if needed. */
+  public static TemplateGallery open(File file) throws IOException {
+    TemplateGallery gallery = new TemplateGallery(file);
+    if (file.exists()) {
+      gallery.load();
+    }
+    return gallery;
+  }
+
+  public synchronized int getFingerCount() {
+    return fingerCount;
+  }
+
+  public synchronized int getSubjectCount() {
+    return subjects.size();
+  }
+
+  /**
+   * Returns the subjects other than {@code subjectId} that at least {@link #MIN_MATCHING_FINGERS}
+   * probe fingers match, best first.
+   */
+  public synchronized List<Match> findDuplicates(String subjectId, List<Finger> probe) {
+    Integer self = subjectIndex.get(subjectId);
+    Map<Integer, float[]> perSubject = new HashMap<>();
+    for (int probeIndex = 0; probeIndex < probe.size(); probeIndex++) {
+      Finger finger = probe.get(probeIndex);
+      for (int c = 0; c < finger.count; c++) {
+        for (int table = 0; table < TABLES; table++) {
+          int key = key(finger.bits, c, table);
+          int[] bucket = buckets[table][key];
+          int size = bucketSizes[table][key];
+          for (int i = 0; i < size; i++) {
+            if (votes[bucket[i]]++ == 0) {
+              voted[votedCount++] = bucket[i];
+            }
+          }
+        }
+      }
+      List<Integer> candidates = topCandidates(finger.position);
+      for (int i = 0; i < votedCount; i++) {
+        votes[voted[i]] = 0;
+      }
+      votedCount = 0;
+      for (int candidate : candidates) {
+        int subject = fingerSubjects[candidate];
+        if (self != null && subject == self) {
+          continue;
+        }
+        Finger enrolled = fingers[candidate];
+        float score =
+            CylinderCode.match(
+                finger.bits, finger.angles, finger.count,
+                enrolled.bits, enrolled.angles, enrolled.count);
+        if (score < MATCH_THRESHOLD) {
+          continue;
+        }
+        // Counts each probe finger at most once per subject, with its best score.
+        float[] hits = perSubject.get(subject);
+        if (hits == null) {
+          hits = new float[probe.size()];
+          perSubject.put(subject, hits);
+        }
+        hits[probeIndex] = Math.max(hits[probeIndex], score);
+      }
+    }
+    List<Match> matches = new ArrayList<>();
+    for (Map.Entry<Integer, float[]> entry : perSubject.entrySet()) {
+      int matching = 0;
+      float sum = 0;
+      for (float score : entry.getValue()) {
+        if (score > 0) {
+          matching++;
+          sum += score;
+        }
+      }
+      if (matching >= Math.min(MIN_MATCHING_FINGERS, probe.size())) {
+        matches.add(new Match(subjects.get(entry.getKey()), matching, sum / matching));
+      }
+    }
+    Collections.sort(
+        matches,
+        (a, b) ->
+            a.matchingFingers != b.matchingFingers
+                ? b.matchingFingers - a.matchingFingers
+                : Float.compare(b.score, a.score));
+    return matches;
+  }
+
+  /** Adds the fingers of {@code subjectId} to the gallery and its file. */
+  public synchronized void enroll(String subjectId, List<Finger> enrolled) throws IOException {
+    try (DataOutputStream out =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file, true)))) {
+      if (file.length() == 0) {
+        out.writeInt(FORMAT_VERSION);
+      }
+      for (Finger finger : enrolled) {
+        out.writeUTF(subjectId);
+        out.writeByte(finger.position);
+        out.writeByte(finger.count);
+        for (long word : finger.bits) {
+          out.writeLong(word);
+        }
+        for (float angle : finger.angles) {
+          out.writeFloat(angle);
+        }
+      }
+    }
+    for (Finger finger : enrolled) {
+      add(subjectId, finger);
+    }
+  }
+
+  private void load() throws IOException {
+    long validLength = 0;
+    try (DataInputStream in =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        throw new IOException("Unsupported gallery format in " + file);
+      }
+      validLength = 4;
+      while (true) {
+        String subjectId = in.readUTF();
+        int position = in.readUnsignedByte();
+        int count = in.readUnsignedByte();
+        long[] bits = new long[count * CylinderCode.WORDS];
+        for (int i = 0; i < bits.length; i++) {
+          bits[i] = in.readLong();
+        }
+        float[] angles = new float[count];
+        for (int i = 0; i < count; i++) {
+          angles[i] = in.readFloat();
+        }
+        add(subjectId, new Finger(position, bits, angles));
+        validLength +=
+            2 + subjectId.getBytes("UTF-8").length + 2 + bits.length * 8 + angles.length * 4;
+      }
+    } catch (EOFException e) {
+      // The end of the file, possibly in the middle of a record written during a crash.
+    }
+    if (validLength < file.length()) {
+      try (RandomAccessFile truncated = new RandomAccessFile(file, "rw")) {
+        truncated.setLength(validLength);
+      }
+    }
+  }
+
+  private void add(String subjectId, Finger finger) {
+    Integer subject = subjectIndex.get(subjectId);
+    if (subject == null) {
+      subject = subjects.size();
+      subjects.add(subjectId);
+      subjectIndex.put(subjectId, subject);
+    }
+    if (fingerCount == fingers.length) {
+      fingers = Arrays.copyOf(fingers, fingerCount * 2);
+      fingerSubjects = Arrays.copyOf(fingerSubjects, fingerCount * 2);
+      votes = new int[fingerCount * 2];
+      voted = new int[fingerCount * 2];
+    }
+    int index = fingerCount++;
+    fingers[index] = finger;
+    fingerSubjects[index] = subject;
+    for (int c = 0; c < finger.count; c++) {
+      for (int table = 0; table < TABLES; table++) {
+        int key = key(finger.bits, c, table);
+        int[] bucket = buckets[table][key];
+        int size = bucketSizes[table][key];
+        // A finger is listed once per bucket, however many of its cylinders fall in it.
+        if (size > 0 && bucket[size - 1] == index) {
+          continue;
+        }
+        if (bucket == null) {
+          bucket = new int[4];
+        } else if (size == bucket.length) {
+          bucket = Arrays.copyOf(bucket, size * 2);
+        }
+        bucket[size] = index;
+        buckets[table][key] = bucket;
+        bucketSizes[table][key] = size + 1;
+      }
+    }
+  }
+
+  // The most voted fingers at the given position, or at any if it is unknown.
+  private List<Integer> topCandidates(int position) {
+    List<Integer> candidates = new ArrayList<>();
+    int threshold = 1;
+    for (int v = 0; v < votedCount; v++) {
+      int i = voted[v];
+      if (votes[i] < threshold) {
+        continue;
+      }
+      int enrolledPosition = fingers[i].position;
+      if (position != 0 && enrolledPosition != 0 && enrolledPosition != position) {
+        continue;
+      }
+      candidates.add(i);
+      if (candidates.size() > 4 * CANDIDATES) {
+        // Keeps the list short by raising the bar to the current top candidates.
+        sortByVotes(candidates, votes);
+        candidates.subList(CANDIDATES, candidates.size()).clear();
+        threshold = votes[candidates.get(CANDIDATES - 1)];
+      }
+    }
+    sortByVotes(candidates, votes);
+    if (candidates.size() > CANDIDATES) {
+      candidates.subList(CANDIDATES, candidates.size()).clear();
+    }
+    return candidates;
+  }
+
+  private static void sortByVotes(List<Integer> candidates, int[] votes) {
+    Collections.sort(candidates, (a, b) -> votes[b] - votes[a]);
+  }
+
+  private static int key(long[] bits, int cylinder, int table) {
+    int key = 0;
+    for (int k = 0; k < KEY_BITS; k++) {
+      if (CylinderCode.bit(bits, cylinder, KEY_SAMPLES[table][k])) {
+        key |= 1 << k;
+      }
+    }
+    return key;
+  }
+}
@@ -0,0 +1,79 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+package com.google.mediapipe.apps.hands;
+
+/**
+ * Pairs a timestamp of one camera stream with the closest frame of another.
+ *
+ * <p>The tracking stream reaches the graph through a {@link android.graphics.SurfaceTexture}, and
+ * its result timestamps are the sensor timestamps in microseconds; the high-resolution stream
+ * reports sensor timestamps in nanoseconds. Both come from the same sensor clock, so a constant
+ * offset (zero unless the texture converter was given one) aligns them. Frames further apart than
+ * the tolerance are not matched, so a crop never comes from a moment the landmarks do not
+ * describe.
+ */
+public final class TimestampMatcher {
+  private final long offsetNs;
+  private final long toleranceNs;
+  private long matched;
+  private long missed;
+  private long totalDeltaNs;
+
+  /**
+   * @param offsetNs added to target timestamps before matching.
+   * @param toleranceNs the largest accepted distance between matched timestamps.
+   */
+  public TimestampMatcher(long offsetNs, long toleranceNs) {
+    this.offsetNs = offsetNs;
+    this.toleranceNs = toleranceNs;
+  }
+
+  /**
+   * Returns the index in {@code timestampsNs[0, count)} closest to {@code targetNs}, or -1 if no
+   * timestamp is within the tolerance. Negative timestamps mark empty slots.
+   */
+  public synchronized int match(long[] timestampsNs, int count, long targetNs) {
+    long target = targetNs + offsetNs;
+    int best = -1;
+    long bestDelta = Long.MAX_VALUE;
+    for (int i = 0; i < count; i++) {
+      if (timestampsNs[i] < 0) {
+        continue;
+      }
+      long delta = Math.abs(timestampsNs[i] - target);
+      if (delta < bestDelta) {
+        bestDelta = delta;
+        best = i;
+      }
+    }
+    if (best < 0 || bestDelta > toleranceNs) {
+      missed++;
+      return -1;
+    }
+    matched++;
+    totalDeltaNs += bestDelta;
+    return best;
+  }
+
+  @Override
+  public synchronized String toString() {
+    return "matched="
+        + matched
+        + " missed="
+        + missed
+        + " meanDeltaUs="
+        + (matched > 0 ? totalDeltaNs / matched / 1000 : -1);
+  }
+}
@@ -0,0 +1,67 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import android.app.Activity;
+import android.net.Uri;
+import com.google.mediapipe.solutioncore.VideoInput;
+import com.google.mediapipe.solutions.hands.Hands;
+import javax.annotation.Nullable;
+
+/**
+ * Feeds a {@link CaptureSession} from a video file. Stopping closes the video, so a paused session
+ * plays it again from the start.
+ */
+public final class VideoFrameSource implements CaptureSession.FrameSource {
+  private final Activity activity;
+  private final Uri uri;
+  private final int width;
+  private final int height;
+  @Nullable private VideoInput videoInput;
+
+  /**
+   * @param width the width frames are scaled to, or 0 for the video width.
+   * @param height the height frames are scaled to, or 0 for the video height.
+   */
+  public VideoFrameSource(Activity activity, Uri uri, int width, int height) {
+    this.activity = activity;
+    this.uri = uri;
+    this.width = width;
+    this.height = height;
+  }
+
+  @Override
+  public boolean needsGraph() {
+    return true;
+  }
+
+  @Override
+  public void start(@Nullable Hands hands, CaptureSession.LandmarkSink landmarks) {
+    VideoInput input = new VideoInput(activity);
+    input.setNewFrameListener(hands::send);
+    videoInput = input;
+    input.start(activity, uri, hands.getGlContext(), width, height);
+  }
+
+  @Override
+  public void stop() {
+    if (videoInput != null) {
+      videoInput.setNewFrameListener(null);
+      videoInput.close();
+      videoInput = null;
+    }
+  }
+}
@@ -0,0 +1,117 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Drives a {@link PipelineGovernor} with simulated readings and checks its tier transitions. */
+public final class PipelineGovernorTest {
+  private static final long SECOND_MS = 1000;
+
+  private final List<String> transitions = new ArrayList<>();
+  private PipelineGovernor governor;
+
+  @Before
+  public void setUp() {
+    governor =
+        new PipelineGovernor(
+            PipelineGovernor.defaultTiers(), (tier, reason) -> transitions.add(tier.name));
+  }
+
+  private void cool(long timeMs) {
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_NONE, 100, false, timeMs);
+  }
+
+  @Test
+  public void startsAtTheFullPipeline() {
+    cool(0);
+    assertEquals("full", governor.getTier().name);
+    assertTrue(transitions.isEmpty());
+  }
+
+  @Test
+  public void restrictsAtOnce() {
+    cool(0);
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_SEVERE, 100, false, SECOND_MS);
+    assertEquals("critical", governor.getTier().name);
+    assertEquals(1, transitions.size());
+  }
+
+  @Test
+  public void relaxesOneTierPerDwell() {
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_SEVERE, 100, false, 0);
+    long t = SECOND_MS;
+    cool(t);
+    cool(t + PipelineGovernor.RECOVERY_DWELL_MS - 1);
+    assertEquals("critical", governor.getTier().name);
+    cool(t + PipelineGovernor.RECOVERY_DWELL_MS);
+    assertEquals("hot", governor.getTier().name);
+    cool(t + 2 * PipelineGovernor.RECOVERY_DWELL_MS);
+    assertEquals("warm", governor.getTier().name);
+    cool(t + 3 * PipelineGovernor.RECOVERY_DWELL_MS);
+    assertEquals("full", governor.getTier().name);
+    assertEquals("[critical, hot, warm, full]", transitions.toString());
+  }
+
+  @Test
+  public void doesNotRelaxWhileTheTargetComesBack() {
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_MODERATE, 100, false, 0);
+    long dwell = PipelineGovernor.RECOVERY_DWELL_MS;
+    // Hovering around the threshold restarts the dwell every time.
+    for (long t = SECOND_MS; t < 5 * dwell; t += dwell / 2) {
+      cool(t);
+      governor.onReading(PipelineGovernor.THERMAL_STATUS_MODERATE, 100, false, t + dwell / 4);
+    }
+    assertEquals("hot", governor.getTier().name);
+    assertEquals(1, transitions.size());
+  }
+
+  @Test
+  public void restrictsOnLowBatteryUnlessCharging() {
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_NONE, 20, false, 0);
+    assertEquals("warm", governor.getTier().name);
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_NONE, 4, false, SECOND_MS);
+    assertEquals("critical", governor.getTier().name);
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_NONE, 4, true, 2 * SECOND_MS);
+    governor.onReading(
+        PipelineGovernor.THERMAL_STATUS_NONE,
+        4,
+        true,
+        2 * SECOND_MS + PipelineGovernor.RECOVERY_DWELL_MS);
+    assertEquals("hot", governor.getTier().name);
+  }
+
+  @Test
+  public void theMostRestrictedTargetWins() {
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_LIGHT, 10, false, 0);
+    assertEquals("hot", governor.getTier().name);
+  }
+
+  @Test
+  public void reportsResidency() {
+    cool(0);
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_SEVERE, 100, false, 10 * SECOND_MS);
+    governor.onReading(PipelineGovernor.THERMAL_STATUS_SEVERE, 100, false, 25 * SECOND_MS);
+    assertEquals(
+        "tier=critical transitions=1 full=10s warm=0s hot=0s critical=15s", governor.toString());
+  }
+}
@@ -0,0 +1,159 @@
+// Copyright 2022 kwikCapture author.
+//
+// Licensed under the Apache License, Version 2.0 (the "License");
+// you may not use this file except in compliance with the License.
+// You may obtain a copy of the License at
+//
+//      http://www.apache.org/licenses/LICENSE-2.0
+//
+// Unless required by applicable law or agreed to in writing, software
+// distributed under the License is distributed on an "AS IS" BASIS,
+// WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+// See the License for the specific language governing permissions and
+// limitations under the License.
+
+
+package com.google.mediapipe.apps.hands;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.util.Arrays;
+import java.util.Random;
+import org.junit.Before;
+import org.junit.Test;
+
+/** Round-trips files through {@link StreamingAead} and checks that damaged ones are refused. */
+public final class StreamingAeadTest {
+  // Small segments, so that a few hundred bytes span several of them.
+  private static final int SEGMENT_SIZE = 64;
+  private static final byte[] ASSOCIATED_DATA = {'f', 'i', 'l', 'e'};
+
+  // Generating RSA keys is slow, so one pair is shared by all tests.
+  private static KeyPair keyPair;
+  private StreamingAead aead;
+
+  @Before
+  public void setUp() throws GeneralSecurityException {
+    if (keyPair == null) {
+      keyPair = generateKeyPair();
+    }
+    aead = new StreamingAead(keyPair.getPublic(), SEGMENT_SIZE);
+  }
+
+  private static KeyPair generateKeyPair() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(StreamingAead.MIN_RSA_KEY_BITS);
+    return generator.generateKeyPair();
+  }
+
+  private static byte[] plaintext(int length) {
+    byte[] bytes = new byte[length];
+    new Random(length).nextBytes(bytes);
+    return bytes;
+  }
+
+  private byte[] encrypt(byte[] plaintext) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (OutputStream encrypting = aead.newEncryptingStream(out, ASSOCIATED_DATA)) {
+      encrypting.write(plaintext);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] decrypt(KeyPair pair, byte[] ciphertext, byte[] associatedData)
+      throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    try (InputStream in =
+        StreamingAead.newDecryptingStream(
+            pair.getPrivate(), new ByteArrayInputStream(ciphertext), associatedData)) {
+      byte[] buffer = new byte[37];
+      int n;
+      while ((n = in.read(buffer)) >= 0) {
+        out.write(buffer, 0, n);
+      }
+    }
+    return out.toByteArray();
+  }
+
+  private static void assertRefused(KeyPair pair, byte[] ciphertext, byte[] associatedData) {
+    try {
+      decrypt(pair, ciphertext, associatedData);
+      fail("Damaged file decrypted");
+    } catch (IOException expected) {
+      // Refused as it should be.
+    }
+  }
+
+  @Test
+  public void roundTripsAcrossSegmentBoundaries() throws IOException {
+    for (int length : new int[] {0, 1, SEGMENT_SIZE - 1, SEGMENT_SIZE, SEGMENT_SIZE + 1, 1000}) {
+      byte[] plaintext = plaintext(length);
+      byte[] ciphertext = encrypt(plaintext);
+      assertEquals(aead.ciphertextLength(length), ciphertext.length);
+      assertArrayEquals(plaintext, decrypt(keyPair, ciphertext, ASSOCIATED_DATA));
+    }
+  }
+
+  @Test
+  public void roundTripsThroughAParsedPublicKey() throws GeneralSecurityException, IOException {
+    aead =
+        new StreamingAead(
+            StreamingAead.parsePublicKey(
+                StreamingAead.encodeHex(keyPair.getPublic().getEncoded())),
+            SEGMENT_SIZE);
+    byte[] plaintext = plaintext(200);
+    assertArrayEquals(plaintext, decrypt(keyPair, encrypt(plaintext), ASSOCIATED_DATA));
+  }
+
+  @Test
+  public void refusesTruncatedFiles() throws IOException {
+    byte[] ciphertext = encrypt(plaintext(3 * SEGMENT_SIZE + 10));
+    // Within the last segment, at a segment boundary, and within the header.
+    for (int cut : new int[] {1, 10 + 16, ciphertext.length - 20}) {
+      assertRefused(keyPair, Arrays.copyOf(ciphertext, ciphertext.length - cut), ASSOCIATED_DATA);
+    }
+  }
+
+  @Test
+  public void refusesTamperedFiles() throws IOException {
+    byte[] ciphertext = encrypt(plaintext(3 * SEGMENT_SIZE));
+    for (int offset = 0; offset < ciphertext.length; offset += 23) {
+      byte[] tampered = ciphertext.clone();
+      tampered[offset] ^= 1;
+      assertRefused(keyPair, tampered, ASSOCIATED_DATA);
+    }
+  }
+
+  @Test
+  public void refusesOtherAssociatedData() throws IOException {
+    assertRefused(keyPair, encrypt(plaintext(100)), new byte[] {'o', 't', 'h', 'e', 'r'});
+  }
+
+  @Test
+  public void refusesOtherPrivateKeys() throws GeneralSecurityException, IOException {
+    assertRefused(generateKeyPair(), encrypt(plaintext(100)), ASSOCIATED_DATA);
+  }
+
+  @Test
+  public void rejectsShortPublicKeys() throws GeneralSecurityException {
+    KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+    generator.initialize(1024);
+    String key = StreamingAead.encodeHex(generator.generateKeyPair().getPublic().getEncoded());
+    try {
+      StreamingAead.parsePublicKey(key);
+      fail("1024-bit key accepted");
+    } catch (GeneralSecurityException expected) {
+      // Too short to wrap session keys with.
+    }
+  }
+}